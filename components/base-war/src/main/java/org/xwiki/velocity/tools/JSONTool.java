@@ -18,6 +18,8 @@
 package org.xwiki.velocity.tools;
 
 import java.beans.Transient;
+import java.io.IOException;
+import java.io.Writer;
 
 import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
@@ -25,8 +27,10 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
 import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
 
@@ -36,6 +40,10 @@
 
 /**
  * Velocity tool to facilitate serialization of Java objects to the JSON format.
+ * <p>
+ * All the instances share the same preconfigured, thread-safe mapper, so that the serializers are built by Jackson
+ * only once per type instead of once per call.
+ * </p>
  *
  * @version $Id$
  * @since 4.0M2
@@ -64,6 +72,19 @@ public boolean hasIgnoreMarker(AnnotatedMember m)
         }
     }
 
+    /** The shared mapper, configured once; mappers are thread-safe once configured. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** The shared writer; writers are immutable and thread-safe. */
+    private static final ObjectWriter WRITER;
+
+    static {
+        MAPPER.setAnnotationIntrospector(CustomAnnotationIntrospector.INTROSPECTOR);
+        // Writers passed to serialize(Object, Writer) belong to the caller, leave them open
+        MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        WRITER = MAPPER.writer();
+    }
+
     /** Logging helper object. */
     private Logger logger = LoggerFactory.getLogger(JSONTool.class);
 
@@ -109,9 +130,7 @@ public String serialize(JSONArray array)
     public String serialize(Object object)
     {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setAnnotationIntrospector(CustomAnnotationIntrospector.INTROSPECTOR);
-            return mapper.writeValueAsString(object);
+            return WRITER.writeValueAsString(object);
         } catch (JsonProcessingException e) {
             this.logger.error("Failed to serialize object to JSON", e);
         }
@@ -119,6 +138,29 @@ public String serialize(Object object)
         return null;
     }
 
+    /**
+     * Serialize a Java object to the JSON format directly into a writer, such as the response writer, without building
+     * the whole JSON as a string first. This is recommended for large payloads:
+     * {@code $jsontool.serialize($data, $response.writer)}. The writer is flushed, but not closed.
+     *
+     * @param object the object to be serialized to the JSON format
+     * @param writer where to write the JSON
+     * @return {@code true} if the object was successfully serialized, {@code false} in case of failure
+     * @see #serialize(Object)
+     * @since 1.3M1
+     */
+    public boolean serialize(Object object, Writer writer)
+    {
+        try {
+            WRITER.writeValue(writer, object);
+            return true;
+        } catch (IOException e) {
+            this.logger.error("Failed to serialize object to JSON", e);
+        }
+
+        return false;
+    }
+
     /**
      * Parse a serialized JSON into a real JSON object. Only valid JSON strings can be parsed, and doesn't support
      * JSONP. If the argument is not valid JSON, then {@code null} is returned.
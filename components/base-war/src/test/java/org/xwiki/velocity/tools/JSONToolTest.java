@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.velocity.tools;
+
+import java.beans.Transient;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link JSONTool} velocity tool.
+ *
+ * @version $Id$
+ */
+public class JSONToolTest
+{
+    private final JSONTool tool = new JSONTool();
+
+    /** A simple bean used for checking the serialization of getters. */
+    public static class MockBean
+    {
+        public boolean isEnabled()
+        {
+            return true;
+        }
+
+        public String getName()
+        {
+            return "XWiki";
+        }
+
+        @Transient
+        public String getHidden()
+        {
+            return "hidden";
+        }
+    }
+
+    @Test
+    public void serializeSimpleValues()
+    {
+        Assert.assertEquals("null", this.tool.serialize((Object) null));
+        Assert.assertEquals("23", this.tool.serialize(23));
+        Assert.assertEquals("13.5", this.tool.serialize(13.5));
+        Assert.assertEquals("true", this.tool.serialize(true));
+        Assert.assertEquals("\"one\\\"two'three\"", this.tool.serialize("one\"two'three"));
+    }
+
+    @Test
+    public void serializeCollections()
+    {
+        Assert.assertEquals("[1,2,3]", this.tool.serialize(Arrays.asList(1, 2, 3)));
+        Assert.assertEquals("[\"a\",\"b\"]", this.tool.serialize(new String[] { "a", "b" }));
+    }
+
+    @Test
+    public void serializeMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("number", 23);
+        map.put("boolean", false);
+        map.put("string", "value");
+        map.put("list", Arrays.asList("x"));
+        Assert.assertEquals("{\"number\":23,\"boolean\":false,\"string\":\"value\",\"list\":[\"x\"]}",
+            this.tool.serialize(map));
+    }
+
+    @Test
+    public void serializeBeanSkipsTransientGetters()
+    {
+        String json = this.tool.serialize(new MockBean());
+        Assert.assertTrue(json.contains("\"enabled\":true"));
+        Assert.assertTrue(json.contains("\"name\":\"XWiki\""));
+        Assert.assertFalse(json.contains("hidden"));
+    }
+
+    @Test
+    public void serializeToWriterProducesSameOutputAndLeavesWriterOpen()
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("bean", new MockBean());
+        map.put("values", Arrays.asList(1, 2));
+
+        final boolean[] closed = new boolean[1];
+        StringWriter writer = new StringWriter()
+        {
+            @Override
+            public void close()
+            {
+                closed[0] = true;
+            }
+        };
+        Assert.assertTrue(this.tool.serialize(map, writer));
+        Assert.assertEquals(this.tool.serialize(map), writer.toString());
+        Assert.assertFalse(closed[0]);
+    }
+}
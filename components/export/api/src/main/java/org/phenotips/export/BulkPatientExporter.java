@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Exports many patients at once in formats meant for automated processing rather than for humans. Patients are
+ * serialized one at a time, using the same JSON serialization as {@code Patient#toJSON}, and written out immediately,
+ * so memory use does not depend on the number of exported patients. The output is compressed with gzip.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface BulkPatientExporter
+{
+    /** Newline-delimited JSON, one patient object per line. */
+    String NDJSON = "ndjson";
+
+    /** Comma separated values, one patient per row, with a header row. */
+    String CSV = "csv";
+
+    /**
+     * Export patients, on behalf of the current user.
+     *
+     * @param patientIds the identifiers of the patients to export; patients which don't exist or that the current user
+     *            cannot view are skipped
+     * @param fields the names of the fields to include, {@code null} to include all the fields
+     * @param format the output format, one of {@link #NDJSON} or {@link #CSV}
+     * @param output where to write the gzip-compressed export; the stream is not closed
+     * @return the number of exported patients
+     * @throws IOException if writing to the output fails
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    int export(Collection<String> patientIds, Collection<String> fields, String format, OutputStream output)
+        throws IOException;
+}
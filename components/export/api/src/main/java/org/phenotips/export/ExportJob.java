@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.File;
+
+/**
+ * A spreadsheet export running in the background, see {@link ExportJobManager}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface ExportJob
+{
+    /** The possible states of an export job. */
+    enum State
+    {
+        /** Waiting for previous exports to finish. */
+        QUEUED,
+        /** The export is being generated. */
+        RUNNING,
+        /** The export is finished and can be downloaded. */
+        FINISHED,
+        /** The export failed, and no file is available. */
+        FAILED
+    }
+
+    /**
+     * The identifier of this job, used for checking its status and downloading the result.
+     *
+     * @return an opaque identifier
+     */
+    String getId();
+
+    /**
+     * The current state of this job.
+     *
+     * @return the state
+     */
+    State getState();
+
+    /**
+     * The total number of patients requested for export.
+     *
+     * @return a positive number
+     */
+    int getTotal();
+
+    /**
+     * The number of patients already processed.
+     *
+     * @return a number between {@code 0} and {@link #getTotal()}
+     */
+    int getProcessed();
+
+    /**
+     * The generated spreadsheet.
+     *
+     * @return the {@code .xlsx} file, or {@code null} if the job is not {@link State#FINISHED finished}
+     */
+    File getFile();
+}
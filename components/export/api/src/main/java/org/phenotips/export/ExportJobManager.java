@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+
+/**
+ * Runs spreadsheet exports in the background, outside the request which requested them. Patients are loaded only when
+ * the job runs, and the result is kept in a temporary file for a limited time, so that it can be downloaded, even
+ * several times or in parts, without generating the export again.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface ExportJobManager
+{
+    /**
+     * Queue a new export, on behalf of the current user.
+     *
+     * @param patientIds the identifiers of the patients to export; patients that the current user cannot view are
+     *            skipped
+     * @param enabledFields a list of field names to export
+     * @return the new job
+     */
+    ExportJob submit(Collection<String> patientIds, String[] enabledFields);
+
+    /**
+     * Retrieve an export job. Only the user who submitted a job can access it.
+     *
+     * @param jobId the identifier of the job, as returned by {@link ExportJob#getId()}
+     * @return the job, or {@code null} if no such job exists, if it has expired, or if it belongs to another user
+     */
+    ExportJob getJob(String jobId);
+}
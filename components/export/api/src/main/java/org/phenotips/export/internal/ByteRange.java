@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single byte range requested through the HTTP {@code Range} header. Only single ranges are supported; requests for
+ * multiple ranges are answered with the full content, as allowed by the HTTP specification.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public final class ByteRange
+{
+    private static final String BYTES_UNIT = "bytes";
+
+    private static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    /** The first byte in the range, inclusive. */
+    private final long start;
+
+    /** The last byte in the range, inclusive. */
+    private final long end;
+
+    private ByteRange(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a {@code Range} header.
+     *
+     * @param header the value of the header, may be {@code null}
+     * @param length the total length of the content
+     * @return the requested range, an {@link #isSatisfiable() unsatisfiable} range if the requested range is outside
+     *         the content, or {@code null} if the whole content should be sent
+     */
+    public static ByteRange parse(String header, long length)
+    {
+        if (StringUtils.isBlank(header) || !header.trim().startsWith(BYTES_UNIT + '=') || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = StringUtils.substringAfter(header, "=").trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (dash == 0) {
+                // Suffix range, the last N bytes
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash).trim());
+                String lastSpec = spec.substring(dash + 1).trim();
+                last = lastSpec.isEmpty() ? length - 1 : Math.min(Long.parseLong(lastSpec), length - 1);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (first >= length || first > last) {
+            return UNSATISFIABLE;
+        }
+        return new ByteRange(first, last);
+    }
+
+    /**
+     * Whether the range can be served.
+     *
+     * @return {@code false} if the requested range is outside the content
+     */
+    public boolean isSatisfiable()
+    {
+        return this.start >= 0;
+    }
+
+    /**
+     * The first byte in the range.
+     *
+     * @return a position in the content, inclusive
+     */
+    public long getStart()
+    {
+        return this.start;
+    }
+
+    /**
+     * The last byte in the range.
+     *
+     * @return a position in the content, inclusive
+     */
+    public long getEnd()
+    {
+        return this.end;
+    }
+
+    /**
+     * The number of bytes in the range.
+     *
+     * @return a positive number
+     */
+    public long getLength()
+    {
+        return this.end - this.start + 1;
+    }
+
+    /**
+     * The value of the {@code Content-Range} header for this range.
+     *
+     * @param length the total length of the content
+     * @return the header value
+     */
+    public String toContentRange(long length)
+    {
+        if (!isSatisfiable()) {
+            return BYTES_UNIT + " */" + length;
+        }
+        return BYTES_UNIT + ' ' + this.start + '-' + this.end + '/' + length;
+    }
+}
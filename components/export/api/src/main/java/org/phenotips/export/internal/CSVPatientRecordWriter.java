@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes patients as CSV, one row per patient. Each top level key of the patient JSON becomes a column, and nested
+ * objects and arrays are written as compact JSON in their cell. Serializers omit empty values, so patients can have
+ * different keys. The columns are therefore all the keys found in any patient, in alphabetical order. They are only
+ * known once every patient has been seen, so patients are buffered as JSON lines in a temporary file, and the CSV is
+ * written when {@link #flush()} is called.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class CSVPatientRecordWriter implements PatientRecordWriter
+{
+    private static final String ENCODING = "UTF-8";
+
+    private final Writer out;
+
+    private final Set<String> columns = new TreeSet<>();
+
+    private File buffer;
+
+    private Writer bufferWriter;
+
+    /**
+     * Simple constructor.
+     *
+     * @param out where to write the patients
+     */
+    public CSVPatientRecordWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void write(JSONObject patient) throws IOException
+    {
+        if (this.bufferWriter == null) {
+            this.buffer = File.createTempFile("phenotips-export-", ".ndjson");
+            this.bufferWriter =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.buffer), ENCODING));
+        }
+        this.columns.addAll(patient.keySet());
+        patient.write(this.bufferWriter);
+        this.bufferWriter.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (this.bufferWriter == null) {
+            this.out.flush();
+            return;
+        }
+        this.bufferWriter.close();
+        this.bufferWriter = null;
+        CSVPrinter printer =
+            new CSVPrinter(this.out, CSVFormat.RFC4180.withHeader(this.columns.toArray(new String[0])));
+        try (BufferedReader patients =
+            new BufferedReader(new InputStreamReader(new FileInputStream(this.buffer), ENCODING))) {
+            String line;
+            while ((line = patients.readLine()) != null) {
+                JSONObject patient = new JSONObject(line);
+                List<String> row = new ArrayList<>(this.columns.size());
+                for (String column : this.columns) {
+                    row.add(toCell(patient.opt(column)));
+                }
+                printer.printRecord(row);
+            }
+        } finally {
+            close();
+        }
+        printer.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.bufferWriter != null) {
+            this.bufferWriter.close();
+            this.bufferWriter = null;
+        }
+        if (this.buffer != null) {
+            if (!this.buffer.delete()) {
+                this.buffer.deleteOnExit();
+            }
+            this.buffer = null;
+        }
+    }
+
+    private String toCell(Object value)
+    {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return "";
+        }
+        if (value instanceof JSONObject || value instanceof JSONArray) {
+            return value.toString();
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Builds the value of the HTTP {@code Content-Disposition} header for downloads. The file name is sent both as a quoted
+ * {@code filename} parameter, restricted to printable ASCII characters for older browsers, and as an RFC 5987
+ * {@code filename*} parameter holding the full UTF-8 name, which takes precedence in browsers that support it.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public final class ContentDisposition
+{
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    /** The characters allowed unencoded in an RFC 5987 value, besides letters and digits. */
+    private static final String ATTR_CHARS = "!#$&+-.^_`|~";
+
+    private ContentDisposition()
+    {
+        // Utility class, not to be instantiated
+    }
+
+    /**
+     * Builds an {@code attachment} disposition.
+     *
+     * @param fileName the name under which the file is offered to the browser, may contain any character
+     * @return the value of the header
+     */
+    public static String attachment(String fileName)
+    {
+        String name = StringUtils.defaultString(fileName);
+        StringBuilder result = new StringBuilder("attachment; filename=\"");
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ' || c > '~') {
+                result.append('_');
+            } else {
+                result.append(c);
+            }
+        }
+        result.append("\"; filename*=UTF-8''");
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            if ((b >= '0' && b <= '9') || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z')
+                || ATTR_CHARS.indexOf(b) >= 0) {
+                result.append((char) b);
+            } else {
+                result.append('%').append(HEX_DIGITS.charAt((b >> 4) & 0xF)).append(HEX_DIGITS.charAt(b & 0xF));
+            }
+        }
+        return result.toString();
+    }
+}
@@ -19,7 +19,9 @@
 
 import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Feature;
+import org.phenotips.tools.PhenotypeCategoryIndex;
 import org.phenotips.tools.PhenotypeMappingService;
+import org.phenotips.tools.PhenotypeSections;
 import org.phenotips.tools.PropertyDisplayer;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
@@ -27,9 +29,12 @@
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.script.service.ScriptService;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -41,7 +46,9 @@
 
 /**
  * Contains supplementary functions to the main conversion functions. It is used as an instance, rather that a
- * collection of static functions.
+ * collection of static functions. Once {@link #featureSetUp(Boolean, Boolean, Boolean) set up}, an instance can be
+ * shared by several threads converting different patients, since the per-patient state is kept separately for each
+ * thread.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -54,6 +61,8 @@
 
     private static final String NA = "N/A";
 
+    private static final String NO_CATEGORY = "No category";
+
     /** Global parameter for whether to include phenotypes with "present" status. */
     private Boolean positive;
 
@@ -66,8 +75,17 @@
     /** The titles of phenotypic categories mapped to a list of HPO ids which represent that category. */
     private Map<String, List<String>> categoryMapping;
 
-    /** Phenotypic feature to phenotypic category section map. Used for sorting features by category. */
-    private Map<String, String> sectionFeatureTree;
+    /** Shared index of the categories of HPO terms, used when available instead of querying the vocabulary. */
+    private PhenotypeCategoryIndex categoryIndex;
+
+    /** The phenotype sections, with the section of each term precomputed by the {@link #categoryIndex}. */
+    private PhenotypeSections sections;
+
+    /**
+     * Phenotypic feature to phenotypic category section map, for the patient currently processed by each thread. Used
+     * for sorting features by category.
+     */
+    private ThreadLocal<Map<String, String>> sectionFeatureTree = new ThreadLocal<Map<String, String>>();
 
     /**
      * Clears the {@link #sectionFeatureTree} and must be called before processing each patient, as each patient has a
@@ -75,7 +93,20 @@
      */
     public void newPatient()
     {
-        this.sectionFeatureTree = new HashMap<String, String>();
+        this.sectionFeatureTree.set(new HashMap<String, String>());
+    }
+
+    /**
+     * Retrieves the categories of several terms at once, so that sorting features by category doesn't have to query
+     * the vocabulary separately for each feature of each patient.
+     *
+     * @param termIds the HPO identifiers of the features that will be exported
+     */
+    public void prefetchCategories(Collection<String> termIds)
+    {
+        if (this.categoryIndex != null) {
+            this.categoryIndex.prefetch(termIds);
+        }
     }
 
     /**
@@ -100,6 +131,13 @@ public void featureSetUp(Boolean positive, Boolean negative, Boolean mapCategori
          * This step is necessary only if {@link #mapCategories} is true. */
         ComponentManager cm = getComponentManager();
         this.ontologyService = cm.getInstance(Vocabulary.class, "hpo");
+        this.categoryIndex = cm.getInstance(PhenotypeCategoryIndex.class);
+        if (this.categoryIndex != null) {
+            this.sections = this.categoryIndex.getSections("phenotype");
+            if (this.sections != null) {
+                return;
+            }
+        }
         PhenotypeMappingService mappingService = cm.getInstance(ScriptService.class, "phenotypeMapping");
         Object mappingObject = mappingService.get("phenotype");
         if (mappingObject instanceof List) {
@@ -182,6 +220,9 @@ public List<Feature> sortFeaturesWithSections(Set<? extends Feature> features)
      */
     private List<Feature> sortFeaturesBySection(List<Feature> features)
     {
+        if (this.sections != null) {
+            return sortFeaturesByIndexedSection(features);
+        }
         List<Feature> sortedFeatures = new LinkedList<Feature>();
 
         Map<String, List<String>> mapping = this.getCategoryMapping();
@@ -198,7 +239,7 @@ private List<Feature> sortFeaturesBySection(List<Feature> features)
                     if (getCategoriesFromOntology(feature.getId()).contains(category)
                         || StringUtils.equals(feature.getId(), category))
                     {
-                        this.sectionFeatureTree.put(feature.getId(), section);
+                        this.sectionFeatureTree.get().put(feature.getId(), section);
                         sortedFeatures.add(feature);
                         iter.remove();
                     }
@@ -206,12 +247,46 @@ private List<Feature> sortFeaturesBySection(List<Feature> features)
             }
         }
         for (Feature feature : features) {
-            this.sectionFeatureTree.put(feature.getId(), "No category");
+            this.sectionFeatureTree.get().put(feature.getId(), NO_CATEGORY);
         }
         sortedFeatures.addAll(features);
         return sortedFeatures;
     }
 
+    /**
+     * Same as {@link #sortFeaturesBySection(java.util.List)}, but looking up the precomputed position of each feature in
+     * the {@link #sections} index instead of matching the feature's categories against the mapping. The features are
+     * listed in the same order, since the position of a feature is the first matching category of the mapping.
+     */
+    private List<Feature> sortFeaturesByIndexedSection(List<Feature> features)
+    {
+        final Map<Feature, Integer> positions = new IdentityHashMap<Feature, Integer>();
+        List<Feature> sortedFeatures = new LinkedList<Feature>();
+        List<Feature> uncategorized = new LinkedList<>();
+        for (Feature feature : features) {
+            int position = this.sections.getPosition(feature.getId());
+            if (position < 0) {
+                this.sectionFeatureTree.get().put(feature.getId(), NO_CATEGORY);
+                uncategorized.add(feature);
+            } else {
+                this.sectionFeatureTree.get().put(feature.getId(), this.sections.getSection(feature.getId()));
+                positions.put(feature, position);
+                sortedFeatures.add(feature);
+            }
+        }
+        /* The sort is stable, so features with the same position keep their relative order */
+        Collections.sort(sortedFeatures, new Comparator<Feature>()
+        {
+            @Override
+            public int compare(Feature o1, Feature o2)
+            {
+                return positions.get(o1).compareTo(positions.get(o2));
+            }
+        });
+        sortedFeatures.addAll(uncategorized);
+        return sortedFeatures;
+    }
+
     /**
      * Filters features based on their prenatal status.
      *
@@ -231,7 +306,8 @@ public Set<Feature> filterFeaturesByPrenatal(Set<? extends Feature> features, Bo
     }
 
     /**
-     * Given an HPO id, finds categories to which the id belongs to.
+     * Given an HPO id, finds categories to which the id belongs to. The categories are looked up in the shared
+     * {@link PhenotypeCategoryIndex} when available, so that they are reused for all the patients.
      *
      * @param value must start with "HP:"
      * @return a list of categories as HPO ids, excluding the passed in id, or an empty list if the categories could not
@@ -243,6 +319,9 @@ private List<String> getCategoriesFromOntology(String value)
         if (!value.startsWith("HP:")) {
             return Collections.emptyList();
         }
+        if (this.categoryIndex != null) {
+            return this.categoryIndex.getCategories(value);
+        }
         VocabularyTerm termObj = this.ontologyService.getTerm(value);
         if (termObj != null && termObj.get(PropertyDisplayer.INDEXED_CATEGORY_KEY) != null
             && List.class.isAssignableFrom(termObj.get(PropertyDisplayer.INDEXED_CATEGORY_KEY).getClass()))
@@ -265,7 +344,7 @@ public Map<String, List<String>> getCategoryMapping()
      */
     public Map<String, String> getSectionFeatureTree()
     {
-        return this.sectionFeatureTree;
+        return this.sectionFeatureTree.get();
     }
 
     /**
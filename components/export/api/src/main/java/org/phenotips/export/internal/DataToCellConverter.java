@@ -27,7 +27,6 @@
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.model.reference.DocumentReference;
 
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -41,6 +40,7 @@
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
 
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.web.Utils;
@@ -49,7 +49,9 @@
  * Each of functions need to be written with certain specification. Body producing functions must return null if they
  * produce no cells, and they must not remove from {@link #enabledHeaderIdsBySection}. If there are cells requested
  * (header present) but there is no data to put inside the cells, do not return null as cell value or no cell at all,
- * return a cell containing an empty string. Otherwise, the header will not be matched with the body.
+ * return a cell containing an empty string. Otherwise, the header will not be matched with the body. Once the setup
+ * and header functions have been called, body producing functions may be called concurrently for different patients,
+ * so they must not modify the state of the converter.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -58,6 +60,9 @@
 {
     private static final String ALLERGIES = "allergies";
 
+    /** Thread-safe formatter for all the dates in the spreadsheet, shared by all the patients. */
+    private static final FastDateFormat DATE_FORMAT = FastDateFormat.getInstance("yyyy.MM.dd");
+
     private Map<String, Set<String>> enabledHeaderIdsBySection = new HashMap<String, Set<String>>();
 
     private ConversionHelpers phenotypeHelper;
@@ -96,6 +101,31 @@ public void phenotypeSetup(Set<String> enabledFields) throws Exception
             .featureSetUp(present.contains("positive"), present.contains("negative"), present.contains("category"));
     }
 
+    /**
+     * Looks up in advance the vocabulary data needed for converting the features of the patients, in as few queries
+     * as possible. Must be called after the setup functions.
+     *
+     * @param patients the patients that will be exported
+     */
+    public void prefetchTerms(List<Patient> patients)
+    {
+        Set<String> termIds = new HashSet<String>();
+        for (Patient patient : patients) {
+            if (patient == null) {
+                continue;
+            }
+            for (Feature feature : patient.getFeatures()) {
+                termIds.add(feature.getId());
+            }
+        }
+        if (this.phenotypeHelper != null) {
+            this.phenotypeHelper.prefetchCategories(termIds);
+        }
+        if (this.prenatalPhenotypeHelper != null) {
+            this.prenatalPhenotypeHelper.prefetchCategories(termIds);
+        }
+    }
+
     public DataSection phenotypeHeader() throws Exception
     {
         String sectionName = "phenotype";
@@ -495,9 +525,8 @@ public DataSection documentInfoBody(Patient patient) throws Exception
             x++;
         }
         if (present.contains("creationDate")) {
-            SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
             Date creationDate = patientDoc.getCreationDate();
-            DataCell cell = new DataCell(format.format(creationDate), x, 0);
+            DataCell cell = new DataCell(DATE_FORMAT.format(creationDate), x, 0);
             bodySection.addCell(cell);
             x++;
         }
@@ -508,9 +537,8 @@ public DataSection documentInfoBody(Patient patient) throws Exception
             x++;
         }
         if (present.contains("date")) {
-            SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
             Date modificationDate = patientDoc.getDate();
-            DataCell cell = new DataCell(format.format(modificationDate), x, 0);
+            DataCell cell = new DataCell(DATE_FORMAT.format(modificationDate), x, 0);
             bodySection.addCell(cell);
             x++;
         }
@@ -582,8 +610,7 @@ public DataSection patientInfoBody(Patient patient)
             Date dob = patient.<Date>getData("dates").get("date_of_birth");
             DataCell cell;
             if (dob != null) {
-                SimpleDateFormat format = new SimpleDateFormat("yyyy.MM.dd");
-                cell = new DataCell(format.format(dob), x, 0);
+                cell = new DataCell(DATE_FORMAT.format(dob), x, 0);
             } else {
                 cell = new DataCell("", x, 0);
             }
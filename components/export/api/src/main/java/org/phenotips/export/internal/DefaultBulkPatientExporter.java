@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.export.BulkPatientExporter;
+
+import org.xwiki.component.annotation.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+
+/**
+ * Default {@link BulkPatientExporter} implementation, streaming patients through {@link Patient#toJSON(Collection)}
+ * into a gzip-compressed {@link NDJSONPatientRecordWriter NDJSON} or {@link CSVPatientRecordWriter CSV} output.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultBulkPatientExporter implements BulkPatientExporter
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Inject
+    private Logger logger;
+
+    /** Checks access rights, so that the export only contains patients that the requester can see. */
+    @Inject
+    @Named("secure")
+    private PatientRepository repository;
+
+    @Override
+    public int export(Collection<String> patientIds, Collection<String> fields, String format, OutputStream output)
+        throws IOException
+    {
+        if (!NDJSON.equals(format) && !CSV.equals(format)) {
+            throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+        GZIPOutputStream compressed = new GZIPOutputStream(new CloseShieldOutputStream(output), BUFFER_SIZE);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(compressed, "UTF-8"), BUFFER_SIZE);
+            PatientRecordWriter writer =
+                CSV.equals(format) ? new CSVPatientRecordWriter(out) : new NDJSONPatientRecordWriter(out)) {
+            int count = 0;
+            for (String id : patientIds) {
+                Patient patient = getPatient(id);
+                if (patient != null) {
+                    writer.write(patient.toJSON(fields));
+                    ++count;
+                }
+            }
+            writer.flush();
+            return count;
+        }
+    }
+
+    private Patient getPatient(String id)
+    {
+        try {
+            return this.repository.getPatientById(id);
+        } catch (SecurityException ex) {
+            this.logger.debug("Skipping inaccessible patient [{}] from the bulk export", id);
+        }
+        return null;
+    }
+}
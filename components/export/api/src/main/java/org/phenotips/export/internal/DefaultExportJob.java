@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.export.ExportJob;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default {@link ExportJob} implementation, holding the state of a job managed by the
+ * {@link DefaultExportJobManager}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultExportJob implements ExportJob
+{
+    private final String id;
+
+    private final DocumentReference owner;
+
+    private final int total;
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private volatile State state = State.QUEUED;
+
+    private volatile File file;
+
+    private volatile long lastChange = System.currentTimeMillis();
+
+    /**
+     * Simple constructor.
+     *
+     * @param id the identifier of the job
+     * @param owner the user who requested the export, {@code null} for guest
+     * @param total the number of patients to export
+     */
+    public DefaultExportJob(String id, DocumentReference owner, int total)
+    {
+        this.id = id;
+        this.owner = owner;
+        this.total = total;
+    }
+
+    @Override
+    public String getId()
+    {
+        return this.id;
+    }
+
+    @Override
+    public State getState()
+    {
+        return this.state;
+    }
+
+    @Override
+    public int getTotal()
+    {
+        return this.total;
+    }
+
+    @Override
+    public int getProcessed()
+    {
+        return Math.min(this.processed.get(), this.total);
+    }
+
+    @Override
+    public File getFile()
+    {
+        return this.state == State.FINISHED ? this.file : null;
+    }
+
+    /**
+     * The user who requested the export.
+     *
+     * @return a reference to the user profile, {@code null} for guest
+     */
+    public DocumentReference getOwner()
+    {
+        return this.owner;
+    }
+
+    /**
+     * The time when the state of the job last changed.
+     *
+     * @return a timestamp, in milliseconds
+     */
+    public long getLastChange()
+    {
+        return this.lastChange;
+    }
+
+    /**
+     * Records that more patients were processed.
+     *
+     * @param count the number of newly processed patients
+     */
+    public void addProcessed(int count)
+    {
+        this.processed.addAndGet(count);
+    }
+
+    /** Marks the job as running. */
+    public void start()
+    {
+        setState(State.RUNNING);
+    }
+
+    /**
+     * Marks the job as finished.
+     *
+     * @param result the generated file
+     */
+    public void finish(File result)
+    {
+        this.file = result;
+        setState(State.FINISHED);
+    }
+
+    /** Marks the job as failed. */
+    public void fail()
+    {
+        this.file = null;
+        setState(State.FAILED);
+    }
+
+    /**
+     * The file where the export is written, regardless of the state of the job.
+     *
+     * @return the file, may be {@code null}
+     */
+    File getTargetFile()
+    {
+        return this.file;
+    }
+
+    private void setState(State newState)
+    {
+        this.state = newState;
+        this.lastChange = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.PatientRepository;
+import org.phenotips.export.ExportJob;
+import org.phenotips.export.ExportJobManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default {@link ExportJobManager} implementation. Jobs are executed one at a time on a background thread, in a copy
+ * of the execution context of the request which submitted them, and their results are stored in the temporary
+ * directory, where they are kept for one hour after the export finishes.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultExportJobManager implements ExportJobManager, Initializable, Disposable
+{
+    /** How long finished jobs and their files are kept, in milliseconds. */
+    private static final long EXPIRATION = 60 * 60 * 1000L;
+
+    @Inject
+    private Logger logger;
+
+    /** Checks access rights, so that the exports only contain patients that the requester can see. */
+    @Inject
+    @Named("secure")
+    private PatientRepository repository;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    @Inject
+    private Environment environment;
+
+    private final ConcurrentMap<String, DefaultExportJob> jobs = new ConcurrentHashMap<String, DefaultExportJob>();
+
+    private ExecutorService executor;
+
+    private File directory;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.directory = new File(this.environment.getTemporaryDirectory(), "phenotips-export");
+        FileUtils.deleteQuietly(this.directory);
+        if (!this.directory.mkdirs()) {
+            throw new InitializationException("Cannot create the export directory " + this.directory);
+        }
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+        FileUtils.deleteQuietly(this.directory);
+    }
+
+    @Override
+    public ExportJob submit(Collection<String> patientIds, final String[] enabledFields)
+    {
+        purgeExpired();
+        final List<String> ids = new ArrayList<String>(patientIds);
+        final DefaultExportJob job =
+            new DefaultExportJob(UUID.randomUUID().toString(), this.bridge.getCurrentUserReference(), ids.size());
+        this.jobs.put(job.getId(), job);
+        try {
+            final ExecutionContext context = this.contextManager.clone(this.execution.getContext());
+            this.executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    execute(job, ids, enabledFields, context);
+                }
+            });
+        } catch (ExecutionContextException ex) {
+            this.logger.error("Failed to prepare the context for export job [{}]: {}", job.getId(), ex.getMessage());
+            job.fail();
+        }
+        return job;
+    }
+
+    @Override
+    public ExportJob getJob(String jobId)
+    {
+        if (jobId == null) {
+            return null;
+        }
+        purgeExpired();
+        DefaultExportJob job = this.jobs.get(jobId);
+        if (job == null || !Objects.equals(job.getOwner(), this.bridge.getCurrentUserReference())) {
+            return null;
+        }
+        return job;
+    }
+
+    private void execute(DefaultExportJob job, List<String> ids, String[] enabledFields, ExecutionContext context)
+    {
+        this.execution.setContext(context);
+        File file = new File(this.directory, job.getId() + ".xlsx");
+        try {
+            job.start();
+            SpreadsheetExporter exporter = new SpreadsheetExporter(job);
+            exporter.export(enabledFields, new PagedPatientList(ids, this.repository),
+                new BufferedOutputStream(new FileOutputStream(file)));
+            job.finish(file);
+            this.logger.debug("Export job [{}] finished", job.getId());
+        } catch (Exception ex) {
+            this.logger.error("Export job [{}] failed: {}", job.getId(), ex.getMessage(), ex);
+            FileUtils.deleteQuietly(file);
+            job.fail();
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    /** Removes the jobs, and their files, which finished more than {@link #EXPIRATION} ago. */
+    private void purgeExpired()
+    {
+        long limit = System.currentTimeMillis() - EXPIRATION;
+        Iterator<DefaultExportJob> it = this.jobs.values().iterator();
+        while (it.hasNext()) {
+            DefaultExportJob job = it.next();
+            ExportJob.State state = job.getState();
+            if ((state == ExportJob.State.FINISHED || state == ExportJob.State.FAILED) && job.getLastChange() < limit) {
+                it.remove();
+                if (job.getTargetFile() != null) {
+                    FileUtils.deleteQuietly(job.getTargetFile());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * The bounded thread pool shared by all the {@link ParallelConverter}s, so that concurrent exports don't multiply the
+ * number of threads. The pool belongs to the component, and its threads are stopped when the component is disposed.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface ExportWorkers
+{
+    /**
+     * Run a task on one of the worker threads.
+     *
+     * @param task the task to run
+     * @param <V> the type of the task result
+     * @return the pending result of the task
+     * @throws java.util.concurrent.RejectedExecutionException if the pool was already shut down
+     */
+    <V> Future<V> submit(Callable<V> task);
+}
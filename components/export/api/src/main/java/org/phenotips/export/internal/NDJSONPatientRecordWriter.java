@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.json.JSONObject;
+
+/**
+ * Writes patients as newline-delimited JSON: each patient is serialized on a single line.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class NDJSONPatientRecordWriter implements PatientRecordWriter
+{
+    private final Writer out;
+
+    /**
+     * Simple constructor.
+     *
+     * @param out where to write the patients
+     */
+    public NDJSONPatientRecordWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void write(JSONObject patient) throws IOException
+    {
+        // JSONObject#write doesn't indent, so line breaks in values are always escaped
+        patient.write(this.out);
+        this.out.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        this.out.flush();
+    }
+
+    @Override
+    public void close()
+    {
+        // Nothing is buffered outside the output, which belongs to the caller
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only list of patients, which loads patients from the repository only when they are accessed, one page at a
+ * time, and keeps only the current page. Patients that cannot be accessed are returned as {@code null}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class PagedPatientList extends AbstractList<Patient>
+{
+    /** The number of patients loaded at once. */
+    private static final int PAGE_SIZE = 50;
+
+    private final List<String> ids;
+
+    private final PatientRepository repository;
+
+    private int pageStart = -1;
+
+    private List<Patient> page;
+
+    /**
+     * Simple constructor.
+     *
+     * @param ids the identifiers of the patients in the list
+     * @param repository the repository used for loading patients
+     */
+    public PagedPatientList(List<String> ids, PatientRepository repository)
+    {
+        this.ids = ids;
+        this.repository = repository;
+    }
+
+    @Override
+    public synchronized Patient get(int index)
+    {
+        if (index < 0 || index >= this.ids.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.ids.size());
+        }
+        if (this.page == null || index < this.pageStart || index >= this.pageStart + this.page.size()) {
+            loadPage(index - index % PAGE_SIZE);
+        }
+        return this.page.get(index - this.pageStart);
+    }
+
+    @Override
+    public int size()
+    {
+        return this.ids.size();
+    }
+
+    private void loadPage(int start)
+    {
+        int end = Math.min(start + PAGE_SIZE, this.ids.size());
+        List<Patient> result = new ArrayList<Patient>(end - start);
+        for (String id : this.ids.subList(start, end)) {
+            Patient patient = null;
+            try {
+                patient = this.repository.getPatientById(id);
+            } catch (SecurityException ex) {
+                // The user doesn't have access to this patient, skip it
+            }
+            result.add(patient);
+        }
+        this.pageStart = start;
+        this.page = result;
+    }
+}
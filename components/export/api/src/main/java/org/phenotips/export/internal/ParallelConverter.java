@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts batches of patients in parallel, returning the results in the same order as the patients. All the
+ * converters share the bounded thread pool of the {@link ExportWorkers} component, so concurrent exports don't multiply
+ * the number of threads. Each worker
+ * needs its own copy of the request context for accessing documents; these copies are cloned once, on first use, and
+ * are reused for all the following batches.
+ *
+ * @param <T> the type of the conversion results
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class ParallelConverter<T>
+{
+    /**
+     * The conversion applied to each patient.
+     *
+     * @param <R> the type of the conversion result
+     */
+    public interface Conversion<R>
+    {
+        /**
+         * Converts one patient. This may be called concurrently from several threads, for different patients.
+         *
+         * @param patient the patient to convert, not {@code null}
+         * @return the conversion result
+         * @throws Exception if the conversion fails, in which case the whole batch fails
+         */
+        R convert(Patient patient) throws Exception;
+    }
+
+    /** The maximum number of threads converting patients at the same time. */
+    static final int MAX_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private final Conversion<T> conversion;
+
+    private final Execution execution;
+
+    private final ExecutionContextManager contextManager;
+
+    private final ExportWorkers workers;
+
+    /** The copies of the request context, one for each worker. */
+    private final List<ExecutionContext> contexts = new ArrayList<ExecutionContext>();
+
+    /**
+     * Simple constructor.
+     *
+     * @param conversion the conversion to apply to each patient
+     * @param cm the component manager used for accessing the execution context and the worker threads; if
+     *            {@code null}, or if the execution context cannot be cloned, patients are converted sequentially on the
+     *            calling thread
+     * @throws ComponentLookupException if the execution components cannot be accessed
+     */
+    public ParallelConverter(Conversion<T> conversion, ComponentManager cm) throws ComponentLookupException
+    {
+        this.conversion = conversion;
+        if (MAX_THREADS > 1 && cm != null && cm.hasComponent(ExecutionContextManager.class)
+            && cm.hasComponent(ExportWorkers.class)) {
+            this.execution = cm.getInstance(Execution.class);
+            this.contextManager = cm.getInstance(ExecutionContextManager.class);
+            this.workers = cm.getInstance(ExportWorkers.class);
+        } else {
+            this.execution = null;
+            this.contextManager = null;
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Converts a batch of patients.
+     *
+     * @param patients the patients to convert, must not contain {@code null} values
+     * @return the conversion results, in the same order as the patients
+     * @throws Exception if converting any of the patients fails
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> convert(final List<Patient> patients) throws Exception
+    {
+        int threads = Math.min(MAX_THREADS, patients.size());
+        if (this.contextManager == null || threads < 2) {
+            List<T> results = new ArrayList<T>(patients.size());
+            for (Patient patient : patients) {
+                results.add(this.conversion.convert(patient));
+            }
+            return results;
+        }
+
+        final Object[] results = new Object[patients.size()];
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> running = new ArrayList<Future<Void>>(threads);
+        for (int i = 0; i < threads; ++i) {
+            final ExecutionContext context = getContext(i);
+            running.add(this.workers.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    ParallelConverter.this.execution.setContext(context);
+                    try {
+                        for (int index = next.getAndIncrement(); index < results.length;
+                            index = next.getAndIncrement()) {
+                            results[index] = ParallelConverter.this.conversion.convert(patients.get(index));
+                        }
+                    } finally {
+                        ParallelConverter.this.execution.removeContext();
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> worker : running) {
+                waitFor(worker);
+            }
+        } catch (Exception ex) {
+            /* Stop the other workers after their current patient */
+            next.set(results.length);
+            throw ex;
+        }
+        return (List<T>) Arrays.asList(results);
+    }
+
+    private ExecutionContext getContext(int worker) throws Exception
+    {
+        if (worker >= this.contexts.size()) {
+            this.contexts.add(this.contextManager.clone(this.execution.getContext()));
+        }
+        return this.contexts.get(worker);
+    }
+
+    private void waitFor(Future<Void> worker) throws Exception
+    {
+        try {
+            worker.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+}
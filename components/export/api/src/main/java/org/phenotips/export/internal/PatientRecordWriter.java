@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.json.JSONObject;
+
+/**
+ * Writes serialized patients to an output, one at a time.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public interface PatientRecordWriter extends Closeable
+{
+    /**
+     * Write one patient.
+     *
+     * @param patient the patient, as serialized by {@code Patient#toJSON}
+     * @throws IOException if writing fails
+     */
+    void write(JSONObject patient) throws IOException;
+
+    /**
+     * Write any buffered data. The underlying output is not closed.
+     *
+     * @throws IOException if writing fails
+     */
+    void flush() throws IOException;
+
+    /**
+     * Release any temporary resources held by this writer. The underlying output is not closed.
+     *
+     * @throws IOException if releasing resources fails
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -17,8 +17,10 @@
  */
 package org.phenotips.export.internal;
 
+import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Patient;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -33,6 +35,9 @@
  */
 public class SheetAssembler
 {
+    /** The number of patients read and converted at once. */
+    private static final int BATCH_SIZE = 50;
+
     /** The global section meant to eventually contain all {@link org.phenotips.export.internal.DataCell}s. */
     private DataSection oneSection = new DataSection();
 
@@ -48,6 +53,19 @@
      * @throws java.lang.Exception half of the functions used throw exceptions
      */
     public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws Exception
+    {
+        this(enabledFields, patients, null);
+    }
+
+    /**
+     * Same as {@link #SheetAssembler(Set, List)}, also reporting the progress to a background export job.
+     *
+     * @param enabledFields set of fields for which data should be exported
+     * @param patients list of patients from whom data should exported
+     * @param job the job to notify as patients are converted, may be {@code null}
+     * @throws java.lang.Exception half of the functions used throw exceptions
+     */
+    public SheetAssembler(Set<String> enabledFields, List<Patient> patients, DefaultExportJob job) throws Exception
     {
         DataToCellConverter converter = new DataToCellConverter();
 
@@ -58,7 +76,7 @@ public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws
 
         /* Headers MUST be generated first. Some of them contain setup code for the body */
         List<DataSection> headers = generateHeader(converter, enabledFields);
-        List<List<DataSection>> bodySections = generateBody(converter, patients);
+        List<List<DataSection>> bodySections = generateBody(converter, patients, job);
 
         List<DataSection> patientsCombined = new LinkedList<DataSection>();
         for (List<DataSection> patientSections : bodySections) {
@@ -96,48 +114,92 @@ public SheetAssembler(Set<String> enabledFields, List<Patient> patients) throws
     }
 
     /**
-     * Instruction list of which {@link org.phenotips.export.internal.DataToCellConverter}'s functions to call with a
-     * null {@link org.phenotips.export.internal.DataSection} filter.
+     * Converts the patients into body sections. The patients are read in a single pass, in batches of
+     * {@link #BATCH_SIZE}, so that only one batch of patients is kept in memory at a time. The vocabulary terms needed
+     * by each batch are prefetched together, then the patients of the batch are converted in parallel, but the
+     * sections are returned in the same order as the patients.
      *
-     * @return list of generated, not null {@link org.phenotips.export.internal.DataSection}s
+     * @param job the job to notify after each converted batch, may be {@code null}
+     * @return list of generated, not null {@link org.phenotips.export.internal.DataSection}s, for each patient
      */
-    private List<List<DataSection>> generateBody(DataToCellConverter converter, List<Patient> patients)
-        throws Exception
+    private List<List<DataSection>> generateBody(final DataToCellConverter converter, List<Patient> patients,
+        DefaultExportJob job) throws Exception
     {
-        List<List<DataSection>> allSections = new LinkedList<List<DataSection>>();
+        ParallelConverter<List<DataSection>> parallelConverter =
+            new ParallelConverter<List<DataSection>>(new ParallelConverter.Conversion<List<DataSection>>()
+            {
+                @Override
+                public List<DataSection> convert(Patient patient) throws Exception
+                {
+                    return generatePatientBody(converter, patient);
+                }
+            }, ComponentManagerRegistry.getContextComponentManager());
+        List<List<DataSection>> allSections = new ArrayList<List<DataSection>>(patients.size());
+        List<Patient> batch = new ArrayList<Patient>(BATCH_SIZE);
+        /* Inaccessible patients are skipped, but they still count as processed */
+        int read = 0;
         for (Patient patient : patients) {
-            if (patient == null) {
-                continue;
+            ++read;
+            if (patient != null) {
+                batch.add(patient);
             }
-            List<DataSection> patientSections = new LinkedList<DataSection>();
-            patientSections.add(converter.idBody(patient));
-            patientSections.add(converter.documentInfoBody(patient));
-            patientSections.add(converter.patientInfoBody(patient));
-            patientSections.add(converter.familyHistoryBody(patient));
-            patientSections.add(converter.prenatalPerinatalHistoryBody(patient));
-            patientSections.add(converter.prenatalPhenotypeBody(patient));
-            patientSections.add(converter.medicalHistoryBody(patient));
-            patientSections.add(converter.isNormalBody(patient));
-            patientSections.add(converter.phenotypeBody(patient));
-            patientSections.add(converter.genesBody(patient));
-            patientSections.add(converter.disordersBody(patient));
-            patientSections.add(converter.isSolvedBody(patient));
-
-            /* Null section filter */
-            Iterator<DataSection> it = patientSections.iterator();
-            while (it.hasNext()) {
-                DataSection i = it.next();
-                if (i == null) {
-                    it.remove();
-                }
+            if (batch.size() == BATCH_SIZE) {
+                allSections.addAll(convertBatch(converter, parallelConverter, batch, read, job));
+                batch.clear();
+                read = 0;
             }
-            allSections.add(patientSections);
         }
+        allSections.addAll(convertBatch(converter, parallelConverter, batch, read, job));
         return allSections;
     }
 
+    private List<List<DataSection>> convertBatch(DataToCellConverter converter,
+        ParallelConverter<List<DataSection>> parallelConverter, List<Patient> batch, int read, DefaultExportJob job)
+        throws Exception
+    {
+        converter.prefetchTerms(batch);
+        List<List<DataSection>> result = parallelConverter.convert(batch);
+        if (job != null) {
+            job.addProcessed(read);
+        }
+        return result;
+    }
+
+    /**
+     * Instruction list of which {@link org.phenotips.export.internal.DataToCellConverter}'s functions to call with a
+     * null {@link org.phenotips.export.internal.DataSection} filter.
+     *
+     * @return list of generated, not null {@link org.phenotips.export.internal.DataSection}s
+     */
+    private List<DataSection> generatePatientBody(DataToCellConverter converter, Patient patient) throws Exception
+    {
+        List<DataSection> patientSections = new LinkedList<DataSection>();
+        patientSections.add(converter.idBody(patient));
+        patientSections.add(converter.documentInfoBody(patient));
+        patientSections.add(converter.patientInfoBody(patient));
+        patientSections.add(converter.familyHistoryBody(patient));
+        patientSections.add(converter.prenatalPerinatalHistoryBody(patient));
+        patientSections.add(converter.prenatalPhenotypeBody(patient));
+        patientSections.add(converter.medicalHistoryBody(patient));
+        patientSections.add(converter.isNormalBody(patient));
+        patientSections.add(converter.phenotypeBody(patient));
+        patientSections.add(converter.genesBody(patient));
+        patientSections.add(converter.disordersBody(patient));
+        patientSections.add(converter.isSolvedBody(patient));
+
+        /* Null section filter */
+        Iterator<DataSection> it = patientSections.iterator();
+        while (it.hasNext()) {
+            DataSection i = it.next();
+            if (i == null) {
+                it.remove();
+            }
+        }
+        return patientSections;
+    }
+
     /**
-     * Same as {@link #generateBody(DataToCellConverter, java.util.List)} but for header sections. Most of header
+     * Same as {@link #generatePatientBody(DataToCellConverter, Patient)} but for header sections. Most of header
      * functions from {@link org.phenotips.export.internal.DataToCellConverter} contain some set up code.
      */
     private List<DataSection> generateHeader(DataToCellConverter converter, Set<String> enabledFields) throws Exception
@@ -52,6 +52,25 @@
      */
     protected Map<String, Sheet> sheets = new HashMap<String, Sheet>();
 
+    /** The background job to notify of the progress, may be {@code null}. */
+    private final DefaultExportJob job;
+
+    /** Default constructor, for exports which don't report their progress. */
+    public SpreadsheetExporter()
+    {
+        this(null);
+    }
+
+    /**
+     * Constructor for exports running as a background job.
+     *
+     * @param job the job to notify as patients are converted, may be {@code null}
+     */
+    public SpreadsheetExporter(DefaultExportJob job)
+    {
+        this.job = job;
+    }
+
     /**
      * For the list of patients, completes an export limited by the list of fields that are requested, and writes the
      * result to the output stream.
@@ -110,7 +129,7 @@ protected void freezeHeader(Short height, Sheet sheet)
     protected SheetAssembler runAssembler(Set<String> enabledFields, List<Patient> patients)
         throws Exception
     {
-        return new SheetAssembler(enabledFields, patients);
+        return new SheetAssembler(enabledFields, patients, this.job);
     }
 
     /**
@@ -123,6 +142,7 @@ protected void commit(DataSection section, Sheet sheet)
     {
         DataCell[][] cells = section.getMatrix();
         Styler styler = new Styler();
+        styler.prepare(section, this.wBook);
 
         commitRows(section, sheet, styler);
 
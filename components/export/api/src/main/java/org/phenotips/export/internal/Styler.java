@@ -19,6 +19,7 @@
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,14 +48,27 @@
 {
     private static final String NO_MATRIX_ERR_MSG = "The section has not been converted to a matrix";
 
+    private static final String DEFAULT_FONT = "default";
+
+    private static final String HEADER_FONT = "header";
+
+    private static final String LARGE_HEADER_FONT = "largeHeader";
+
+    private static final String YES_FONT = "yes";
+
+    private static final String NO_FONT = "no";
+
     /**
-     * The {@link org.apache.poi.ss.usermodel.Workbook} can have only a limited number of styles. The cache prevents
-     * creation of duplicates.
+     * The {@link org.apache.poi.ss.usermodel.Workbook} can have only a limited number of styles. The cache holds
+     * exactly one style for each combination of style options, keyed by immutable copies of the cells' style sets.
      */
     private Map<Set<StyleOption>, CellStyle> styleCache = new HashMap<Set<StyleOption>, CellStyle>();
 
-    /** Cached font. */
-    private Font defaultFont;
+    /** Fonts are also limited, so each distinct font is created only once. */
+    private Map<String, Font> fontCache = new HashMap<String, Font>();
+
+    /** The workbook in which the cached styles and fonts were created. */
+    private Workbook workbook;
 
     /**
      * In some corner cases, some styles should be removed from cells to prevent conflicts with styles in other cells.
@@ -249,6 +263,30 @@ public static void extendStyleVertically(DataSection section, StyleOption... sty
         }
     }
 
+    /**
+     * Creates the styles for all the combinations of style options used in a section, so that committing the cells only
+     * has to look up existing styles.
+     *
+     * @param section the section whose cells will be styled, should be {@link DataSection#finalizeToMatrix()
+     *            finalized}
+     * @param wBook the workbook in which the cells will be written
+     */
+    public void prepare(DataSection section, Workbook wBook)
+    {
+        DataCell[][] cellMatrix = section.getMatrix();
+        if (cellMatrix == null || wBook == null) {
+            return;
+        }
+        for (int x = 0; x <= section.getMaxX(); x++) {
+            for (int y = 0; y <= section.getMaxY(); y++) {
+                DataCell cell = cellMatrix[x][y];
+                if (cell != null) {
+                    getStyle(cell.getStyles(), wBook);
+                }
+            }
+        }
+    }
+
     /**
      * Translates the internal styling into styling that {@link org.apache.poi.ss.usermodel.Workbook} can use.
      *
@@ -258,87 +296,68 @@ public static void extendStyleVertically(DataSection section, StyleOption... sty
      */
     public void style(DataCell dataCell, Cell cell, Workbook wBook)
     {
-        Set<StyleOption> styles = dataCell.getStyles();
-        CellStyle cellStyle = wBook.createCellStyle();
-        /* For \n to work properly set to true */
-        cellStyle.setWrapText(true);
-        if (this.defaultFont == null) {
-            this.defaultFont = createDefaultFont(wBook);
-        }
-        cellStyle.setFont(this.defaultFont);
-        cellStyle.setVerticalAlignment(CellStyle.VERTICAL_TOP);
-
-        /* If the DataCell's styles is not set, gives default style, and indicates that this function should return. */
-        if (this.setDefaultStyle(styles, cell, cellStyle)) {
-            return;
-        }
-        if (this.styleCache.containsKey(styles)) {
-            cell.setCellStyle(this.styleCache.get(styles));
-            return;
-        }
-
-        /* Priority of styles can be coded in by placing the if statement lower within the corresponding function. */
-        this.setFontStyles(styles, cell, cellStyle, wBook);
-        this.setBorderStyles(styles, cell, cellStyle, wBook);
-
-        /* Keep this as the last statement. */
-        this.styleCache.put(styles, cellStyle);
+        cell.setCellStyle(getStyle(dataCell.getStyles(), wBook));
     }
 
     /**
-     * In case a {@link org.phenotips.export.internal.DataCell} does not have its styles set, applies the default
-     * style.
+     * Returns the style corresponding to a combination of style options, creating it the first time it is needed.
+     *
+     * @param styles the style options, may be {@code null}
+     * @param wBook the workbook in which the style is used
+     * @return the cell style
      */
-    private boolean setDefaultStyle(Set<StyleOption> styles, Cell cell, CellStyle cellStyle)
+    private CellStyle getStyle(Set<StyleOption> styles, Workbook wBook)
     {
-        if (styles == null) {
-            if (this.styleCache.containsKey(Collections.<StyleOption>emptySet())) {
-                cell.setCellStyle(this.styleCache.get(Collections.<StyleOption>emptySet()));
-                return true;
-            }
-            cell.setCellStyle(cellStyle);
-            this.styleCache.put(Collections.<StyleOption>emptySet(), cellStyle);
-            return true;
+        if (this.workbook != wBook) {
+            /* Styles can't be shared between workbooks */
+            this.styleCache.clear();
+            this.fontCache.clear();
+            this.workbook = wBook;
+        }
+        Set<StyleOption> key = Collections.<StyleOption>emptySet();
+        if (styles != null && !styles.isEmpty()) {
+            key = Collections.unmodifiableSet(EnumSet.copyOf(styles));
+        }
+        CellStyle cellStyle = this.styleCache.get(key);
+        if (cellStyle == null) {
+            cellStyle = createStyle(key, wBook);
+            this.styleCache.put(key, cellStyle);
         }
-        return false;
+        return cellStyle;
+    }
+
+    private CellStyle createStyle(Set<StyleOption> styles, Workbook wBook)
+    {
+        CellStyle cellStyle = wBook.createCellStyle();
+        /* For \n to work properly set to true */
+        cellStyle.setWrapText(true);
+        cellStyle.setFont(getFont(DEFAULT_FONT, wBook));
+        cellStyle.setVerticalAlignment(CellStyle.VERTICAL_TOP);
+
+        /* Priority of styles can be coded in by placing the if statement lower within the corresponding function. */
+        this.setFontStyles(styles, cellStyle, wBook);
+        this.setBorderStyles(styles, cellStyle);
+        return cellStyle;
     }
 
     /**
-     * Creates new {@link org.apache.poi.ss.usermodel.Font}s. Priority can be coded in by placing the if statement
-     * lower, for higher priority.
+     * Sets the fonts of the style. Priority can be coded in by placing the if statement lower, for higher priority.
      */
-    private void setFontStyles(Set<StyleOption> styles, Cell cell, CellStyle cellStyle, Workbook wBook)
+    private void setFontStyles(Set<StyleOption> styles, CellStyle cellStyle, Workbook wBook)
     {
-        Font headerFont = null;
         if (styles.contains(StyleOption.HEADER)) {
-            headerFont = wBook.createFont();
-            headerFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
-            cellStyle.setFont(headerFont);
+            cellStyle.setFont(getFont(HEADER_FONT, wBook));
             cellStyle.setAlignment(CellStyle.ALIGN_CENTER);
             cellStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.LARGE_HEADER)) {
-            if (headerFont == null) {
-                headerFont = wBook.createFont();
-                headerFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
-            }
-            headerFont.setFontHeightInPoints((short) 12);
-            cellStyle.setFont(headerFont);
-            cell.setCellStyle(cellStyle);
+            cellStyle.setFont(getFont(LARGE_HEADER_FONT, wBook));
         }
         if (styles.contains(StyleOption.YES)) {
-            Font font = createDefaultFont(wBook);
-            font.setColor(HSSFColor.GREEN.index);
-            cellStyle.setFont(font);
-            cell.setCellStyle(cellStyle);
+            cellStyle.setFont(getFont(YES_FONT, wBook));
         }
         if (styles.contains(StyleOption.NO)) {
-            Font font = createDefaultFont(wBook);
-            font.setColor(HSSFColor.DARK_RED.index);
-            font.setBoldweight(Font.BOLDWEIGHT_BOLD);
-            cellStyle.setFont(font);
-            cell.setCellStyle(cellStyle);
+            cellStyle.setFont(getFont(NO_FONT, wBook));
         }
     }
 
@@ -346,36 +365,58 @@ private void setFontStyles(Set<StyleOption> styles, Cell cell, CellStyle cellSty
      * Converts {@link org.phenotips.export.internal.StyleOption} enum to {@link org.apache.poi.ss.usermodel.CellStyle}
      * enum. Priority can be coded in by placing the if statement lower, for higher priority.
      */
-    private void setBorderStyles(Set<StyleOption> styles, Cell cell, CellStyle cellStyle, Workbook wBook)
+    private void setBorderStyles(Set<StyleOption> styles, CellStyle cellStyle)
     {
         if (styles.contains(StyleOption.HEADER_BOTTOM)) {
             cellStyle.setBorderBottom(CellStyle.BORDER_MEDIUM);
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.SECTION_BORDER_LEFT)) {
             cellStyle.setBorderLeft(CellStyle.BORDER_MEDIUM);
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.SECTION_BORDER_RIGHT)) {
             cellStyle.setBorderRight(CellStyle.BORDER_MEDIUM);
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.PATIENT_BORDER)) {
             cellStyle.setBorderBottom(CellStyle.BORDER_THIN);
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.FEATURE_SEPARATOR)) {
             cellStyle.setBorderTop(CellStyle.BORDER_THIN);
             cellStyle.setTopBorderColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            cell.setCellStyle(cellStyle);
         }
         if (styles.contains(StyleOption.YES_NO_SEPARATOR)) {
             cellStyle.setBorderTop(CellStyle.BORDER_DASHED);
             cellStyle.setTopBorderColor(IndexedColors.GREY_50_PERCENT.getIndex());
-            cell.setCellStyle(cellStyle);
         }
     }
 
+    /**
+     * Returns one of the fonts used in the spreadsheet, creating it the first time it is needed.
+     */
+    private Font getFont(String name, Workbook wBook)
+    {
+        Font font = this.fontCache.get(name);
+        if (font != null) {
+            return font;
+        }
+        if (HEADER_FONT.equals(name) || LARGE_HEADER_FONT.equals(name)) {
+            font = wBook.createFont();
+            font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+            if (LARGE_HEADER_FONT.equals(name)) {
+                font.setFontHeightInPoints((short) 12);
+            }
+        } else {
+            font = createDefaultFont(wBook);
+            if (YES_FONT.equals(name)) {
+                font.setColor(HSSFColor.GREEN.index);
+            } else if (NO_FONT.equals(name)) {
+                font.setColor(HSSFColor.DARK_RED.index);
+                font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+            }
+        }
+        this.fontCache.put(name, font);
+        return font;
+    }
+
     private Font createDefaultFont(Workbook wBook)
     {
         Font font = wBook.createFont();
@@ -0,0 +1,74 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.script;
+
+import org.phenotips.export.BulkPatientExporter;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.stability.Unstable;
+
+import java.io.OutputStream;
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Service for exporting many patients at once as gzip-compressed CSV or newline-delimited JSON, for consumption by
+ * analysis tools.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Component
+@Named("bulkexport")
+@Singleton
+public class BulkExportService implements ScriptService
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private BulkPatientExporter exporter;
+
+    /**
+     * Export the provided list of patients, streaming the compressed result into the provided output stream, usually
+     * the {@code $response}'s output stream.
+     *
+     * @param patientIds the identifiers of the patients to export
+     * @param fields the names of the fields to export, {@code null} to export all the fields
+     * @param format the output format, either {@code csv} or {@code ndjson}
+     * @param outputStream the output stream where the gzip-compressed export will be sent
+     * @return the number of exported patients, or {@code -1} if the export failed
+     */
+    public int export(Collection<String> patientIds, Collection<String> fields, String format,
+        OutputStream outputStream)
+    {
+        try {
+            return this.exporter.export(patientIds, fields, format, outputStream);
+        } catch (Exception ex) {
+            this.logger.error("Error caught while generating a bulk export: {}", ex.getMessage(), ex);
+        }
+        return -1;
+    }
+}
@@ -18,6 +18,10 @@
 package org.phenotips.export.script;
 
 import org.phenotips.data.Patient;
+import org.phenotips.export.ExportJob;
+import org.phenotips.export.ExportJobManager;
+import org.phenotips.export.internal.ByteRange;
+import org.phenotips.export.internal.ContentDisposition;
 import org.phenotips.export.internal.SpreadsheetExporter;
 
 import org.xwiki.component.annotation.Component;
@@ -25,15 +29,23 @@
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collection;
 import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 
+import com.xpn.xwiki.XWikiContext;
+
 /**
  * Service for exporting a list of patients into an {@code .xlsx} Excel file.
  *
@@ -46,6 +58,10 @@
 @Singleton
 public class SpreadsheetExportService implements ScriptService
 {
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     @Inject
     private Logger logger;
 
@@ -53,6 +69,12 @@ public class SpreadsheetExportService implements ScriptService
     @Named("current")
     private DocumentReferenceResolver<String> referenceResolver;
 
+    @Inject
+    private ExportJobManager jobManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
     /**
      * Export the provided list of patients into an Excel file, containing the specified columns. The resulting binary
      * filled will be sent through the provided output stream, usually the {@code $response}'s output stream.
@@ -71,4 +93,90 @@ public void export(List<Patient> patients, String[] enabledFields, OutputStream
             this.logger.error("Error caught while generating an export spreadsheet", ex);
         }
     }
+
+    /**
+     * Start exporting the specified patients in the background. The progress of the export can be checked with
+     * {@link #getJob(String)}, and the resulting file can be retrieved with {@link #download(String, String)} once the
+     * job is finished.
+     *
+     * @param patientIds the identifiers of the patients to export; patients which don't exist or can't be viewed by the
+     *            current user are skipped
+     * @param enabledFields a list of field names to export
+     * @return the new job
+     */
+    public ExportJob submit(Collection<String> patientIds, String[] enabledFields)
+    {
+        return this.jobManager.submit(patientIds, enabledFields);
+    }
+
+    /**
+     * Retrieve an export job started by the current user.
+     *
+     * @param jobId the identifier of the job, as returned by {@link ExportJob#getId()}
+     * @return the job, or {@code null} if the job doesn't exist, has expired, or belongs to another user
+     */
+    public ExportJob getJob(String jobId)
+    {
+        return this.jobManager.getJob(jobId);
+    }
+
+    /**
+     * Send the result of a finished export job as the response to the current request. A single byte range requested
+     * through the {@code Range} header is honored, so that interrupted downloads can be resumed.
+     *
+     * @param jobId the identifier of the job
+     * @param fileName the name under which the file is offered to the browser
+     * @return {@code true} if the file, or the requested part of it, was sent, {@code false} otherwise
+     */
+    public boolean download(String jobId, String fileName)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        HttpServletResponse response = context.getResponse();
+        ExportJob job = this.jobManager.getJob(jobId);
+        File file = job != null ? job.getFile() : null;
+        if (file == null || !file.isFile()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+
+        long length = file.length();
+        ByteRange range = ByteRange.parse(context.getRequest().getHeader("Range"), length);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (range != null && !range.isSatisfiable()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(CONTENT_RANGE, range.toContentRange(length));
+            return false;
+        }
+        long start = 0;
+        long count = length;
+        if (range != null) {
+            start = range.getStart();
+            count = range.getLength();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(CONTENT_RANGE, range.toContentRange(length));
+        }
+        response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        response.setHeader("Content-Disposition", ContentDisposition.attachment(fileName));
+        response.setHeader("Content-Length", String.valueOf(count));
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            OutputStream output = response.getOutputStream();
+            input.seek(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (count > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (read < 0) {
+                    break;
+                }
+                output.write(buffer, 0, read);
+                count -= read;
+            }
+            output.flush();
+            context.setFinished(true);
+            return true;
+        } catch (IOException ex) {
+            this.logger.warn("Failed to send the result of export job [{}]: {}", jobId, ex.getMessage());
+            return false;
+        }
+    }
 }
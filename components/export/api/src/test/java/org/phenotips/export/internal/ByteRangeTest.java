@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteRangeTest
+{
+    @Test
+    public void parseClosedRange()
+    {
+        ByteRange range = ByteRange.parse("bytes=100-199", 1000);
+        Assert.assertTrue(range.isSatisfiable());
+        Assert.assertEquals(100, range.getStart());
+        Assert.assertEquals(199, range.getEnd());
+        Assert.assertEquals(100, range.getLength());
+        Assert.assertEquals("bytes 100-199/1000", range.toContentRange(1000));
+    }
+
+    @Test
+    public void parseOpenAndSuffixRanges()
+    {
+        ByteRange range = ByteRange.parse("bytes=900-", 1000);
+        Assert.assertEquals(900, range.getStart());
+        Assert.assertEquals(999, range.getEnd());
+
+        range = ByteRange.parse("bytes=-100", 1000);
+        Assert.assertEquals(900, range.getStart());
+        Assert.assertEquals(999, range.getEnd());
+
+        range = ByteRange.parse("bytes=500-5000", 1000);
+        Assert.assertEquals(999, range.getEnd());
+    }
+
+    @Test
+    public void unsupportedHeadersServeWholeContent()
+    {
+        Assert.assertNull(ByteRange.parse(null, 1000));
+        Assert.assertNull(ByteRange.parse("", 1000));
+        Assert.assertNull(ByteRange.parse("items=0-10", 1000));
+        Assert.assertNull(ByteRange.parse("bytes=0-10,20-30", 1000));
+        Assert.assertNull(ByteRange.parse("bytes=a-b", 1000));
+    }
+
+    @Test
+    public void rangesOutsideContentAreUnsatisfiable()
+    {
+        ByteRange range = ByteRange.parse("bytes=1000-", 1000);
+        Assert.assertFalse(range.isSatisfiable());
+        Assert.assertEquals("bytes */1000", range.toContentRange(1000));
+        Assert.assertFalse(ByteRange.parse("bytes=20-10", 1000).isSatisfiable());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ContentDisposition} class.
+ *
+ * @version $Id$
+ */
+public class ContentDispositionTest
+{
+    @Test
+    public void plainNamesAreKept()
+    {
+        Assert.assertEquals("attachment; filename=\"patients.xlsx\"; filename*=UTF-8''patients.xlsx",
+            ContentDisposition.attachment("patients.xlsx"));
+    }
+
+    @Test
+    public void quotesAndBackslashesAreEscaped()
+    {
+        Assert.assertEquals("attachment; filename=\"a\\\"b\\\\c.xlsx\"; filename*=UTF-8''a%22b%5Cc.xlsx",
+            ContentDisposition.attachment("a\"b\\c.xlsx"));
+    }
+
+    @Test
+    public void headerInjectionIsPrevented()
+    {
+        String result = ContentDisposition.attachment("x.xlsx\r\nSet-Cookie: a=b");
+        Assert.assertEquals("attachment; filename=\"x.xlsx__Set-Cookie: a=b\"; "
+            + "filename*=UTF-8''x.xlsx%0D%0ASet-Cookie%3A%20a%3Db", result);
+    }
+
+    @Test
+    public void nonASCIINamesAreEncoded()
+    {
+        Assert.assertEquals("attachment; filename=\"p_tients.xlsx\"; filename*=UTF-8''p%C3%A9tients.xlsx",
+            ContentDisposition.attachment("p\u00e9tients.xlsx"));
+    }
+
+    @Test
+    public void nullNameIsEmpty()
+    {
+        Assert.assertEquals("attachment; filename=\"\"; filename*=UTF-8''", ContentDisposition.attachment(null));
+    }
+}
@@ -18,15 +18,19 @@
 package org.phenotips.export.internal;
 
 import org.phenotips.data.Feature;
+import org.phenotips.tools.PhenotypeCategoryIndex;
 import org.phenotips.tools.PhenotypeMappingService;
+import org.phenotips.tools.PhenotypeSections;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.script.service.ScriptService;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -207,6 +211,43 @@ public void sortFeaturesWithSections() throws Exception
         Assert.assertTrue(helpersSpy.getSectionFeatureTree().containsKey("id4"));
     }
 
+    @Test
+    public void sortFeaturesWithIndexedSectionsKeepsMappingOrder() throws Exception
+    {
+        ConversionHelpers helpersSpy = spy(new ConversionHelpers());
+        ComponentManager componentManager = mock(ComponentManager.class);
+        PhenotypeCategoryIndex index = mock(PhenotypeCategoryIndex.class);
+        PhenotypeSections sections = mock(PhenotypeSections.class);
+        doReturn(componentManager).when(helpersSpy).getComponentManager();
+        doReturn(index).when(componentManager).getInstance(PhenotypeCategoryIndex.class);
+        doReturn(sections).when(index).getSections("phenotype");
+
+        Set<Feature> features = new LinkedHashSet<>();
+        String[] ids = { "HP:1", "HP:2", "HP:3", "HP:4" };
+        int[] positions = { 2, 0, -1, 0 };
+        for (int i = 0; i < ids.length; ++i) {
+            Feature feature = mock(Feature.class);
+            doReturn(ids[i]).when(feature).getId();
+            doReturn(true).when(feature).isPresent();
+            doReturn(positions[i]).when(sections).getPosition(ids[i]);
+            doReturn(positions[i] < 0 ? null : "section" + positions[i]).when(sections).getSection(ids[i]);
+            features.add(feature);
+        }
+
+        helpersSpy.newPatient();
+        helpersSpy.featureSetUp(true, true, true);
+        List<Feature> sorted = helpersSpy.sortFeaturesWithSections(features);
+
+        List<String> sortedIds = new LinkedList<>();
+        for (Feature feature : sorted) {
+            sortedIds.add(feature.getId());
+        }
+        /* Features are collected in reverse order by the status filter */
+        Assert.assertEquals(Arrays.asList("HP:4", "HP:2", "HP:1", "HP:3"), sortedIds);
+        Assert.assertEquals("No category", helpersSpy.getSectionFeatureTree().get("HP:3"));
+        Assert.assertEquals("section0", helpersSpy.getSectionFeatureTree().get("HP:2"));
+    }
+
     @Test(expected = NullPointerException.class)
     public void sortFeaturesWithSectionsNewPatientNotCalled() throws Exception
     {
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.export.BulkPatientExporter;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultBulkPatientExporterTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<BulkPatientExporter> mocker =
+        new MockitoComponentMockingRule<BulkPatientExporter>(DefaultBulkPatientExporter.class);
+
+    private final Collection<String> fields = Collections.singleton("external_id");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class, "secure");
+        Patient p1 = mock(Patient.class);
+        when(p1.toJSON(this.fields)).thenReturn(new JSONObject().put("id", "P0000001").put("external_id", "a,b")
+            .put("features", new JSONArray().put(new JSONObject().put("id", "HP:0000001"))));
+        Patient p2 = mock(Patient.class);
+        when(p2.toJSON(this.fields)).thenReturn(new JSONObject().put("id", "P0000002").put("other", "x"));
+        when(repository.getPatientById("P0000001")).thenReturn(p1);
+        when(repository.getPatientById("P0000002")).thenReturn(p2);
+        when(repository.getPatientById("P0000003")).thenThrow(new SecurityException());
+    }
+
+    @Test
+    public void exportNDJSONWritesOnePatientPerLine() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = this.mocker.getComponentUnderTest().export(Arrays.asList("P0000001", "P0000003", "P0000002",
+            "P0000004"), this.fields, BulkPatientExporter.NDJSON, out);
+        Assert.assertEquals(2, count);
+        String[] lines = decompress(out).split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertEquals("P0000001", new JSONObject(lines[0]).getString("id"));
+        Assert.assertEquals("P0000002", new JSONObject(lines[1]).getString("id"));
+    }
+
+    @Test
+    public void exportCSVUsesKeysOfAllPatientsAsColumns() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = this.mocker.getComponentUnderTest().export(Arrays.asList("P0000001", "P0000002"), this.fields,
+            BulkPatientExporter.CSV, out);
+        Assert.assertEquals(2, count);
+        String[] lines = decompress(out).split("\r\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals("external_id,features,id,other", lines[0]);
+        Assert.assertEquals("\"a,b\",\"[{\"\"id\"\":\"\"HP:0000001\"\"}]\",P0000001,", lines[1]);
+        Assert.assertEquals(",,P0000002,x", lines[2]);
+    }
+
+    @Test
+    public void exportCSVWithoutPatientsWritesNothing() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = this.mocker.getComponentUnderTest().export(Arrays.asList("P0000003"), this.fields,
+            BulkPatientExporter.CSV, out);
+        Assert.assertEquals(0, count);
+        Assert.assertEquals("", decompress(out));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void exportRejectsUnknownFormats() throws Exception
+    {
+        this.mocker.getComponentUnderTest().export(Collections.<String>emptyList(), null, "xml",
+            new ByteArrayOutputStream());
+    }
+
+    private String decompress(ByteArrayOutputStream out) throws Exception
+    {
+        return IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8");
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.export.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link ParallelConverter} class.
+ *
+ * @version $Id$
+ */
+public class ParallelConverterTest
+{
+    private static final int COUNT = 40;
+
+    private final List<Patient> patients = new ArrayList<Patient>();
+
+    private ComponentManager cm;
+
+    private Execution execution;
+
+    private ExecutionContextManager contextManager;
+
+    private DefaultExportWorkers workers;
+
+    @Before
+    public void setup() throws Exception
+    {
+        for (int i = 0; i < COUNT; ++i) {
+            Patient patient = mock(Patient.class);
+            when(patient.getId()).thenReturn("P" + i);
+            this.patients.add(patient);
+        }
+        this.cm = mock(ComponentManager.class);
+        this.execution = mock(Execution.class);
+        this.contextManager = mock(ExecutionContextManager.class);
+        when(this.cm.hasComponent(ExecutionContextManager.class)).thenReturn(true);
+        when(this.cm.getInstance(Execution.class)).thenReturn(this.execution);
+        when(this.cm.getInstance(ExecutionContextManager.class)).thenReturn(this.contextManager);
+        when(this.contextManager.clone(Matchers.any(ExecutionContext.class))).thenReturn(new ExecutionContext());
+        this.workers = new DefaultExportWorkers();
+        this.workers.initialize();
+        when(this.cm.hasComponent(ExportWorkers.class)).thenReturn(true);
+        when(this.cm.getInstance(ExportWorkers.class)).thenReturn(this.workers);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.workers.dispose();
+    }
+
+    /** Results are returned in the order of the patients, even if the patients take different times to convert. */
+    @Test
+    public void convertKeepsPatientOrder() throws Exception
+    {
+        ParallelConverter<String> converter = new ParallelConverter<String>(new SlowConversion(), this.cm);
+        List<String> results = converter.convert(this.patients);
+        Assert.assertEquals(COUNT, results.size());
+        for (int i = 0; i < COUNT; ++i) {
+            Assert.assertEquals("P" + i, results.get(i));
+        }
+    }
+
+    /** The request context is cloned once for each worker, and the copies are reused for the following batches. */
+    @Test
+    public void convertClonesContextOncePerWorker() throws Exception
+    {
+        ParallelConverter<String> converter = new ParallelConverter<String>(new SlowConversion(), this.cm);
+        converter.convert(this.patients);
+        converter.convert(this.patients.subList(0, COUNT / 2));
+        int first = ParallelConverter.MAX_THREADS > 1 ? Math.min(ParallelConverter.MAX_THREADS, COUNT) : 0;
+        int second = ParallelConverter.MAX_THREADS > 1 ? Math.min(ParallelConverter.MAX_THREADS, COUNT / 2) : 0;
+        Mockito.verify(this.contextManager, Mockito.times(first)).clone(Matchers.any(ExecutionContext.class));
+        Mockito.verify(this.execution, Mockito.times(first + second))
+            .setContext(Matchers.any(ExecutionContext.class));
+        Mockito.verify(this.execution, Mockito.times(first + second)).removeContext();
+    }
+
+    /** Failures converting a patient are propagated to the caller. */
+    @Test(expected = IllegalStateException.class)
+    public void convertPropagatesFailures() throws Exception
+    {
+        ParallelConverter<String> converter = new ParallelConverter<String>(new ParallelConverter.Conversion<String>()
+        {
+            @Override
+            public String convert(Patient patient)
+            {
+                if ("P13".equals(patient.getId())) {
+                    throw new IllegalStateException();
+                }
+                return patient.getId();
+            }
+        }, this.cm);
+        converter.convert(this.patients);
+    }
+
+    /** Without a component manager, patients are converted sequentially on the calling thread. */
+    @Test
+    public void convertWithoutComponentManager() throws Exception
+    {
+        final Thread caller = Thread.currentThread();
+        ParallelConverter<String> converter = new ParallelConverter<String>(new ParallelConverter.Conversion<String>()
+        {
+            @Override
+            public String convert(Patient patient)
+            {
+                Assert.assertSame(caller, Thread.currentThread());
+                return patient.getId();
+            }
+        }, null);
+        List<String> results = converter.convert(this.patients);
+        Assert.assertEquals("P0", results.get(0));
+        Assert.assertEquals("P" + (COUNT - 1), results.get(COUNT - 1));
+    }
+
+    /** Once the worker pool is disposed, its threads are stopped and no more tasks are accepted. */
+    @Test(expected = RejectedExecutionException.class)
+    public void disposedWorkersRejectTasks() throws Exception
+    {
+        new ParallelConverter<String>(new SlowConversion(), this.cm).convert(this.patients);
+        this.workers.dispose();
+        this.workers.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                return null;
+            }
+        });
+    }
+
+    /** Converts patients to their identifier, taking longer for the first patients. */
+    private static final class SlowConversion implements ParallelConverter.Conversion<String>
+    {
+        @Override
+        public String convert(Patient patient) throws Exception
+        {
+            int index = Integer.parseInt(patient.getId().substring(1));
+            Thread.sleep(index < 5 ? 20 : 1);
+            return patient.getId();
+        }
+    }
+}
@@ -36,6 +36,7 @@
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 public class StylerTest
 {
@@ -234,6 +235,37 @@ public void styleNoStyles()
         verifyNoMoreInteractions(dataCell);
     }
 
+    @Test
+    public void styleCreatesEachCombinationOnce()
+    {
+        Styler styler = new Styler();
+        DataCell first = new DataCell("", 0, 0);
+        first.addStyle(StyleOption.HEADER);
+        first.addStyle(StyleOption.HEADER_BOTTOM);
+        DataCell second = new DataCell("", 1, 0);
+        second.addStyle(StyleOption.HEADER_BOTTOM);
+        second.addStyle(StyleOption.HEADER);
+        DataCell plain = new DataCell("", 2, 0);
+        Workbook workbook = mock(Workbook.class);
+        CellStyle headerStyle = mock(CellStyle.class);
+        CellStyle plainStyle = mock(CellStyle.class);
+        Font font = mock(Font.class);
+        Cell cell = mock(Cell.class);
+
+        when(workbook.createCellStyle()).thenReturn(headerStyle, plainStyle);
+        doReturn(font).when(workbook).createFont();
+
+        styler.style(first, cell, workbook);
+        styler.style(second, cell, workbook);
+        styler.style(plain, cell, workbook);
+        styler.style(plain, cell, workbook);
+
+        verify(workbook, times(2)).createCellStyle();
+        verify(workbook, times(2)).createFont();
+        verify(cell, times(2)).setCellStyle(headerStyle);
+        verify(cell, times(2)).setCellStyle(plainStyle);
+    }
+
     @Test(expected = Exception.class)
     public void styleBottomNullMatrix() throws Exception
     {
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Map;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * Provides the HTTP client used for all the requests to remote services. The client keeps a pool of persistent
+ * connections for each remote server, so that connections and TLS sessions are reused across calls, and limits the
+ * number of requests running at the same time. Timeouts and pool sizes are configured in {@code xwiki.properties}:
+ * <dl>
+ * <dt>{@code phenotips.http.connectTimeout}</dt>
+ * <dd>milliseconds to wait for a connection to be established, {@code 5000} by default</dd>
+ * <dt>{@code phenotips.http.socketTimeout}</dt>
+ * <dd>milliseconds to wait for data from the remote server, {@code 30000} by default</dd>
+ * <dt>{@code phenotips.http.connectionRequestTimeout}</dt>
+ * <dd>milliseconds to wait for a free connection when the limits are reached, {@code 10000} by default</dd>
+ * <dt>{@code phenotips.http.maxConnections}</dt>
+ * <dd>the maximum number of requests running at the same time, {@code 100} by default</dd>
+ * <dt>{@code phenotips.http.maxConnectionsPerServer}</dt>
+ * <dd>the maximum number of requests running at the same time against the same server, {@code 20} by default</dd>
+ * </dl>
+ * The system proxy settings are used.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface HttpClientProvider
+{
+    /**
+     * The shared client. It must not be closed by the callers, but the responses must be closed, so that their
+     * connection is returned to the pool.
+     *
+     * @return a thread-safe HTTP client
+     */
+    CloseableHttpClient getClient();
+
+    /**
+     * Statistics about the requests executed so far.
+     *
+     * @return the metrics for each remote server, identified by its {@code scheme://host:port}
+     */
+    Map<String, HttpRequestMetrics> getMetrics();
+}
@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Statistics about the requests sent to a remote server through the {@link HttpClientProvider shared client}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface HttpRequestMetrics
+{
+    /**
+     * The number of requests sent.
+     *
+     * @return a positive number
+     */
+    long getRequestCount();
+
+    /**
+     * The number of requests which failed without receiving a response, for example because of timeouts or network
+     * errors.
+     *
+     * @return a positive number, at most {@link #getRequestCount()}
+     */
+    long getFailureCount();
+
+    /**
+     * The total time spent waiting for the remote server, from sending the request until the response headers were
+     * received.
+     *
+     * @return a duration in milliseconds
+     */
+    long getTotalTime();
+
+    /**
+     * The average time spent waiting for the remote server.
+     *
+     * @return a duration in milliseconds, {@code 0} if no requests were sent
+     */
+    long getAverageTime();
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http.internal;
+
+import org.phenotips.http.HttpClientProvider;
+import org.phenotips.http.HttpRequestMetrics;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+
+/**
+ * Default {@link HttpClientProvider} implementation, using a {@link PoolingHttpClientConnectionManager pooled}
+ * Apache HTTP client.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultHttpClientProvider implements HttpClientProvider, Initializable, Disposable
+{
+    private static final String PREFIX = "phenotips.http.";
+
+    /** Idle connections are closed after this many seconds. */
+    private static final long MAX_IDLE_TIME = 60;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    private MeteredRequestExecutor executor;
+
+    private CloseableHttpClient client;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(getSetting("maxConnections", 100));
+        connections.setDefaultMaxPerRoute(getSetting("maxConnectionsPerServer", 20));
+
+        RequestConfig config = RequestConfig.custom()
+            .setConnectTimeout(getSetting("connectTimeout", 5000))
+            .setSocketTimeout(getSetting("socketTimeout", 30000))
+            .setConnectionRequestTimeout(getSetting("connectionRequestTimeout", 10000))
+            .build();
+
+        this.executor = new MeteredRequestExecutor();
+        this.client = HttpClients.custom()
+            .useSystemProperties()
+            .setConnectionManager(connections)
+            .setDefaultRequestConfig(config)
+            .setRequestExecutor(this.executor)
+            .evictIdleConnections(MAX_IDLE_TIME, TimeUnit.SECONDS)
+            .evictExpiredConnections()
+            .build();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        try {
+            this.client.close();
+        } catch (IOException ex) {
+            this.logger.warn("Failed to close the HTTP client: {}", ex.getMessage());
+        }
+    }
+
+    @Override
+    public CloseableHttpClient getClient()
+    {
+        return this.client;
+    }
+
+    @Override
+    public Map<String, HttpRequestMetrics> getMetrics()
+    {
+        return Collections.<String, HttpRequestMetrics>unmodifiableMap(this.executor.getMetrics());
+    }
+
+    private int getSetting(String name, int defaultValue)
+    {
+        return this.configuration.getProperty(PREFIX + name, defaultValue);
+    }
+}
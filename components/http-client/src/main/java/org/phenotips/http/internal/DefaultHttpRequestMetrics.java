@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http.internal;
+
+import org.phenotips.http.HttpRequestMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link HttpRequestMetrics} implementation, updated by the {@link MeteredRequestExecutor}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultHttpRequestMetrics implements HttpRequestMetrics
+{
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /**
+     * Record a new request.
+     *
+     * @param time how long the request took, in milliseconds
+     * @param failed whether the request failed without a response
+     */
+    public void record(long time, boolean failed)
+    {
+        this.requests.incrementAndGet();
+        this.totalTime.addAndGet(time);
+        if (failed) {
+            this.failures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return this.requests.get();
+    }
+
+    @Override
+    public long getFailureCount()
+    {
+        return this.failures.get();
+    }
+
+    @Override
+    public long getTotalTime()
+    {
+        return this.totalTime.get();
+    }
+
+    @Override
+    public long getAverageTime()
+    {
+        long count = this.requests.get();
+        return count == 0 ? 0 : this.totalTime.get() / count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.requests.get() + " requests, " + this.failures.get() + " failed, " + getAverageTime()
+            + "ms average";
+    }
+}
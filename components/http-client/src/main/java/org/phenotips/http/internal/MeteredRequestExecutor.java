@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Request executor which records how many requests are sent to each server, and how long they take.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class MeteredRequestExecutor extends HttpRequestExecutor
+{
+    private static final String UNKNOWN_HOST = "unknown";
+
+    private final ConcurrentMap<String, DefaultHttpRequestMetrics> metrics = new ConcurrentHashMap<>();
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+        throws IOException, HttpException
+    {
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            HttpResponse response = super.execute(request, conn, context);
+            failed = false;
+            return response;
+        } finally {
+            getMetrics(getHost(context)).record(System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    /**
+     * The metrics collected so far.
+     *
+     * @return a live map of metrics, with the {@code scheme://host:port} of each server as the key
+     */
+    public ConcurrentMap<String, DefaultHttpRequestMetrics> getMetrics()
+    {
+        return this.metrics;
+    }
+
+    private DefaultHttpRequestMetrics getMetrics(String host)
+    {
+        DefaultHttpRequestMetrics result = this.metrics.get(host);
+        if (result == null) {
+            this.metrics.putIfAbsent(host, new DefaultHttpRequestMetrics());
+            result = this.metrics.get(host);
+        }
+        return result;
+    }
+
+    private String getHost(HttpContext context)
+    {
+        HttpHost host = HttpClientContext.adapt(context).getTargetHost();
+        return host != null ? host.toURI() : UNKNOWN_HOST;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.http.internal;
+
+import org.phenotips.http.HttpClientProvider;
+
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultHttpClientProvider} component.
+ *
+ * @version $Id$
+ */
+public class DefaultHttpClientProviderTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<HttpClientProvider> mocker =
+        new MockitoComponentMockingRule<HttpClientProvider>(DefaultHttpClientProvider.class);
+
+    @Before
+    public void setup() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(Matchers.anyString(), Matchers.anyInt())).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable
+            {
+                return (Integer) invocation.getArguments()[1];
+            }
+        });
+    }
+
+    @Test
+    public void getClientAlwaysReturnsTheSameClient() throws Exception
+    {
+        HttpClientProvider provider = this.mocker.getComponentUnderTest();
+        Assert.assertNotNull(provider.getClient());
+        Assert.assertSame(provider.getClient(), provider.getClient());
+        Assert.assertTrue(provider.getMetrics().isEmpty());
+    }
+
+    @Test
+    public void metricsAreUpdatedPerServer()
+    {
+        DefaultHttpRequestMetrics metrics = new DefaultHttpRequestMetrics();
+        Assert.assertEquals(0, metrics.getAverageTime());
+        metrics.record(10, false);
+        metrics.record(30, true);
+        Assert.assertEquals(2, metrics.getRequestCount());
+        Assert.assertEquals(1, metrics.getFailureCount());
+        Assert.assertEquals(40, metrics.getTotalTime());
+        Assert.assertEquals(20, metrics.getAverageTime());
+    }
+}
@@ -18,13 +18,17 @@
 package org.phenotips.ncbieutils;
 
 import org.phenotips.ncbieutils.internal.AbstractSpecializedNCBIEUtilsAccessService;
+import org.phenotips.ncbieutils.internal.NCBIEUtilsClient;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
+
 /**
  * Script service exposing services provided by the online NCBI Entrez Utilities webserver.
  *
@@ -36,9 +40,17 @@
 @Singleton
 public class NCBIEUtilsAccessService implements ScriptService
 {
+    /** Shared client, passed on to the returned services since they are not components. */
+    @Inject
+    private NCBIEUtilsClient client;
+
+    /** Passed on to the returned services, for the same reason. */
+    @Inject
+    private Logger logger;
+
     public NCBIEUtilsService get(final String name)
     {
-        return new AbstractSpecializedNCBIEUtilsAccessService()
+        return new AbstractSpecializedNCBIEUtilsAccessService(this.client, this.logger)
         {
             @Override
             public String getDatabaseName()
@@ -0,0 +1,495 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import org.phenotips.http.HttpClientProvider;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.slf4j.Logger;
+
+/**
+ * Default {@link NCBIEUtilsClient} implementation. Responses are parsed with a streaming XML parser, spelling
+ * corrections and search results are cached per query, and summaries are cached per document. The cache lifetimes, the
+ * maximum request rate and an optional NCBI API key are configured in {@code xwiki.properties}, with the
+ * {@code phenotips.ncbieutils.searchCacheTTL}, {@code phenotips.ncbieutils.summaryCacheTTL} (in seconds),
+ * {@code phenotips.ncbieutils.requestsPerSecond} and {@code phenotips.ncbieutils.apiKey} settings.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultNCBIEUtilsClient implements NCBIEUtilsClient, Initializable
+{
+    private static final String SERVER_URL = "http://eutils.ncbi.nlm.nih.gov/entrez/eutils/";
+
+    private static final String PREFIX = "phenotips.ncbieutils.";
+
+    /** NCBI doesn't accept more than 3 requests per second without an API key. */
+    private static final int DEFAULT_REQUESTS_PER_SECOND = 3;
+
+    /** The maximum number of identifiers sent in one {@code esummary} request. */
+    private static final int SUMMARY_BATCH_SIZE = 200;
+
+    private static final String DB = "db";
+
+    private static final String ID = "Id";
+
+    private static final String ITEM = "Item";
+
+    private static final char KEY_SEPARATOR = '\n';
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private HttpClientProvider httpClients;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    private Cache<String> spellings;
+
+    private Cache<SearchResult> searches;
+
+    private Cache<DocumentSummary> summaries;
+
+    private XMLInputFactory xmlFactory;
+
+    private String apiKey;
+
+    /** The minimum time between two requests, in nanoseconds. */
+    private long requestInterval;
+
+    /** The earliest time when the next request may be sent, as a {@link System#nanoTime()} value. */
+    private long nextRequest;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int searchTTL = this.configuration.getProperty(PREFIX + "searchCacheTTL", 3600);
+        int summaryTTL = this.configuration.getProperty(PREFIX + "summaryCacheTTL", 86400);
+        try {
+            this.spellings = this.cacheManager.createNewLocalCache(getCacheConfiguration(1000, searchTTL));
+            this.searches = this.cacheManager.createNewLocalCache(getCacheConfiguration(1000, searchTTL));
+            this.summaries = this.cacheManager.createNewLocalCache(getCacheConfiguration(10000, summaryTTL));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the NCBI E-utilities caches", ex);
+        }
+
+        int rate = Math.max(1, this.configuration.getProperty(PREFIX + "requestsPerSecond",
+            DEFAULT_REQUESTS_PER_SECOND));
+        this.requestInterval = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.nextRequest = System.nanoTime();
+        this.apiKey = this.configuration.getProperty(PREFIX + "apiKey", String.class);
+
+        this.xmlFactory = XMLInputFactory.newInstance();
+        // The responses declare a DTD, but it isn't needed, and must not be fetched
+        this.xmlFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        this.xmlFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.xmlFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    @Override
+    public String getCorrectedQuery(String database, String query)
+    {
+        // response example at http://eutils.ncbi.nlm.nih.gov/entrez/eutils/espell.fcgi?db=omim&term=atention+sindrom
+        String key = database + KEY_SEPARATOR + query;
+        String result = this.spellings.get(key);
+        if (result != null) {
+            return result;
+        }
+        result = query;
+        try {
+            URIBuilder url = getURL("espell.fcgi", database).addParameter("term", query);
+            XMLStreamReader response = null;
+            try (CloseableHttpResponse httpResponse = execute(url)) {
+                response = parse(httpResponse);
+                while (response.hasNext()) {
+                    if (response.next() == XMLStreamConstants.START_ELEMENT
+                        && "CorrectedQuery".equals(response.getLocalName())) {
+                        result = StringUtils.defaultIfBlank(StringUtils.trim(response.getElementText()), query);
+                        break;
+                    }
+                }
+            } finally {
+                close(response);
+            }
+            this.spellings.set(key, result);
+        } catch (InterruptedException ex) {
+            interrupted();
+        } catch (Exception ex) {
+            this.logger.error("Error while trying to retrieve corrected query for [{}]: {}", query, ex.getMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getMatches(String database, String query, int rows, int start)
+    {
+        SearchResult result = search(database, query, rows, start);
+        return result != null ? result.ids : Collections.<String>emptyList();
+    }
+
+    @Override
+    public List<DocumentSummary> getSummaries(String database, List<String> ids)
+    {
+        Map<String, DocumentSummary> found = getCachedSummaries(database, ids);
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!found.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        for (int i = 0; i < missing.size(); i += SUMMARY_BATCH_SIZE) {
+            List<String> batch = missing.subList(i, Math.min(missing.size(), i + SUMMARY_BATCH_SIZE));
+            try {
+                fetchSummaries(getURL("esummary.fcgi", database).addParameter("id", StringUtils.join(batch, ',')),
+                    database, found);
+            } catch (InterruptedException ex) {
+                interrupted();
+                break;
+            } catch (Exception ex) {
+                this.logger.error("Error while trying to retrieve summaries for ids {}: {}", batch, ex.getMessage());
+            }
+        }
+        return getOrderedSummaries(ids, found);
+    }
+
+    @Override
+    public List<DocumentSummary> getSuggestions(String database, String query, int rows, int start)
+    {
+        String correctedQuery = getCorrectedQuery(database, query);
+        SearchResult search = search(database, correctedQuery, rows, start);
+        if (search == null || search.ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, DocumentSummary> found = getCachedSummaries(database, search.ids);
+        // Use the history server only if none of the summaries are already known, and the search was just performed;
+        // otherwise the history may have expired on the server, so request only the missing identifiers
+        if (!found.isEmpty() || search.webEnv == null || search.queryKey == null) {
+            return getSummaries(database, search.ids);
+        }
+        try {
+            fetchSummaries(getURL("esummary.fcgi", database).addParameter("query_key", search.queryKey)
+                .addParameter("WebEnv", search.webEnv).addParameter("retstart", String.valueOf(start))
+                .addParameter("retmax", String.valueOf(rows)), database, found);
+        } catch (InterruptedException ex) {
+            interrupted();
+        } catch (Exception ex) {
+            this.logger.error("Error while trying to retrieve summaries for [{}]: {}", correctedQuery,
+                ex.getMessage());
+        }
+        return getOrderedSummaries(search.ids, found);
+    }
+
+    private SearchResult search(String database, String query, int rows, int start)
+    {
+        // response example at http://eutils.ncbi.nlm.nih.gov/entrez/eutils/esearch.fcgi?db=omim&term=down
+        String key = database + KEY_SEPARATOR + query + KEY_SEPARATOR + rows + KEY_SEPARATOR + start;
+        SearchResult cached = this.searches.get(key);
+        if (cached != null) {
+            // The history server entry may have expired since, don't reuse it
+            return new SearchResult(cached.ids, null, null);
+        }
+        try {
+            URIBuilder url = getURL("esearch.fcgi", database).addParameter("term", query)
+                .addParameter("RetMax", String.valueOf(rows)).addParameter("RetStart", String.valueOf(start))
+                .addParameter("usehistory", "y");
+            List<String> ids = new LinkedList<>();
+            String webEnv = null;
+            String queryKey = null;
+            XMLStreamReader response = null;
+            try (CloseableHttpResponse httpResponse = execute(url)) {
+                response = parse(httpResponse);
+                boolean inIdList = false;
+                while (response.hasNext()) {
+                    int event = response.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = response.getLocalName();
+                        if ("IdList".equals(name)) {
+                            inIdList = true;
+                        } else if (inIdList && ID.equals(name)) {
+                            ids.add(StringUtils.trim(response.getElementText()));
+                        } else if ("WebEnv".equals(name)) {
+                            webEnv = StringUtils.trim(response.getElementText());
+                        } else if ("QueryKey".equals(name)) {
+                            queryKey = StringUtils.trim(response.getElementText());
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "IdList".equals(response.getLocalName())) {
+                        inIdList = false;
+                    }
+                }
+            } finally {
+                close(response);
+            }
+            SearchResult result = new SearchResult(Collections.unmodifiableList(new ArrayList<>(ids)), webEnv,
+                queryKey);
+            this.searches.set(key, result);
+            return result;
+        } catch (InterruptedException ex) {
+            interrupted();
+        } catch (Exception ex) {
+            this.logger.error("Error while trying to retrieve matches for [{}]: {}", query, ex.getMessage());
+        }
+        return null;
+    }
+
+    private Map<String, DocumentSummary> getCachedSummaries(String database, List<String> ids)
+    {
+        Map<String, DocumentSummary> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            DocumentSummary summary = this.summaries.get(database + KEY_SEPARATOR + id);
+            if (summary != null) {
+                result.put(id, summary);
+            }
+        }
+        return result;
+    }
+
+    private List<DocumentSummary> getOrderedSummaries(List<String> ids, Map<String, DocumentSummary> found)
+    {
+        List<DocumentSummary> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            DocumentSummary summary = found.get(id);
+            if (summary != null) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    private void fetchSummaries(URIBuilder url, String database, Map<String, DocumentSummary> found)
+        throws IOException, XMLStreamException, URISyntaxException, InterruptedException
+    {
+        // response example at
+        // http://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=omim&id=190685,605298,604829
+        XMLStreamReader response = null;
+        try (CloseableHttpResponse httpResponse = execute(url)) {
+            response = parse(httpResponse);
+            while (response.hasNext()) {
+                if (response.next() == XMLStreamConstants.START_ELEMENT && "DocSum".equals(response.getLocalName())) {
+                    DocumentSummary summary = parseSummary(response);
+                    if (summary.getId() != null) {
+                        found.put(summary.getId(), summary);
+                        this.summaries.set(database + KEY_SEPARATOR + summary.getId(), summary);
+                    }
+                }
+            }
+        } finally {
+            close(response);
+        }
+    }
+
+    /** Parse a {@code DocSum} element, the reader being positioned on its start tag. */
+    private DocumentSummary parseSummary(XMLStreamReader reader) throws XMLStreamException
+    {
+        String id = null;
+        List<DocumentSummary.Item> items = new ArrayList<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (ID.equals(reader.getLocalName())) {
+                    id = StringUtils.trim(reader.getElementText());
+                } else if (ITEM.equals(reader.getLocalName())) {
+                    items.add(parseItem(reader));
+                } else {
+                    readText(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        return new DocumentSummary(id, items);
+    }
+
+    /**
+     * Parse an {@code Item} element along with its nested items, the reader being positioned on its start tag, and move
+     * the reader to its end tag.
+     */
+    private DocumentSummary.Item parseItem(XMLStreamReader reader) throws XMLStreamException
+    {
+        String name = reader.getAttributeValue(null, "Name");
+        String type = reader.getAttributeValue(null, "Type");
+        if (!"List".equals(type)) {
+            return new DocumentSummary.Item(name, type, fixCase(readText(reader)), null);
+        }
+        List<DocumentSummary.Item> children = new ArrayList<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (ITEM.equals(reader.getLocalName())) {
+                    children.add(parseItem(reader));
+                } else {
+                    readText(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        return new DocumentSummary.Item(name, type, null, children);
+    }
+
+    /** Read all the text of the current element, including nested elements, and move the reader to its end tag. */
+    private String readText(XMLStreamReader reader) throws XMLStreamException
+    {
+        StringBuilder result = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                result.append(reader.getText());
+            }
+        }
+        return result.toString();
+    }
+
+    private URIBuilder getURL(String script, String database) throws URISyntaxException
+    {
+        URIBuilder result = new URIBuilder(SERVER_URL + script).addParameter(DB, database);
+        if (StringUtils.isNotBlank(this.apiKey)) {
+            result.addParameter("api_key", this.apiKey);
+        }
+        return result;
+    }
+
+    private CloseableHttpResponse execute(URIBuilder url) throws IOException, URISyntaxException, InterruptedException
+    {
+        waitForTurn();
+        return this.httpClients.getClient().execute(new HttpGet(url.build()));
+    }
+
+    private XMLStreamReader parse(CloseableHttpResponse response) throws IOException, XMLStreamException
+    {
+        InputStream in = response.getEntity().getContent();
+        return this.xmlFactory.createXMLStreamReader(in);
+    }
+
+    private void close(XMLStreamReader reader)
+    {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                // Nothing to do, the underlying response is closed anyway
+            }
+        }
+    }
+
+    /**
+     * Client side rate limiting: reserve the next free request slot, and wait until it comes. Only the reservation is
+     * done while holding the lock, so concurrent callers queue up on distinct slots instead of blocking each other
+     * while sleeping.
+     */
+    /** Restore the interrupted status swallowed by a failed request, so that the caller can still see it. */
+    private void interrupted()
+    {
+        Thread.currentThread().interrupt();
+        this.logger.debug("Interrupted while waiting to send a request to the NCBI E-utilities");
+    }
+
+    private void waitForTurn() throws InterruptedException
+    {
+        long delay;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = this.nextRequest - now > 0 ? this.nextRequest : now;
+            this.nextRequest = slot + this.requestInterval;
+            delay = slot - now;
+        }
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    private CacheConfiguration getCacheConfiguration(int size, int timeToLive)
+    {
+        LRUEvictionConfiguration eviction = new LRUEvictionConfiguration(size);
+        eviction.setTimeToLive(timeToLive);
+        return new CacheConfiguration(eviction);
+    }
+
+    private static String fixCase(String text)
+    {
+        // OMIM titles are all UPPERCASE, try to fix this
+        if (text == null || text.length() == 0) {
+            return "";
+        }
+        if (StringUtils.isAllUpperCase(text.replaceAll("[^a-zA-Z]", ""))) {
+            return StringUtils.capitalize(text.toLowerCase());
+        }
+        return text;
+    }
+
+    /** The identifiers matching a query, and where the full results are kept on the history server. */
+    private static final class SearchResult
+    {
+        private final List<String> ids;
+
+        private final String webEnv;
+
+        private final String queryKey;
+
+        SearchResult(List<String> ids, String webEnv, String queryKey)
+        {
+            this.ids = ids;
+            this.webEnv = webEnv;
+            this.queryKey = queryKey;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * An immutable {@code DocSum} returned by the E-utilities {@code esummary} script: the identifier of a document, and
+ * its named items. Simple items have a text value, while {@code List} items have a list of nested items.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DocumentSummary
+{
+    private static final String ITEM = "Item";
+
+    private static final String LIST_TYPE = "List";
+
+    private final String id;
+
+    private final List<Item> items;
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param id the identifier of the document
+     * @param items the items of the document, in order
+     */
+    public DocumentSummary(String id, List<Item> items)
+    {
+        this.id = id;
+        this.items = Collections.unmodifiableList(new ArrayList<Item>(items));
+    }
+
+    /**
+     * The identifier of the summarized document.
+     *
+     * @return an identifier, for example an OMIM number or a PubMed identifier
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * The title of the summarized document.
+     *
+     * @return the value of the {@code Title} item, or {@code null} if missing
+     */
+    public String getTitle()
+    {
+        for (Item item : this.items) {
+            if ("Title".equals(item.name)) {
+                return item.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convert this summary to a map, as returned by {@link org.phenotips.ncbieutils.NCBIEUtilsService#getSummaries}.
+     *
+     * @return a new map holding the identifier under the {@code id} key, and the value of each non-empty item under the
+     *         item's name; the values of {@code List} items are the flattened lists of their nested simple values
+     */
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("id", this.id);
+        for (Item item : this.items) {
+            if (item.children != null) {
+                List<String> values = new ArrayList<String>();
+                item.collectValues(values);
+                if (!values.isEmpty()) {
+                    result.put(item.name, values);
+                }
+            } else if (StringUtils.isNotEmpty(item.value)) {
+                result.put(item.name, item.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write this summary as a {@code DocSum} element.
+     *
+     * @param writer the XML writer to write to
+     * @throws XMLStreamException if writing fails
+     */
+    public void writeXML(XMLStreamWriter writer) throws XMLStreamException
+    {
+        writer.writeStartElement("DocSum");
+        writer.writeStartElement("Id");
+        writer.writeCharacters(this.id);
+        writer.writeEndElement();
+        for (Item item : this.items) {
+            item.writeXML(writer);
+        }
+        writer.writeEndElement();
+    }
+
+    /** An immutable named item of a document summary. */
+    public static final class Item
+    {
+        private final String name;
+
+        private final String type;
+
+        private final String value;
+
+        private final List<Item> children;
+
+        /**
+         * Simple constructor passing all the required information.
+         *
+         * @param name the name of the item
+         * @param type the type of the item, as declared in the response, for example {@code String} or {@code List}
+         * @param value the text value of a simple item, ignored for {@code List} items
+         * @param children the nested items of a {@code List} item, in order, ignored for other items
+         */
+        public Item(String name, String type, String value, List<Item> children)
+        {
+            this.name = name;
+            this.type = StringUtils.defaultString(type);
+            if (LIST_TYPE.equals(type)) {
+                this.value = null;
+                this.children = Collections.unmodifiableList(new ArrayList<Item>(children));
+            } else {
+                this.value = StringUtils.defaultString(value);
+                this.children = null;
+            }
+        }
+
+        /** Add the values of the simple items nested in this list, at any depth, to the given list. */
+        private void collectValues(List<String> values)
+        {
+            for (Item child : this.children) {
+                if (child.children != null) {
+                    child.collectValues(values);
+                } else {
+                    values.add(child.value);
+                }
+            }
+        }
+
+        /** Write this item as an {@code Item} element, along with its nested items. */
+        private void writeXML(XMLStreamWriter writer) throws XMLStreamException
+        {
+            writer.writeStartElement(ITEM);
+            if (this.name != null) {
+                writer.writeAttribute("Name", this.name);
+            }
+            writer.writeAttribute("Type", this.type);
+            if (this.children != null) {
+                for (Item child : this.children) {
+                    child.writeXML(writer);
+                }
+            } else {
+                writer.writeCharacters(this.value);
+            }
+            writer.writeEndElement();
+        }
+    }
+}
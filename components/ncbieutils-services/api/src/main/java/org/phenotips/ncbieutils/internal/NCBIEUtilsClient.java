@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+
+/**
+ * Shared access to the NCBI E-utilities, used by all the {@link AbstractSpecializedNCBIEUtilsAccessService specialized
+ * services}. Responses are cached per query and per document identifier, and requests are throttled so that the
+ * limits imposed by NCBI are never exceeded.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface NCBIEUtilsClient
+{
+    /**
+     * Get the spelling correction suggested by the {@code espell} script.
+     *
+     * @param database the NCBI database to use, for example {@code omim} or {@code pubmed}
+     * @param query the query to correct
+     * @return the corrected query, or the original query if no correction is suggested or the request fails
+     */
+    String getCorrectedQuery(String database, String query);
+
+    /**
+     * Search for the documents matching a query, using the {@code esearch} script.
+     *
+     * @param database the NCBI database to use, for example {@code omim} or {@code pubmed}
+     * @param query the query to search for
+     * @param rows the maximum number of identifiers to return
+     * @param start the offset of the first identifier to return
+     * @return the identifiers of the matching documents, may be empty
+     */
+    List<String> getMatches(String database, String query, int rows, int start);
+
+    /**
+     * Get the summaries of some documents, using the {@code esummary} script. Only the documents not already cached
+     * are requested, in batches.
+     *
+     * @param database the NCBI database to use, for example {@code omim} or {@code pubmed}
+     * @param ids the identifiers of the documents to summarize
+     * @return the summaries of the found documents, in the same order as the requested identifiers
+     */
+    List<DocumentSummary> getSummaries(String database, List<String> ids);
+
+    /**
+     * Get the summaries of the documents matching a query, after correcting its spelling. The search results are kept
+     * on the E-utilities history server, so that the summaries can be requested without sending back the list of
+     * matching identifiers.
+     *
+     * @param database the NCBI database to use, for example {@code omim} or {@code pubmed}
+     * @param query the query to search for
+     * @param rows the maximum number of documents to return
+     * @param start the offset of the first document to return
+     * @return the summaries of the matching documents, may be empty
+     */
+    List<DocumentSummary> getSuggestions(String database, String query, int rows, int start);
+}
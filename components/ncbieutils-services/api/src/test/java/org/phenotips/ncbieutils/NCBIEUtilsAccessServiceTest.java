@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils;
+
+import org.phenotips.ncbieutils.internal.DocumentSummary;
+import org.phenotips.ncbieutils.internal.NCBIEUtilsClient;
+
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the services returned by {@link NCBIEUtilsAccessService#get(String)}.
+ *
+ * @version $Id$
+ */
+public class NCBIEUtilsAccessServiceTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(NCBIEUtilsAccessService.class);
+
+    @Test
+    public void servicesUseTheSharedClient() throws Exception
+    {
+        NCBIEUtilsClient client = this.mocker.getInstance(NCBIEUtilsClient.class);
+        List<DocumentSummary> summaries = Arrays.asList(new DocumentSummary("100",
+            Arrays.asList(new DocumentSummary.Item("Title", "String", "Some title", null))));
+        when(client.getSummaries("omim", Arrays.asList("100"))).thenReturn(summaries);
+
+        NCBIEUtilsService service = ((NCBIEUtilsAccessService) this.mocker.getComponentUnderTest()).get("omim");
+        Assert.assertEquals("Some title", service.getName("100"));
+    }
+
+    @Test
+    public void servicesLogMissingNames() throws Exception
+    {
+        NCBIEUtilsClient client = this.mocker.getInstance(NCBIEUtilsClient.class);
+        when(client.getSummaries(eq("pubmed"), anyListOf(String.class)))
+            .thenReturn(Collections.<DocumentSummary>emptyList());
+
+        NCBIEUtilsService service = ((NCBIEUtilsAccessService) this.mocker.getComponentUnderTest()).get("pubmed");
+        Assert.assertEquals("1", service.getName("1"));
+        verify(this.mocker.getMockedLogger()).warn("Name not found for {} id {}", "pubmed", "1");
+    }
+}
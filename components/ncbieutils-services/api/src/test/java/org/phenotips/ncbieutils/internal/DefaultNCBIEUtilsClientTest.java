@@ -0,0 +1,306 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.ncbieutils.internal;
+
+import org.phenotips.http.HttpClientProvider;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultNCBIEUtilsClient} component, using canned E-utilities responses.
+ *
+ * @version $Id$
+ */
+public class DefaultNCBIEUtilsClientTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<NCBIEUtilsClient> mocker =
+        new MockitoComponentMockingRule<NCBIEUtilsClient>(DefaultNCBIEUtilsClient.class);
+
+    /** The URLs of all the requests sent so far. */
+    private final List<URI> requests = new ArrayList<>();
+
+    private NCBIEUtilsClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(anyString(), anyInt())).thenAnswer(AdditionalAnswers.returnsSecondArg());
+        // Don't slow down the tests with the default rate limit
+        when(configuration.getProperty("phenotips.ncbieutils.requestsPerSecond", 3)).thenReturn(1000);
+
+        final Queue<Cache<?>> caches = new LinkedList<>();
+        caches.add(mockCache());
+        caches.add(mockCache());
+        caches.add(mockCache());
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(any(CacheConfiguration.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return caches.remove();
+            }
+        });
+
+        CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
+        when(this.mocker.<HttpClientProvider>getInstance(HttpClientProvider.class).getClient()).thenReturn(httpClient);
+        when(httpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<CloseableHttpResponse>()
+        {
+            @Override
+            public CloseableHttpResponse answer(InvocationOnMock invocation) throws Exception
+            {
+                URI uri = ((HttpUriRequest) invocation.getArguments()[0]).getURI();
+                DefaultNCBIEUtilsClientTest.this.requests.add(uri);
+                // espell.fcgi is answered with espell.xml, and so on
+                String script = StringUtils.substringBefore(StringUtils.substringAfterLast(uri.getPath(), "/"), ".");
+                HttpEntity entity = mock(HttpEntity.class);
+                when(entity.getContent()).thenReturn(ClassLoader.getSystemResourceAsStream(script + ".xml"));
+                CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+                when(response.getEntity()).thenReturn(entity);
+                return response;
+            }
+        });
+
+        this.client = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void getCorrectedQueryParsesResponse()
+    {
+        Assert.assertEquals("attention syndrome", this.client.getCorrectedQuery("omim", "atention sindrom"));
+        Assert.assertEquals(1, this.requests.size());
+        URI uri = this.requests.get(0);
+        Assert.assertTrue(uri.getPath().endsWith("/espell.fcgi"));
+        Assert.assertEquals("omim", getParameter(uri, "db"));
+        Assert.assertEquals("atention sindrom", getParameter(uri, "term"));
+    }
+
+    @Test
+    public void getCorrectedQueryIsCached()
+    {
+        this.client.getCorrectedQuery("omim", "atention sindrom");
+        Assert.assertEquals("attention syndrome", this.client.getCorrectedQuery("omim", "atention sindrom"));
+        Assert.assertEquals(1, this.requests.size());
+
+        // Different databases are cached separately
+        this.client.getCorrectedQuery("pubmed", "atention sindrom");
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void getMatchesParsesResponse()
+    {
+        Assert.assertEquals(Arrays.asList("190685", "605298", "604829"), this.client.getMatches("omim", "down", 3, 0));
+        URI uri = this.requests.get(0);
+        Assert.assertTrue(uri.getPath().endsWith("/esearch.fcgi"));
+        Assert.assertEquals("down", getParameter(uri, "term"));
+        Assert.assertEquals("3", getParameter(uri, "RetMax"));
+        Assert.assertEquals("0", getParameter(uri, "RetStart"));
+    }
+
+    @Test
+    public void getMatchesIsCachedPerPage()
+    {
+        this.client.getMatches("omim", "down", 3, 0);
+        Assert.assertEquals(Arrays.asList("190685", "605298", "604829"), this.client.getMatches("omim", "down", 3, 0));
+        Assert.assertEquals(1, this.requests.size());
+
+        this.client.getMatches("omim", "down", 3, 3);
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void getSummariesParsesResponse()
+    {
+        List<DocumentSummary> result = this.client.getSummaries("omim", Arrays.asList("605298", "190685"));
+        Assert.assertEquals(2, result.size());
+        // The requested order is kept
+        Assert.assertEquals("605298", result.get(0).getId());
+        Assert.assertEquals("190685", result.get(1).getId());
+
+        // Uppercase titles are fixed, the others are left untouched
+        Assert.assertEquals("Down syndrome", result.get(1).getTitle());
+        Assert.assertEquals("Trisomy 21", result.get(1).toMap().get("AltTitles"));
+        Assert.assertEquals("Down syndrome critical region gene 3", result.get(0).getTitle());
+
+        // Empty items are skipped, nested lists are flattened
+        Map<String, Object> map = result.get(0).toMap();
+        Assert.assertFalse(map.containsKey("AltTitles"));
+        Assert.assertEquals(Arrays.asList("Smith J", "Doe A"), map.get("AuthorList"));
+        Assert.assertEquals("21q22.2", map.get("Locus"));
+        Assert.assertEquals("605298", map.get("id"));
+
+        Assert.assertEquals("605298,190685", getParameter(this.requests.get(0), "id"));
+    }
+
+    @Test
+    public void summariesKeepNestedItemsInXML() throws Exception
+    {
+        DocumentSummary summary = this.client.getSummaries("omim", Arrays.asList("605298")).get(0);
+        StringWriter out = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+        summary.writeXML(writer);
+        writer.close();
+
+        Assert.assertTrue(out.toString().contains("<Item Name=\"AuthorList\" Type=\"List\">"
+            + "<Item Name=\"Author\" Type=\"String\">Smith J</Item>"
+            + "<Item Name=\"Editors\" Type=\"List\"><Item Name=\"Editor\" Type=\"String\">Doe A</Item></Item>"
+            + "</Item>"));
+    }
+
+    @Test
+    public void getSummariesSkipsUnknownIdentifiers()
+    {
+        List<DocumentSummary> result = this.client.getSummaries("omim", Arrays.asList("100", "190685"));
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("190685", result.get(0).getId());
+    }
+
+    @Test
+    public void getSummariesOnlyRequestsUncachedDocuments()
+    {
+        this.client.getSummaries("omim", Arrays.asList("190685"));
+        List<DocumentSummary> result = this.client.getSummaries("omim", Arrays.asList("190685", "605298"));
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(2, this.requests.size());
+        Assert.assertEquals("605298", getParameter(this.requests.get(1), "id"));
+
+        this.client.getSummaries("omim", Arrays.asList("605298", "190685"));
+        Assert.assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void getSummariesRequestsBatches()
+    {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 450; ++i) {
+            ids.add(String.valueOf(i));
+        }
+        this.client.getSummaries("pubmed", ids);
+        Assert.assertEquals(3, this.requests.size());
+        Assert.assertEquals(StringUtils.join(ids.subList(0, 200), ','), getParameter(this.requests.get(0), "id"));
+        Assert.assertEquals(StringUtils.join(ids.subList(200, 400), ','), getParameter(this.requests.get(1), "id"));
+        Assert.assertEquals(StringUtils.join(ids.subList(400, 450), ','), getParameter(this.requests.get(2), "id"));
+    }
+
+    @Test
+    public void getSuggestionsUsesCorrectedQueryAndHistoryServer()
+    {
+        List<DocumentSummary> result = this.client.getSuggestions("omim", "atention sindrom", 3, 0);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("190685", result.get(0).getId());
+        Assert.assertEquals("605298", result.get(1).getId());
+
+        Assert.assertEquals(3, this.requests.size());
+        Assert.assertEquals("attention syndrome", getParameter(this.requests.get(1), "term"));
+        URI summaries = this.requests.get(2);
+        Assert.assertTrue(summaries.getPath().endsWith("/esummary.fcgi"));
+        Assert.assertEquals("1", getParameter(summaries, "query_key"));
+        Assert.assertEquals("NCID_1_123456_130.14.18.34_9001_1400000000_1", getParameter(summaries, "WebEnv"));
+        Assert.assertNull(getParameter(summaries, "id"));
+    }
+
+    @Test
+    public void getSuggestionsDoesNotReuseCachedHistory()
+    {
+        this.client.getSuggestions("omim", "atention sindrom", 3, 0);
+        List<DocumentSummary> result = this.client.getSuggestions("omim", "atention sindrom", 3, 0);
+        Assert.assertEquals(2, result.size());
+        // Everything was cached by the first call, except the document that wasn't found
+        Assert.assertEquals(4, this.requests.size());
+        URI summaries = this.requests.get(3);
+        Assert.assertEquals("604829", getParameter(summaries, "id"));
+        Assert.assertNull(getParameter(summaries, "WebEnv"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<Object> mockCache()
+    {
+        final Map<String, Object> values = new HashMap<>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(anyString(), any());
+        return cache;
+    }
+
+    private static String getParameter(URI uri, String name)
+    {
+        for (NameValuePair parameter : URLEncodedUtils.parse(uri, "UTF-8")) {
+            if (name.equals(parameter.getName())) {
+                return parameter.getValue();
+            }
+        }
+        return null;
+    }
+}
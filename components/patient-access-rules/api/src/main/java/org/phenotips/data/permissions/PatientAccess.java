@@ -55,6 +55,16 @@
 
     boolean removeCollaborator(Collaborator collaborator);
 
+    /**
+     * Apply a combination of owner, visibility and collaborator changes to this patient record at once, saving the
+     * record only once.
+     *
+     * @param change the changes to apply, obtained from {@link PermissionsManager#createChange()}
+     * @return {@code true} if the changes were successfully applied, {@code false} otherwise
+     * @since 1.3M1
+     */
+    boolean applyChange(PermissionsChange change);
+
     AccessLevel getAccessLevel();
 
     AccessLevel getAccessLevel(EntityReference user);
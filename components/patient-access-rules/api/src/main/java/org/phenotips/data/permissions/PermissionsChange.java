@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+
+/**
+ * A set of changes to the access rights of patient records, combining owner, visibility and collaborator updates, which
+ * are all applied at once with a single save per patient record. Obtain a new instance with
+ * {@link PermissionsManager#createChange()}, describe the changes using the chainable setters, and apply them with
+ * {@link PatientAccess#applyChange(PermissionsChange)} or {@link PermissionsManager#applyChange(Collection,
+ * PermissionsChange)}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface PermissionsChange
+{
+    /**
+     * Transfer ownership to a new user or group. The previous owner, if any, becomes a collaborator with {@code manage}
+     * access, and the new owner is removed from the collaborators.
+     *
+     * @param userOrGroup the new owner, may be {@code null} to clear the owner
+     * @return this object, for chaining
+     */
+    PermissionsChange setOwner(EntityReference userOrGroup);
+
+    /**
+     * Change the visibility of the records.
+     *
+     * @param visibility the new visibility, may be {@code null} to clear the visibility
+     * @return this object, for chaining
+     */
+    PermissionsChange setVisibility(Visibility visibility);
+
+    /**
+     * Replace all the existing collaborators with a new list. Individual additions and removals are applied afterwards.
+     *
+     * @param collaborators the new collaborators, must not be {@code null}; collaborators without an access level are
+     *            skipped
+     * @return this object, for chaining
+     */
+    PermissionsChange setCollaborators(Collection<Collaborator> collaborators);
+
+    /**
+     * Add a collaborator, or change the access level of an existing one.
+     *
+     * @param userOrGroup the collaborator to add
+     * @param access the access level to grant; {@code null} removes the collaborator instead
+     * @return this object, for chaining
+     */
+    PermissionsChange addCollaborator(EntityReference userOrGroup, AccessLevel access);
+
+    /**
+     * Remove a collaborator.
+     *
+     * @param userOrGroup the collaborator to remove
+     * @return this object, for chaining
+     */
+    PermissionsChange removeCollaborator(EntityReference userOrGroup);
+
+    /**
+     * Whether the owner is changed.
+     *
+     * @return {@code true} if {@link #setOwner(EntityReference)} was called
+     */
+    boolean isOwnerChanged();
+
+    /**
+     * The new owner.
+     *
+     * @return the new owner, {@code null} if the owner is not changed or is cleared
+     */
+    EntityReference getOwner();
+
+    /**
+     * Whether the visibility is changed.
+     *
+     * @return {@code true} if {@link #setVisibility(Visibility)} was called
+     */
+    boolean isVisibilityChanged();
+
+    /**
+     * The new visibility.
+     *
+     * @return the new visibility, {@code null} if the visibility is not changed or is cleared
+     */
+    Visibility getVisibility();
+
+    /**
+     * The collaborators replacing all the existing ones.
+     *
+     * @return the new list of collaborators, or {@code null} if the existing collaborators are preserved
+     */
+    Collection<Collaborator> getCollaborators();
+
+    /**
+     * The collaborators to add or update.
+     *
+     * @return a collection of collaborators, may be empty
+     */
+    Collection<Collaborator> getAddedCollaborators();
+
+    /**
+     * The collaborators to remove.
+     *
+     * @return a collection of users and groups, may be empty
+     */
+    Collection<EntityReference> getRemovedCollaborators();
+
+    /**
+     * Whether this change actually changes anything.
+     *
+     * @return {@code true} if no changes were requested
+     */
+    boolean isEmpty();
+}
@@ -41,4 +41,24 @@
     AccessLevel resolveAccessLevel(String name);
 
     PatientAccess getPatientAccess(Patient targetPatient);
+
+    /**
+     * Create a new, empty, set of permissions changes.
+     *
+     * @return a new change object
+     * @since 1.3M1
+     */
+    PermissionsChange createChange();
+
+    /**
+     * Apply the same combination of owner, visibility and collaborator changes to several patient records, saving each
+     * record only once. No access checks are performed.
+     *
+     * @param patients the patient records to update
+     * @param change the changes to apply
+     * @return {@code true} if the changes were successfully applied to all the records, {@code false} if at least one
+     *         record failed to be updated
+     * @since 1.3M1
+     */
+    boolean applyChange(Collection<Patient> patients, PermissionsChange change);
 }
@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the {@link PatientAccessTable} in sync with patient records and group memberships. Document events are used
+ * instead of the patient events since they are fired only after the document is saved, and they are also replayed
+ * for changes done on other nodes of a cluster.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("phenotips-patient-access-table-updater")
+@Singleton
+public class AccessTableUpdateEventListener extends AbstractEventListener
+{
+    private static final EntityReference GROUP_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
+        new EntityReference(XWiki.SYSTEM_SPACE, EntityType.SPACE));
+
+    @Inject
+    private PatientAccessTable accessTable;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public AccessTableUpdateEventListener()
+    {
+        super("phenotips-patient-access-table-updater", new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        if (doc == null) {
+            return;
+        }
+        if (event instanceof DocumentDeletedEvent) {
+            if (hasObject(doc.getOriginalDocument(), Patient.CLASS_REFERENCE)) {
+                this.accessTable.remove(doc.getDocumentReference());
+            }
+        } else if (hasObject(doc, Patient.CLASS_REFERENCE)) {
+            this.accessTable.update(doc);
+        }
+        if (hasObject(doc, GROUP_CLASS) || hasObject(doc.getOriginalDocument(), GROUP_CLASS)) {
+            this.accessTable.invalidateGroups();
+        }
+    }
+
+    private boolean hasObject(XWikiDocument doc, EntityReference classReference)
+    {
+        return doc != null && doc.getXObject(classReference) != null;
+    }
+}
@@ -22,6 +22,7 @@
 import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 
@@ -130,6 +131,12 @@ public boolean removeCollaborator(Collaborator collaborator)
         return this.helper.removeCollaborator(this.patient, collaborator);
     }
 
+    @Override
+    public boolean applyChange(PermissionsChange change)
+    {
+        return this.helper.applyChange(this.patient, change);
+    }
+
     @Override
     public AccessLevel getAccessLevel()
     {
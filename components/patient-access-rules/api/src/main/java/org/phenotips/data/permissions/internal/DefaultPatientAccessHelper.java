@@ -21,6 +21,7 @@
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 
@@ -37,11 +38,7 @@
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
 import java.util.TreeMap;
 
 import javax.inject.Inject;
@@ -49,14 +46,12 @@
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
-import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
-import com.xpn.xwiki.user.api.XWikiGroupService;
 
 /**
  * @version $Id$
@@ -71,9 +66,6 @@ public class DefaultPatientAccessHelper implements PatientAccessHelper
     private static final EntityReference GROUP_CLASS = new EntityReference("XWikiGroups", EntityType.DOCUMENT,
         new EntityReference(XWiki.SYSTEM_SPACE, EntityType.SPACE));
 
-    @Inject
-    private Logger logger;
-
     @Inject
     private DocumentAccessBridge bridge;
 
@@ -97,6 +89,9 @@ public class DefaultPatientAccessHelper implements PatientAccessHelper
     @Inject
     private AuthorizationManager rights;
 
+    @Inject
+    private PatientAccessTable accessTable;
+
     @Override
     public DocumentReference getCurrentUser()
     {
@@ -130,22 +125,7 @@ public Owner getOwner(Patient patient)
     @Override
     public boolean setOwner(Patient patient, EntityReference userOrGroup)
     {
-        DocumentReference classReference =
-            this.partialEntityResolver.resolve(Owner.CLASS_REFERENCE, patient.getDocument());
-        try {
-            EntityReference previousOwner = getOwner(patient).getUser();
-            DocumentReference absoluteUserOrGroup = this.partialEntityResolver.resolve(userOrGroup);
-            String owner = userOrGroup != null ? this.entitySerializer.serialize(absoluteUserOrGroup) : "";
-            this.bridge.setProperty(patient.getDocument(), classReference, "owner", owner);
-            if (!previousOwner.equals(userOrGroup)) {
-                addCollaborator(patient,
-                    new DefaultCollaborator(previousOwner, this.manager.resolveAccessLevel("manage"), null));
-            }
-            removeCollaborator(patient, new DefaultCollaborator(userOrGroup, null, null));
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+        return applyChange(patient, new DefaultPermissionsChange().setOwner(userOrGroup));
     }
 
     @Override
@@ -177,37 +157,10 @@ public boolean setVisibility(Patient patient, Visibility visibility)
     @Override
     public AccessLevel getAccessLevel(Patient patient, EntityReference user)
     {
-        AccessLevel result = this.manager.resolveAccessLevel("none");
         if (patient == null || user == null) {
-            return result;
-        }
-        try {
-            EntityReference owner = getOwner(patient).getUser();
-            Collection<Collaborator> collaborators = getCollaborators(patient);
-            Set<DocumentReference> processedEntities = new HashSet<DocumentReference>();
-            Queue<DocumentReference> entitiesToCheck = new LinkedList<DocumentReference>();
-            entitiesToCheck.add((DocumentReference) user);
-            AccessLevel currentItemAccess = null;
-            DocumentReference currentItem;
-            XWikiContext context = getXWikiContext();
-            XWikiGroupService groupService = context.getWiki().getGroupService(context);
-            while (!entitiesToCheck.isEmpty()) {
-                currentItem = entitiesToCheck.poll();
-                currentItemAccess = getAccessLevel(currentItem, owner, collaborators);
-                if (currentItemAccess.compareTo(result) > 0) {
-                    result = currentItemAccess;
-                }
-                processedEntities.add(currentItem);
-                Collection<DocumentReference> groups =
-                    groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context);
-                groups.removeAll(processedEntities);
-                entitiesToCheck.addAll(groups);
-            }
-        } catch (XWikiException ex) {
-            this.logger.warn("Failed to compute access level for [{}] on [{}]: {}", user, patient.getDocument(),
-                ex.getMessage());
+            return this.manager.resolveAccessLevel("none");
         }
-        return result;
+        return this.accessTable.getAccessLevel(patient.getDocument(), (DocumentReference) user);
     }
 
     @Override
@@ -320,6 +273,52 @@ public boolean removeCollaborator(Patient patient, Collaborator collaborator)
         return false;
     }
 
+    @Override
+    public boolean applyChange(Patient patient, PermissionsChange change)
+    {
+        if (patient == null || patient.getDocument() == null || change == null) {
+            return false;
+        }
+        if (change.isEmpty()) {
+            return true;
+        }
+        try {
+            XWikiDocument patientDoc = (XWikiDocument) this.bridge.getDocument(patient.getDocument());
+            XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+            DocumentReference collaboratorClass =
+                this.partialEntityResolver.resolve(Collaborator.CLASS_REFERENCE, patient.getDocument());
+
+            if (change.getCollaborators() != null) {
+                patientDoc.removeXObjects(collaboratorClass);
+                for (Collaborator collaborator : change.getCollaborators()) {
+                    setCollaborator(patientDoc, collaboratorClass, collaborator.getUser(),
+                        collaborator.getAccessLevel(), context);
+                }
+            }
+            for (EntityReference removed : change.getRemovedCollaborators()) {
+                removeCollaborator(patientDoc, collaboratorClass, removed);
+            }
+            for (Collaborator added : change.getAddedCollaborators()) {
+                setCollaborator(patientDoc, collaboratorClass, added.getUser(), added.getAccessLevel(), context);
+            }
+            if (change.isVisibilityChanged()) {
+                BaseObject visibilityObject = getOrCreateXObject(patientDoc,
+                    this.partialEntityResolver.resolve(Visibility.CLASS_REFERENCE, patient.getDocument()), context);
+                visibilityObject.setStringValue("visibility",
+                    change.getVisibility() != null ? change.getVisibility().getName() : "");
+            }
+            if (change.isOwnerChanged()) {
+                setOwner(patientDoc, patient.getDocument(), change.getOwner(), context);
+            }
+
+            context.getWiki().saveDocument(patientDoc, "Updated access rights", true, context);
+            return true;
+        } catch (Exception e) {
+            // This should not happen;
+        }
+        return false;
+    }
+
     @Override
     public String getType(EntityReference userOrGroup)
     {
@@ -335,22 +334,69 @@ public String getType(EntityReference userOrGroup)
         return "unknown";
     }
 
-    private AccessLevel getAccessLevel(EntityReference userOrGroup, EntityReference owner,
-        Collection<Collaborator> collaborators)
+    private void setOwner(XWikiDocument patientDoc, DocumentReference patientReference, EntityReference userOrGroup,
+        XWikiContext context) throws XWikiException
     {
-        if (userOrGroup.equals(owner)) {
-            return this.manager.resolveAccessLevel("owner");
-        }
-        for (Collaborator collaborator : collaborators) {
-            if (collaborator.getUser().equals(userOrGroup)) {
-                return collaborator.getAccessLevel();
+        DocumentReference collaboratorClass =
+            this.partialEntityResolver.resolve(Collaborator.CLASS_REFERENCE, patientReference);
+        BaseObject ownerObject = getOrCreateXObject(patientDoc,
+            this.partialEntityResolver.resolve(Owner.CLASS_REFERENCE, patientReference), context);
+        String previousOwner = ownerObject.getStringValue("owner");
+        ownerObject.setStringValue("owner", serialize(userOrGroup));
+        if (StringUtils.isNotBlank(previousOwner)) {
+            DocumentReference previousOwnerReference =
+                this.stringEntityResolver.resolve(previousOwner, patientReference);
+            if (userOrGroup == null
+                || !previousOwnerReference.equals(this.partialEntityResolver.resolve(userOrGroup))) {
+                setCollaborator(patientDoc, collaboratorClass, previousOwnerReference,
+                    this.manager.resolveAccessLevel("manage"), context);
             }
         }
-        return this.manager.resolveAccessLevel("none");
+        removeCollaborator(patientDoc, collaboratorClass, userOrGroup);
     }
 
-    private XWikiContext getXWikiContext()
+    private void setCollaborator(XWikiDocument patientDoc, DocumentReference collaboratorClass,
+        EntityReference userOrGroup, AccessLevel access, XWikiContext context) throws XWikiException
     {
-        return (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+        if (access == null) {
+            // No access left, for example an unknown access level name
+            removeCollaborator(patientDoc, collaboratorClass, userOrGroup);
+            return;
+        }
+        String user = serialize(userOrGroup);
+        BaseObject o = patientDoc.getXObject(collaboratorClass, "collaborator", user, false);
+        if (o == null) {
+            o = patientDoc.newXObject(collaboratorClass, context);
+        }
+        o.setStringValue("collaborator", user);
+        o.setStringValue("access", access.getName());
+    }
+
+    private void removeCollaborator(XWikiDocument patientDoc, DocumentReference collaboratorClass,
+        EntityReference userOrGroup)
+    {
+        BaseObject o = patientDoc.getXObject(collaboratorClass, "collaborator", serialize(userOrGroup), false);
+        if (o != null) {
+            patientDoc.removeXObject(o);
+        }
+    }
+
+    private BaseObject getOrCreateXObject(XWikiDocument patientDoc, DocumentReference classReference,
+        XWikiContext context) throws XWikiException
+    {
+        BaseObject o = patientDoc.getXObject(classReference);
+        if (o == null) {
+            o = patientDoc.newXObject(classReference, context);
+        }
+        return o;
+    }
+
+    private String serialize(EntityReference userOrGroup)
+    {
+        if (userOrGroup == null) {
+            return "";
+        }
+        DocumentReference absoluteUserOrGroup = this.partialEntityResolver.resolve(userOrGroup);
+        return StringUtils.defaultString(this.entitySerializer.serialize(absoluteUserOrGroup));
     }
 }
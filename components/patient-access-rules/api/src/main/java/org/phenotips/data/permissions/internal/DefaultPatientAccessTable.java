@@ -0,0 +1,429 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+/**
+ * {@link PatientAccessTable} implementation backed by bounded in-memory caches. Rows are loaded lazily, one patient at
+ * a time when a record is first checked, and the patients of a principal are loaded with a query the first time they
+ * are listed; afterwards both are updated incrementally from the document and group events.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultPatientAccessTable implements PatientAccessTable, Initializable
+{
+    private static final String NO_ACCESS = "none";
+
+    private static final String OWNER = "owner";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private QueryManager qm;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    @Named("currentmixed")
+    private DocumentReferenceResolver<String> stringEntityResolver;
+
+    /** Serializes cache keys, and the principal names as stored by the access helper. */
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Serializes principal names as stored by older versions, without the wiki prefix. */
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private PermissionsManager manager;
+
+    /** Patient document reference to the access explicitly granted on that record to each principal. */
+    private Cache<Map<DocumentReference, AccessLevel>> byPatient;
+
+    /** Principal to the access explicitly granted to it on each patient record; the reverse of {@link #byPatient}. */
+    private Cache<Map<DocumentReference, AccessLevel>> byPrincipal;
+
+    /** User or group to the set containing itself and all the groups it belongs to, directly or indirectly. */
+    private Cache<Set<DocumentReference>> memberships;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.byPatient = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(10000)));
+            this.byPrincipal = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(1000)));
+            this.memberships = this.cacheManager.createNewLocalCache(
+                new CacheConfiguration(new LRUEvictionConfiguration(1000)));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the patient access caches", ex);
+        }
+    }
+
+    @Override
+    public AccessLevel getAccessLevel(DocumentReference patient, DocumentReference userOrGroup)
+    {
+        AccessLevel result = this.manager.resolveAccessLevel(NO_ACCESS);
+        if (patient == null || userOrGroup == null) {
+            return result;
+        }
+        Map<DocumentReference, AccessLevel> grants = getGrants(patient);
+        for (DocumentReference principal : getPrincipals(userOrGroup)) {
+            AccessLevel access = grants.get(principal);
+            if (access != null && (result == null || access.compareTo(result) > 0)) {
+                result = access;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<DocumentReference> getPatients(DocumentReference userOrGroup, AccessLevel minimumAccess)
+    {
+        if (minimumAccess == null) {
+            return Collections.emptySet();
+        }
+        Set<DocumentReference> result = new HashSet<DocumentReference>(getVisiblePatients(minimumAccess));
+        if (userOrGroup != null) {
+            for (DocumentReference principal : getPrincipals(userOrGroup)) {
+                for (Map.Entry<DocumentReference, AccessLevel> grant : getPrincipalGrants(principal).entrySet()) {
+                    if (grant.getValue().compareTo(minimumAccess) >= 0) {
+                        result.add(grant.getKey());
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<DocumentReference> getGrantees(DocumentReference patient, AccessLevel minimumAccess)
+    {
+        if (patient == null || minimumAccess == null) {
+            return Collections.emptySet();
+        }
+        Set<DocumentReference> result = new HashSet<DocumentReference>();
+        for (Map.Entry<DocumentReference, AccessLevel> grant : getGrants(patient).entrySet()) {
+            if (grant.getValue().compareTo(minimumAccess) >= 0) {
+                result.add(grant.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void update(XWikiDocument patientDocument)
+    {
+        if (patientDocument == null) {
+            return;
+        }
+        DocumentReference patient = patientDocument.getDocumentReference();
+        Map<DocumentReference, AccessLevel> previous = this.byPatient.get(key(patient));
+        if (previous == null && patientDocument.getOriginalDocument() != null) {
+            previous = readGrants(patientDocument.getOriginalDocument(), patient);
+        }
+        Map<DocumentReference, AccessLevel> grants = readGrants(patientDocument, patient);
+        this.byPatient.set(key(patient), grants);
+        updatePrincipals(patient, previous, grants);
+    }
+
+    @Override
+    public synchronized void remove(DocumentReference patient)
+    {
+        if (patient != null) {
+            Map<DocumentReference, AccessLevel> previous = this.byPatient.get(key(patient));
+            this.byPatient.remove(key(patient));
+            updatePrincipals(patient, previous, Collections.<DocumentReference, AccessLevel>emptyMap());
+        }
+    }
+
+    @Override
+    public void invalidateGroups()
+    {
+        this.memberships.removeAll();
+    }
+
+    private Map<DocumentReference, AccessLevel> getGrants(DocumentReference patient)
+    {
+        Map<DocumentReference, AccessLevel> grants = this.byPatient.get(key(patient));
+        if (grants == null) {
+            synchronized (this) {
+                grants = this.byPatient.get(key(patient));
+                if (grants == null) {
+                    grants = loadGrants(patient);
+                }
+            }
+        }
+        return grants != null ? grants : Collections.<DocumentReference, AccessLevel>emptyMap();
+    }
+
+    private Map<DocumentReference, AccessLevel> loadGrants(DocumentReference patient)
+    {
+        try {
+            XWikiDocument patientDocument = (XWikiDocument) this.bridge.getDocument(patient);
+            if (patientDocument != null) {
+                Map<DocumentReference, AccessLevel> grants = readGrants(patientDocument, patient);
+                this.byPatient.set(key(patient), grants);
+                return grants;
+            }
+        } catch (Exception ex) {
+            this.logger.warn("Failed to load access rights for patient [{}]: {}", patient, ex.getMessage());
+        }
+        return null;
+    }
+
+    private Map<DocumentReference, AccessLevel> readGrants(XWikiDocument patientDocument, DocumentReference patient)
+    {
+        Map<DocumentReference, AccessLevel> grants = new HashMap<DocumentReference, AccessLevel>();
+        List<BaseObject> collaborators = patientDocument.getXObjects(Collaborator.CLASS_REFERENCE);
+        if (collaborators != null) {
+            for (BaseObject collaborator : collaborators) {
+                if (collaborator == null) {
+                    continue;
+                }
+                String collaboratorName = collaborator.getStringValue("collaborator");
+                String accessName = collaborator.getStringValue("access");
+                if (StringUtils.isBlank(collaboratorName) || StringUtils.isBlank(accessName)) {
+                    continue;
+                }
+                grant(grants, this.stringEntityResolver.resolve(collaboratorName, patient),
+                    this.manager.resolveAccessLevel(accessName));
+            }
+        }
+        BaseObject ownerObject = patientDocument.getXObject(Owner.CLASS_REFERENCE);
+        if (ownerObject != null && StringUtils.isNotBlank(ownerObject.getStringValue(OWNER))) {
+            grant(grants, this.stringEntityResolver.resolve(ownerObject.getStringValue(OWNER), patient),
+                this.manager.resolveAccessLevel(OWNER));
+        }
+        return Collections.unmodifiableMap(grants);
+    }
+
+    private void grant(Map<DocumentReference, AccessLevel> grants, DocumentReference userOrGroup, AccessLevel access)
+    {
+        if (userOrGroup == null || access == null) {
+            return;
+        }
+        AccessLevel previous = grants.get(userOrGroup);
+        if (previous == null || access.compareTo(previous) > 0) {
+            grants.put(userOrGroup, access);
+        }
+    }
+
+    /**
+     * Moves a patient between the cached principal entries after its row changed. Principals which aren't cached are
+     * skipped, since they will be loaded from the saved documents when needed. If the previous row isn't known, all
+     * the principal entries are dropped.
+     */
+    private void updatePrincipals(DocumentReference patient, Map<DocumentReference, AccessLevel> previous,
+        Map<DocumentReference, AccessLevel> grants)
+    {
+        if (previous == null) {
+            this.byPrincipal.removeAll();
+            return;
+        }
+        Set<DocumentReference> principals = new HashSet<DocumentReference>(previous.keySet());
+        principals.addAll(grants.keySet());
+        for (DocumentReference principal : principals) {
+            Map<DocumentReference, AccessLevel> principalGrants = this.byPrincipal.get(key(principal));
+            if (principalGrants == null) {
+                continue;
+            }
+            principalGrants = new HashMap<DocumentReference, AccessLevel>(principalGrants);
+            if (grants.containsKey(principal)) {
+                principalGrants.put(patient, grants.get(principal));
+            } else {
+                principalGrants.remove(patient);
+            }
+            this.byPrincipal.set(key(principal), Collections.unmodifiableMap(principalGrants));
+        }
+    }
+
+    private Map<DocumentReference, AccessLevel> getPrincipalGrants(DocumentReference principal)
+    {
+        Map<DocumentReference, AccessLevel> result = this.byPrincipal.get(key(principal));
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            result = this.byPrincipal.get(key(principal));
+            if (result != null) {
+                return result;
+            }
+            try {
+                Map<DocumentReference, AccessLevel> grants = new HashMap<DocumentReference, AccessLevel>();
+                for (DocumentReference patient : findPatients(principal)) {
+                    AccessLevel access = getGrants(patient).get(principal);
+                    if (access != null) {
+                        grants.put(patient, access);
+                    }
+                }
+                result = Collections.unmodifiableMap(grants);
+                this.byPrincipal.set(key(principal), result);
+            } catch (QueryException ex) {
+                this.logger.warn("Failed to list the patients of [{}]: {}", principal, ex.getMessage());
+                result = Collections.emptyMap();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Lists the patient records which name a principal as their owner or as a collaborator. Names are compared as
+     * strings, so the grants of the returned records must still be checked.
+     */
+    private Set<DocumentReference> findPatients(DocumentReference principal) throws QueryException
+    {
+        Set<DocumentReference> result = new LinkedHashSet<DocumentReference>();
+        findPatients(principal, "OwnerClass", OWNER, result);
+        findPatients(principal, "CollaboratorClass", "collaborator", result);
+        return result;
+    }
+
+    private void findPatients(DocumentReference principal, String className, String propertyName,
+        Set<DocumentReference> result) throws QueryException
+    {
+        Query q = this.qm.createQuery("from doc.object(PhenoTips." + className + ") as o where o." + propertyName
+            + " = :name or o." + propertyName + " = :localName", Query.XWQL);
+        q.bindValue("name", this.serializer.serialize(principal));
+        q.bindValue("localName", this.localSerializer.serialize(principal));
+        for (Object patientDoc : q.execute()) {
+            result.add(this.stringEntityResolver.resolve(String.valueOf(patientDoc)));
+        }
+    }
+
+    /**
+     * Lists the patient records whose visibility grants everyone at least the requested access. Records without a
+     * visibility object are private, and thus never listed.
+     */
+    private Collection<DocumentReference> getVisiblePatients(AccessLevel minimumAccess)
+    {
+        Set<DocumentReference> result = new HashSet<DocumentReference>();
+        for (Visibility visibility : this.manager.listVisibilityOptions()) {
+            if (visibility.getDefaultAccessLevel() == null
+                || visibility.getDefaultAccessLevel().compareTo(minimumAccess) < 0) {
+                continue;
+            }
+            try {
+                Query q = this.qm.createQuery(
+                    "from doc.object(PhenoTips.VisibilityClass) as v where v.visibility = :visibility", Query.XWQL);
+                q.bindValue("visibility", visibility.getName());
+                for (Object patientDoc : q.execute()) {
+                    result.add(this.stringEntityResolver.resolve(String.valueOf(patientDoc)));
+                }
+            } catch (QueryException ex) {
+                this.logger.warn("Failed to list [{}] patients: {}", visibility.getName(), ex.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private Set<DocumentReference> getPrincipals(DocumentReference userOrGroup)
+    {
+        Set<DocumentReference> result = this.memberships.get(key(userOrGroup));
+        if (result != null) {
+            return result;
+        }
+        result = new HashSet<DocumentReference>();
+        Queue<DocumentReference> entitiesToCheck = new LinkedList<DocumentReference>();
+        entitiesToCheck.add(userOrGroup);
+        try {
+            XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
+            XWikiGroupService groupService = context.getWiki().getGroupService(context);
+            while (!entitiesToCheck.isEmpty()) {
+                DocumentReference currentItem = entitiesToCheck.poll();
+                result.add(currentItem);
+                Collection<DocumentReference> groups =
+                    groupService.getAllGroupsReferencesForMember(currentItem, 0, 0, context);
+                groups.removeAll(result);
+                entitiesToCheck.addAll(groups);
+            }
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to list the groups of [{}]: {}", userOrGroup, ex.getMessage());
+            result.add(userOrGroup);
+            return result;
+        }
+        result = Collections.unmodifiableSet(result);
+        this.memberships.set(key(userOrGroup), result);
+        return result;
+    }
+
+    private String key(DocumentReference reference)
+    {
+        return this.serializer.serialize(reference);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.PermissionsChange;
+import org.phenotips.data.permissions.Visibility;
+
+import org.xwiki.model.reference.EntityReference;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Default {@link PermissionsChange} implementation, a simple mutable holder for the requested changes.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultPermissionsChange implements PermissionsChange
+{
+    private boolean ownerChanged;
+
+    private EntityReference owner;
+
+    private boolean visibilityChanged;
+
+    private Visibility visibility;
+
+    private Collection<Collaborator> collaborators;
+
+    private final Map<EntityReference, Collaborator> addedCollaborators =
+        new LinkedHashMap<EntityReference, Collaborator>();
+
+    private final Set<EntityReference> removedCollaborators = new LinkedHashSet<EntityReference>();
+
+    @Override
+    public PermissionsChange setOwner(EntityReference userOrGroup)
+    {
+        this.ownerChanged = true;
+        this.owner = userOrGroup;
+        return this;
+    }
+
+    @Override
+    public PermissionsChange setVisibility(Visibility newVisibility)
+    {
+        this.visibilityChanged = true;
+        this.visibility = newVisibility;
+        return this;
+    }
+
+    @Override
+    public PermissionsChange setCollaborators(Collection<Collaborator> newCollaborators)
+    {
+        this.collaborators = new LinkedList<Collaborator>(newCollaborators);
+        return this;
+    }
+
+    @Override
+    public PermissionsChange addCollaborator(EntityReference userOrGroup, AccessLevel access)
+    {
+        if (access == null) {
+            return removeCollaborator(userOrGroup);
+        }
+        this.removedCollaborators.remove(userOrGroup);
+        this.addedCollaborators.put(userOrGroup, new DefaultCollaborator(userOrGroup, access, null));
+        return this;
+    }
+
+    @Override
+    public PermissionsChange removeCollaborator(EntityReference userOrGroup)
+    {
+        this.addedCollaborators.remove(userOrGroup);
+        this.removedCollaborators.add(userOrGroup);
+        return this;
+    }
+
+    @Override
+    public boolean isOwnerChanged()
+    {
+        return this.ownerChanged;
+    }
+
+    @Override
+    public EntityReference getOwner()
+    {
+        return this.owner;
+    }
+
+    @Override
+    public boolean isVisibilityChanged()
+    {
+        return this.visibilityChanged;
+    }
+
+    @Override
+    public Visibility getVisibility()
+    {
+        return this.visibility;
+    }
+
+    @Override
+    public Collection<Collaborator> getCollaborators()
+    {
+        return this.collaborators == null ? null : Collections.unmodifiableCollection(this.collaborators);
+    }
+
+    @Override
+    public Collection<Collaborator> getAddedCollaborators()
+    {
+        return Collections.unmodifiableCollection(this.addedCollaborators.values());
+    }
+
+    @Override
+    public Collection<EntityReference> getRemovedCollaborators()
+    {
+        return Collections.unmodifiableSet(this.removedCollaborators);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return !this.ownerChanged && !this.visibilityChanged && this.collaborators == null
+            && this.addedCollaborators.isEmpty() && this.removedCollaborators.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Permissions change: owner " + (this.ownerChanged ? this.owner : "unchanged") + ", visibility "
+            + (this.visibilityChanged ? this.visibility : "unchanged") + ", collaborators "
+            + (this.collaborators != null ? this.collaborators : "unchanged") + ", added "
+            + this.addedCollaborators.values() + ", removed " + this.removedCollaborators;
+    }
+}
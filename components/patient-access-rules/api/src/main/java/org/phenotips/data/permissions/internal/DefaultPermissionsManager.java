@@ -20,6 +20,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 
@@ -116,6 +117,26 @@ public PatientAccess getPatientAccess(Patient targetPatient)
         return new DefaultPatientAccess(targetPatient, getHelper(), this);
     }
 
+    @Override
+    public PermissionsChange createChange()
+    {
+        return new DefaultPermissionsChange();
+    }
+
+    @Override
+    public boolean applyChange(Collection<Patient> patients, PermissionsChange change)
+    {
+        boolean result = true;
+        PatientAccessHelper helper = getHelper();
+        for (Patient patient : patients) {
+            if (!helper.applyChange(patient, change)) {
+                this.logger.warn("Failed to apply [{}] to patient [{}]", change, patient.getDocument());
+                result = false;
+            }
+        }
+        return result;
+    }
+
     private PatientAccessHelper getHelper()
     {
         try {
@@ -21,6 +21,7 @@
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.Visibility;
 
 import org.xwiki.component.annotation.Role;
@@ -57,5 +58,7 @@
 
     boolean removeCollaborator(Patient patient, Collaborator collaborator);
 
+    boolean applyChange(Patient patient, PermissionsChange change);
+
     String getType(EntityReference userOrGroup);
 }
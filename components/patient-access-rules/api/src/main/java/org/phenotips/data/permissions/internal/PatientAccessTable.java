@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.Collection;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Materialized table of the access levels explicitly granted on patient records, indexed both by patient and by
+ * principal (user or group). The table only holds the grants stored in the patient records themselves, i.e. the owner
+ * and the collaborators; administrative rights are not taken into account. It is kept up to date by an event listener
+ * that reacts to saved patient and group documents.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface PatientAccessTable
+{
+    /**
+     * Computes the highest access level explicitly granted on a patient record to a user, either directly or through
+     * one of the groups the user belongs to. The visibility of the record is not taken into account.
+     *
+     * @param patient the document reference of the target patient record
+     * @param userOrGroup the user or group whose access is checked
+     * @return the granted access level, the {@code none} access level if nothing is granted
+     */
+    AccessLevel getAccessLevel(DocumentReference patient, DocumentReference userOrGroup);
+
+    /**
+     * Lists all the patient records on which a user has at least the requested access level, either granted explicitly
+     * to the user or one of its groups, or implicitly granted by the visibility of the record.
+     *
+     * @param userOrGroup the user or group whose access is checked; if {@code null}, only the access granted by the
+     *            visibility of the records is considered
+     * @param minimumAccess the minimum access level to look for
+     * @return the references of the matching patient records, may be empty
+     */
+    Collection<DocumentReference> getPatients(DocumentReference userOrGroup, AccessLevel minimumAccess);
+
+    /**
+     * Lists the users and groups explicitly granted at least the requested access level on a patient record. Members
+     * of the listed groups are not expanded, and the visibility of the record is not taken into account.
+     *
+     * @param patient the document reference of the target patient record
+     * @param minimumAccess the minimum access level to look for
+     * @return the references of the matching users and groups, may be empty
+     */
+    Collection<DocumentReference> getGrantees(DocumentReference patient, AccessLevel minimumAccess);
+
+    /**
+     * Recomputes the row of a patient record from the owner and collaborator objects of its document.
+     *
+     * @param patientDocument the document holding the patient record
+     */
+    void update(XWikiDocument patientDocument);
+
+    /**
+     * Removes a patient record from the table.
+     *
+     * @param patient the document reference of the removed patient record
+     */
+    void remove(DocumentReference patient);
+
+    /** Forgets the cached group memberships, to be called whenever groups change. */
+    void invalidateGroups();
+}
@@ -25,7 +25,15 @@
 import org.phenotips.data.permissions.Visibility;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -38,9 +46,11 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -58,14 +68,15 @@
 /**
  * This listener is in charge of keeping the patient records' rights objects updated. There are 3 possible rights
  * combinations: "view", "view,edit", and "view,edit,delete". There are 3 rights objects that correspond to these
- * combinations.
+ * combinations. The desired rights are computed from the owner, the collaborators and the visibility of the record, and
+ * only the rights objects and fields that differ from the desired state are modified.
  *
  * @version $Id$
  */
 @Component
 @Named("phenotips-patient-rights-updater")
 @Singleton
-public class RightsUpdateEventListener extends AbstractEventListener
+public class RightsUpdateEventListener extends AbstractEventListener implements Initializable
 {
     private static final EntityReference USER_CLASS = new EntityReference("XWikiUsers", EntityType.DOCUMENT,
         new EntityReference(XWiki.SYSTEM_SPACE, EntityType.SPACE));
@@ -79,10 +90,16 @@ public class RightsUpdateEventListener extends AbstractEventListener
     /** The list of all the possible rights combinations for this particular application. */
     private static final List<String> rightsCombinations = Arrays.asList("view", "view,edit", "view,edit,delete");
 
+    private static final String OWNER_RIGHTS = "view,edit,delete";
+
     private static final String USERS = "users";
 
     private static final String GROUPS = "groups";
 
+    private static final String USER_TYPE = "user";
+
+    private static final String GROUP_TYPE = "group";
+
     @Inject
     private Logger logger;
 
@@ -99,27 +116,47 @@ public class RightsUpdateEventListener extends AbstractEventListener
     @Inject
     private Execution execution;
 
+    @Inject
+    private CacheManager cacheFactory;
+
+    /** Remembers whether a profile is a user or a group, to avoid loading the profile each time the rights change. */
+    private Cache<String> principalTypes;
+
     /** Default constructor, sets up the listener name and the list of events to subscribe to. */
     public RightsUpdateEventListener()
     {
         super("phenotips-patient-rights-updater", new PatientChangingEvent());
     }
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            EntryEvictionConfiguration config = new LRUEvictionConfiguration(1000);
+            config.setTimeToLive(3600);
+            this.principalTypes = this.cacheFactory.createNewLocalCache(new CacheConfiguration(config));
+        } catch (CacheException ex) {
+            throw new InitializationException("Cannot create cache: " + ex.getMessage());
+        }
+    }
+
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
         XWikiDocument doc = (XWikiDocument) source;
         XWikiContext context = (XWikiContext) this.execution.getContext().getProperty("xwikicontext");
-        // Map of permissions to users/groups
-        Map<String, Map<String, String>> oldRights = new HashMap<String, Map<String, String>>();
         Map<String, BaseObject> rightsObjects = findRights(doc);
-        List<String> missingRights = findMissingRights(rightsObjects);
-        clearRights(rightsObjects, oldRights);
-        // Create rights after clearRights, because it saves unnecessary resetting of groups and users
-        createRights(missingRights, rightsObjects, doc, context);
-        updateDefaultRights(rightsObjects, doc);
-        updateOwnerRights(rightsObjects, oldRights, doc);
-        updateCollaboratorsRights(rightsObjects, doc);
+        Map<String, Map<String, Set<String>>> desiredRights = new HashMap<String, Map<String, Set<String>>>();
+        for (String rights : rightsCombinations) {
+            Map<String, Set<String>> entities = new HashMap<String, Set<String>>();
+            entities.put(USERS, new LinkedHashSet<String>());
+            entities.put(GROUPS, new LinkedHashSet<String>());
+            desiredRights.put(rights, entities);
+        }
+        addDefaultRights(desiredRights, doc);
+        addOwnerRights(desiredRights, rightsObjects, doc);
+        addCollaboratorsRights(desiredRights, doc);
+        synchronizeRights(desiredRights, rightsObjects, doc, context);
     }
 
     /**
@@ -149,121 +186,93 @@ private Map<String, BaseObject> findRights(XWikiDocument doc)
     }
 
     /**
-     * Finds the rights combinations that do not have a corresponding existing object.
+     * Brings the rights objects in sync with the desired rights, creating the missing objects and only modifying the
+     * fields whose content is different.
      *
-     * @param rightsObjects map of existing rights objects
-     * @return a list of rights combinations that are missing
-     */
-    private List<String> findMissingRights(Map<String, BaseObject> rightsObjects)
-    {
-        List<String> missingRights = new LinkedList<String>(rightsCombinations);
-        for (String rightLevel : rightsObjects.keySet()) {
-            if (missingRights.contains(rightLevel)) {
-                missingRights.remove(rightLevel);
-            }
-        }
-        return missingRights;
-    }
-
-    /**
-     * Clears all users and groups from the existing rights objects. Stores the old rights in case of reversion.
-     */
-    private void clearRights(Map<String, BaseObject> rightsObjects, Map<String, Map<String, String>> oldRights)
-    {
-        for (BaseObject right : rightsObjects.values()) {
-            Map<String, String> entityList = new HashMap<String, String>();
-            entityList.put(GROUPS, right.getStringValue(GROUPS));
-            entityList.put(USERS, right.getStringValue(USERS));
-            oldRights.put(right.getStringValue("levels"), entityList);
-            right.setLargeStringValue(GROUPS, "");
-            right.setLargeStringValue(USERS, "");
-        }
-    }
-
-    /**
-     * Loops over the {@code rightsCombinations} and attaches a new rights object for each combination to the document.
-     *
-     * @param rightsCombinations the string array containing all the combinations for which there should be an object
-     *            created
+     * @param desiredRights the rights that should be set, with rights combinations as keys, and the users and groups
+     *            that should be listed in each combination as values
      * @param rightsObjects the map of existing rights objects
      * @param doc XWikiDocument
      * @param context XWikiContext
      */
-    private void createRights(List<String> rightsCombinations, Map<String, BaseObject> rightsObjects, XWikiDocument doc,
-        XWikiContext context)
+    private void synchronizeRights(Map<String, Map<String, Set<String>>> desiredRights,
+        Map<String, BaseObject> rightsObjects, XWikiDocument doc, XWikiContext context)
     {
         for (String rights : rightsCombinations) {
-            try {
-                BaseObject newRightObject = doc.newXObject(RIGHTS_CLASS, context);
-                newRightObject.setStringValue("levels", rights);
-                newRightObject.setIntValue("allow", 1);
-                rightsObjects.put(rights, newRightObject);
-            } catch (XWikiException ex) {
-                this.logger.error("Failed to create rights: {}", ex.getMessage(), ex);
+            BaseObject right = rightsObjects.get(rights);
+            if (right == null) {
+                try {
+                    right = doc.newXObject(RIGHTS_CLASS, context);
+                    right.setStringValue("levels", rights);
+                    right.setIntValue("allow", 1);
+                } catch (XWikiException ex) {
+                    this.logger.error("Failed to create rights: {}", ex.getMessage(), ex);
+                    continue;
+                }
+            }
+            for (Map.Entry<String, Set<String>> entities : desiredRights.get(rights).entrySet()) {
+                if (!entities.getValue().equals(getEntities(right, entities.getKey()))) {
+                    right.setLargeStringValue(entities.getKey(), StringUtils.join(entities.getValue(), ","));
+                }
             }
         }
     }
 
-    private void updateDefaultRights(Map<String, BaseObject> rightsObjects, XWikiDocument doc)
+    private void addDefaultRights(Map<String, Map<String, Set<String>>> desiredRights, XWikiDocument doc)
     {
         Visibility visibility = getVisibility(doc);
         if (visibility == null || "none".equals(visibility.getDefaultAccessLevel().getName())) {
             return;
         }
-        BaseObject right;
         if ("view".equals(visibility.getDefaultAccessLevel().getName())) {
-            right = rightsObjects.get("view");
+            desiredRights.get("view").get(GROUPS).add("XWiki.XWikiAllGroup");
         } else if ("edit".equals(visibility.getDefaultAccessLevel().getName())) {
-            right = rightsObjects.get("view,edit");
-        } else {
-            return;
+            desiredRights.get("view,edit").get(GROUPS).add("XWiki.XWikiAllGroup");
         }
-        setRights(right, "groups", "XWiki.XWikiAllGroup");
     }
 
-    private void updateOwnerRights(Map<String, BaseObject> rightsObjects, Map<String, Map<String, String>> oldRights,
-        XWikiDocument doc)
+    private void addOwnerRights(Map<String, Map<String, Set<String>>> desiredRights,
+        Map<String, BaseObject> rightsObjects, XWikiDocument doc)
     {
-        String ownerPermissions = "view,edit,delete";
         DocumentReference owner = getOwner(doc);
-        BaseObject right = rightsObjects.get(ownerPermissions);
+        Map<String, Set<String>> right = desiredRights.get(OWNER_RIGHTS);
         if (owner == null) {
-            setRights(right, USERS, "XWiki.XWikiGuest");
-        } else if (isUser(owner)) {
-            setRights(right, USERS, owner.toString());
-        } else if (isGroup(owner)) {
-            setRights(right, GROUPS, owner.toString());
-        } else {
-            for (Map.Entry<String, String> oldOwnerRights : oldRights.get(ownerPermissions).entrySet()) {
-                setRights(right, oldOwnerRights.getKey(), oldOwnerRights.getValue());
-            }
+            right.get(USERS).add("XWiki.XWikiGuest");
+            return;
+        }
+        String type = getType(owner);
+        if (USER_TYPE.equals(type)) {
+            right.get(USERS).add(owner.toString());
+        } else if (GROUP_TYPE.equals(type)) {
+            right.get(GROUPS).add(owner.toString());
+        } else if (rightsObjects.containsKey(OWNER_RIGHTS)) {
+            // The owner cannot be identified, preserve the previous rights
+            right.get(USERS).addAll(getEntities(rightsObjects.get(OWNER_RIGHTS), USERS));
+            right.get(GROUPS).addAll(getEntities(rightsObjects.get(OWNER_RIGHTS), GROUPS));
         }
     }
 
-    private void updateCollaboratorsRights(Map<String, BaseObject> rightsObjects, XWikiDocument doc)
+    private void addCollaboratorsRights(Map<String, Map<String, Set<String>>> desiredRights, XWikiDocument doc)
     {
         for (Map.Entry<AccessLevel, List<DocumentReference>> entry : getCollaborators(doc).entrySet()) {
-            BaseObject right;
+            Map<String, Set<String>> right;
             if ("manage".equals(entry.getKey().getName()) || "owner".equals(entry.getKey().getName())) {
-                right = rightsObjects.get("view,edit,delete");
+                right = desiredRights.get(OWNER_RIGHTS);
             } else if ("edit".equals(entry.getKey().getName())) {
-                right = rightsObjects.get("view,edit");
+                right = desiredRights.get("view,edit");
             } else if ("view".equals(entry.getKey().getName())) {
-                right = rightsObjects.get("view");
+                right = desiredRights.get("view");
             } else {
-                return;
+                continue;
             }
-            List<String> users = new LinkedList<String>();
-            List<String> groups = new LinkedList<String>();
             for (DocumentReference userOrGroup : entry.getValue()) {
-                if (isUser(userOrGroup)) {
-                    users.add(userOrGroup.toString());
-                } else if (isGroup(userOrGroup)) {
-                    groups.add(userOrGroup.toString());
+                String type = getType(userOrGroup);
+                if (USER_TYPE.equals(type)) {
+                    right.get(USERS).add(userOrGroup.toString());
+                } else if (GROUP_TYPE.equals(type)) {
+                    right.get(GROUPS).add(userOrGroup.toString());
                 }
             }
-            setRights(right, "users", StringUtils.join(users, ","));
-            setRights(right, "groups", StringUtils.join(groups, ","));
         }
     }
 
@@ -321,32 +330,44 @@ private Map<AccessLevel, List<DocumentReference>> getCollaborators(XWikiDocument
         return collaborators;
     }
 
-    private boolean isUser(DocumentReference profile)
+    /**
+     * Checks whether a profile is a user or a group. Known profiles are cached, unknown ones are checked again each
+     * time, since they may be created later.
+     *
+     * @param profile the profile to check
+     * @return {@code user}, {@code group}, or {@code null} if the profile is neither a user nor a group
+     */
+    private String getType(DocumentReference profile)
     {
-        try {
-            XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(profile);
-            return doc == null ? false : (doc.getXObject(USER_CLASS) != null);
-        } catch (Exception e) {
+        String key = profile.toString();
+        String type = this.principalTypes.get(key);
+        if (type != null) {
+            return type;
         }
-        return false;
-    }
-
-    private boolean isGroup(DocumentReference profile)
-    {
         try {
             XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(profile);
-            return doc == null ? false : (doc.getXObject(GROUP_CLASS) != null);
+            if (doc != null && doc.getXObject(USER_CLASS) != null) {
+                type = USER_TYPE;
+            } else if (doc != null && doc.getXObject(GROUP_CLASS) != null) {
+                type = GROUP_TYPE;
+            }
         } catch (Exception e) {
+            // Unknown type
+        }
+        if (type != null) {
+            this.principalTypes.set(key, type);
         }
-        return false;
+        return type;
     }
 
-    private void setRights(BaseObject rightsObject, String field, String value)
+    private Set<String> getEntities(BaseObject rightsObject, String field)
     {
-        String currentValue = rightsObject.getStringValue(field);
-        if (!StringUtils.isEmpty(currentValue)) {
-            currentValue += ",";
+        Set<String> result = new LinkedHashSet<String>();
+        for (String entity : StringUtils.split(StringUtils.defaultString(rightsObject.getStringValue(field)), ',')) {
+            if (StringUtils.isNotBlank(entity)) {
+                result.add(entity.trim());
+            }
         }
-        rightsObject.setLargeStringValue(field, currentValue + value);
+        return result;
     }
 }
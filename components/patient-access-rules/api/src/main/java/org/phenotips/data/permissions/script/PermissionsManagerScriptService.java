@@ -20,6 +20,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 
@@ -67,4 +68,9 @@ public PatientAccess getPatientAccess(Patient targetPatient)
     {
         return new SecurePatientAccess(this.manager.getPatientAccess(targetPatient), this.manager);
     }
+
+    public PermissionsChange createChange()
+    {
+        return this.manager.createChange();
+    }
 }
@@ -22,6 +22,7 @@
 import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.DefaultCollaborator;
@@ -146,6 +147,15 @@ public boolean removeCollaborator(Collaborator collaborator)
         return false;
     }
 
+    @Override
+    public boolean applyChange(PermissionsChange change)
+    {
+        if (hasAccessLevel("manage")) {
+            return this.internalService.applyChange(change);
+        }
+        return false;
+    }
+
     @Override
     public AccessLevel getAccessLevel()
     {
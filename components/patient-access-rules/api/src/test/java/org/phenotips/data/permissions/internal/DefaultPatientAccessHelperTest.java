@@ -27,7 +27,6 @@
 import org.phenotips.data.permissions.internal.access.EditAccessLevel;
 import org.phenotips.data.permissions.internal.access.NoAccessLevel;
 import org.phenotips.data.permissions.internal.access.OwnerAccessLevel;
-import org.phenotips.data.permissions.internal.access.ViewAccessLevel;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.manager.ComponentLookupException;
@@ -43,9 +42,7 @@
 
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 
@@ -61,7 +58,6 @@
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
-import com.xpn.xwiki.user.api.XWikiGroupService;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -229,19 +225,116 @@ public void getOwnerWithMissingDocument() throws ComponentLookupException
     @Test
     public void setOwner() throws Exception
     {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
+        BaseObject ownerObject = mock(BaseObject.class);
+        when(doc.getXObject(OWNER_CLASS)).thenReturn(ownerObject);
+        when(ownerObject.getStringValue("owner")).thenReturn(OWNER_STR);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+
         Assert.assertTrue(this.mocker.getComponentUnderTest().setOwner(this.patient, OWNER));
-        Mockito.verify(this.bridge).setProperty(PATIENT_REFERENCE, OWNER_CLASS, "owner", OWNER_STR);
+        Mockito.verify(ownerObject).setStringValue("owner", OWNER_STR);
+        Mockito.verify(doc, Mockito.never()).newXObject(COLLABORATOR_CLASS, this.context);
+        Mockito.verify(xwiki).saveDocument(doc, "Updated access rights", true, this.context);
     }
 
     /** Basic tests for {@link PatientAccessHelper#setOwner(Patient, EntityReference)}. */
     @Test
     public void setOwnerWithFailure() throws Exception
     {
-        Mockito.doThrow(new Exception()).when(this.bridge)
-            .setProperty(PATIENT_REFERENCE, OWNER_CLASS, "owner", OWNER_STR);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
+        when(doc.getXObject(OWNER_CLASS)).thenReturn(mock(BaseObject.class));
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        Mockito.doThrow(new XWikiException()).when(xwiki).saveDocument(doc, "Updated access rights", true,
+            this.context);
         Assert.assertFalse(this.mocker.getComponentUnderTest().setOwner(this.patient, OWNER));
     }
 
+    /**
+     * {@link PatientAccessHelper#applyChange(Patient, org.phenotips.data.permissions.PermissionsChange)} applies all
+     * the changes and saves the document only once, turning the previous owner into a manager.
+     */
+    @Test
+    public void applyChangeSavesOnce() throws Exception
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
+        BaseObject ownerObject = mock(BaseObject.class);
+        when(doc.getXObject(OWNER_CLASS)).thenReturn(ownerObject);
+        when(ownerObject.getStringValue("owner")).thenReturn(OWNER_STR);
+        BaseObject visibilityObject = mock(BaseObject.class);
+        when(doc.newXObject(VISIBILITY_CLASS, this.context)).thenReturn(visibilityObject);
+        BaseObject previousOwnerObject = mock(BaseObject.class);
+        BaseObject newCollaboratorObject = mock(BaseObject.class);
+        when(doc.newXObject(COLLABORATOR_CLASS, this.context)).thenReturn(newCollaboratorObject,
+            previousOwnerObject);
+        when(this.partialEntityResolver.resolve(GROUP)).thenReturn(GROUP);
+        when(this.stringEntitySerializer.serialize(GROUP)).thenReturn(GROUP_STR);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+
+        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
+        AccessLevel manage = mock(AccessLevel.class);
+        when(manage.getName()).thenReturn("manage");
+        when(manager.resolveAccessLevel("manage")).thenReturn(manage);
+        AccessLevel edit = mock(AccessLevel.class);
+        when(edit.getName()).thenReturn("edit");
+        Visibility publicV = mock(Visibility.class);
+        when(publicV.getName()).thenReturn("public");
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().applyChange(this.patient,
+            new DefaultPermissionsChange().addCollaborator(COLLABORATOR, edit).setVisibility(publicV)
+                .setOwner(GROUP)));
+        Mockito.verify(newCollaboratorObject).setStringValue("collaborator", COLLABORATOR_STR);
+        Mockito.verify(newCollaboratorObject).setStringValue("access", "edit");
+        Mockito.verify(visibilityObject).setStringValue("visibility", "public");
+        Mockito.verify(ownerObject).setStringValue("owner", GROUP_STR);
+        Mockito.verify(previousOwnerObject).setStringValue("collaborator", OWNER_STR);
+        Mockito.verify(previousOwnerObject).setStringValue("access", "manage");
+        Mockito.verify(xwiki, Mockito.times(1)).saveDocument(doc, "Updated access rights", true, this.context);
+    }
+
+    /** Collaborators without an access level are removed instead of failing the whole change. */
+    @Test
+    public void applyChangeRemovesCollaboratorsWithoutAccessLevel() throws Exception
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
+        BaseObject collaboratorObject = mock(BaseObject.class);
+        when(doc.getXObject(COLLABORATOR_CLASS, "collaborator", COLLABORATOR_STR, false))
+            .thenReturn(collaboratorObject);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+
+        DefaultPermissionsChange change = new DefaultPermissionsChange();
+        change.addCollaborator(COLLABORATOR, null);
+        Assert.assertTrue(change.getAddedCollaborators().isEmpty());
+        Assert.assertTrue(change.getRemovedCollaborators().contains(COLLABORATOR));
+        Assert.assertTrue(this.mocker.getComponentUnderTest().applyChange(this.patient, change));
+
+        Collection<Collaborator> collaborators = new ArrayList<>();
+        collaborators.add(new DefaultCollaborator(COLLABORATOR, null, null));
+        Assert.assertTrue(this.mocker.getComponentUnderTest().applyChange(this.patient,
+            new DefaultPermissionsChange().setCollaborators(collaborators)));
+
+        Mockito.verify(doc, Mockito.times(2)).removeXObject(collaboratorObject);
+        Mockito.verify(doc, Mockito.never()).newXObject(COLLABORATOR_CLASS, this.context);
+        Mockito.verify(xwiki, Mockito.times(2)).saveDocument(doc, "Updated access rights", true, this.context);
+    }
+
+    /** Empty changes don't touch the document. */
+    @Test
+    public void applyEmptyChange() throws Exception
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().applyChange(this.patient,
+            new DefaultPermissionsChange()));
+        Mockito.verify(this.bridge, Mockito.never()).getDocument(PATIENT_REFERENCE);
+        Assert.assertFalse(this.mocker.getComponentUnderTest().applyChange(this.patient, null));
+    }
+
     /** Basic tests for {@link PatientAccessHelper#getVisibility(Patient)}. */
     @Test
     public void getVisibility() throws ComponentLookupException
@@ -559,22 +652,13 @@ public void removeCollaboratorWithFailure() throws Exception
         Assert.assertFalse(this.mocker.getComponentUnderTest().removeCollaborator(this.patient, collaborator));
     }
 
-    /** {@link PatientAccessHelper#getAccessLevel(Patient, EntityReference)} returns no access for guest users. */
+    /** {@link PatientAccessHelper#getAccessLevel(Patient, EntityReference)} uses the precomputed access table. */
     @Test
     public void getAccessLevelWithOwner() throws Exception
     {
-        AccessLevel none = new NoAccessLevel();
         AccessLevel owner = new OwnerAccessLevel();
-        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
-        when(manager.resolveAccessLevel("none")).thenReturn(none);
-        when(manager.resolveAccessLevel("owner")).thenReturn(owner);
-
-        XWikiGroupService groupService = mock(XWikiGroupService.class);
-        XWiki xwiki = mock(XWiki.class);
-        when(this.context.getWiki()).thenReturn(xwiki);
-        when(xwiki.getGroupService(this.context)).thenReturn(groupService);
-        when(groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
-            .thenReturn(Collections.<DocumentReference>emptyList());
+        PatientAccessTable table = this.mocker.getInstance(PatientAccessTable.class);
+        when(table.getAccessLevel(PATIENT_REFERENCE, OWNER)).thenReturn(owner);
 
         Assert.assertSame(owner, this.mocker.getComponentUnderTest().getAccessLevel(this.patient, OWNER));
     }
@@ -616,82 +700,12 @@ public void getAccessLevelWithMissingPatientAndGuestUser() throws ComponentLooku
     @Test
     public void getAccessLevelWithSpecifiedCollaborator() throws Exception
     {
-        XWikiDocument doc = mock(XWikiDocument.class);
-        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
-        List<BaseObject> objects = new ArrayList<BaseObject>();
-        BaseObject collaborator = mock(BaseObject.class);
-        when(collaborator.getStringValue("collaborator")).thenReturn(COLLABORATOR_STR);
-        when(collaborator.getStringValue("access")).thenReturn("edit");
-        objects.add(collaborator);
-        collaborator = mock(BaseObject.class);
-        when(collaborator.getStringValue("collaborator")).thenReturn(OTHER_USER_STR);
-        when(collaborator.getStringValue("access")).thenReturn("view");
-        objects.add(collaborator);
-        when(doc.getXObjects(COLLABORATOR_CLASS)).thenReturn(objects);
-        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
-        AccessLevel edit = new EditAccessLevel();
-        when(manager.resolveAccessLevel("edit")).thenReturn(edit);
-        AccessLevel view = new ViewAccessLevel();
-        when(manager.resolveAccessLevel("view")).thenReturn(view);
-        AccessLevel none = new NoAccessLevel();
-        when(manager.resolveAccessLevel("none")).thenReturn(none);
-        XWikiGroupService groupService = mock(XWikiGroupService.class);
-        XWiki xwiki = mock(XWiki.class);
-        when(this.context.getWiki()).thenReturn(xwiki);
-        when(xwiki.getGroupService(this.context)).thenReturn(groupService);
-        when(groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
-            .thenReturn(Collections.<DocumentReference>emptyList());
-
-        Assert.assertSame(edit, this.mocker.getComponentUnderTest().getAccessLevel(this.patient, COLLABORATOR));
-    }
-
-    /** {@link PatientAccess#getAccessLevel()} returns the specified access for a registered collaborator. */
-    @Test
-    public void getAccessLevelWithGroupMemberCollaborator() throws Exception
-    {
-        XWikiDocument doc = mock(XWikiDocument.class);
-        when(this.bridge.getDocument(PATIENT_REFERENCE)).thenReturn(doc);
-        List<BaseObject> objects = new ArrayList<BaseObject>();
-        BaseObject collaborator = mock(BaseObject.class);
-        when(collaborator.getStringValue("collaborator")).thenReturn(GROUP_STR);
-        when(collaborator.getStringValue("access")).thenReturn("edit");
-        objects.add(collaborator);
-        collaborator = mock(BaseObject.class);
-        when(collaborator.getStringValue("collaborator")).thenReturn(OTHER_USER_STR);
-        when(collaborator.getStringValue("access")).thenReturn("view");
-        objects.add(collaborator);
-        when(doc.getXObjects(COLLABORATOR_CLASS)).thenReturn(objects);
-        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
         AccessLevel edit = new EditAccessLevel();
-        when(manager.resolveAccessLevel("edit")).thenReturn(edit);
-        AccessLevel view = new ViewAccessLevel();
-        when(manager.resolveAccessLevel("view")).thenReturn(view);
-        AccessLevel none = new NoAccessLevel();
-        when(manager.resolveAccessLevel("none")).thenReturn(none);
-        XWikiGroupService groupService = mock(XWikiGroupService.class);
-        XWiki xwiki = mock(XWiki.class);
-        when(this.context.getWiki()).thenReturn(xwiki);
-        when(xwiki.getGroupService(this.context)).thenReturn(groupService);
-        when(groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
-            .thenReturn(Arrays.asList(GROUP));
+        PatientAccessTable table = this.mocker.getInstance(PatientAccessTable.class);
+        when(table.getAccessLevel(PATIENT_REFERENCE, COLLABORATOR)).thenReturn(edit);
 
         Assert.assertSame(edit, this.mocker.getComponentUnderTest().getAccessLevel(this.patient, COLLABORATOR));
-    }
-
-    /**
-     * {@link PatientAccessHelper#getAccessLevel(Patient, EntityReference)} returns no access when XWiki throws
-     * exceptions.
-     */
-    @Test
-    public void getAccessLevelWithExceptions() throws ComponentLookupException, XWikiException
-    {
-        AccessLevel none = new NoAccessLevel();
-        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
-        when(manager.resolveAccessLevel("none")).thenReturn(none);
-        XWiki xwiki = mock(XWiki.class);
-        when(this.context.getWiki()).thenReturn(xwiki);
-        when(xwiki.getGroupService(this.context)).thenThrow(new XWikiException());
-        Assert.assertSame(none, this.mocker.getComponentUnderTest().getAccessLevel(this.patient, OTHER_USER));
+        Mockito.verify(this.bridge, Mockito.never()).getDocument(PATIENT_REFERENCE);
     }
 
     /** Basic tests for {@link PatientAccessHelper#getType(EntityReference)}. */
@@ -0,0 +1,371 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.permissions.internal;
+
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Collaborator;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.access.EditAccessLevel;
+import org.phenotips.data.permissions.internal.access.NoAccessLevel;
+import org.phenotips.data.permissions.internal.access.OwnerAccessLevel;
+import org.phenotips.data.permissions.internal.access.ViewAccessLevel;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the default {@link PatientAccessTable} implementation, {@link DefaultPatientAccessTable}.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientAccessTableTest
+{
+    private static final DocumentReference PATIENT_REFERENCE = new DocumentReference("xwiki", "data", "P0000001");
+
+    private static final DocumentReference PUBLIC_PATIENT_REFERENCE =
+        new DocumentReference("xwiki", "data", "P0000002");
+
+    private static final DocumentReference OWNER = new DocumentReference("xwiki", "XWiki", "padams");
+
+    private static final String OWNER_STR = "xwiki:XWiki.padams";
+
+    private static final DocumentReference COLLABORATOR = new DocumentReference("xwiki", "XWiki", "hmccoy");
+
+    private static final String COLLABORATOR_STR = "xwiki:XWiki.hmccoy";
+
+    private static final DocumentReference GROUP = new DocumentReference("xwiki", "XWiki", "collaborators");
+
+    private static final String GROUP_STR = "xwiki:XWiki.collaborators";
+
+    private static final DocumentReference OTHER_USER = new DocumentReference("xwiki", "XWiki", "cxavier");
+
+    private static final AccessLevel NONE = new NoAccessLevel();
+
+    private static final AccessLevel VIEW = new ViewAccessLevel();
+
+    private static final AccessLevel EDIT = new EditAccessLevel();
+
+    private static final AccessLevel OWNER_ACCESS = new OwnerAccessLevel();
+
+    @Rule
+    public final MockitoComponentMockingRule<PatientAccessTable> mocker =
+        new MockitoComponentMockingRule<PatientAccessTable>(DefaultPatientAccessTable.class);
+
+    private XWikiDocument doc;
+
+    private XWikiGroupService groupService;
+
+    private XWikiContext context;
+
+    private Query collaboratorsQuery;
+
+    @Before
+    public void setup() throws Exception
+    {
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.createNewLocalCache(Matchers.any(CacheConfiguration.class))).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return mockCache();
+            }
+        });
+        Answer<String> toString = new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return String.valueOf(invocation.getArguments()[0]);
+            }
+        };
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class));
+        when(serializer.serialize(Matchers.any(EntityReference.class))).thenAnswer(toString);
+        EntityReferenceSerializer<String> localSerializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class), "local");
+        when(localSerializer.serialize(Matchers.any(EntityReference.class))).thenAnswer(toString);
+
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "currentmixed");
+        when(resolver.resolve(OWNER_STR, PATIENT_REFERENCE)).thenReturn(OWNER);
+        when(resolver.resolve(COLLABORATOR_STR, PATIENT_REFERENCE)).thenReturn(COLLABORATOR);
+        when(resolver.resolve(GROUP_STR, PATIENT_REFERENCE)).thenReturn(GROUP);
+        when(resolver.resolve("data.P0000001")).thenReturn(PATIENT_REFERENCE);
+        when(resolver.resolve("data.P0000002")).thenReturn(PUBLIC_PATIENT_REFERENCE);
+
+        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
+        when(manager.resolveAccessLevel("none")).thenReturn(NONE);
+        when(manager.resolveAccessLevel("view")).thenReturn(VIEW);
+        when(manager.resolveAccessLevel("edit")).thenReturn(EDIT);
+        when(manager.resolveAccessLevel("owner")).thenReturn(OWNER_ACCESS);
+        Visibility publicVisibility = mock(Visibility.class);
+        when(publicVisibility.getName()).thenReturn("public");
+        when(publicVisibility.getDefaultAccessLevel()).thenReturn(VIEW);
+        Visibility privateVisibility = mock(Visibility.class);
+        when(privateVisibility.getName()).thenReturn("private");
+        when(privateVisibility.getDefaultAccessLevel()).thenReturn(NONE);
+        when(manager.listVisibilityOptions()).thenReturn(Arrays.asList(privateVisibility, publicVisibility));
+
+        QueryManager qm = this.mocker.getInstance(QueryManager.class);
+        Query ownersQuery = mockQuery(Collections.<Object>emptyList());
+        when(qm.createQuery(Matchers.contains("OwnerClass"), Matchers.eq(Query.XWQL))).thenReturn(ownersQuery);
+        // Names are only compared as strings, so the query may also return records not granted to the principal
+        this.collaboratorsQuery = mockQuery(Arrays.<Object>asList("data.P0000001"));
+        when(qm.createQuery(Matchers.contains("CollaboratorClass"), Matchers.eq(Query.XWQL)))
+            .thenReturn(this.collaboratorsQuery);
+        Query visibilityQuery = mockQuery(Arrays.<Object>asList("data.P0000002"));
+        when(qm.createQuery(Matchers.contains("VisibilityClass"), Matchers.eq(Query.XWQL)))
+            .thenReturn(visibilityQuery);
+
+        this.doc = mock(XWikiDocument.class);
+        when(this.doc.getDocumentReference()).thenReturn(PATIENT_REFERENCE);
+        BaseObject owner = mock(BaseObject.class);
+        when(owner.getStringValue("owner")).thenReturn(OWNER_STR);
+        when(this.doc.getXObject(Owner.CLASS_REFERENCE)).thenReturn(owner);
+        List<BaseObject> collaborators = new ArrayList<BaseObject>();
+        BaseObject collaborator = mock(BaseObject.class);
+        when(collaborator.getStringValue("collaborator")).thenReturn(COLLABORATOR_STR);
+        when(collaborator.getStringValue("access")).thenReturn("view");
+        collaborators.add(collaborator);
+        collaborators.add(null);
+        collaborator = mock(BaseObject.class);
+        when(collaborator.getStringValue("collaborator")).thenReturn(GROUP_STR);
+        when(collaborator.getStringValue("access")).thenReturn("edit");
+        collaborators.add(collaborator);
+        when(this.doc.getXObjects(Collaborator.CLASS_REFERENCE)).thenReturn(collaborators);
+
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getDocument(PATIENT_REFERENCE)).thenReturn(this.doc);
+
+        Execution e = this.mocker.getInstance(Execution.class);
+        ExecutionContext ec = mock(ExecutionContext.class);
+        when(e.getContext()).thenReturn(ec);
+        this.context = mock(XWikiContext.class);
+        when(ec.getProperty("xwikicontext")).thenReturn(this.context);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        this.groupService = mock(XWikiGroupService.class);
+        when(xwiki.getGroupService(this.context)).thenReturn(this.groupService);
+        when(this.groupService.getAllGroupsReferencesForMember(Matchers.any(DocumentReference.class),
+            Matchers.eq(0), Matchers.eq(0), Matchers.same(this.context)))
+            .thenReturn(new ArrayList<DocumentReference>());
+    }
+
+    /** The owner and direct collaborators get the access stored in the record, loaded lazily from the document. */
+    @Test
+    public void getAccessLevelForDirectGrants() throws ComponentLookupException
+    {
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(OWNER_ACCESS, table.getAccessLevel(PATIENT_REFERENCE, OWNER));
+        Assert.assertEquals(VIEW, table.getAccessLevel(PATIENT_REFERENCE, COLLABORATOR));
+        Assert.assertEquals(NONE, table.getAccessLevel(PATIENT_REFERENCE, OTHER_USER));
+    }
+
+    /** Access granted to a group is inherited by its members, and the most permissive grant wins. */
+    @Test
+    public void getAccessLevelThroughGroups() throws Exception
+    {
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(new ArrayList<DocumentReference>(Arrays.asList(GROUP)));
+        Assert.assertEquals(EDIT, this.mocker.getComponentUnderTest().getAccessLevel(PATIENT_REFERENCE,
+            COLLABORATOR));
+    }
+
+    /** Null arguments result in no access. */
+    @Test
+    public void getAccessLevelWithNullArguments() throws ComponentLookupException
+    {
+        Assert.assertEquals(NONE, this.mocker.getComponentUnderTest().getAccessLevel(null, OWNER));
+        Assert.assertEquals(NONE, this.mocker.getComponentUnderTest().getAccessLevel(PATIENT_REFERENCE, null));
+    }
+
+    /** Failures while listing groups only take into account the access granted directly to the user. */
+    @Test
+    public void getAccessLevelWithExceptions() throws Exception
+    {
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenThrow(new XWikiException());
+        Assert.assertEquals(VIEW, this.mocker.getComponentUnderTest().getAccessLevel(PATIENT_REFERENCE,
+            COLLABORATOR));
+    }
+
+    /** Updates replace the row of the patient with the grants currently stored in the document. */
+    @Test
+    public void updateReplacesRow() throws Exception
+    {
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(VIEW, table.getAccessLevel(PATIENT_REFERENCE, COLLABORATOR));
+        when(this.doc.getXObjects(Collaborator.CLASS_REFERENCE)).thenReturn(null);
+        table.update(this.doc);
+        Assert.assertEquals(NONE, table.getAccessLevel(PATIENT_REFERENCE, COLLABORATOR));
+        Assert.assertEquals(OWNER_ACCESS, table.getAccessLevel(PATIENT_REFERENCE, OWNER));
+    }
+
+    /** Listings include the records granted to the user or its groups, and the records visible to everyone. */
+    @Test
+    public void getPatientsThroughGrantsAndVisibility() throws Exception
+    {
+        when(this.groupService.getAllGroupsReferencesForMember(COLLABORATOR, 0, 0, this.context))
+            .thenReturn(new ArrayList<DocumentReference>(Arrays.asList(GROUP)));
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(new HashSet<DocumentReference>(Arrays.asList(PATIENT_REFERENCE)),
+            table.getPatients(COLLABORATOR, EDIT));
+        Assert.assertEquals(
+            new HashSet<DocumentReference>(Arrays.asList(PATIENT_REFERENCE, PUBLIC_PATIENT_REFERENCE)),
+            table.getPatients(COLLABORATOR, VIEW));
+        Assert.assertEquals(new HashSet<DocumentReference>(Arrays.asList(PUBLIC_PATIENT_REFERENCE)),
+            table.getPatients(OTHER_USER, VIEW));
+        Assert.assertTrue(table.getPatients(OTHER_USER, EDIT).isEmpty());
+        Assert.assertTrue(table.getPatients(COLLABORATOR, null).isEmpty());
+    }
+
+    /** Grantees are the principals named in the record with enough access, without expanding groups. */
+    @Test
+    public void getGranteesListsDirectGrants() throws Exception
+    {
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(new HashSet<DocumentReference>(Arrays.asList(OWNER, COLLABORATOR, GROUP)),
+            table.getGrantees(PATIENT_REFERENCE, VIEW));
+        Assert.assertEquals(new HashSet<DocumentReference>(Arrays.asList(OWNER, GROUP)),
+            table.getGrantees(PATIENT_REFERENCE, EDIT));
+        Assert.assertTrue(table.getGrantees(null, VIEW).isEmpty());
+    }
+
+    /** Updates move the patient between the principals already listed, without querying them again. */
+    @Test
+    public void updateChangesListedPatients() throws Exception
+    {
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        Assert.assertTrue(table.getPatients(COLLABORATOR, VIEW).contains(PATIENT_REFERENCE));
+        when(this.doc.getXObjects(Collaborator.CLASS_REFERENCE)).thenReturn(null);
+        table.update(this.doc);
+        Assert.assertFalse(table.getPatients(COLLABORATOR, VIEW).contains(PATIENT_REFERENCE));
+        table.remove(PATIENT_REFERENCE);
+        Assert.assertFalse(table.getPatients(COLLABORATOR, VIEW).contains(PATIENT_REFERENCE));
+        verify(this.collaboratorsQuery, times(1)).execute();
+    }
+
+    /** Removed patients no longer grant any access. */
+    @Test
+    public void removeDropsPatient() throws Exception
+    {
+        PatientAccessTable table = this.mocker.getComponentUnderTest();
+        table.update(this.doc);
+        Assert.assertEquals(OWNER_ACCESS, table.getAccessLevel(PATIENT_REFERENCE, OWNER));
+        table.remove(PATIENT_REFERENCE);
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getDocument(PATIENT_REFERENCE)).thenReturn(null);
+        Assert.assertEquals(NONE, table.getAccessLevel(PATIENT_REFERENCE, OWNER));
+    }
+
+    private Query mockQuery(List<Object> results) throws Exception
+    {
+        Query query = mock(Query.class);
+        when(query.bindValue(Matchers.anyString(), Matchers.any())).thenReturn(query);
+        when(query.execute()).thenReturn(results);
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<Object> mockCache()
+    {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        Cache<Object> cache = mock(Cache.class);
+        when(cache.get(Matchers.anyString())).thenAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation)
+            {
+                return values.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(Matchers.anyString(), Matchers.any());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(cache).remove(Matchers.anyString());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                values.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        return cache;
+    }
+}
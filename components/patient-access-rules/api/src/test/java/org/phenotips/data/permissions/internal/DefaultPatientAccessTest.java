@@ -22,6 +22,7 @@
 import org.phenotips.data.permissions.Collaborator;
 import org.phenotips.data.permissions.Owner;
 import org.phenotips.data.permissions.PatientAccess;
+import org.phenotips.data.permissions.PermissionsChange;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.access.EditAccessLevel;
@@ -228,6 +229,18 @@ public void removeCollaborator() throws ComponentLookupException
         Assert.assertTrue(pa.removeCollaborator(collaborator));
     }
 
+    /** Basic tests for {@link PatientAccess#applyChange(PermissionsChange)}. */
+    @Test
+    public void applyChange() throws ComponentLookupException
+    {
+        Patient p = mock(Patient.class);
+        PatientAccessHelper helper = mock(PatientAccessHelper.class);
+        PatientAccess pa = new DefaultPatientAccess(p, helper, mock(PermissionsManager.class));
+        PermissionsChange change = new DefaultPermissionsChange().setOwner(OTHER_USER);
+        when(helper.applyChange(p, change)).thenReturn(true);
+        Assert.assertTrue(pa.applyChange(change));
+    }
+
     /** {@link PatientAccess#getAccessLevel()} returns the default visibility access for guest users. */
     @Test
     public void getAccessLevelWithGuestUser() throws ComponentLookupException
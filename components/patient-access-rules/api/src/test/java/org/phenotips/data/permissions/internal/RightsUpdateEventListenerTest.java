@@ -18,12 +18,29 @@
 package org.phenotips.data.permissions.internal;
 
 import org.phenotips.data.events.PatientChangingEvent;
-
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.Owner;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,13 +48,18 @@
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 /**
  * Tests for the {@link RightsUpdateEventListener}
  *
@@ -45,6 +67,16 @@
  */
 public class RightsUpdateEventListenerTest
 {
+    private static final DocumentReference OWNER = new DocumentReference("xwiki", "XWiki", "padams");
+
+    private static final String OWNER_STR = "xwiki:XWiki.padams";
+
+    private static final EntityReference RIGHTS_CLASS = new EntityReference("XWikiRights", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
+    private static final EntityReference USER_CLASS = new EntityReference("XWikiUsers", EntityType.DOCUMENT,
+        new EntityReference("XWiki", EntityType.SPACE));
+
     @Rule
     public final MockitoComponentMockingRule<EventListener> mocker =
     new MockitoComponentMockingRule<EventListener>(RightsUpdateEventListener.class);
@@ -70,10 +102,45 @@
     @Mock
     private BaseObject viewRightObject;
 
+    @Mock
+    private Cache<String> principalTypes;
+
+    private DocumentAccessBridge bridge;
+
     @Before
-    public void setUp() throws ComponentLookupException
+    public void setUp() throws ComponentLookupException, CacheException
     {
         MockitoAnnotations.initMocks(this);
+        when(this.mocker.<CacheManager>getInstance(CacheManager.class).<String>createNewLocalCache(
+            Matchers.any(CacheConfiguration.class))).thenReturn(this.principalTypes);
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        ExecutionContext executionContext = mock(ExecutionContext.class);
+        when(execution.getContext()).thenReturn(executionContext);
+        when(executionContext.getProperty("xwikicontext")).thenReturn(this.context);
+
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "current");
+        when(resolver.resolve(OWNER_STR)).thenReturn(OWNER);
+        BaseObject ownerObject = mock(BaseObject.class);
+        when(ownerObject.getStringValue("owner")).thenReturn(OWNER_STR);
+        when(this.doc.getXObject(Owner.CLASS_REFERENCE)).thenReturn(ownerObject);
+
+        PermissionsManager manager = this.mocker.getInstance(PermissionsManager.class);
+        Visibility privateVisibility = mock(Visibility.class);
+        AccessLevel none = mock(AccessLevel.class);
+        when(none.getName()).thenReturn("none");
+        when(privateVisibility.getDefaultAccessLevel()).thenReturn(none);
+        when(manager.resolveVisibility("private")).thenReturn(privateVisibility);
+
+        when(this.viewRightObject.getStringValue("levels")).thenReturn("view");
+        when(this.editRightObject.getStringValue("levels")).thenReturn("view,edit");
+        when(this.manageRightsObject.getStringValue("levels")).thenReturn("view,edit,delete");
+        when(this.manageRightsObject.getStringValue("users")).thenReturn(OWNER.toString());
+        when(this.doc.getXObjects(RIGHTS_CLASS)).thenReturn(
+            Arrays.asList(this.viewRightObject, this.editRightObject, this.manageRightsObject));
+
+        this.bridge = this.mocker.getInstance(DocumentAccessBridge.class);
     }
 
     @Test
@@ -84,6 +151,41 @@ public void listensForPatientChanges() throws ComponentLookupException
         Assert.assertTrue(events.get(0) instanceof PatientChangingEvent);
     }
 
+    @Test
+    public void unchangedRightsAreNotRewritten() throws Exception
+    {
+        when(this.principalTypes.get(OWNER.toString())).thenReturn("user");
+
+        this.mocker.getComponentUnderTest().onEvent(this.event, this.doc, null);
+
+        Mockito.verify(this.viewRightObject, Mockito.never()).setLargeStringValue(Matchers.anyString(),
+            Matchers.anyString());
+        Mockito.verify(this.editRightObject, Mockito.never()).setLargeStringValue(Matchers.anyString(),
+            Matchers.anyString());
+        Mockito.verify(this.manageRightsObject, Mockito.never()).setLargeStringValue(Matchers.anyString(),
+            Matchers.anyString());
+        Mockito.verify(this.doc, Mockito.never()).newXObject(RIGHTS_CLASS, this.context);
+        Mockito.verify(this.bridge, Mockito.never()).getDocument(OWNER);
+    }
+
+    @Test
+    public void changedRightsAreUpdatedAndTypesCached() throws Exception
+    {
+        when(this.manageRightsObject.getStringValue("users")).thenReturn("XWiki.XWikiGuest");
+        XWikiDocument ownerProfile = mock(XWikiDocument.class);
+        when(this.bridge.getDocument(OWNER)).thenReturn(ownerProfile);
+        when(ownerProfile.getXObject(USER_CLASS)).thenReturn(mock(BaseObject.class));
+
+        this.mocker.getComponentUnderTest().onEvent(this.event, this.doc, null);
+
+        Mockito.verify(this.manageRightsObject).setLargeStringValue("users", OWNER.toString());
+        Mockito.verify(this.manageRightsObject, Mockito.never()).setLargeStringValue(Matchers.eq("groups"),
+            Matchers.anyString());
+        Mockito.verify(this.viewRightObject, Mockito.never()).setLargeStringValue(Matchers.anyString(),
+            Matchers.anyString());
+        Mockito.verify(this.principalTypes).set(OWNER.toString(), "user");
+    }
+
     @Test
     public void hasName() throws ComponentLookupException
     {
@@ -0,0 +1,65 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Pushes patients to remote servers in the background, so that users don't have to wait for the remote server to
+ * respond. Queued pushes are stored, so they survive a restart, and are sent by a limited number of workers, with a
+ * limited number of concurrent pushes to each server. Pushes that receive no response are retried with exponential
+ * backoff. Queueing a patient which is already waiting to be pushed to the same server by the same user updates the
+ * queued push instead of sending the patient twice.
+ * <p>
+ * Only the login tokens stored for the current user are used, since passwords are never stored.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface PushQueue
+{
+    /**
+     * Queue a patient to be pushed to a remote server on behalf of the current user, using the stored login token.
+     * Parameters are the same as for {@link PushPatientService#sendPatient(String, String, String, String, String,
+     * String)}.
+     *
+     * @param patientID local patient to push
+     * @param exportFieldListJSON a JSON array of the patient fields to push, {@code null} for all the fields
+     * @param patientState JSON containing the patient state, such as the granted consents
+     * @param groupName the remote group that should own the patient (optional, can be {@code null})
+     * @param remoteGUID the GUID of a remote patient to update (optional, can be {@code null})
+     * @param remoteServerIdentifier server name as configured in the administration
+     * @return the queued push, or {@code null} if the current user is not logged in
+     */
+    PushTask enqueue(String patientID, String exportFieldListJSON, String patientState, String groupName,
+        String remoteGUID, String remoteServerIdentifier);
+
+    /**
+     * Retrieve the status of the latest push of a patient to a remote server, requested by the current user since
+     * the last restart, or still pending from before the restart. Completed pushes are only kept for an hour.
+     *
+     * @param patientID the local patient
+     * @param remoteServerIdentifier server name as configured in the administration
+     * @return the push, or {@code null} if no such push is known
+     */
+    PushTask getTask(String patientID, String remoteServerIdentifier);
+}
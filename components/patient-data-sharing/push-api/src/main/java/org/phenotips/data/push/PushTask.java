@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The status of a patient push handled by the {@link PushQueue}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface PushTask
+{
+    /** The possible states of a push. */
+    enum State
+    {
+        /** Waiting to be sent, either for the first time or for a retry. */
+        QUEUED,
+        /** Currently being sent. */
+        RUNNING,
+        /** Successfully sent. */
+        SUCCEEDED,
+        /** Rejected by the remote server, or not sent after the maximum number of attempts. */
+        FAILED
+    }
+
+    /**
+     * The local patient being pushed.
+     *
+     * @return the identifier of the local patient
+     */
+    String getPatientID();
+
+    /**
+     * The server where the patient is pushed.
+     *
+     * @return the name of the server, as configured in the administration
+     */
+    String getServerID();
+
+    /**
+     * The current state of the push.
+     *
+     * @return the state
+     */
+    State getState();
+
+    /**
+     * How many times sending this push was attempted so far.
+     *
+     * @return a positive number, or {@code 0} if no attempt was made yet
+     */
+    int getAttempts();
+
+    /**
+     * The response received from the remote server on the last attempt.
+     *
+     * @return the last response, or {@code null} if no attempt was made yet, or no response was received
+     */
+    PushServerSendPatientResponse getResponse();
+}
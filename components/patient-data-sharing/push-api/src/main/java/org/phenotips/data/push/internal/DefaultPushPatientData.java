@@ -26,9 +26,20 @@
 import org.phenotips.data.push.PushServerGetPatientIDResponse;
 import org.phenotips.data.push.PushServerPatientStateResponse;
 import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.securestorage.PatientPushedToInfo;
+import org.phenotips.data.securestorage.SecureStorageManager;
+import org.phenotips.data.shareprotocol.PatientPayloadCodec;
 import org.phenotips.data.shareprotocol.ShareProtocol;
+import org.phenotips.http.HttpClientProvider;
 
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 
@@ -40,6 +51,7 @@
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Consts;
@@ -47,9 +59,8 @@
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
@@ -67,7 +78,7 @@
  */
 @Component
 @Singleton
-public class DefaultPushPatientData implements PushPatientData
+public class DefaultPushPatientData implements PushPatientData, Initializable
 {
     /** Server configuration ID property name within the PushPatientServer class. */
     public static final String PUSH_SERVER_CONFIG_ID_PROPERTY_NAME = "name";
@@ -89,6 +100,15 @@ public class DefaultPushPatientData implements PushPatientData
 
     private static final String XWIKI_RAW_OUTPUT_VALUE = "plain";
 
+    /**
+     * Top level keys which are read together by the receiving serializer, and must always be sent together: updating
+     * one of them also resets the others.
+     */
+    private static final String[][] LINKED_KEYS = new String[][] { { "features", "nonstandard_features" } };
+
+    /** For how long, in seconds, the configuration of a remote server is reused before requesting it again. */
+    private static final int SERVER_CONFIGURATION_LIFETIME = 3600;
+
     /** Logging helper object. */
     @Inject
     private Logger logger;
@@ -100,8 +120,37 @@ public class DefaultPushPatientData implements PushPatientData
     @Inject
     private ConsentManager consentManager;
 
-    /** HTTP client used for communicating with the remote server. */
-    private final CloseableHttpClient client = HttpClients.createSystem();
+    /** Used for retrieving what was sent on the previous push, for sending only the changes. */
+    @Inject
+    private SecureStorageManager storageManager;
+
+    /** Creates the server configurations cache. */
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * The latest successful configuration response of each server, used for knowing the supported features. Entries
+     * expire after {@link #SERVER_CONFIGURATION_LIFETIME}, so that changes in a remote server are picked up; an
+     * expired configuration is fetched again before the next push which uses a stored login token.
+     */
+    private Cache<JSONObject> serverConfigurations;
+
+    /** Provides the shared HTTP client used for communicating with the remote server. */
+    @Inject
+    private HttpClientProvider httpClients;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            LRUEvictionConfiguration evictionConfiguration = new LRUEvictionConfiguration(100);
+            evictionConfiguration.setTimeToLive(SERVER_CONFIGURATION_LIFETIME);
+            this.serverConfigurations =
+                this.cacheManager.createNewLocalCache(new CacheConfiguration(evictionConfiguration));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the server configurations cache", ex);
+        }
+    }
 
     /**
      * Helper method for obtaining a valid xcontext from the execution context.
@@ -191,6 +240,115 @@ private BaseObject getPushServerConfiguration(String serverName)
         }
     }
 
+    /**
+     * Get the latest known configuration of a remote server, requesting it if it isn't known yet. A new configuration
+     * is only requested when a login token is available, since logging in with a password issues a new token, which
+     * must be stored by the caller of {@link #getRemoteConfiguration(String, String, String, String)}.
+     *
+     * @return the configuration, or {@code null} if it isn't available
+     */
+    private JSONObject getServerConfiguration(String remoteServerIdentifier, String userName, String userToken)
+    {
+        JSONObject result = this.serverConfigurations.get(remoteServerIdentifier);
+        if (result == null && StringUtils.isNotBlank(userToken)) {
+            getRemoteConfiguration(remoteServerIdentifier, userName, null, userToken);
+            result = this.serverConfigurations.get(remoteServerIdentifier);
+        }
+        return result;
+    }
+
+    private boolean supportsDeltas(JSONObject configuration)
+    {
+        return configuration != null
+            && configuration.optBoolean(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_DELTAS);
+    }
+
+    private boolean supportsEncoding(JSONObject configuration, String encoding)
+    {
+        JSONArray encodings =
+            configuration != null ? configuration.optJSONArray(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_ENCODINGS)
+                : null;
+        if (encodings != null) {
+            for (int i = 0; i < encodings.length(); ++i) {
+                if (encoding.equals(encodings.optString(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute a digest of the serialized value of each top level key, which roughly corresponds to the output of each
+     * patient data controller.
+     *
+     * @param patientJSON the full patient JSON
+     * @return a JSON object with the same keys, and the digests as values
+     */
+    static JSONObject computeDigests(JSONObject patientJSON)
+    {
+        JSONObject result = new JSONObject();
+        for (String key : patientJSON.keySet()) {
+            result.put(key, DigestUtils.md5Hex(String.valueOf(patientJSON.get(key))));
+        }
+        return result;
+    }
+
+    /**
+     * Compute the part of the patient JSON which changed since the last successful push of this patient to the same
+     * remote patient.
+     *
+     * @return the changed keys, or {@code null} if the full JSON must be sent
+     */
+    private JSONObject computeDelta(Patient patient, String remoteServerIdentifier, String remoteGUID,
+        JSONObject patientJSON, JSONObject digests)
+    {
+        PatientPushedToInfo previous =
+            this.storageManager.getPatientPushInfo(patient.getDocument().getName(), remoteServerIdentifier);
+        if (previous == null || previous.getLastPushedDigests() == null
+            || !remoteGUID.equals(previous.getRemotePatientGUID())) {
+            return null;
+        }
+        return computeDelta(patientJSON, digests, new JSONObject(previous.getLastPushedDigests()));
+    }
+
+    /**
+     * Compute the part of the patient JSON which changed, given the digests of the previously pushed version. Keys
+     * which are {@link #LINKED_KEYS linked} are all sent if any of them changed.
+     *
+     * @param patientJSON the full patient JSON
+     * @param digests the digests of the current patient JSON, as computed by {@link #computeDigests(JSONObject)}
+     * @param previousDigests the digests of the previously pushed patient JSON
+     * @return the changed keys, or {@code null} if the full JSON must be sent
+     */
+    static JSONObject computeDelta(JSONObject patientJSON, JSONObject digests, JSONObject previousDigests)
+    {
+        for (String key : previousDigests.keySet()) {
+            if (!digests.has(key)) {
+                // Removed data can't be expressed as a delta, since missing keys are left unchanged
+                return null;
+            }
+        }
+        JSONObject result = new JSONObject();
+        for (String key : digests.keySet()) {
+            if (!digests.getString(key).equals(previousDigests.optString(key, null))) {
+                result.put(key, patientJSON.get(key));
+            }
+        }
+        for (String[] linked : LINKED_KEYS) {
+            boolean changed = false;
+            for (String key : linked) {
+                changed |= result.has(key);
+            }
+            for (String key : linked) {
+                if (changed && patientJSON.has(key)) {
+                    result.put(key, patientJSON.get(key));
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public PushServerConfigurationResponse getRemoteConfiguration(String remoteServerIdentifier, String userName,
         String password, String userToken)
@@ -206,7 +364,7 @@ public PushServerConfigurationResponse getRemoteConfiguration(String remoteServe
                 return null;
             }
 
-            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            try (CloseableHttpResponse httpResponse = this.httpClients.getClient().execute(method)) {
                 int returnCode = httpResponse.getStatusLine().getStatusCode();
                 this.logger.trace("GetConfig HTTP return code: {}", returnCode);
 
@@ -219,6 +377,9 @@ public PushServerConfigurationResponse getRemoteConfiguration(String remoteServe
                 }
 
                 JSONObject responseJSON = new JSONObject(response);
+                if (responseJSON.optBoolean(ShareProtocol.SERVER_JSON_KEY_NAME_SUCCESS)) {
+                    this.serverConfigurations.set(remoteServerIdentifier, responseJSON);
+                }
 
                 return new DefaultPushServerConfigurationResponse(responseJSON);
             }
@@ -252,7 +413,7 @@ public PushServerPatientStateResponse getRemotePatientState(String remoteServerI
                 return null;
             }
 
-            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            try (CloseableHttpResponse httpResponse = this.httpClients.getClient().execute(method)) {
                 int returnCode = httpResponse.getStatusLine().getStatusCode();
                 this.logger.trace("GetPatientState HTTP return code: {}", returnCode);
 
@@ -295,10 +456,25 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
                 exportFields.add(VersionsController.getEnablingFieldName());
             }
 
-            String patientJSON = patient.toJSON(exportFields).toString();
-
-            data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON,
-                URLEncoder.encode(patientJSON, XWiki.DEFAULT_ENCODING)));
+            JSONObject patientJSON = patient.toJSON(exportFields);
+            JSONObject digests = computeDigests(patientJSON);
+            JSONObject configuration = getServerConfiguration(remoteServerIdentifier, userName, userToken);
+            JSONObject delta = remoteGUID != null && supportsDeltas(configuration)
+                ? computeDelta(patient, remoteServerIdentifier, remoteGUID, patientJSON, digests) : null;
+            String payload = (delta != null ? delta : patientJSON).toString();
+            if (delta != null) {
+                this.logger.debug("Sending {} of {} keys", delta.length(), patientJSON.length());
+                data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON_DELTA, "true"));
+            }
+            if (supportsEncoding(configuration, ShareProtocol.PATIENTJSON_ENCODING_GZIP)) {
+                data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON_ENCODING,
+                    ShareProtocol.PATIENTJSON_ENCODING_GZIP));
+                data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON,
+                    PatientPayloadCodec.encodeGzip(payload)));
+            } else {
+                data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON,
+                    URLEncoder.encode(payload, XWiki.DEFAULT_ENCODING)));
+            }
 
             data.add(new BasicNameValuePair(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTSTATE,
                 URLEncoder.encode(patientState.toString(), XWiki.DEFAULT_ENCODING)));
@@ -314,7 +490,7 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
             if (method == null) {
                 return null;
             }
-            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            try (CloseableHttpResponse httpResponse = this.httpClients.getClient().execute(method)) {
                 int returnCode = httpResponse.getStatusLine().getStatusCode();
                 this.logger.trace("Push HTTP return code: {}", returnCode);
 
@@ -322,7 +498,9 @@ public PushServerSendPatientResponse sendPatient(Patient patient, Set<String> ex
                 this.logger.trace("RESPONSE FROM SERVER: {}", response);
                 JSONObject responseJSON = new JSONObject(response);
 
-                return new DefaultPushServerSendPatientResponse(responseJSON);
+                DefaultPushServerSendPatientResponse result = new DefaultPushServerSendPatientResponse(responseJSON);
+                result.setPushedDigests(digests.toString());
+                return result;
             }
         } catch (Exception ex) {
             this.logger.error("Failed to push patient: {}", ex.getMessage(), ex);
@@ -352,7 +530,7 @@ public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifie
                 return null;
             }
 
-            try (CloseableHttpResponse httpResponse = this.client.execute(method)) {
+            try (CloseableHttpResponse httpResponse = this.httpClients.getClient().execute(method)) {
                 int returnCode = httpResponse.getStatusLine().getStatusCode();
                 this.logger.trace("Push HTTP return code: {}", returnCode);
 
@@ -40,6 +40,7 @@
 import org.xwiki.security.authorization.Right;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +50,7 @@
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -170,9 +172,16 @@ public Map<PushServerInfo, PatientPushHistory> getPushTargetsWithHistory(String
 
         Map<PushServerInfo, PatientPushHistory> response = new TreeMap<PushServerInfo, PatientPushHistory>();
 
+        Map<String, PatientPushedToInfo> pushes = new HashMap<>();
+        if (StringUtils.isNotBlank(localPatientID) && !servers.isEmpty()) {
+            for (PatientPushedToInfo pushInfo : this.storageManager.getPatientPushInfos(localPatientID)) {
+                pushes.put(pushInfo.getRemoteServerName(), pushInfo);
+            }
+        }
+
         for (PushServerInfo server : servers) {
-            PatientPushHistory history = getPatientPushHistory(localPatientID, server.getServerID());
-            response.put(server, history);
+            PatientPushedToInfo pushInfo = pushes.get(server.getServerID());
+            response.put(server, pushInfo == null ? null : new DefaultPatientPushHistory(pushInfo));
         }
         return response;
     }
@@ -326,10 +335,7 @@ public PushServerSendPatientResponse sendPatient(String patientID, String export
             patientStateJSON, groupName, remoteGUID, remoteServerIdentifier, storedData.getRemoteUserName(), null,
             storedData.getLoginToken());
 
-        if (response != null && response.isSuccessful()) {
-            this.storageManager.storePatientPushInfo(patient.getDocument().getName(), remoteServerIdentifier,
-                response.getRemotePatientGUID(), response.getRemotePatientID(), response.getRemotePatientURL());
-        }
+        storePushInfo(patient, remoteServerIdentifier, response);
         return response;
     }
 
@@ -348,10 +354,7 @@ public PushServerSendPatientResponse sendPatient(String patientID, String export
         PushServerSendPatientResponse response = this.internalService.sendPatient(patient, exportFields,
             patientStateJSON, groupName, remoteGUID, remoteServerIdentifier, remoteUserName, password, null);
 
-        if (response != null && response.isSuccessful()) {
-            this.storageManager.storePatientPushInfo(patient.getDocument().getName(), remoteServerIdentifier,
-                response.getRemotePatientGUID(), response.getRemotePatientID(), response.getRemotePatientURL());
-        }
+        storePushInfo(patient, remoteServerIdentifier, response);
 
         return response;
     }
@@ -387,6 +390,17 @@ public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifie
             null);
     }
 
+    private void storePushInfo(Patient patient, String remoteServerIdentifier, PushServerSendPatientResponse response)
+    {
+        if (response != null && response.isSuccessful()) {
+            String digests = response instanceof DefaultPushServerSendPatientResponse
+                ? ((DefaultPushServerSendPatientResponse) response).getPushedDigests() : null;
+            this.storageManager.storePatientPushInfo(patient.getDocument().getName(), remoteServerIdentifier,
+                response.getRemotePatientGUID(), response.getRemotePatientID(), response.getRemotePatientURL(),
+                digests);
+        }
+    }
+
     private JSONObject parsePatientStateToJSON(String patientStateString) {
         /* since the state comes directly from the user side, taking some basic security precautions */
         JSONObject patientState = new JSONObject();
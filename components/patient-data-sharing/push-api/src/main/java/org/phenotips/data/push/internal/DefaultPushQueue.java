@@ -0,0 +1,317 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.phenotips.data.push.PushPatientService;
+import org.phenotips.data.push.PushQueue;
+import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.push.PushTask;
+import org.phenotips.data.push.PushTask.State;
+import org.phenotips.data.securestorage.PendingPushInfo;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Default {@link PushQueue} implementation. Pushes are executed by a small pool of worker threads, each in a new
+ * execution context where the user who requested the push is the current user, so that access rights and stored login
+ * tokens are the same as for a direct push.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultPushQueue implements PushQueue, Initializable, Disposable
+{
+    /** The maximum number of pushes sent at the same time, to all servers. */
+    private static final int MAX_THREADS = 4;
+
+    /** The maximum number of pushes sent at the same time to one server. */
+    private static final int MAX_PER_SERVER = 2;
+
+    /** How many times a push which doesn't get a response from the server is attempted. */
+    private static final int MAX_ATTEMPTS = 6;
+
+    /** Delay before the first retry, in seconds; each following retry waits twice as long. */
+    private static final long RETRY_DELAY = 30;
+
+    /**
+     * Delay before checking again a server which already has {@link #MAX_PER_SERVER} pushes running, in seconds; each
+     * following check waits twice as long, up to {@link #MAX_BUSY_DELAY}.
+     */
+    private static final long BUSY_DELAY = 2;
+
+    /** The longest delay between two checks of a busy server, in seconds. */
+    private static final long MAX_BUSY_DELAY = 64;
+
+    /** How long the status of a completed push can still be retrieved, in seconds. */
+    private static final long COMPLETED_TASK_TTL = 3600;
+
+    /** Delay before resuming the pushes stored before a restart, in seconds, so that the wiki can finish starting. */
+    private static final long RESTORE_DELAY = 60;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private PushPatientService pushService;
+
+    @Inject
+    private SecureStorageManager storage;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    /** The latest push for each user, patient and server; completed pushes are removed after a while. */
+    private final ConcurrentMap<String, DefaultPushTask> tasks = new ConcurrentHashMap<>();
+
+    /** Limits the number of pushes running for each server. */
+    private final ConcurrentMap<String, Semaphore> serverPermits = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.executor = new ScheduledThreadPoolExecutor(MAX_THREADS);
+        this.executor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                restore();
+            }
+        }, RESTORE_DELAY, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        // Pending pushes are stored, and will be resumed after the restart
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public PushTask enqueue(String patientID, String exportFieldListJSON, String patientState, String groupName,
+        String remoteGUID, String remoteServerIdentifier)
+    {
+        DocumentReference user = this.bridge.getCurrentUserReference();
+        if (user == null || patientID == null || remoteServerIdentifier == null) {
+            return null;
+        }
+        String localUser = this.serializer.serialize(user);
+        String key = getKey(localUser, patientID, remoteServerIdentifier);
+        synchronized (this.tasks) {
+            DefaultPushTask existing = this.tasks.get(key);
+            if (existing != null && existing.update(exportFieldListJSON, patientState, groupName, remoteGUID)) {
+                this.logger.debug("Merged push of [{}] to [{}] with the already queued push", patientID,
+                    remoteServerIdentifier);
+                this.storage.storePendingPush(existing.getInfo());
+                return existing;
+            }
+            PendingPushInfo info = new PendingPushInfo(localUser, patientID, remoteServerIdentifier);
+            info.setExportFields(exportFieldListJSON);
+            info.setPatientState(patientState);
+            info.setGroupName(groupName);
+            info.setRemoteGUID(remoteGUID);
+            this.storage.storePendingPush(info);
+            DefaultPushTask task = new DefaultPushTask(info);
+            this.tasks.put(key, task);
+            schedule(task, 0);
+            return task;
+        }
+    }
+
+    @Override
+    public PushTask getTask(String patientID, String remoteServerIdentifier)
+    {
+        DocumentReference user = this.bridge.getCurrentUserReference();
+        if (user == null) {
+            return null;
+        }
+        return this.tasks.get(getKey(this.serializer.serialize(user), patientID, remoteServerIdentifier));
+    }
+
+    private void restore()
+    {
+        for (PendingPushInfo info : this.storage.getPendingPushes()) {
+            String key = getKey(info.getLocalUser(), info.getLocalPatientID(), info.getRemoteServerName());
+            synchronized (this.tasks) {
+                if (!this.tasks.containsKey(key)) {
+                    DefaultPushTask task = new DefaultPushTask(info);
+                    this.tasks.put(key, task);
+                    schedule(task, 0);
+                }
+            }
+        }
+    }
+
+    private void schedule(final DefaultPushTask task, long delay)
+    {
+        this.executor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                process(task);
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private void process(DefaultPushTask task)
+    {
+        Semaphore permits = getPermits(task.getServerID());
+        if (!permits.tryAcquire()) {
+            schedule(task, getBusyDelay(task.waitForServer()));
+            return;
+        }
+        PushServerSendPatientResponse response = null;
+        try {
+            task.start();
+            response = send(task.getInfo());
+        } catch (Exception ex) {
+            this.logger.warn("Failed to push patient [{}] to [{}]: {}", task.getPatientID(), task.getServerID(),
+                ex.getMessage());
+        } finally {
+            permits.release();
+        }
+
+        boolean retry = response == null && task.getAttempts() < MAX_ATTEMPTS;
+        State state = response != null && response.isSuccessful() ? State.SUCCEEDED
+            : retry ? State.QUEUED : State.FAILED;
+        if (task.finish(response, state)) {
+            // Updated while running, send the new version right away
+            this.storage.storePendingPush(task.getInfo());
+            schedule(task, 0);
+        } else if (retry) {
+            long delay = RETRY_DELAY << (task.getAttempts() - 1);
+            this.logger.debug("No response while pushing [{}] to [{}], retrying in {}s", task.getPatientID(),
+                task.getServerID(), delay);
+            this.storage.storePendingPush(task.getInfo());
+            schedule(task, delay);
+        } else {
+            if (state == State.FAILED) {
+                this.logger.warn("Giving up pushing patient [{}] to [{}] after {} attempts", task.getPatientID(),
+                    task.getServerID(), task.getAttempts());
+            }
+            this.storage.removePendingPush(task.getInfo());
+            forgetLater(task);
+        }
+    }
+
+    /**
+     * The delay before checking again if a busy server can accept a push.
+     *
+     * @param checks how many times in a row the server was found busy
+     * @return the delay, in seconds
+     */
+    static long getBusyDelay(int checks)
+    {
+        long delay = BUSY_DELAY;
+        for (int i = 1; i < checks && delay < MAX_BUSY_DELAY; ++i) {
+            delay <<= 1;
+        }
+        return Math.min(delay, MAX_BUSY_DELAY);
+    }
+
+    private void forgetLater(final DefaultPushTask task)
+    {
+        final PendingPushInfo info = task.getInfo();
+        this.executor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // A newer push for the same patient may have replaced this one in the meantime
+                DefaultPushQueue.this.tasks.remove(
+                    getKey(info.getLocalUser(), info.getLocalPatientID(), info.getRemoteServerName()), task);
+            }
+        }, COMPLETED_TASK_TTL, TimeUnit.SECONDS);
+    }
+
+    private PushServerSendPatientResponse send(PendingPushInfo info) throws Exception
+    {
+        ExecutionContext context = new ExecutionContext();
+        this.contextManager.initialize(context);
+        try {
+            XWikiContext xcontext = (XWikiContext) context.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+            if (xcontext == null) {
+                // The wiki isn't fully started yet, try again later
+                return null;
+            }
+            xcontext.setUserReference(this.resolver.resolve(info.getLocalUser()));
+            return this.pushService.sendPatient(info.getLocalPatientID(), info.getExportFields(),
+                info.getPatientState(), info.getGroupName(), info.getRemoteGUID(), info.getRemoteServerName());
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private Semaphore getPermits(String server)
+    {
+        Semaphore result = this.serverPermits.get(server);
+        if (result == null) {
+            this.serverPermits.putIfAbsent(server, new Semaphore(MAX_PER_SERVER));
+            result = this.serverPermits.get(server);
+        }
+        return result;
+    }
+
+    private String getKey(String localUser, String patientID, String server)
+    {
+        return localUser + '/' + patientID + '@' + server;
+    }
+}
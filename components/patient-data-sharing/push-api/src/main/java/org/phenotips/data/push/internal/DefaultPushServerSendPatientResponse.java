@@ -25,11 +25,29 @@
 public class DefaultPushServerSendPatientResponse extends DefaultPushServerGetPatientIDResponse implements
     PushServerSendPatientResponse
 {
+    /** Digests of the data sent with the request that received this response, stored for the next delta push. */
+    private String pushedDigests;
+
     DefaultPushServerSendPatientResponse(JSONObject serverResponse)
     {
         super(serverResponse);
     }
 
+    /**
+     * The digests of each top level key of the patient JSON sent in the request that received this response.
+     *
+     * @return a serialized JSON object, or {@code null} if not known
+     */
+    String getPushedDigests()
+    {
+        return this.pushedDigests;
+    }
+
+    void setPushedDigests(String pushedDigests)
+    {
+        this.pushedDigests = pushedDigests;
+    }
+
     @Override
     public boolean isActionFailed_incorrectGroup()
     {
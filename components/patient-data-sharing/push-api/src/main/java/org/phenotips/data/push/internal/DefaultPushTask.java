@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.push.PushTask;
+import org.phenotips.data.securestorage.PendingPushInfo;
+
+/**
+ * Default {@link PushTask} implementation, holding the state of a push managed by the {@link DefaultPushQueue}. The
+ * push parameters are stored in a {@link PendingPushInfo}, which is also what gets persisted.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultPushTask implements PushTask
+{
+    private final PendingPushInfo info;
+
+    private volatile State state = State.QUEUED;
+
+    private volatile PushServerSendPatientResponse response;
+
+    /** Whether the parameters were updated while the push was running, and the patient must be sent again. */
+    private boolean updated;
+
+    /** How many times in a row the push was delayed because the server already had too many running pushes. */
+    private int serverChecks;
+
+    /**
+     * Simple constructor.
+     *
+     * @param info the stored push parameters
+     */
+    public DefaultPushTask(PendingPushInfo info)
+    {
+        this.info = info;
+    }
+
+    @Override
+    public String getPatientID()
+    {
+        return this.info.getLocalPatientID();
+    }
+
+    @Override
+    public String getServerID()
+    {
+        return this.info.getRemoteServerName();
+    }
+
+    @Override
+    public State getState()
+    {
+        return this.state;
+    }
+
+    @Override
+    public int getAttempts()
+    {
+        return this.info.getAttempts();
+    }
+
+    @Override
+    public PushServerSendPatientResponse getResponse()
+    {
+        return this.response;
+    }
+
+    /**
+     * The stored push parameters.
+     *
+     * @return the persistent push information
+     */
+    public PendingPushInfo getInfo()
+    {
+        return this.info;
+    }
+
+    /**
+     * Replace the push parameters with the ones of a newer request for the same patient and server.
+     *
+     * @param exportFields the new list of fields to push
+     * @param patientState the new patient state
+     * @param groupName the new remote group
+     * @param remoteGUID the new remote GUID
+     * @return {@code true} if the push was still pending and was updated, {@code false} if it already completed and a
+     *         new push must be queued instead
+     */
+    public synchronized boolean update(String exportFields, String patientState, String groupName, String remoteGUID)
+    {
+        if (this.state == State.SUCCEEDED || this.state == State.FAILED) {
+            return false;
+        }
+        this.info.setExportFields(exportFields);
+        this.info.setPatientState(patientState);
+        this.info.setGroupName(groupName);
+        this.info.setRemoteGUID(remoteGUID);
+        this.info.setLastQueuedTimeToNow();
+        this.updated = this.state == State.RUNNING;
+        return true;
+    }
+
+    /**
+     * Records that the push was delayed because the remote server is busy.
+     *
+     * @return how many times in a row the push was delayed, including this one
+     */
+    public synchronized int waitForServer()
+    {
+        return ++this.serverChecks;
+    }
+
+    /** Marks the push as being sent. */
+    public synchronized void start()
+    {
+        this.state = State.RUNNING;
+        this.updated = false;
+        this.serverChecks = 0;
+        this.info.setAttempts(this.info.getAttempts() + 1);
+    }
+
+    /**
+     * Records the outcome of an attempt.
+     *
+     * @param result the response received, may be {@code null}
+     * @param newState the state after this attempt
+     * @return {@code true} if the parameters were updated during the attempt, in which case the state was set to
+     *         {@link State#QUEUED} instead and the push must be sent again
+     */
+    public synchronized boolean finish(PushServerSendPatientResponse result, State newState)
+    {
+        this.response = result;
+        if (this.updated) {
+            this.updated = false;
+            this.info.setAttempts(0);
+            this.state = State.QUEUED;
+            return true;
+        }
+        this.state = newState;
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.phenotips.data.push.PushQueue;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Starts the {@link PushQueue} when the application starts, so that pushes stored before a restart are resumed even if
+ * nobody pushes new patients.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("phenotips-push-queue-startup")
+@Singleton
+public class PushQueueStartupListener extends AbstractEventListener
+{
+    /** Lazily obtained, since the queue should only be started once the application is started. */
+    @Inject
+    private Provider<PushQueue> queue;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PushQueueStartupListener()
+    {
+        super("phenotips-push-queue-startup", new ApplicationStartedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.queue.get();
+    }
+}
@@ -19,11 +19,13 @@
 
 import org.phenotips.data.push.PatientPushHistory;
 import org.phenotips.data.push.PushPatientService;
+import org.phenotips.data.push.PushQueue;
 import org.phenotips.data.push.PushServerConfigurationResponse;
 import org.phenotips.data.push.PushServerGetPatientIDResponse;
 import org.phenotips.data.push.PushServerInfo;
 import org.phenotips.data.push.PushServerPatientStateResponse;
 import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.push.PushTask;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
@@ -54,6 +56,10 @@ public class PushPatientScriptService implements ScriptService
     @Inject
     private PushPatientService internalService;
 
+    /** Sends patients in the background. */
+    @Inject
+    private PushQueue queue;
+
     public Set<PushServerInfo> getAvailablePushTargets()
     {
         return this.internalService.getAvailablePushTargets();
@@ -131,4 +137,16 @@ public PushServerGetPatientIDResponse getPatientURL(String remoteServerIdentifie
     {
         return this.internalService.getPatientURL(remoteServerIdentifier, remotePatientGUID, remoteUserName, password);
     }
+
+    public PushTask queuePatient(String patientID, String exportFieldListJSON, String patientState, String groupName,
+        String remoteGUID, String remoteServerIdentifier)
+    {
+        return this.queue.enqueue(patientID, exportFieldListJSON, patientState, groupName, remoteGUID,
+            remoteServerIdentifier);
+    }
+
+    public PushTask getQueuedPush(String patientID, String remoteServerIdentifier)
+    {
+        return this.queue.getTask(patientID, remoteServerIdentifier);
+    }
 }
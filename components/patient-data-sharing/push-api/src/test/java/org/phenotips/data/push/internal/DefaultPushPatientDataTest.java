@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the delta computation in {@link DefaultPushPatientData}.
+ *
+ * @version $Id$
+ */
+public class DefaultPushPatientDataTest
+{
+    private JSONObject previous;
+
+    private JSONObject previousDigests;
+
+    @Before
+    public void setUp()
+    {
+        this.previous = new JSONObject();
+        this.previous.put("id", "P0000001");
+        this.previous.put("sex", "F");
+        this.previous.put("features", new JSONArray().put(new JSONObject().put("id", "HP:0000001")));
+        this.previous.put("nonstandard_features", new JSONArray().put(new JSONObject().put("label", "custom")));
+        this.previousDigests = DefaultPushPatientData.computeDigests(this.previous);
+    }
+
+    @Test
+    public void digestsAreComputedForEachKey()
+    {
+        Assert.assertEquals(this.previous.keySet(), this.previousDigests.keySet());
+        Assert.assertNotEquals(this.previousDigests.getString("id"), this.previousDigests.getString("sex"));
+        Assert.assertEquals(this.previousDigests.toString(),
+            DefaultPushPatientData.computeDigests(new JSONObject(this.previous.toString())).toString());
+    }
+
+    @Test
+    public void unchangedPatientHasEmptyDelta()
+    {
+        JSONObject delta = DefaultPushPatientData.computeDelta(this.previous, this.previousDigests,
+            this.previousDigests);
+        Assert.assertNotNull(delta);
+        Assert.assertEquals(0, delta.length());
+    }
+
+    @Test
+    public void deltaContainsChangedAndAddedKeys()
+    {
+        JSONObject current = new JSONObject(this.previous.toString());
+        current.put("sex", "M");
+        current.put("external_id", "abc");
+        JSONObject delta = DefaultPushPatientData.computeDelta(current,
+            DefaultPushPatientData.computeDigests(current), this.previousDigests);
+        Assert.assertEquals(2, delta.length());
+        Assert.assertEquals("M", delta.getString("sex"));
+        Assert.assertEquals("abc", delta.getString("external_id"));
+    }
+
+    @Test
+    public void featuresAreSentTogether()
+    {
+        JSONObject current = new JSONObject(this.previous.toString());
+        current.getJSONArray("features").put(new JSONObject().put("id", "HP:0000002"));
+        JSONObject delta = DefaultPushPatientData.computeDelta(current,
+            DefaultPushPatientData.computeDigests(current), this.previousDigests);
+        Assert.assertEquals(2, delta.length());
+        Assert.assertEquals(2, delta.getJSONArray("features").length());
+        Assert.assertEquals("custom",
+            delta.getJSONArray("nonstandard_features").getJSONObject(0).getString("label"));
+
+        current = new JSONObject(this.previous.toString());
+        current.put("nonstandard_features", new JSONArray());
+        delta = DefaultPushPatientData.computeDelta(current, DefaultPushPatientData.computeDigests(current),
+            this.previousDigests);
+        Assert.assertTrue(delta.has("features"));
+        Assert.assertTrue(delta.has("nonstandard_features"));
+    }
+
+    @Test
+    public void removedKeysRequireTheFullPatient()
+    {
+        JSONObject current = new JSONObject(this.previous.toString());
+        current.remove("sex");
+        Assert.assertNull(DefaultPushPatientData.computeDelta(current,
+            DefaultPushPatientData.computeDigests(current), this.previousDigests));
+    }
+}
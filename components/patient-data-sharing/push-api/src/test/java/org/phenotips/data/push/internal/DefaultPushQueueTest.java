@@ -0,0 +1,162 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.push.internal;
+
+import org.phenotips.data.push.PushPatientService;
+import org.phenotips.data.push.PushQueue;
+import org.phenotips.data.push.PushServerSendPatientResponse;
+import org.phenotips.data.push.PushTask;
+import org.phenotips.data.securestorage.PendingPushInfo;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultPushQueueTest
+{
+    private static final DocumentReference USER = new DocumentReference("xwiki", "XWiki", "padams");
+
+    private static final String SERVER = "remote";
+
+    private static final String PATIENT = "P0000001";
+
+    @Rule
+    public final MockitoComponentMockingRule<PushQueue> mocker =
+        new MockitoComponentMockingRule<PushQueue>(DefaultPushQueue.class);
+
+    private PushPatientService pushService;
+
+    private SecureStorageManager storage;
+
+    private PushServerSendPatientResponse success;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getCurrentUserReference()).thenReturn(USER);
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class));
+        when(serializer.serialize(USER)).thenReturn("xwiki:XWiki.padams");
+
+        ExecutionContextManager contextManager = this.mocker.getInstance(ExecutionContextManager.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                ExecutionContext context = (ExecutionContext) invocation.getArguments()[0];
+                context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, mock(XWikiContext.class));
+                return null;
+            }
+        }).when(contextManager).initialize(Matchers.any(ExecutionContext.class));
+
+        this.pushService = this.mocker.getInstance(PushPatientService.class);
+        this.storage = this.mocker.getInstance(SecureStorageManager.class);
+        this.success = mock(PushServerSendPatientResponse.class);
+        when(this.success.isSuccessful()).thenReturn(true);
+    }
+
+    @Test
+    public void enqueuedPushIsSentInTheBackground() throws Exception
+    {
+        when(this.pushService.sendPatient(PATIENT, null, "{}", null, null, SERVER)).thenReturn(this.success);
+
+        PushTask task = this.mocker.getComponentUnderTest().enqueue(PATIENT, null, "{}", null, null, SERVER);
+        Assert.assertNotNull(task);
+        Assert.assertSame(task, this.mocker.getComponentUnderTest().getTask(PATIENT, SERVER));
+
+        verify(this.storage, timeout(5000)).removePendingPush(Matchers.any(PendingPushInfo.class));
+        Assert.assertEquals(PushTask.State.SUCCEEDED, task.getState());
+        Assert.assertEquals(1, task.getAttempts());
+        Assert.assertSame(this.success, task.getResponse());
+    }
+
+    @Test
+    public void pushesQueuedWhileRunningAreMerged() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.pushService.sendPatient(PATIENT, "[\"a\"]", "{}", null, null, SERVER)).thenAnswer(
+            new Answer<PushServerSendPatientResponse>()
+            {
+                @Override
+                public PushServerSendPatientResponse answer(InvocationOnMock invocation) throws Throwable
+                {
+                    started.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return DefaultPushQueueTest.this.success;
+                }
+            });
+        when(this.pushService.sendPatient(PATIENT, "[\"b\"]", "{}", null, null, SERVER)).thenReturn(this.success);
+
+        PushQueue queue = this.mocker.getComponentUnderTest();
+        PushTask first = queue.enqueue(PATIENT, "[\"a\"]", "{}", null, null, SERVER);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        PushTask second = queue.enqueue(PATIENT, "[\"b\"]", "{}", null, null, SERVER);
+        queue.enqueue(PATIENT, "[\"b\"]", "{}", null, null, SERVER);
+        Assert.assertSame(first, second);
+        release.countDown();
+
+        verify(this.pushService, timeout(5000)).sendPatient(PATIENT, "[\"b\"]", "{}", null, null, SERVER);
+        verify(this.storage, timeout(5000)).removePendingPush(Matchers.any(PendingPushInfo.class));
+        Assert.assertEquals(PushTask.State.SUCCEEDED, first.getState());
+    }
+
+    @Test
+    public void busyServerChecksBackOffExponentially()
+    {
+        Assert.assertEquals(2, DefaultPushQueue.getBusyDelay(1));
+        Assert.assertEquals(4, DefaultPushQueue.getBusyDelay(2));
+        Assert.assertEquals(8, DefaultPushQueue.getBusyDelay(3));
+        Assert.assertEquals(64, DefaultPushQueue.getBusyDelay(6));
+        Assert.assertEquals(64, DefaultPushQueue.getBusyDelay(100));
+    }
+
+    @Test
+    public void guestsCannotQueuePushes() throws Exception
+    {
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getCurrentUserReference()).thenReturn(null);
+        Assert.assertNull(this.mocker.getComponentUnderTest().enqueue(PATIENT, null, "{}", null, null, SERVER));
+    }
+}
@@ -28,24 +28,35 @@
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.receive.ReceivePatientData;
 import org.phenotips.data.securestorage.LocalLoginToken;
+import org.phenotips.data.securestorage.PatientSourceServerInfo;
 import org.phenotips.data.securestorage.SecureStorageManager;
+import org.phenotips.data.shareprotocol.PatientPayloadCodec;
 import org.phenotips.data.shareprotocol.ShareProtocol;
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
 import org.phenotips.security.authorization.AuthorizationService;
 
 import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.context.Execution;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URLDecoder;
@@ -76,7 +87,7 @@
  */
 @Component
 @Singleton
-public class DefaultReceivePatientData implements ReceivePatientData
+public class DefaultReceivePatientData implements ReceivePatientData, Initializable
 {
     private final static int DEFAULT_USER_TOKEN_LIFETIME = 7;
 
@@ -90,6 +101,13 @@ public class DefaultReceivePatientData implements ReceivePatientData
 
     private final static String SERVER_CONFIG_USER_TOKEN_EXPIRE_PROPERTY_NAME = "user_token_life_in_days";
 
+    /**
+     * How long, in seconds, a stored login token is reused before being read again from the secure storage. Tokens
+     * that don't match the cached one are always checked against the storage, so a token replaced on another cluster
+     * node is accepted right away, while the replaced token may still be accepted for this long.
+     */
+    private final static int TOKEN_CACHE_LIFETIME = 60;
+
     /** used for secure user login token generation */
     private SecureRandom secureRandomGenerator = new SecureRandom();
 
@@ -133,6 +151,16 @@ public class DefaultReceivePatientData implements ReceivePatientData
     @Inject
     private SecureStorageManager storageManager;
 
+    /** Serializes patient document references for the GUID index of received patients. */
+    @Inject
+    private EntityReferenceSerializer<String> referenceSerializer;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    /** Recently checked login tokens, avoiding a secure storage lookup for each request of a sync session. */
+    private Cache<LocalLoginToken> tokenCache;
+
     @Inject
     @Named("xwikiproperties")
     private ConfigurationSource configuration;
@@ -149,6 +177,18 @@ public class DefaultReceivePatientData implements ReceivePatientData
     @Inject
     private ConsentAuthorizer consentAuthorizer;
 
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            LRUEvictionConfiguration evictionConfiguration = new LRUEvictionConfiguration(1000);
+            evictionConfiguration.setTimeToLive(TOKEN_CACHE_LIFETIME);
+            this.tokenCache = this.cacheManager.createNewLocalCache(new CacheConfiguration(evictionConfiguration));
+        } catch (CacheException ex) {
+            throw new InitializationException("Failed to create the login token cache", ex);
+        }
+    }
+
     @Override
     public boolean isServerTrusted()
     {
@@ -333,7 +373,17 @@ protected TokenStatus checkUserToken(String userName, String serverName, String
             return TokenStatus.INVALID;
         }
 
-        LocalLoginToken storedToken = this.storageManager.getLocalLoginToken(userName, serverName);
+        String cacheKey = getTokenCacheKey(userName, serverName);
+        LocalLoginToken storedToken = this.tokenCache.get(cacheKey);
+        if (storedToken == null || !token.equals(storedToken.getLoginToken())) {
+            // Not cached yet, or the cached token is outdated since a new one was issued by another cluster node
+            storedToken = this.storageManager.getLocalLoginToken(userName, serverName);
+            if (storedToken != null) {
+                this.tokenCache.set(cacheKey, storedToken);
+            } else {
+                this.tokenCache.remove(cacheKey);
+            }
+        }
 
         if (storedToken == null) {
             return TokenStatus.INVALID;
@@ -355,6 +405,11 @@ protected TokenStatus checkUserToken(String userName, String serverName, String
         return TokenStatus.VALID;
     }
 
+    private String getTokenCacheKey(String userName, String serverName)
+    {
+        return userName + '\n' + serverName;
+    }
+
     protected String getRemoteServerName(BaseObject serverConfig, XWikiRequest request)
     {
         if (serverConfig == null) {
@@ -469,7 +524,9 @@ public JSONObject receivePatient()
                 return this.generateFailedActionResponse(ShareProtocol.SERVER_JSON_KEY_NAME_ERROR_MISSINGCONSENT);
             }
 
-            String patientJSON = URLDecoder.decode(patientJSONRaw, XWiki.DEFAULT_ENCODING);
+            String patientJSON = decodePatientJSON(request, patientJSONRaw);
+            boolean isDelta =
+                Boolean.parseBoolean(request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON_DELTA));
 
             Patient affectedPatient;
 
@@ -477,6 +534,11 @@ public JSONObject receivePatient()
             // (or fail if GUID is invalid or the patient is not created/authored by the user)
             String guid = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_GUID);
 
+            if (isDelta && guid == null) {
+                this.logger.error("Partial patient data sent for a new patient by {}", request.getRemoteAddr());
+                return generateFailedActionResponse();
+            }
+
             if (guid != null) {
                 affectedPatient = getPatientByGUID(guid);
                 if (affectedPatient == null) {
@@ -513,6 +575,9 @@ public JSONObject receivePatient()
             }
 
             JSONObject patientData = new JSONObject(patientJSON);
+            if (isDelta) {
+                patientData = applyDelta(affectedPatient, patientData);
+            }
 
             if (consentIds != null) {
                 consentManager.setPatientConsents(affectedPatient, consentIds);
@@ -526,7 +591,8 @@ public JSONObject receivePatient()
             BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context);
             String sourceServerName = getRemoteServerName(serverConfig, request);
             String patientGUID = getPatientGUID(affectedPatient);
-            this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName);
+            this.storageManager.storePatientSourceServerInfo(patientGUID, sourceServerName,
+                this.referenceSerializer.serialize(affectedPatient.getDocument()));
 
             return generateSuccessfulResponseWithPatientIDs(affectedPatient, context);
         } catch (Exception ex) {
@@ -535,6 +601,43 @@ public JSONObject receivePatient()
         }
     }
 
+    /**
+     * Merges a partial patient JSON into the currently stored data of the patient. Every controller clears its data
+     * when its keys are missing from the JSON given to {@link Patient#updateFromJSON(JSONObject)}, so the top level
+     * keys which were not sent must be filled in with their stored values.
+     *
+     * @param patient the patient being updated
+     * @param delta the top level keys which changed since the last push
+     * @return the full patient JSON to update the patient from
+     */
+    JSONObject applyDelta(Patient patient, JSONObject delta)
+    {
+        JSONObject result = patient.toJSON();
+        for (String key : delta.keySet()) {
+            result.put(key, delta.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the patient JSON sent by the client, according to the encoding specified in the request.
+     *
+     * @param request the current request
+     * @param patientJSONRaw the value of the patient JSON parameter
+     * @return the serialized patient JSON
+     * @throws IOException if the encoding is not supported or the value is invalid
+     */
+    private String decodePatientJSON(XWikiRequest request, String patientJSONRaw) throws IOException
+    {
+        String encoding = request.getParameter(ShareProtocol.CLIENT_POST_KEY_NAME_PATIENTJSON_ENCODING);
+        if (encoding == null) {
+            return URLDecoder.decode(patientJSONRaw, XWiki.DEFAULT_ENCODING);
+        } else if (ShareProtocol.PATIENTJSON_ENCODING_GZIP.equals(encoding)) {
+            return PatientPayloadCodec.decodeGzip(patientJSONRaw);
+        }
+        throw new IOException("Unsupported patient JSON encoding: " + encoding);
+    }
+
     /**
      * Exctacts the list of granted consents from a request
      * @param rawPatientState patient state JSON string directly from the {@link Request} object
@@ -600,6 +703,9 @@ public JSONObject getConfiguration()
             response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_USERGROUPS, groupList);
             response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_ACCEPTEDFIELDS, acceptedFields);
             response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_UPDATESENABLED, true);
+            response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_ENCODINGS,
+                new JSONArray().put(ShareProtocol.PATIENTJSON_ENCODING_GZIP));
+            response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_DELTAS, true);
 
             BaseObject serverConfig = getSourceServerConfiguration(request.getRemoteAddr(), context); // TODO: make nice
             if (this.userTokensEnabled(serverConfig)) {
@@ -615,6 +721,7 @@ public JSONObject getConfiguration()
                 this.logger.warn("Remote server name: [{}]", serverName);
 
                 this.storageManager.storeLocalLoginToken(userName, serverName, token);
+                this.tokenCache.remove(getTokenCacheKey(userName, serverName));
 
                 response.put(ShareProtocol.SERVER_JSON_GETINFO_KEY_NAME_USERTOKEN, token);
             }
@@ -710,6 +817,12 @@ public JSONObject getPatientURL()
 
     protected Patient getPatientByGUID(String guid)
     {
+        PatientSourceServerInfo info = this.storageManager.getPatientSourceServerInfo(guid);
+        Patient indexed = getIndexedPatient(guid, info);
+        if (indexed != null) {
+            return indexed;
+        }
+
         try {
             Query q = this.queryManager.createQuery("from doc.object(PhenoTips.PatientClass) as o where o.guid = :guid",
                 Query.XWQL).bindValue("guid", guid);
@@ -721,7 +834,13 @@ protected Patient getPatientByGUID(String guid)
                 DocumentReference reference =
                     this.stringResolver.resolve(results.get(0), Patient.DEFAULT_DATA_SPACE);
 
-                return new PhenoTipsPatient((XWikiDocument) this.bridge.getDocument(reference));
+                Patient patient = new PhenoTipsPatient((XWikiDocument) this.bridge.getDocument(reference));
+                if (info != null) {
+                    // Received before the index was kept, or the index is stale: fix it for the next lookups
+                    this.storageManager.storePatientSourceServerInfo(guid, info.getSourceServerName(),
+                        this.referenceSerializer.serialize(reference));
+                }
+                return patient;
             }
         } catch (Exception ex) {
             this.logger.warn("Failed to get patient with GUID [{}]: [{}] {}", guid, ex.getMessage(), ex);
@@ -730,6 +849,33 @@ protected Patient getPatientByGUID(String guid)
         return null;
     }
 
+    /**
+     * Looks up a received patient in the GUID index kept in the secure storage, and checks that the indexed document
+     * still holds that patient.
+     *
+     * @param guid the GUID of the patient
+     * @param info the GUID index entry of the patient, may be {@code null}
+     * @return the patient, or {@code null} if the GUID is not indexed, in which case the patient records must be queried
+     */
+    private Patient getIndexedPatient(String guid, PatientSourceServerInfo info)
+    {
+        if (info == null || info.getLocalPatientDocument() == null) {
+            return null;
+        }
+        try {
+            DocumentReference reference = this.stringResolver.resolve(info.getLocalPatientDocument());
+            XWikiDocument doc = (XWikiDocument) this.bridge.getDocument(reference);
+            BaseObject patientObject = doc.getXObject(Patient.CLASS_REFERENCE);
+            if (!doc.isNew() && patientObject != null && guid.equals(patientObject.getGuid())) {
+                return new PhenoTipsPatient(doc);
+            }
+            this.logger.debug("Stale GUID index entry for [{}]: [{}]", guid, info.getLocalPatientDocument());
+        } catch (Exception ex) {
+            this.logger.warn("Failed to load indexed patient with GUID [{}]: [{}]", guid, ex.getMessage());
+        }
+        return null;
+    }
+
     private boolean userCanAccessPatient(String userName, Patient patient)
     {
         try {
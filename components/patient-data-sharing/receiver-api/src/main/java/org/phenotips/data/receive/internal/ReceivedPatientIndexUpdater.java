@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.receive.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientDeletedEvent;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Removes deleted patients from the GUID index of received patients, kept in the secure storage.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("phenotips-received-patient-index-updater")
+@Singleton
+public class ReceivedPatientIndexUpdater extends AbstractEventListener
+{
+    @Inject
+    private SecureStorageManager storageManager;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public ReceivedPatientIndexUpdater()
+    {
+        super("phenotips-received-patient-index-updater", new PatientDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        Patient patient = ((PatientDeletedEvent) event).getPatient();
+        if (patient != null && patient.getDocument() != null) {
+            this.storageManager.removePatientSourceServerInfo(this.serializer.serialize(patient.getDocument()));
+        }
+    }
+}
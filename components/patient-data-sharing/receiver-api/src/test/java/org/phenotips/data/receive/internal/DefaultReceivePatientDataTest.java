@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.receive.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.receive.ReceivePatientData;
+import org.phenotips.data.securestorage.LocalLoginToken;
+import org.phenotips.data.securestorage.PatientSourceServerInfo;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the GUID index, login token cache and delta handling of {@link DefaultReceivePatientData}.
+ *
+ * @version $Id$
+ */
+public class DefaultReceivePatientDataTest
+{
+    private static final String GUID = "1234-5678";
+
+    private static final String SERVER = "remote";
+
+    private static final String DOCUMENT = "xwiki:data.P0000001";
+
+    @Rule
+    public final MockitoComponentMockingRule<ReceivePatientData> mocker =
+        new MockitoComponentMockingRule<ReceivePatientData>(DefaultReceivePatientData.class);
+
+    private SecureStorageManager storage;
+
+    private Cache<LocalLoginToken> tokenCache;
+
+    private DocumentReference reference = new DocumentReference("xwiki", "data", "P0000001");
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.tokenCache = mock(Cache.class);
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        doReturn(this.tokenCache).when(cacheManager).createNewLocalCache(Matchers.any(CacheConfiguration.class));
+
+        this.storage = this.mocker.getInstance(SecureStorageManager.class);
+
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "current");
+        when(resolver.resolve("data.P0000001", Patient.DEFAULT_DATA_SPACE)).thenReturn(this.reference);
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class));
+        when(serializer.serialize(this.reference)).thenReturn(DOCUMENT);
+
+        QueryManager queryManager = this.mocker.getInstance(QueryManager.class);
+        Query query = mock(Query.class);
+        when(queryManager.createQuery(Matchers.anyString(), Matchers.eq(Query.XWQL))).thenReturn(query);
+        when(query.bindValue("guid", GUID)).thenReturn(query);
+        doReturn(Arrays.asList("data.P0000001")).when(query).execute();
+
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(this.reference);
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getDocument(this.reference)).thenReturn(doc);
+    }
+
+    @Test
+    public void patientsMissingFromTheIndexAreBackfilled() throws Exception
+    {
+        when(this.storage.getPatientSourceServerInfo(GUID)).thenReturn(new PatientSourceServerInfo(GUID, SERVER));
+
+        Patient patient = getComponent().getPatientByGUID(GUID);
+        Assert.assertEquals(this.reference, patient.getDocument());
+        verify(this.storage).storePatientSourceServerInfo(GUID, SERVER, DOCUMENT);
+    }
+
+    @Test
+    public void localPatientsAreNotIndexed() throws Exception
+    {
+        Patient patient = getComponent().getPatientByGUID(GUID);
+        Assert.assertEquals(this.reference, patient.getDocument());
+        verify(this.storage, never()).storePatientSourceServerInfo(Matchers.anyString(), Matchers.anyString(),
+            Matchers.anyString());
+    }
+
+    @Test
+    public void outdatedCachedTokenIsCheckedAgainstTheStorage() throws Exception
+    {
+        when(this.tokenCache.get("padams\n" + SERVER)).thenReturn(new LocalLoginToken("padams", SERVER, "old"));
+        LocalLoginToken stored = new LocalLoginToken("padams", SERVER, "new");
+        when(this.storage.getLocalLoginToken("padams", SERVER)).thenReturn(stored);
+
+        Assert.assertEquals(DefaultReceivePatientData.TokenStatus.VALID,
+            getComponent().checkUserToken("padams", SERVER, "new", 0));
+        verify(this.tokenCache).set("padams\n" + SERVER, stored);
+    }
+
+    @Test
+    public void matchingCachedTokenDoesNotQueryTheStorage() throws Exception
+    {
+        when(this.tokenCache.get("padams\n" + SERVER)).thenReturn(new LocalLoginToken("padams", SERVER, "token"));
+
+        Assert.assertEquals(DefaultReceivePatientData.TokenStatus.VALID,
+            getComponent().checkUserToken("padams", SERVER, "token", 0));
+        verify(this.storage, never()).getLocalLoginToken(Matchers.anyString(), Matchers.anyString());
+    }
+
+    @Test
+    public void unknownTokenIsInvalid() throws Exception
+    {
+        Assert.assertEquals(DefaultReceivePatientData.TokenStatus.INVALID,
+            getComponent().checkUserToken("padams", SERVER, "token", 0));
+        verify(this.tokenCache).remove("padams\n" + SERVER);
+    }
+
+    @Test
+    public void deltasAreMergedIntoTheStoredPatientData() throws Exception
+    {
+        JSONObject stored = new JSONObject();
+        stored.put("allergies", new JSONArray().put("peanuts"));
+        stored.put("ethnicity", new JSONObject().put("maternal_ethnicity", new JSONArray().put("Italian")));
+        stored.put("features", new JSONArray().put("HP:0000001"));
+        Patient patient = mock(Patient.class);
+        when(patient.toJSON()).thenReturn(stored);
+
+        JSONObject delta = new JSONObject().put("features", new JSONArray().put("HP:0000118"));
+        JSONObject result = getComponent().applyDelta(patient, delta);
+
+        Assert.assertEquals("HP:0000118", result.getJSONArray("features").getString(0));
+        Assert.assertEquals("peanuts", result.getJSONArray("allergies").getString(0));
+        Assert.assertEquals("Italian",
+            result.getJSONObject("ethnicity").getJSONArray("maternal_ethnicity").getString(0));
+    }
+
+    private DefaultReceivePatientData getComponent() throws Exception
+    {
+        return (DefaultReceivePatientData) this.mocker.getComponentUnderTest();
+    }
+}
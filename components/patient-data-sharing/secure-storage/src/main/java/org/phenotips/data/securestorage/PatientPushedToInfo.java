@@ -56,6 +56,10 @@
 
     private String remotePatientGUID; // supposedly never changes; nullable: in case remote server does not provide a GUID
 
+    @Column(length = 65535)
+    private String lastPushedDigests; // JSON object with a digest of each top level key of the last pushed JSON,
+    // used for sending only the changed data; nullable: if unknown, the next push sends everything
+
     /** Default constructor used by Hibernate. */
     protected PatientPushedToInfo()
     {
@@ -128,4 +132,14 @@ public void setRemotePatientURL(String remotePatientURL)
     {
         this.remotePatientURL = remotePatientURL;
     }
+
+    public String getLastPushedDigests()
+    {
+        return this.lastPushedDigests;
+    }
+
+    public void setLastPushedDigests(String lastPushedDigests)
+    {
+        this.lastPushedDigests = lastPushedDigests;
+    }
 }
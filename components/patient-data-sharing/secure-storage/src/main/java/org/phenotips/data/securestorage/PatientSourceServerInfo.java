@@ -22,6 +22,8 @@
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Used to store information about the source of the given patient's data (e.g. which remote PhenoTips server the data
  * was pushed form, if any).
@@ -38,11 +40,16 @@
     private long id;
 
     @Column(nullable = false)
+    @Index(name = "patientSourceServerGUIDIdx")
     private String patientGUID;
 
     @Column(nullable = false)
     private String sourceServerName;
 
+    /** The serialized reference of the local patient document, indexing received patients by GUID. */
+    @Index(name = "patientSourceServerDocumentIdx")
+    private String localPatientDocument;
+
     /** Default constructor used by Hibernate. */
     protected PatientSourceServerInfo()
     {
@@ -64,4 +71,37 @@ public String getSourceServerName()
     {
         return this.sourceServerName;
     }
+
+    /**
+     * The GUID of the received patient.
+     *
+     * @return the patient GUID
+     * @since 1.3M1
+     */
+    public String getPatientGUID()
+    {
+        return this.patientGUID;
+    }
+
+    /**
+     * The local document holding the received patient.
+     *
+     * @return a serialized document reference, may be {@code null} for patients received before this was recorded
+     * @since 1.3M1
+     */
+    public String getLocalPatientDocument()
+    {
+        return this.localPatientDocument;
+    }
+
+    /**
+     * For use by SecureStorageManager.
+     *
+     * @param localPatientDocument a serialized document reference
+     * @since 1.3M1
+     */
+    public void setLocalPatientDocument(String localPatientDocument)
+    {
+        this.localPatientDocument = localPatientDocument;
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.securestorage;
+
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+/**
+ * A push of patient data to a remote server which was queued but not yet successfully completed. Stored so that queued
+ * pushes survive a restart.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Entity
+public class PendingPushInfo
+{
+    @Id
+    @GeneratedValue
+    private long id;
+
+    @Column(nullable = false)
+    private String localUser; // full reference of the local user who requested the push
+
+    @Column(nullable = false)
+    private String localPatientID;
+
+    @Column(nullable = false)
+    private String remoteServerName;
+
+    @Column(length = 65535)
+    private String exportFields; // JSON array of the fields to push, null for all the fields
+
+    @Column(length = 65535)
+    private String patientState; // JSON with the patient state, e.g. the granted consents
+
+    private String groupName;
+
+    private String remoteGUID;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private Timestamp lastQueued; // last time this push was queued or updated
+
+    /** Default constructor used by Hibernate. */
+    protected PendingPushInfo()
+    {
+        // Nothing to do, Hibernate will populate all the fields from the database
+    }
+
+    /**
+     * Constructor for a new pending push.
+     *
+     * @param localUser the full reference of the local user who requested the push
+     * @param localPatientID the identifier of the local patient to push
+     * @param remoteServerName the name of the target server
+     */
+    public PendingPushInfo(String localUser, String localPatientID, String remoteServerName)
+    {
+        this.localUser = localUser;
+        this.localPatientID = localPatientID;
+        this.remoteServerName = remoteServerName;
+        this.setLastQueuedTimeToNow();
+    }
+
+    public long getId()
+    {
+        return this.id;
+    }
+
+    public String getLocalUser()
+    {
+        return this.localUser;
+    }
+
+    public String getLocalPatientID()
+    {
+        return this.localPatientID;
+    }
+
+    public String getRemoteServerName()
+    {
+        return this.remoteServerName;
+    }
+
+    public String getExportFields()
+    {
+        return this.exportFields;
+    }
+
+    public void setExportFields(String exportFields)
+    {
+        this.exportFields = exportFields;
+    }
+
+    public String getPatientState()
+    {
+        return this.patientState;
+    }
+
+    public void setPatientState(String patientState)
+    {
+        this.patientState = patientState;
+    }
+
+    public String getGroupName()
+    {
+        return this.groupName;
+    }
+
+    public void setGroupName(String groupName)
+    {
+        this.groupName = groupName;
+    }
+
+    public String getRemoteGUID()
+    {
+        return this.remoteGUID;
+    }
+
+    public void setRemoteGUID(String remoteGUID)
+    {
+        this.remoteGUID = remoteGUID;
+    }
+
+    public int getAttempts()
+    {
+        return this.attempts;
+    }
+
+    public void setAttempts(int attempts)
+    {
+        this.attempts = attempts;
+    }
+
+    public Timestamp getLastQueuedTime()
+    {
+        return this.lastQueued;
+    }
+
+    public void setLastQueuedTimeToNow()
+    {
+        this.lastQueued = new Timestamp(System.currentTimeMillis());
+    }
+}
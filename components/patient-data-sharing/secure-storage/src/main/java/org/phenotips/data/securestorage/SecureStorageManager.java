@@ -19,6 +19,8 @@
 
 import org.xwiki.component.annotation.Role;
 
+import java.util.List;
+
 /**
  * Used to store data in a way inaccessible from any of the wiki pages by regular users without programming rights.
  * <p>
@@ -52,12 +54,76 @@
 
     void storePatientSourceServerInfo(String patientGUID, String sourceServerName);
 
+    /**
+     * Records where a received patient was pushed from, and which local document holds it, so that the patient can be
+     * found by its GUID without querying all the patient records.
+     *
+     * @param patientGUID the GUID of the received patient
+     * @param sourceServerName the server which pushed the patient
+     * @param localPatientDocument the serialized reference of the local patient document
+     * @since 1.3M1
+     */
+    void storePatientSourceServerInfo(String patientGUID, String sourceServerName, String localPatientDocument);
+
     // null if local
     PatientSourceServerInfo getPatientSourceServerInfo(String patientGUID);
 
+    /**
+     * Forgets the source of a received patient, when the local patient document is deleted.
+     *
+     * @param localPatientDocument the serialized reference of the deleted patient document
+     * @since 1.3M1
+     */
+    void removePatientSourceServerInfo(String localPatientDocument);
+
     void storePatientPushInfo(String localPatientID, String remoteServerName,
         String remotePatientGUID, String remotePatientID, String remotePatientURL);
 
+    /**
+     * Records a successful push, along with the digests of the pushed data, used for sending only the changed data on
+     * the next push.
+     *
+     * @param localPatientID the pushed patient
+     * @param remoteServerName the target server
+     * @param remotePatientGUID the GUID of the remote patient
+     * @param remotePatientID the identifier of the remote patient
+     * @param remotePatientURL the URL of the remote patient
+     * @param pushedDigests JSON object with a digest of each top level key of the pushed JSON, {@code null} if unknown
+     */
+    void storePatientPushInfo(String localPatientID, String remoteServerName, String remotePatientGUID,
+        String remotePatientID, String remotePatientURL, String pushedDigests);
+
     // null if never pushed to the given server
     PatientPushedToInfo getPatientPushInfo(String localPatientID, String remoteServerName);
+
+    /**
+     * Lists the push history of a patient, with one query instead of one {@link #getPatientPushInfo(String, String)}
+     * call for each server.
+     *
+     * @param localPatientID the local patient
+     * @return the latest push to each server the patient was pushed to, may be empty
+     * @since 1.3M1
+     */
+    List<PatientPushedToInfo> getPatientPushInfos(String localPatientID);
+
+    /**
+     * Saves a queued push, creating it or updating the stored copy.
+     *
+     * @param push the push to save
+     */
+    void storePendingPush(PendingPushInfo push);
+
+    /**
+     * Removes a queued push, once it is completed or abandoned.
+     *
+     * @param push the push to remove
+     */
+    void removePendingPush(PendingPushInfo push);
+
+    /**
+     * Lists all the queued pushes, in the order in which they were queued.
+     *
+     * @return a list of pushes, may be empty
+     */
+    List<PendingPushInfo> getPendingPushes();
 }
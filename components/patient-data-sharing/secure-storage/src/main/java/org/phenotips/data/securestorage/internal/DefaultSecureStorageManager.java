@@ -20,24 +20,31 @@
 import org.phenotips.data.securestorage.LocalLoginToken;
 import org.phenotips.data.securestorage.PatientPushedToInfo;
 import org.phenotips.data.securestorage.PatientSourceServerInfo;
+import org.phenotips.data.securestorage.PendingPushInfo;
 import org.phenotips.data.securestorage.RemoteLoginData;
 import org.phenotips.data.securestorage.SecureStorageManager;
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.Collections;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.slf4j.Logger;
 
 import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
 
 /**
- * Default implementation using Hibernate
+ * Default implementation using Hibernate. Each operation runs in a single session and transaction, and operations
+ * nested inside another one, in the same thread, reuse the session of the outermost operation instead of opening a new
+ * one.
  *
  * @version $Id$
  * @since 1.0M10
@@ -46,6 +53,12 @@
 @Singleton
 public class DefaultSecureStorageManager implements SecureStorageManager
 {
+    private static final String LOCAL_USER_NAME = "localUserName";
+
+    private static final String LOCAL_PATIENT_ID = "localPatientID";
+
+    private static final String REMOTE_SERVER_NAME = "remoteServerName";
+
     /** Handles persistence. */
     @Inject
     private HibernateSessionFactory sessionFactory;
@@ -54,109 +67,110 @@ public class DefaultSecureStorageManager implements SecureStorageManager
     @Inject
     private Logger logger;
 
+    /** The session of the storage operation currently running in each thread, if any. */
+    private final ThreadLocal<Session> currentSession = new ThreadLocal<>();
+
     @Override
-    public void removeRemoteLoginData(String localUserName, String serverName)
+    public void removeRemoteLoginData(final String localUserName, final String serverName)
     {
-        RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
-        if (existing != null) {
-            Session session = this.sessionFactory.getSessionFactory().openSession();
-            Transaction t = session.beginTransaction();
-            try {
-                t.begin();
-                this.logger.info("Removing stored token for [{}@{}]", localUserName, serverName);
-                session.delete(existing);
-                t.commit();
-            } catch (HibernateException ex) {
-                this.logger.error("Error removing stored token for [{}@{}]: [{}]", localUserName, serverName, ex);
-                if (t!=null) {
-                    t.rollback();
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void run(Session session)
+                {
+                    RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
+                    if (existing != null) {
+                        DefaultSecureStorageManager.this.logger.info("Removing stored token for [{}@{}]",
+                            localUserName, serverName);
+                        session.delete(existing);
+                    }
+                    return null;
                 }
-            } finally {
-                session.close();
-            }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error removing stored token for [{}@{}]: [{}]", localUserName, serverName, ex);
         }
     }
 
     @Override
-    public void storeRemoteLoginData(String localUserName, String serverName,
-        String remoteUserName, String remoteLoginToken)
+    public void storeRemoteLoginData(final String localUserName, final String serverName,
+        final String remoteUserName, final String remoteLoginToken)
     {
-        RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
         try {
-            t.begin();
-            if (existing != null)
-            {
-                // this.logger.debug("DEBUG: Updating token");
-                existing.setRemoteUserName(remoteUserName);
-                existing.setLoginToken(remoteLoginToken);
-                session.update(existing);
-            }
-            else
+            execute(new Operation<Void>()
             {
-                // this.logger.debug("DEBUG: Saving new token");
-                session.save(new RemoteLoginData(localUserName, serverName, remoteUserName, remoteLoginToken));
-            }
-            t.commit();
+                @Override
+                public Void run(Session session)
+                {
+                    RemoteLoginData existing = getRemoteLoginData(localUserName, serverName);
+                    if (existing != null) {
+                        existing.setRemoteUserName(remoteUserName);
+                        existing.setLoginToken(remoteLoginToken);
+                        session.update(existing);
+                    } else {
+                        session.save(new RemoteLoginData(localUserName, serverName, remoteUserName,
+                            remoteLoginToken));
+                    }
+                    return null;
+                }
+            });
         } catch (HibernateException ex) {
             this.logger.error("Error storing remote login for [{}@{}]: [{}]", localUserName, serverName, ex);
-            if (t!=null) {
-                t.rollback();
-            }
-        } finally {
-            session.close();
         }
     }
 
     @Override
-    public void storeLocalLoginToken(String userName, String sourceServerName, String loginToken)
+    public void storeLocalLoginToken(final String userName, final String sourceServerName, final String loginToken)
     {
-        LocalLoginToken existing = getLocalLoginToken(userName, sourceServerName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
         try {
-            t.begin();
-            if (existing != null)
+            execute(new Operation<Void>()
             {
-                this.logger.info("Updating token for [{}@{}]", userName, sourceServerName);
-                existing.setLoginToken(loginToken);
-                session.update(existing);
-            }
-            else
-            {
-                this.logger.info("Saving new token for [{}@{}]", userName, sourceServerName);
-                session.save(new LocalLoginToken(userName, sourceServerName, loginToken));
-            }
-            t.commit();
+                @Override
+                public Void run(Session session)
+                {
+                    LocalLoginToken existing = getLocalLoginToken(userName, sourceServerName);
+                    if (existing != null) {
+                        DefaultSecureStorageManager.this.logger.info("Updating token for [{}@{}]", userName,
+                            sourceServerName);
+                        existing.setLoginToken(loginToken);
+                        session.update(existing);
+                    } else {
+                        DefaultSecureStorageManager.this.logger.info("Saving new token for [{}@{}]", userName,
+                            sourceServerName);
+                        session.save(new LocalLoginToken(userName, sourceServerName, loginToken));
+                    }
+                    return null;
+                }
+            });
         } catch (HibernateException ex) {
             this.logger.error("Error storing local login token for [{}@{}]: [{}]", userName, sourceServerName, ex);
-            if (t!=null) {
-                t.rollback();
-            }
-        } finally {
-            session.close();
         }
     }
 
     @Override
-    public RemoteLoginData getRemoteLoginData(String localUserName, String serverName)
+    public RemoteLoginData getRemoteLoginData(final String localUserName, final String serverName)
     {
         if (localUserName == null || serverName == null) {
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
         try {
-            RemoteLoginData data = (RemoteLoginData) session.createCriteria(RemoteLoginData.class)
-                .add(Restrictions.eq("localUserName", localUserName))
-                .add(Restrictions.eq("serverName", serverName))
-                .uniqueResult();
+            RemoteLoginData data = execute(new Operation<RemoteLoginData>()
+            {
+                @Override
+                public RemoteLoginData run(Session session)
+                {
+                    return (RemoteLoginData) session.createCriteria(RemoteLoginData.class)
+                        .add(Restrictions.eq(LOCAL_USER_NAME, localUserName))
+                        .add(Restrictions.eq("serverName", serverName))
+                        .uniqueResult();
+                }
+            });
 
             if (data == null) {
-                this.logger.info("Remote login token not found or more than one found for [{}@{}]", localUserName, serverName);
+                this.logger.info("Remote login token not found or more than one found for [{}@{}]", localUserName,
+                    serverName);
                 return null;
             }
 
@@ -164,37 +178,39 @@ public RemoteLoginData getRemoteLoginData(String localUserName, String serverNam
             return data;
         } catch (HibernateException ex) {
             this.logger.error("Error getting remote login token for [{}@{}]: [{}]", localUserName, serverName, ex);
-        } finally {
-            session.close();
         }
         return null;
     }
 
     @Override
-    public LocalLoginToken getLocalLoginToken(String userName, String sourceServerName)
+    public LocalLoginToken getLocalLoginToken(final String userName, final String sourceServerName)
     {
         if (userName == null || sourceServerName == null) {
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
         try {
-            LocalLoginToken data = (LocalLoginToken) session.createCriteria(LocalLoginToken.class)
-                .add(Restrictions.eq("localUserName", userName))
-                .add(Restrictions.eq("sourceServerName", sourceServerName))
-                .uniqueResult();
+            LocalLoginToken data = execute(new Operation<LocalLoginToken>()
+            {
+                @Override
+                public LocalLoginToken run(Session session)
+                {
+                    return (LocalLoginToken) session.createCriteria(LocalLoginToken.class)
+                        .add(Restrictions.eq(LOCAL_USER_NAME, userName))
+                        .add(Restrictions.eq("sourceServerName", sourceServerName))
+                        .uniqueResult();
+                }
+            });
 
             if (data == null) {
-                this.logger.info("Local token not found or more than one found for [{}@{}]", userName, sourceServerName);
+                this.logger.info("Local token not found or more than one found for [{}@{}]", userName,
+                    sourceServerName);
                 return null;
             }
 
-            //this.logger.debug("Local token found for [{}@{}]", userName, sourceServerName);
             return data;
         } catch (HibernateException ex) {
             this.logger.error("Error getting local login token for [{}@{}]: [{}]", userName, sourceServerName, ex);
-        } finally {
-            session.close();
         }
         return null;
     }
@@ -208,104 +224,310 @@ public void removeAllLocalTokens(String sourceServerName)
     @Override
     public void storePatientSourceServerInfo(String patientGUID, String sourceServerName)
     {
-        PatientSourceServerInfo existing = getPatientSourceServerInfo(patientGUID);
-
-        if (existing != null)
-        {
-            if (!existing.getSourceServerName().equals(sourceServerName)) {
-                this.logger.warn("Multiple servers pushing the same patient: "
-                    + "remote server is already defined as {} and is different from {}",
-                    existing.getSourceServerName(), sourceServerName);
-            }
+        storePatientSourceServerInfo(patientGUID, sourceServerName, null);
+    }
+
+    @Override
+    public void storePatientSourceServerInfo(final String patientGUID, final String sourceServerName,
+        final String localPatientDocument)
+    {
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void run(Session session)
+                {
+                    PatientSourceServerInfo existing = getPatientSourceServerInfo(patientGUID);
+                    if (existing == null) {
+                        DefaultSecureStorageManager.this.logger.info("Saving remote source server for [{}] = [{}]",
+                            patientGUID, sourceServerName);
+                        PatientSourceServerInfo info = new PatientSourceServerInfo(patientGUID, sourceServerName);
+                        info.setLocalPatientDocument(localPatientDocument);
+                        session.save(info);
+                        return null;
+                    }
+                    if (!existing.getSourceServerName().equals(sourceServerName)) {
+                        DefaultSecureStorageManager.this.logger.warn("Multiple servers pushing the same patient: "
+                            + "remote server is already defined as {} and is different from {}",
+                            existing.getSourceServerName(), sourceServerName);
+                    }
+                    if (localPatientDocument != null
+                        && !localPatientDocument.equals(existing.getLocalPatientDocument())) {
+                        existing.setLocalPatientDocument(localPatientDocument);
+                        session.update(existing);
+                    }
+                    return null;
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error saving remote soource server for [{}]: [{}]", patientGUID, ex);
         }
-        else
-        {
-            Session session = this.sessionFactory.getSessionFactory().openSession();
-            Transaction t = session.beginTransaction();
-            try {
-                t.begin();
-                this.logger.info("Saving remote source server for [{}] = [{}]", patientGUID, sourceServerName);
-                session.save(new PatientSourceServerInfo(patientGUID, sourceServerName));
-                t.commit();
-            } catch (HibernateException ex) {
-                this.logger.error("Error saving remote soource server for [{}]: [{}]", patientGUID, ex);
-            } finally {
-                session.close();
+    }
+
+    @Override
+    public PatientSourceServerInfo getPatientSourceServerInfo(final String patientGUID)
+    {
+        try {
+            PatientSourceServerInfo data = execute(new Operation<PatientSourceServerInfo>()
+            {
+                @Override
+                public PatientSourceServerInfo run(Session session)
+                {
+                    return (PatientSourceServerInfo) session.createCriteria(PatientSourceServerInfo.class)
+                        .add(Restrictions.eq("patientGUID", patientGUID))
+                        .uniqueResult();
+                }
+            });
+
+            if (data == null) {
+                this.logger.debug("No remote source server defined for [{}]", patientGUID);
+                return null;
             }
+
+            this.logger.debug("Remote source server found for [{}]: [{}]", patientGUID, data.getSourceServerName());
+            return data;
+        } catch (HibernateException ex) {
+            this.logger.error("Error getting remote source server for [{}]: [{}]", patientGUID, ex);
         }
+        return null;
     }
 
     @Override
-    public PatientSourceServerInfo getPatientSourceServerInfo(String patientGUID)
+    public void removePatientSourceServerInfo(final String localPatientDocument)
     {
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        PatientSourceServerInfo data = (PatientSourceServerInfo) session.createCriteria(PatientSourceServerInfo.class)
-            .add(Restrictions.eq("patientGUID", patientGUID))
-            .uniqueResult();
-
-        if (data == null) {
-            this.logger.debug("No remote source server defined for [{}]", patientGUID);
-            return null;
+        if (localPatientDocument == null) {
+            return;
         }
 
-        this.logger.debug("Remote source server found for [{}]: [{}]", patientGUID, data.getSourceServerName());
-        return data;
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Void run(Session session)
+                {
+                    List<PatientSourceServerInfo> infos = session.createCriteria(PatientSourceServerInfo.class)
+                        .add(Restrictions.eq("localPatientDocument", localPatientDocument))
+                        .list();
+                    for (PatientSourceServerInfo info : infos) {
+                        session.delete(info);
+                    }
+                    return null;
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error removing remote source server for [{}]: [{}]", localPatientDocument, ex);
+        }
     }
 
     @Override
     public void storePatientPushInfo(String localPatientID, String remoteServerName,
         String remotePatientGUID, String remotePatientID, String remotePatientURL)
+    {
+        storePatientPushInfo(localPatientID, remoteServerName, remotePatientGUID, remotePatientID, remotePatientURL,
+            null);
+    }
+
+    @Override
+    public void storePatientPushInfo(final String localPatientID, final String remoteServerName,
+        final String remotePatientGUID, final String remotePatientID, final String remotePatientURL,
+        final String pushedDigests)
     {
         if (localPatientID == null || remoteServerName == null) {
             return;
         }
 
-        PatientPushedToInfo existing = getPatientPushInfo(localPatientID, remoteServerName);
-
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        Transaction t = session.beginTransaction();
-        t.begin();
-
-        if (existing != null)
-        {
-            this.logger.debug("Updating patient push info for [{}]: [{}@{}] -> [{}@{}]", localPatientID,
-                existing.getRemotePatientID(), existing.getRemoteServerName(), remotePatientID, remoteServerName);
-            existing.setLastPushTimeToNow();
-            existing.setRemotePatientID(remotePatientID);
-            existing.setRemotePatientGUID(remotePatientGUID);
-            existing.setRemotePatientURL(remotePatientURL);
-            session.update(existing);
-        }
-        else
-        {
-            this.logger.debug("Saving new patient push info [{}]: [{}@{}]", localPatientID,
-                remotePatientID, remoteServerName);
-            session.save(new PatientPushedToInfo(localPatientID, remoteServerName,
-                remotePatientGUID, remotePatientID, remotePatientURL));
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void run(Session session)
+                {
+                    PatientPushedToInfo existing = getPatientPushInfo(localPatientID, remoteServerName);
+                    if (existing != null) {
+                        DefaultSecureStorageManager.this.logger.debug(
+                            "Updating patient push info for [{}]: [{}@{}] -> [{}@{}]", localPatientID,
+                            existing.getRemotePatientID(), existing.getRemoteServerName(), remotePatientID,
+                            remoteServerName);
+                        existing.setLastPushTimeToNow();
+                        existing.setRemotePatientID(remotePatientID);
+                        existing.setRemotePatientGUID(remotePatientGUID);
+                        existing.setRemotePatientURL(remotePatientURL);
+                        existing.setLastPushedDigests(pushedDigests);
+                        session.update(existing);
+                    } else {
+                        DefaultSecureStorageManager.this.logger.debug("Saving new patient push info [{}]: [{}@{}]",
+                            localPatientID, remotePatientID, remoteServerName);
+                        PatientPushedToInfo info = new PatientPushedToInfo(localPatientID, remoteServerName,
+                            remotePatientGUID, remotePatientID, remotePatientURL);
+                        info.setLastPushedDigests(pushedDigests);
+                        session.save(info);
+                    }
+                    return null;
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error storing push info for [{}] to [{}]: [{}]", localPatientID, remoteServerName, ex);
         }
-        t.commit();
     }
 
     @Override
-    public PatientPushedToInfo getPatientPushInfo(String localPatientID, String remoteServerName)
+    public PatientPushedToInfo getPatientPushInfo(final String localPatientID, final String remoteServerName)
     {
         if (localPatientID == null || remoteServerName == null) {
             return null;
         }
 
-        Session session = this.sessionFactory.getSessionFactory().openSession();
-        PatientPushedToInfo data = (PatientPushedToInfo) session.createCriteria(PatientPushedToInfo.class)
-            .add(Restrictions.eq("localPatientID", localPatientID))
-            .add(Restrictions.eq("remoteServerName", remoteServerName))
-            .uniqueResult();
+        try {
+            PatientPushedToInfo data = execute(new Operation<PatientPushedToInfo>()
+            {
+                @Override
+                public PatientPushedToInfo run(Session session)
+                {
+                    return (PatientPushedToInfo) session.createCriteria(PatientPushedToInfo.class)
+                        .add(Restrictions.eq(LOCAL_PATIENT_ID, localPatientID))
+                        .add(Restrictions.eq(REMOTE_SERVER_NAME, remoteServerName))
+                        .uniqueResult();
+                }
+            });
+
+            if (data == null) {
+                this.logger.debug("Never pushed [{}] to [{}]", localPatientID, remoteServerName);
+                return null;
+            }
 
-        if (data == null) {
-            this.logger.debug("Never pushed [{}] to [{}]", localPatientID, remoteServerName);
-            return null;
+            this.logger.debug("[{}] was previously pushed to [{}@{}]", localPatientID, data.getRemotePatientID(),
+                remoteServerName);
+            return data;
+        } catch (HibernateException ex) {
+            this.logger.error("Error getting push info for [{}] to [{}]: [{}]", localPatientID, remoteServerName, ex);
+        }
+        return null;
+    }
+
+    @Override
+    public List<PatientPushedToInfo> getPatientPushInfos(final String localPatientID)
+    {
+        if (localPatientID == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return execute(new Operation<List<PatientPushedToInfo>>()
+            {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<PatientPushedToInfo> run(Session session)
+                {
+                    return session.createCriteria(PatientPushedToInfo.class)
+                        .add(Restrictions.eq(LOCAL_PATIENT_ID, localPatientID))
+                        .list();
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error getting push history for [{}]: [{}]", localPatientID, ex);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void storePendingPush(final PendingPushInfo push)
+    {
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void run(Session session)
+                {
+                    session.saveOrUpdate(push);
+                    return null;
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error storing queued push of [{}] to [{}]: [{}]", push.getLocalPatientID(),
+                push.getRemoteServerName(), ex);
+        }
+    }
+
+    @Override
+    public void removePendingPush(final PendingPushInfo push)
+    {
+        try {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void run(Session session)
+                {
+                    session.delete(push);
+                    return null;
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error removing queued push of [{}] to [{}]: [{}]", push.getLocalPatientID(),
+                push.getRemoteServerName(), ex);
         }
+    }
 
-        this.logger.debug("[{}] was previously pushed to [{}@{}]", localPatientID, data.getRemotePatientID(),
-            remoteServerName);
-        return data;
+    @Override
+    public List<PendingPushInfo> getPendingPushes()
+    {
+        try {
+            return execute(new Operation<List<PendingPushInfo>>()
+            {
+                @Override
+                @SuppressWarnings("unchecked")
+                public List<PendingPushInfo> run(Session session)
+                {
+                    return session.createCriteria(PendingPushInfo.class).addOrder(Order.asc("lastQueued")).list();
+                }
+            });
+        } catch (HibernateException ex) {
+            this.logger.error("Error listing queued pushes: [{}]", ex);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Runs an operation in the session already used by the current thread, or in a new session and transaction, which
+     * is committed if the operation succeeds, and rolled back otherwise.
+     *
+     * @param operation the operation to run
+     * @return the result of the operation
+     * @throws HibernateException if the operation fails
+     */
+    private <T> T execute(Operation<T> operation)
+    {
+        Session session = this.currentSession.get();
+        if (session != null) {
+            return operation.run(session);
+        }
+
+        session = this.sessionFactory.getSessionFactory().openSession();
+        this.currentSession.set(session);
+        Transaction t = null;
+        try {
+            t = session.beginTransaction();
+            T result = operation.run(session);
+            t.commit();
+            return result;
+        } catch (HibernateException ex) {
+            if (t != null) {
+                t.rollback();
+            }
+            throw ex;
+        } finally {
+            this.currentSession.remove();
+            session.close();
+        }
+    }
+
+    /**
+     * A unit of work using a Hibernate session.
+     *
+     * @param <T> the type of the result
+     */
+    private interface Operation<T>
+    {
+        T run(Session session);
     }
 }
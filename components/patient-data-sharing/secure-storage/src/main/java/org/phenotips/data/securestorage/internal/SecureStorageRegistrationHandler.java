@@ -20,6 +20,7 @@
 import org.phenotips.data.securestorage.LocalLoginToken;
 import org.phenotips.data.securestorage.PatientPushedToInfo;
 import org.phenotips.data.securestorage.PatientSourceServerInfo;
+import org.phenotips.data.securestorage.PendingPushInfo;
 import org.phenotips.data.securestorage.RemoteLoginData;
 
 import org.xwiki.component.annotation.Component;
@@ -72,5 +73,6 @@ public void onEvent(Event event, Object source, Object data)
         this.sessionFactory.getConfiguration().addAnnotatedClass(RemoteLoginData.class);
         this.sessionFactory.getConfiguration().addAnnotatedClass(PatientSourceServerInfo.class);
         this.sessionFactory.getConfiguration().addAnnotatedClass(PatientPushedToInfo.class);
+        this.sessionFactory.getConfiguration().addAnnotatedClass(PendingPushInfo.class);
     }
 }
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.securestorage.internal;
+
+import org.phenotips.data.securestorage.RemoteLoginData;
+import org.phenotips.data.securestorage.SecureStorageManager;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Criterion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the session handling in {@link DefaultSecureStorageManager}.
+ *
+ * @version $Id$
+ */
+public class DefaultSecureStorageManagerTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<SecureStorageManager> mocker =
+        new MockitoComponentMockingRule<SecureStorageManager>(DefaultSecureStorageManager.class);
+
+    private SessionFactory factory;
+
+    private Session session;
+
+    private Transaction transaction;
+
+    private Criteria criteria;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.factory = mock(SessionFactory.class);
+        HibernateSessionFactory sessionFactory = this.mocker.getInstance(HibernateSessionFactory.class);
+        when(sessionFactory.getSessionFactory()).thenReturn(this.factory);
+        this.session = mock(Session.class);
+        // The declared return type of openSession differs between Hibernate versions
+        doReturn(this.session).when(this.factory).openSession();
+        this.transaction = mock(Transaction.class);
+        when(this.session.beginTransaction()).thenReturn(this.transaction);
+        this.criteria = mock(Criteria.class);
+        when(this.session.createCriteria(RemoteLoginData.class)).thenReturn(this.criteria);
+        when(this.criteria.add(Matchers.any(Criterion.class))).thenReturn(this.criteria);
+    }
+
+    @Test
+    public void singleOperationRunsInItsOwnTransaction() throws Exception
+    {
+        RemoteLoginData data = new RemoteLoginData("padams", "remote", "pa", "token");
+        when(this.criteria.uniqueResult()).thenReturn(data);
+
+        Assert.assertSame(data, this.mocker.getComponentUnderTest().getRemoteLoginData("padams", "remote"));
+        verify(this.factory).openSession();
+        verify(this.transaction).commit();
+        verify(this.transaction, never()).rollback();
+        verify(this.session).close();
+    }
+
+    @Test
+    public void nestedOperationsReuseTheOuterSession() throws Exception
+    {
+        RemoteLoginData data = new RemoteLoginData("padams", "remote", "pa", "token");
+        when(this.criteria.uniqueResult()).thenReturn(data);
+
+        this.mocker.getComponentUnderTest().storeRemoteLoginData("padams", "remote", "pa", "newtoken");
+        verify(this.factory, times(1)).openSession();
+        verify(this.session, times(1)).beginTransaction();
+        verify(this.session).update(data);
+        verify(this.transaction, times(1)).commit();
+        verify(this.session, times(1)).close();
+        Assert.assertEquals("newtoken", data.getLoginToken());
+    }
+
+    @Test
+    public void failedOperationIsRolledBackAndNextOneGetsANewSession() throws Exception
+    {
+        when(this.criteria.uniqueResult()).thenThrow(new HibernateException("failed")).thenReturn(null);
+
+        Assert.assertNull(this.mocker.getComponentUnderTest().getRemoteLoginData("padams", "remote"));
+        verify(this.transaction).rollback();
+        verify(this.transaction, never()).commit();
+        verify(this.session).close();
+
+        Assert.assertNull(this.mocker.getComponentUnderTest().getRemoteLoginData("padams", "remote"));
+        verify(this.factory, times(2)).openSession();
+        verify(this.transaction).commit();
+    }
+}
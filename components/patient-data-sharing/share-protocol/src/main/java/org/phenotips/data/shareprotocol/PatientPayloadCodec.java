@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.shareprotocol;
+
+import org.xwiki.stability.Unstable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Encodes and decodes the patient JSON sent with the {@link ShareProtocol#PATIENTJSON_ENCODING_GZIP gzip} encoding.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public final class PatientPayloadCodec
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private PatientPayloadCodec()
+    {
+        // Utility class, no instances
+    }
+
+    /**
+     * Compress and encode a JSON string.
+     *
+     * @param json the serialized JSON to send
+     * @return the gzip-compressed, base64-encoded JSON
+     * @throws IOException if compressing fails
+     */
+    public static String encodeGzip(String json) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(json.getBytes(UTF8));
+        }
+        return DatatypeConverter.printBase64Binary(bytes.toByteArray());
+    }
+
+    /**
+     * Decode and decompress a JSON string encoded with {@link #encodeGzip(String)}.
+     *
+     * @param payload the received value
+     * @return the serialized JSON
+     * @throws IOException if the payload is not valid
+     */
+    public static String decodeGzip(String payload) throws IOException
+    {
+        byte[] compressed;
+        try {
+            compressed = DatatypeConverter.parseBase64Binary(payload);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid base64 payload", ex);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                result.write(buffer, 0, read);
+            }
+        }
+        return new String(result.toByteArray(), UTF8);
+    }
+}
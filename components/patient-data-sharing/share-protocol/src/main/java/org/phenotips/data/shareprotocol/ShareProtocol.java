@@ -54,6 +54,14 @@
                                                                                    //   referenced does not belong to the given user and/or group (if provided)
     public static final String CLIENT_POST_KEY_NAME_PATIENTSTATE = "patient_state";
     public static final String CLIENT_POST_KEY_NAME_PATIENTSTATE_CONSENTS = "consents"; // key name which can exist within the patient state JSON
+    // ...and, only if the server advertises support for them in its GETINFO response, the following optional fields:
+    public static final String CLIENT_POST_KEY_NAME_PATIENTJSON_ENCODING = "patient_json_encoding"; // how patient_json is encoded; URL-encoded if missing
+    public static final String CLIENT_POST_KEY_NAME_PATIENTJSON_DELTA    = "patient_json_delta";    // if "true", patient_json only contains the top level keys which changed since
+                                                                                                   //   the last push; the server merges them into the stored patient JSON, so the
+                                                                                                   //   keys not sent keep their stored values; since removed keys can't be expressed,
+                                                                                                   //   the full patient_json must be sent when a key is removed; requires patient_guid
+    // possible PATIENTJSON_ENCODING values are:
+    public static final String PATIENTJSON_ENCODING_GZIP = "gzip"; // gzip-compressed UTF-8 JSON, then base64-encoded, see PatientPayloadCodec
     // for the GETURL action the String CLIENT_POST_KEY_NAME_GUID key must be set
 
     //=========================================================================
@@ -90,6 +98,9 @@
     public static final String SERVER_JSON_GETINFO_KEY_NAME_USERGROUPS     = "user_groups";
     public static final String SERVER_JSON_GETINFO_KEY_NAME_ACCEPTEDFIELDS = "accepted_fields";
     public static final String SERVER_JSON_GETINFO_KEY_NAME_UPDATESENABLED = "updates_enabled";
+    // (optional) ...newer servers also list the supported PATIENTJSON_ENCODING values and whether deltas are accepted:
+    public static final String SERVER_JSON_GETINFO_KEY_NAME_ENCODINGS      = "supported_patient_json_encodings";
+    public static final String SERVER_JSON_GETINFO_KEY_NAME_DELTAS         = "patient_json_deltas_supported";
     // (optional) ...and optionally this as well, if enabled on the server:
     public static final String SERVER_JSON_GETINFO_KEY_NAME_USERTOKEN      = "user_login_token";
 
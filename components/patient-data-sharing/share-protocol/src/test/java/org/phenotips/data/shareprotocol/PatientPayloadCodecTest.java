@@ -0,0 +1,41 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.shareprotocol;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PatientPayloadCodecTest
+{
+    @Test
+    public void gzipRoundTrip() throws IOException
+    {
+        String json = "{\"id\":\"P0000001\",\"notes\":{\"family_history\":\"Ünïcödé & more\"}}";
+        String encoded = PatientPayloadCodec.encodeGzip(json);
+        Assert.assertTrue(encoded.matches("[A-Za-z0-9+/=]+"));
+        Assert.assertEquals(json, PatientPayloadCodec.decodeGzip(encoded));
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeRejectsInvalidPayloads() throws IOException
+    {
+        PatientPayloadCodec.decodeGzip("bm90IGd6aXA=");
+    }
+}
@@ -23,6 +23,8 @@
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
 import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.permissions.internal.PatientAccessTable;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
@@ -30,6 +32,7 @@
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -99,6 +102,10 @@ public class SolrPatientIndexer implements PatientIndexer, Initializable
     @Inject
     private PermissionsManager permissions;
 
+    /** Lists the users and groups granted access on each patient, without loading the access objects again. */
+    @Inject
+    private PatientAccessTable accessTable;
+
     /** Provides access to the HPO ontology. */
     @Inject
     @Named("hpo")
@@ -140,8 +147,13 @@ public void index(Patient patient)
             }
         }
 
-        input.setField("visibility", this.permissions.getPatientAccess(patient).getVisibility().getName());
-        input.setField("accessLevel", this.permissions.getPatientAccess(patient).getVisibility().getPermissiveness());
+        Visibility visibility = this.permissions.getPatientAccess(patient).getVisibility();
+        input.setField("visibility", visibility.getName());
+        input.setField("accessLevel", visibility.getPermissiveness());
+        for (DocumentReference grantee : this.accessTable.getGrantees(patient.getDocument(),
+            this.permissions.resolveAccessLevel("view"))) {
+            input.addField("accessible_by", grantee.toString());
+        }
 
         addGenes(input, patient);
 
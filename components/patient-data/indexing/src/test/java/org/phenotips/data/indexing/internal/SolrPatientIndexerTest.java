@@ -23,10 +23,12 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.PatientRepository;
 import org.phenotips.data.indexing.PatientIndexer;
+import org.phenotips.data.permissions.AccessLevel;
 import org.phenotips.data.permissions.PatientAccess;
 import org.phenotips.data.permissions.PermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.DefaultPatientAccess;
+import org.phenotips.data.permissions.internal.PatientAccessTable;
 import org.phenotips.data.permissions.internal.visibility.PublicVisibility;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
 import org.phenotips.vocabulary.Vocabulary;
@@ -42,6 +44,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -177,6 +180,33 @@ public void indexDefaultPhenotypeBehaviourTest() throws IOException, SolrServerE
         Assert.assertEquals(5, inputDoc.getFieldValues("extended_phenotype").size());
     }
 
+    @Test
+    public void indexStoresPrincipalsWithViewAccess() throws Exception
+    {
+        DocumentReference owner = new DocumentReference("xwiki", "XWiki", "padams");
+        DocumentReference group = new DocumentReference("xwiki", "XWiki", "collaborators");
+        PatientAccess patientAccess = mock(DefaultPatientAccess.class);
+        AccessLevel view = mock(AccessLevel.class);
+
+        CapturingMatcher<SolrInputDocument> capturedArgument = new CapturingMatcher<>();
+        when(this.server.add(argThat(capturedArgument))).thenReturn(mock(UpdateResponse.class));
+
+        doReturn(this.patientDocReference).when(this.patient).getDocument();
+        doReturn(Collections.EMPTY_SET).when(this.patient).getFeatures();
+        doReturn(patientAccess).when(this.permissions).getPatientAccess(this.patient);
+        doReturn(new PublicVisibility()).when(patientAccess).getVisibility();
+        doReturn(view).when(this.permissions).resolveAccessLevel("view");
+        PatientAccessTable accessTable = this.mocker.getInstance(PatientAccessTable.class);
+        doReturn(Arrays.asList(owner, group)).when(accessTable).getGrantees(this.patientDocReference, view);
+
+        this.patientIndexer.index(this.patient);
+
+        SolrInputDocument inputDoc = capturedArgument.getLastValue();
+        Assert.assertEquals(Arrays.<Object>asList("xwiki:XWiki.padams", "xwiki:XWiki.collaborators"),
+            new ArrayList<Object>(inputDoc.getFieldValues("accessible_by")));
+        Assert.assertEquals(50, inputDoc.getFieldValue("accessLevel"));
+    }
+
     @Test
     public void indexDefaultGeneBehaviourTest() throws IOException, SolrServerException
     {
@@ -39,6 +39,12 @@
      * Retrieve a patient record, identified by its internal PhenoTips identifier, in its JSON representation. If the
      * indicated patient record doesn't exist, or if the user sending the request doesn't have the right to view the
      * target patient record, an error is returned.
+     * <p>
+     * The response carries {@code ETag} and {@code Last-Modified} headers derived from the patient document, and a
+     * {@code 304 Not Modified} status is returned instead of the JSON when the client sends matching
+     * {@code If-None-Match} or {@code If-Modified-Since} headers. The optional {@code fields} query parameter, a comma
+     * separated list of field names, restricts the returned JSON to only those fields.
+     * </p>
      *
      * @param id the patient's internal identifier, see {@link org.phenotips.data.Patient#getId()}
      * @return the JSON representation of the requested patient, or a status message in case of error
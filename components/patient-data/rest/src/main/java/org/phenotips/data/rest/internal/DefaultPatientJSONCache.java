@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.EntryEvictionConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Default {@link PatientJSONCache} implementation, using a local LRU cache. Entries are removed when the patient
+ * changes or is deleted by the {@link PatientJSONCacheInvalidator}; since the document version is also checked, an
+ * entry missed by the invalidator, for example on a cluster node which didn't receive the remote event, is never
+ * served for a newer version of the record.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultPatientJSONCache implements PatientJSONCache, Initializable
+{
+    @Inject
+    private CacheManager cacheFactory;
+
+    private Cache<CachedJSON> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            EntryEvictionConfiguration config = new LRUEvictionConfiguration(1000);
+            config.setTimeToLive(3600);
+            this.cache = this.cacheFactory.createNewLocalCache(new CacheConfiguration(config));
+        } catch (CacheException ex) {
+            throw new InitializationException("Cannot create cache: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public String get(DocumentReference patient, String version)
+    {
+        if (patient == null || StringUtils.isEmpty(version)) {
+            return null;
+        }
+        CachedJSON entry = this.cache.get(patient.toString());
+        if (entry == null || !version.equals(entry.version)) {
+            return null;
+        }
+        return entry.json;
+    }
+
+    @Override
+    public void put(DocumentReference patient, String version, String json)
+    {
+        if (patient == null || StringUtils.isEmpty(version) || json == null) {
+            return;
+        }
+        this.cache.set(patient.toString(), new CachedJSON(version, json));
+    }
+
+    @Override
+    public void invalidate(DocumentReference patient)
+    {
+        if (patient != null) {
+            this.cache.remove(patient.toString());
+        }
+    }
+
+    /** The serialized JSON of a specific version of a patient record. */
+    private static final class CachedJSON
+    {
+        private final String version;
+
+        private final String json;
+
+        CachedJSON(String version, String json)
+        {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
@@ -22,7 +22,10 @@
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.Relations;
 
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.rest.XWikiResource;
@@ -31,12 +34,21 @@
 import org.xwiki.users.User;
 import org.xwiki.users.UserManager;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.lang3.StringUtils;
@@ -46,6 +58,7 @@
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
  * Default implementation for {@link PatientResource} using XWiki's support for REST resources.
@@ -58,6 +71,9 @@
 @Singleton
 public class DefaultPatientResourceImpl extends XWikiResource implements PatientResource
 {
+    /** The query parameter listing the fields to include in the response. */
+    private static final String FIELDS_PARAMETER = "fields";
+
     @Inject
     private Logger logger;
 
@@ -70,6 +86,21 @@ public class DefaultPatientResourceImpl extends XWikiResource implements Patient
     @Inject
     private UserManager users;
 
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    private PatientJSONCache cache;
+
+    /** Parses patient identifiers into document references, without loading the patient record. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> stringResolver;
+
+    /** The current request, used for evaluating the conditional request headers. */
+    @Context
+    private Request request;
+
     /** Fills in missing reference fields with those from the current context document to create a full reference. */
     @Inject
     @Named("current")
@@ -79,22 +110,138 @@ public class DefaultPatientResourceImpl extends XWikiResource implements Patient
     public Response getPatient(String id)
     {
         this.logger.debug("Retrieving patient record [{}] via REST", id);
-        Patient patient = this.repository.getPatientById(id);
-        if (patient == null) {
-            this.logger.debug("No such patient record: [{}]", id);
-            return Response.status(Status.NOT_FOUND).build();
+        DocumentReference reference = this.stringResolver.resolve(id, Patient.DEFAULT_DATA_SPACE);
+        XWikiDocument doc = getDocument(reference);
+        String version = doc == null ? null : doc.getVersion();
+        Collection<String> fields = getRequestedFields();
+        // Only the JSON of actual patient records is cached, so a hit for the current document version is enough to
+        // serve the record without loading it through the patient data controllers
+        String cached = fields == null ? this.cache.get(reference, version) : null;
+        Patient patient = null;
+        if (cached == null) {
+            patient = this.repository.getPatientById(id);
+            if (patient == null) {
+                this.logger.debug("No such patient record: [{}]", id);
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            reference = patient.getDocument();
         }
         User currentUser = this.users.getCurrentUser();
         if (!this.access.hasAccess(Right.VIEW, currentUser == null ? null : currentUser.getProfileDocument(),
-            patient.getDocument())) {
+            reference)) {
             this.logger.debug("View access denied to user [{}] on patient record [{}]", currentUser, id);
             return Response.status(Status.FORBIDDEN).build();
         }
-        JSONObject json = patient.toJSON();
+        EntityTag tag = null;
+        Date modified = null;
+        if (doc != null) {
+            tag = getEntityTag(version, fields);
+            modified = doc.getDate();
+            ResponseBuilder notModified = evaluatePreconditions(modified, tag);
+            if (notModified != null) {
+                this.logger.debug("Patient record [{}] not modified since the last request", id);
+                return notModified.tag(tag).build();
+            }
+        }
+
+        JSONObject json = cached != null ? new JSONObject(cached) : getJSON(patient, version, fields);
         JSONObject link = new JSONObject().accumulate("rel", Relations.SELF).accumulate("href",
             this.uriInfo.getRequestUri().toString());
         json.append("links", link);
-        return Response.ok(json, MediaType.APPLICATION_JSON_TYPE).build();
+        ResponseBuilder response = Response.ok(json, MediaType.APPLICATION_JSON_TYPE);
+        if (tag != null) {
+            response.tag(tag);
+        }
+        if (modified != null) {
+            response.lastModified(modified);
+        }
+        return response.build();
+    }
+
+    /**
+     * Serializes a patient record and caches the result for the current version of the patient document. Only the
+     * full JSON is cached, partial responses are always serialized again.
+     *
+     * @param patient the patient to serialize
+     * @param version the current version of the patient document, may be {@code null}
+     * @param fields the fields to include, or {@code null} to include all the fields
+     * @return a new JSON object which can be freely modified
+     */
+    private JSONObject getJSON(Patient patient, String version, Collection<String> fields)
+    {
+        if (fields != null) {
+            return patient.toJSON(fields);
+        }
+        JSONObject json = patient.toJSON();
+        this.cache.put(patient.getDocument(), version, json.toString());
+        return json;
+    }
+
+    private XWikiDocument getDocument(DocumentReference reference)
+    {
+        try {
+            return (XWikiDocument) this.bridge.getDocument(reference);
+        } catch (Exception ex) {
+            this.logger.debug("Failed to load the document of patient record [{}]: {}", reference,
+                ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Lists the fields requested with the {@code fields} query parameter.
+     *
+     * @return the requested field names, or {@code null} if all the fields should be returned
+     */
+    private Collection<String> getRequestedFields()
+    {
+        MultivaluedMap<String, String> parameters = this.uriInfo.getQueryParameters();
+        if (parameters == null || parameters.get(FIELDS_PARAMETER) == null) {
+            return null;
+        }
+        Collection<String> result = new LinkedHashSet<String>();
+        for (String value : parameters.get(FIELDS_PARAMETER)) {
+            for (String field : StringUtils.split(value, ',')) {
+                if (StringUtils.isNotBlank(field)) {
+                    result.add(field.trim());
+                }
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Computes the entity tag for a version of a patient record. Partial responses get a different tag for each
+     * combination of requested fields.
+     *
+     * @param version the version of the patient document
+     * @param fields the requested fields, may be {@code null}
+     * @return the entity tag, or {@code null} if the version is not known
+     */
+    private EntityTag getEntityTag(String version, Collection<String> fields)
+    {
+        if (StringUtils.isEmpty(version)) {
+            return null;
+        }
+        if (fields == null) {
+            return new EntityTag(version);
+        }
+        return new EntityTag(version + '-' + Integer.toHexString(StringUtils.join(fields, ',').hashCode()));
+    }
+
+    private ResponseBuilder evaluatePreconditions(Date modified, EntityTag tag)
+    {
+        if (this.request == null) {
+            return null;
+        }
+        if (modified != null && tag != null) {
+            return this.request.evaluatePreconditions(modified, tag);
+        } else if (tag != null) {
+            return this.request.evaluatePreconditions(tag);
+        } else if (modified != null) {
+            return this.request.evaluatePreconditions(modified);
+        }
+        return null;
     }
 
     @Override
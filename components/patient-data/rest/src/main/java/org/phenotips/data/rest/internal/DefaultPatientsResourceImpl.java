@@ -19,6 +19,8 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.internal.PatientAccessTable;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.PatientsResource;
@@ -29,8 +31,10 @@
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.rest.XWikiResource;
@@ -40,7 +44,9 @@
 import org.xwiki.users.UserManager;
 
 import java.net.URI;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -88,6 +94,18 @@ public class DefaultPatientsResourceImpl extends XWikiResource implements Patien
     @Inject
     private DomainObjectFactory factory;
 
+    /** Lists the records a user can access without checking each of them. */
+    @Inject
+    private PatientAccessTable accessTable;
+
+    @Inject
+    private PermissionsManager permissions;
+
+    /** Serializes patient references in the same format as the {@code doc.fullName} returned by the query. */
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
     @Override
     public Response addPatient(String json)
     {
@@ -135,8 +153,12 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
             query.bindValue("t", "PatientTemplate");
 
             List<Object[]> records = query.execute();
+            Set<String> accessible = getAccessiblePatients();
             int skipped = 0;
             for (Object[] record : records) {
+                if (accessible != null && !accessible.contains(String.valueOf(record[0]))) {
+                    continue;
+                }
                 PatientSummary summary = this.factory.createPatientSummary(record, this.uriInfo);
                 // Since raw queries can't take into account access rights, we must do our own paging with rights checks
                 if (summary != null) {
@@ -156,4 +178,26 @@ public Patients listPatients(Integer start, Integer number, String orderField, S
 
         return result;
     }
+
+    /**
+     * Lists the records which the current user can view according to the access table, so that the other records are
+     * skipped without loading them. Administrators can view all the records, so they aren't filtered.
+     *
+     * @return the full names of the accessible patient documents, or {@code null} if all the records are accessible
+     */
+    private Set<String> getAccessiblePatients()
+    {
+        User currentUser = this.users.getCurrentUser();
+        DocumentReference user = currentUser == null ? null : currentUser.getProfileDocument();
+        if (this.access.hasAccess(Right.ADMIN, user,
+            this.currentResolver.resolve(Patient.DEFAULT_DATA_SPACE, EntityType.SPACE))) {
+            return null;
+        }
+        Set<String> result = new HashSet<>();
+        for (DocumentReference patient : this.accessTable.getPatients(user,
+            this.permissions.resolveAccessLevel("view"))) {
+            result.add(this.localSerializer.serialize(patient));
+        }
+        return result;
+    }
 }
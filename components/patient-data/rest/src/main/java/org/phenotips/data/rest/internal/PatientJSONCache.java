@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Keeps the serialized JSON of patient records between requests, so that unchanged records can be served without
+ * going through all the patient data controllers again. Entries are tied to a specific version of the patient
+ * document, so a cached value is never returned for a different version of the record.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface PatientJSONCache
+{
+    /**
+     * Retrieve the cached JSON of a patient record.
+     *
+     * @param patient the reference of the patient document
+     * @param version the current version of the patient document
+     * @return the serialized JSON, or {@code null} if nothing is cached for this version of the record
+     */
+    String get(DocumentReference patient, String version);
+
+    /**
+     * Store the JSON of a patient record.
+     *
+     * @param patient the reference of the patient document
+     * @param version the version of the patient document which was serialized
+     * @param json the serialized JSON
+     */
+    void put(DocumentReference patient, String version, String json);
+
+    /**
+     * Discard the cached JSON of a patient record, if any.
+     *
+     * @param patient the reference of the patient document
+     */
+    void invalidate(DocumentReference patient);
+}
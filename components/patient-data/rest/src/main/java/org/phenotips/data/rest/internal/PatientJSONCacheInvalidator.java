@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.rest.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+import org.phenotips.data.events.PatientEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Removes patient records from the {@link PatientJSONCache} when they are modified or deleted. Patient events are
+ * derived from document events, so when remote observation is enabled in a cluster, the document events replayed from
+ * other nodes also invalidate the local cache.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("phenotips-patient-json-cache-invalidator")
+@Singleton
+public class PatientJSONCacheInvalidator extends AbstractEventListener
+{
+    @Inject
+    private PatientJSONCache cache;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PatientJSONCacheInvalidator()
+    {
+        super("phenotips-patient-json-cache-invalidator", new PatientChangedEvent(), new PatientDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        Patient patient = ((PatientEvent) event).getPatient();
+        if (patient != null) {
+            this.cache.invalidate(patient.getDocument());
+        }
+    }
+}
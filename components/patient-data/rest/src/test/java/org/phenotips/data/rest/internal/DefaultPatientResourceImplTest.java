@@ -22,12 +22,15 @@
 import org.phenotips.data.rest.PatientResource;
 import org.phenotips.data.rest.Relations;
 
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.Right;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
@@ -36,12 +39,19 @@
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
 import javax.inject.Provider;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
@@ -69,6 +79,7 @@
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -135,6 +146,9 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         this.patientDocument = new DocumentReference("wiki", "data", "P0000001");
         doReturn(this.patient).when(this.repository).getPatientById(this.id);
         doReturn(this.patientDocument).when(this.patient).getDocument();
+        DocumentReferenceResolver<String> resolver = this.mocker.getInstance(
+            new DefaultParameterizedType(null, DocumentReferenceResolver.class, String.class), "current");
+        doReturn(this.patientDocument).when(resolver).resolve(this.id, Patient.DEFAULT_DATA_SPACE);
 
         doReturn(new URI(this.uriString)).when(this.uriInfo).getRequestUri();
         ReflectionUtils.setFieldValue(this.patientResource, "uriInfo", this.uriInfo);
@@ -193,6 +207,100 @@ public void getPatientNormalBehaviour()
         Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
     }
 
+    @Test
+    public void getPatientServesCachedJSONForUnchangedDocument() throws Exception
+    {
+        doReturn(true).when(this.access).hasAccess(Right.VIEW, this.userProfileDocument, this.patientDocument);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        doReturn("3.1").when(doc).getVersion();
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        doReturn(doc).when(bridge).getDocument(this.patientDocument);
+        PatientJSONCache cache = this.mocker.getInstance(PatientJSONCache.class);
+        doReturn("{\"id\":\"P0000001\"}").when(cache).get(this.patientDocument, "3.1");
+
+        Response response = this.patientResource.getPatient(this.id);
+
+        JSONObject json = (JSONObject) response.getEntity();
+        Assert.assertEquals("P0000001", json.getString("id"));
+        Assert.assertTrue(json.has("links"));
+        verify(this.repository, never()).getPatientById(anyString());
+        verify(cache, never()).put(any(DocumentReference.class), anyString(), anyString());
+    }
+
+    @Test
+    public void getPatientCachesSerializedJSON() throws Exception
+    {
+        doReturn(true).when(this.access).hasAccess(Right.VIEW, this.userProfileDocument, this.patientDocument);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        doReturn("3.1").when(doc).getVersion();
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        doReturn(doc).when(bridge).getDocument(this.patientDocument);
+        doReturn(new JSONObject().put("id", "P0000001")).when(this.patient).toJSON();
+        PatientJSONCache cache = this.mocker.getInstance(PatientJSONCache.class);
+
+        Response response = this.patientResource.getPatient(this.id);
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        verify(cache).put(this.patientDocument, "3.1", "{\"id\":\"P0000001\"}");
+    }
+
+    @Test
+    public void getPatientReturnsNotModifiedForCurrentClientCopy() throws Exception
+    {
+        doReturn(true).when(this.access).hasAccess(Right.VIEW, this.userProfileDocument, this.patientDocument);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        Date modified = new Date();
+        doReturn("3.1").when(doc).getVersion();
+        doReturn(modified).when(doc).getDate();
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        doReturn(doc).when(bridge).getDocument(this.patientDocument);
+        Request request = mock(Request.class);
+        doReturn(Response.notModified()).when(request).evaluatePreconditions(modified, new EntityTag("3.1"));
+        ReflectionUtils.setFieldValue(this.patientResource, "request", request);
+
+        Response response = this.patientResource.getPatient(this.id);
+
+        Assert.assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+        Assert.assertNull(response.getEntity());
+        verify(this.patient, never()).toJSON();
+    }
+
+    @Test
+    public void getPatientSendsValidatorsForModifiedRecord() throws Exception
+    {
+        doReturn(true).when(this.access).hasAccess(Right.VIEW, this.userProfileDocument, this.patientDocument);
+        XWikiDocument doc = mock(XWikiDocument.class);
+        doReturn("3.1").when(doc).getVersion();
+        doReturn(new Date()).when(doc).getDate();
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        doReturn(doc).when(bridge).getDocument(this.patientDocument);
+        ReflectionUtils.setFieldValue(this.patientResource, "request", mock(Request.class));
+        doReturn(new JSONObject()).when(this.patient).toJSON();
+
+        Response response = this.patientResource.getPatient(this.id);
+
+        Assert.assertEquals(Status.OK.getStatusCode(), response.getStatus());
+        Assert.assertThat(response.getMetadata(), hasValue(hasItem(new EntityTag("3.1"))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getPatientReturnsOnlyRequestedFields()
+    {
+        doReturn(true).when(this.access).hasAccess(Right.VIEW, this.userProfileDocument, this.patientDocument);
+        MultivaluedMap<String, String> parameters = mock(MultivaluedMap.class);
+        doReturn(Arrays.asList("first_name, last_name", "sex")).when(parameters).get("fields");
+        doReturn(parameters).when(this.uriInfo).getQueryParameters();
+        doReturn(new JSONObject().put("sex", "M")).when(this.patient).toJSON(any(Collection.class));
+
+        Response response = this.patientResource.getPatient(this.id);
+
+        JSONObject json = (JSONObject) response.getEntity();
+        Assert.assertEquals("M", json.getString("sex"));
+        verify(this.patient).toJSON(new LinkedHashSet<String>(Arrays.asList("first_name", "last_name", "sex")));
+        verify(this.patient, never()).toJSON();
+    }
+
     // ----------------------------Update Patient Tests----------------------------
 
     @Test
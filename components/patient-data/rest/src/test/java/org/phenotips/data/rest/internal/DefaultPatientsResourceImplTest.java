@@ -19,6 +19,9 @@
 
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.AccessLevel;
+import org.phenotips.data.permissions.PermissionsManager;
+import org.phenotips.data.permissions.internal.PatientAccessTable;
 import org.phenotips.data.rest.DomainObjectFactory;
 import org.phenotips.data.rest.PatientsResource;
 import org.phenotips.data.rest.model.PatientSummary;
@@ -26,11 +29,13 @@
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -44,6 +49,7 @@
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Provider;
@@ -68,6 +74,7 @@
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -137,6 +144,10 @@ public void setUp() throws ComponentLookupException, URISyntaxException
         doReturn("P00000001").when(this.patient).getId();
         doReturn(this.currentUser).when(this.users).getCurrentUser();
         doReturn(this.userProfileDocument).when(this.currentUser).getProfileDocument();
+
+        // Unless stated otherwise, the listings aren't filtered through the access table
+        doReturn(true).when(this.access).hasAccess(eq(Right.ADMIN), any(DocumentReference.class),
+            any(EntityReference.class));
     }
 
     @Test
@@ -235,6 +246,36 @@ public void listPatientsNonDefaultBehaviour() throws QueryException
             "xwql");
     }
 
+    @Test
+    public void listPatientsOnlyLoadsRecordsFromTheAccessTable() throws Exception
+    {
+        Object[] accessibleData = new Object[] { "data.P0000001" };
+        Object[] inaccessibleData = new Object[] { "data.P0000002" };
+        List<Object[]> patientList = new ArrayList<Object[]>(Arrays.asList(accessibleData, inaccessibleData));
+        Query query = mock(DefaultQuery.class);
+        doReturn(query).when(this.queries).createQuery(anyString(), anyString());
+        doReturn(query).when(query).bindValue(anyString(), anyString());
+        doReturn(patientList).when(query).execute();
+        doReturn(false).when(this.access).hasAccess(eq(Right.ADMIN), any(DocumentReference.class),
+            any(EntityReference.class));
+
+        AccessLevel view = mock(AccessLevel.class);
+        when(this.mocker.<PermissionsManager>getInstance(PermissionsManager.class).resolveAccessLevel("view"))
+            .thenReturn(view);
+        DocumentReference accessible = new DocumentReference("wiki", "data", "P0000001");
+        doReturn(Arrays.asList(accessible)).when(this.mocker.<PatientAccessTable>getInstance(PatientAccessTable.class))
+            .getPatients(this.userProfileDocument, view);
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class), "local");
+        when(serializer.serialize(accessible)).thenReturn("data.P0000001");
+        doReturn(new PatientSummary()).when(this.factory).createPatientSummary(any(Object[].class), eq(this.uriInfo));
+
+        Patients result = this.patientsResource.listPatients(0, 30, "id", "asc");
+        Assert.assertEquals(1, result.getPatientSummaries().size());
+        verify(this.factory).createPatientSummary(accessibleData, this.uriInfo);
+        verify(this.factory, never()).createPatientSummary(inaccessibleData, this.uriInfo);
+    }
+
     @Test
     public void listPatientsNoUserAccess() throws QueryException
     {
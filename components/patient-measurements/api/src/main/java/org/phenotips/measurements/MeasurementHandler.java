@@ -54,6 +54,34 @@
      */
     double valueToStandardDeviation(boolean male, float ageInMonths, double value);
 
+    /**
+     * Get the percentiles for a series of measurements, for example all the measurements of a patient, or the
+     * measurements of a whole cohort, in one pass.
+     *
+     * @param male for each measurement, {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the age of each measurement, in months
+     * @param values the measured values, usually in centimeters or kilograms
+     * @return the percentile of each measurement, in the same order, with {@code -1} for the measurements taken at an
+     *         age without reference data
+     * @throws IllegalArgumentException if the three arrays don't have the same length
+     * @since 1.3M1
+     */
+    int[] valuesToPercentiles(boolean[] male, float[] agesInMonths, double[] values);
+
+    /**
+     * Get the standard deviations for a series of measurements, for example all the measurements of a patient, or the
+     * measurements of a whole cohort, in one pass.
+     *
+     * @param male for each measurement, {@code true} for boys, {@code false} for girls
+     * @param agesInMonths the age of each measurement, in months
+     * @param values the measured values, usually in centimeters or kilograms
+     * @return the standard deviation of each measurement, in the same order, with {@code NaN} for the measurements
+     *         taken at an age without reference data
+     * @throws IllegalArgumentException if the three arrays don't have the same length
+     * @since 1.3M1
+     */
+    double[] valuesToStandardDeviations(boolean[] male, float[] agesInMonths, double[] values);
+
     /**
      * Get the measurement that would correspond to the given percentile.
      *
@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.stability.Unstable;
+
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Cohort level statistics over the measurements of all the patients. The standard deviations and percentiles of each
+ * measurement are computed once, when the patient record is saved, and kept in a side table, so that these queries
+ * don't need to load the patient records or recompute the scores.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface MeasurementStatisticsService
+{
+    /**
+     * Find the patients whose latest measurement of the given type is in a percentile range, for example the patients
+     * currently below the 3rd height percentile. For double sided measurements, the latest value of each side is
+     * considered.
+     *
+     * @param measurementType the measurement type, one of the {@link MeasurementHandler} names
+     * @param minPercentile the lowest matching percentile, inclusive, a number between 0 and 100
+     * @param maxPercentile the highest matching percentile, inclusive, a number between 0 and 100
+     * @return the references of the matching patient documents, may be empty
+     */
+    Set<DocumentReference> getPatientsInPercentileRange(String measurementType, int minPercentile, int maxPercentile);
+
+    /**
+     * Compute an aggregate growth curve for the whole cohort: the mean standard deviation of all the measurements of
+     * the given type, grouped in age intervals.
+     *
+     * @param measurementType the measurement type, one of the {@link MeasurementHandler} names
+     * @param ageStepInMonths the length of each age interval, in months, must be positive
+     * @return a map from the start of each age interval, in months, to the mean standard deviation of the measurements
+     *         taken in that interval; intervals without measurements are missing, and the map may be empty
+     */
+    SortedMap<Integer, Double> getMeanStandardDeviationByAge(String measurementType, int ageStepInMonths);
+}
@@ -29,7 +29,7 @@
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -44,42 +44,116 @@
  */
 public abstract class AbstractMeasurementHandler implements MeasurementHandler, Initializable
 {
-    /** Tool used for computing the percentile corresponding to a given z-score. */
+    /** Tool used for computing the z-score corresponding to a given percentile. */
     private static final NormalDistribution NORMAL = new NormalDistribution();
 
     /**
-     * Triplet storing the median (M), the generalized coefficient of variation (S), and the power in the Box-Cox
-     * transformation (L) values used to compute the percentile corresponding to a given value.
+     * Table storing the median (M), the generalized coefficient of variation (S), and the power in the Box-Cox
+     * transformation (L) values used to compute the percentile corresponding to a given value, for each day of the
+     * normal development. The values are kept in primitive arrays, and days missing from the reference data are filled
+     * in with linear interpolations of the nearest surrounding days when the table is loaded, so that looking up the
+     * triplet for a given age is a simple array access.
      */
-    protected static class LMS
+    protected static final class LMSTable
     {
-        /** L value, the power. */
-        private double l;
+        /** L values, the power. */
+        private double[] l;
 
-        /** M value, the median. */
-        private double m;
+        /** M values, the median; {@code NaN} for the days before the first day with reference data. */
+        private double[] m;
 
-        /** S value, the generalized coefficient of variation. */
-        private double s;
+        /** S values, the generalized coefficient of variation. */
+        private double[] s;
+
+        /** The number of days with data. */
+        private int size;
+
+        /** Create an empty table. */
+        LMSTable()
+        {
+            this.l = new double[0];
+            this.m = new double[0];
+            this.s = new double[0];
+        }
 
         /**
-         * Constructor specifying all three values of the triplet.
+         * Set the triplet for a day, growing the table if needed.
          *
-         * @param l L value, the power
-         * @param m M value, the median
-         * @param s S value, the generalized coefficient of variation
+         * @param day the age in days
+         * @param lValue L value, the power
+         * @param mValue M value, the median
+         * @param sValue S value, the generalized coefficient of variation
          */
-        public LMS(double l, double m, double s)
+        void set(int day, double lValue, double mValue, double sValue)
         {
-            this.l = l;
-            this.m = m;
-            this.s = s;
+            if (day >= this.m.length) {
+                int capacity = Math.max(day + 1, this.m.length * 2);
+                this.l = grow(this.l, capacity);
+                this.m = grow(this.m, capacity);
+                this.s = grow(this.s, capacity);
+            }
+            this.l[day] = lValue;
+            this.m[day] = mValue;
+            this.s[day] = sValue;
+            this.size = Math.max(this.size, day + 1);
+        }
+
+        /** Trim the table and fill in the missing days by interpolation, once all the reference data is read. */
+        void complete()
+        {
+            this.l = Arrays.copyOf(this.l, this.size);
+            this.m = Arrays.copyOf(this.m, this.size);
+            this.s = Arrays.copyOf(this.s, this.size);
+            int lower = -1;
+            for (int day = 0; day < this.size; ++day) {
+                if (Double.isNaN(this.m[day])) {
+                    continue;
+                }
+                if (lower >= 0 && day - lower > 1) {
+                    for (int missing = lower + 1; missing < day; ++missing) {
+                        double delta = ((double) missing - lower) / (day - lower);
+                        this.l[missing] = this.l[lower] + (this.l[day] - this.l[lower]) * delta;
+                        this.m[missing] = this.m[lower] + (this.m[day] - this.m[lower]) * delta;
+                        this.s[missing] = this.s[lower] + (this.s[day] - this.s[lower]) * delta;
+                    }
+                }
+                lower = day;
+            }
         }
 
-        @Override
-        public String toString()
+        /**
+         * Find the row corresponding to a given age. If the requested age is before the first day with reference data,
+         * {@code -1} is returned. If the requested age is beyond the last day, the last day is used.
+         *
+         * @param ageInMonths the target age, in months
+         * @return the index of the row to use, or {@code -1} if there's no reference data for that age
+         */
+        int indexOf(float ageInMonths)
         {
-            return String.format("[%.6g, %.6g, %.6g]", this.l, this.m, this.s);
+            // LMS data is stored per day, currently but input is given as a float for months
+            int ageInDays = (int) Math.round(ageInMonths * 30.4375);
+            if (ageInDays < 0 || this.size == 0) {
+                return -1;
+            }
+            int index = Math.min(ageInDays, this.size - 1);
+            return Double.isNaN(this.m[index]) ? -1 : index;
+        }
+
+        /**
+         * Whether any reference data was loaded in this table.
+         *
+         * @return {@code true} if the table is empty
+         */
+        boolean isEmpty()
+        {
+            return this.size == 0;
+        }
+
+        private static double[] grow(double[] array, int capacity)
+        {
+            double[] result = Arrays.copyOf(array, capacity);
+            Arrays.fill(result, array.length, capacity, Double.NaN);
+            return result;
         }
     }
 
@@ -92,16 +166,16 @@ public String toString()
     private MeasurementsChartConfigurationsFactory settingsFactory;
 
     /**
-     * Table storing the LMS triplets for each month of the normal development of boys corresponding to this measurement
+     * Table storing the LMS triplets for each day of the normal development of boys corresponding to this measurement
      * type.
      */
-    private List<LMS> measurementsForAgeBoys;
+    private LMSTable measurementsForAgeBoys;
 
     /**
-     * Table storing the LMS triplets for each month of the normal development of girls corresponding to this
-     * measurement type.
+     * Table storing the LMS triplets for each day of the normal development of girls corresponding to this measurement
+     * type.
      */
-    private List<LMS> measurementsForAgeGirls;
+    private LMSTable measurementsForAgeGirls;
 
     /** The list of chart settings configured for this measurement. */
     private List<MeasurementsChartConfiguration> chartConfigurations;
@@ -116,35 +190,76 @@ public String toString()
     @Override
     public int valueToPercentile(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToPercentile(value, lms);
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
+            return -1;
+        }
+        return valueToPercentile(value, table.m[index], table.l[index], table.s[index]);
     }
 
     @Override
     public double valueToStandardDeviation(boolean male, float ageInMonths, double value)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        return valueToStandardDeviation(value, lms);
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
+            return Double.NaN;
+        }
+        return valueToStandardDeviation(value, table.m[index], table.l[index], table.s[index]);
+    }
+
+    @Override
+    public int[] valuesToPercentiles(boolean[] male, float[] agesInMonths, double[] values)
+    {
+        checkLengths(male, agesInMonths, values);
+        int[] result = new int[values.length];
+        LMSTable boys = getLMSTable(true);
+        LMSTable girls = getLMSTable(false);
+        for (int i = 0; i < values.length; ++i) {
+            LMSTable table = male[i] ? boys : girls;
+            int index = table.indexOf(agesInMonths[i]);
+            result[i] = index < 0 ? -1 : valueToPercentile(values[i], table.m[index], table.l[index], table.s[index]);
+        }
+        return result;
+    }
+
+    @Override
+    public double[] valuesToStandardDeviations(boolean[] male, float[] agesInMonths, double[] values)
+    {
+        checkLengths(male, agesInMonths, values);
+        double[] result = new double[values.length];
+        LMSTable boys = getLMSTable(true);
+        LMSTable girls = getLMSTable(false);
+        for (int i = 0; i < values.length; ++i) {
+            LMSTable table = male[i] ? boys : girls;
+            int index = table.indexOf(agesInMonths[i]);
+            result[i] = index < 0 ? Double.NaN
+                : valueToStandardDeviation(values[i], table.m[index], table.l[index], table.s[index]);
+        }
+        return result;
     }
 
     @Override
     public double percentileToValue(boolean male, float ageInMonths, int targetPercentile)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
             return Double.NaN;
         }
-        return percentileToValue(targetPercentile, lms.m, lms.l, lms.s);
+        return percentileToValue(targetPercentile, table.m[index], table.l[index], table.s[index]);
     }
 
     @Override
     public double standardDeviationToValue(boolean male, float ageInMonths, double targetDeviation)
     {
-        LMS lms = getLMSForAge(getLMSList(male), ageInMonths);
-        if (lms == null) {
+        LMSTable table = getLMSTable(male);
+        int index = table.indexOf(ageInMonths);
+        if (index < 0) {
             return Double.NaN;
         }
-        return standardDeviationToValue(targetDeviation, lms.m, lms.l, lms.s);
+        return standardDeviationToValue(targetDeviation, table.m[index], table.l[index], table.s[index]);
     }
 
     @Override
@@ -175,8 +290,8 @@ private void readData() throws InitializationException
     {
         BufferedReader in = null;
         String filename = getName() + ".csv";
-        this.measurementsForAgeBoys = new ArrayList<LMS>();
-        this.measurementsForAgeGirls = new ArrayList<LMS>();
+        this.measurementsForAgeBoys = new LMSTable();
+        this.measurementsForAgeGirls = new LMSTable();
         InputStream inStream = this.getClass().getResourceAsStream(filename);
         if (inStream == null) {
             throw new InitializationException("Missing measurements tables for [" + this.getName() + "]");
@@ -198,84 +313,18 @@ private void readData() throws InitializationException
                 double l = Double.parseDouble(tokens[2]);
                 double m = Double.parseDouble(tokens[3]);
                 double s = Double.parseDouble(tokens[4]);
-                LMS lms = new LMS(l, m, s);
                 if ("1".equals(tokens[0])) {
-                    while (day >= this.measurementsForAgeBoys.size()) {
-                        this.measurementsForAgeBoys.add(null);
-                    }
-                    this.measurementsForAgeBoys.set(day, lms);
+                    this.measurementsForAgeBoys.set(day, l, m, s);
                 } else {
-                    while (day >= this.measurementsForAgeGirls.size()) {
-                        this.measurementsForAgeGirls.add(null);
-                    }
-                    this.measurementsForAgeGirls.set(day, lms);
+                    this.measurementsForAgeGirls.set(day, l, m, s);
                 }
             }
         } catch (IOException ex) {
             // This shouldn't happen
             this.logger.error("Failed to read data table [{}]: {}", new Object[] { filename, ex.getMessage(), ex });
         }
-    }
-
-    /**
-     * Extract the LMS triplet corresponding to a given month from the given list. If the requested month is before the
-     * first element of the list, {@code null} is returned. If a valid entry corresponding to the requested month is
-     * found in the list, then return that entry. If there's no entry for the requested month, but there are valid
-     * entries in previous and later months, a linear interpolation of the nearest surrounding entries is computed and
-     * returned. Otherwise, if the requested month is beyond the last valid entry, return the last valid entry.
-     *
-     * @param list the standard list of measurements where to look in
-     * @param ageInMonths the target age (in months) for which to compute the LMS triplet
-     * @return a LMS triplet computed according to the rules above, possibly {@code null}
-     */
-    protected LMS getLMSForAge(List<LMS> list, float ageInMonths)
-    {
-        // LMS data is stored per day, currently but input is given as a float for months
-        int ageInDays = (int) Math.round(ageInMonths * 30.4375);
-        if (ageInDays < 0) {
-            return null;
-        } else if (ageInDays >= list.size()) {
-            return list.get(list.size() - 1);
-        }
-
-        LMS result;
-        result = list.get(ageInDays);
-        if (result == null) {
-            int lowerAge = ageInDays - 1;
-            while (lowerAge >= 0 && list.get(lowerAge) == null) {
-                --lowerAge;
-            }
-            if (lowerAge < 0) {
-                return null;
-            }
-            int upperAge = ageInDays + 1;
-            while (upperAge < list.size() && list.get(upperAge) == null) {
-                ++upperAge;
-            }
-            LMS lowerLMS = list.get(lowerAge);
-            LMS upperLMS = list.get(upperAge);
-            double delta = ((double) ageInDays - lowerAge) / (upperAge - lowerAge);
-            result =
-                new LMS(lowerLMS.l + (upperLMS.l - lowerLMS.l) * delta, lowerLMS.m + (upperLMS.m - lowerLMS.m) * delta,
-                    lowerLMS.s + (upperLMS.s - lowerLMS.s) * delta);
-        }
-        return result;
-    }
-
-    /**
-     * Compute the percentile corresponding to a given absolute value, according to a normal distribution specified by
-     * the given Box-Cox triplet.
-     *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number between 0 and 100 (inclusive) specifying the percentile of this measurement
-     */
-    protected int valueToPercentile(double x, LMS lms)
-    {
-        if (lms == null) {
-            return -1;
-        }
-        return valueToPercentile(x, lms.m, lms.l, lms.s);
+        this.measurementsForAgeBoys.complete();
+        this.measurementsForAgeGirls.complete();
     }
 
     /**
@@ -291,26 +340,10 @@ protected int valueToPercentile(double x, LMS lms)
     protected int valueToPercentile(double x, double m, double l, double s)
     {
         double z = (l != 0) ? ((Math.pow(x / m, l) - 1) / (l * s)) : (Math.log(x / m) / s);
-        double p = NORMAL.cumulativeProbability(z) * 100;
+        double p = NormalDistributionApproximation.cumulativeProbability(z) * 100;
         return (int) Math.round(p);
     }
 
-    /**
-     * Compute the standard deviation corresponding to a given absolute value, according to a normal distribution
-     * specified by the given Box-Cox triplet.
-     *
-     * @param x the absolute value to fit into the normal distribution
-     * @param lms the parameters defining the normal distribution
-     * @return a number specifying how many standard deviations does this measurement deviate from the mean
-     */
-    protected double valueToStandardDeviation(double x, LMS lms)
-    {
-        if (lms == null) {
-            return Double.NaN;
-        }
-        return valueToStandardDeviation(x, lms.m, lms.l, lms.s);
-    }
-
     /**
      * Compute the standard deviation corresponding to a given absolute value, according to a normal distribution
      * specified by the given Box-Cox triplet.
@@ -366,17 +399,24 @@ protected double standardDeviationToValue(double deviation, double m, double l,
     }
 
     /**
-     * Choose between the girls and boys measurements list, depending on the requested sex and on the availability of
+     * Choose between the girls and boys measurements tables, depending on the requested sex and on the availability of
      * distinct measurements for girls.
      *
      * @param male {@code true} for boys, {@code false} for girls
-     * @return a list of {@link LMS} triplets
+     * @return a table of LMS triplets
      */
-    protected List<LMS> getLMSList(boolean male)
+    protected LMSTable getLMSTable(boolean male)
     {
         if (!male && !this.measurementsForAgeGirls.isEmpty()) {
             return this.measurementsForAgeGirls;
         }
         return this.measurementsForAgeBoys;
     }
+
+    private void checkLengths(boolean[] male, float[] agesInMonths, double[] values)
+    {
+        if (male.length != values.length || agesInMonths.length != values.length) {
+            throw new IllegalArgumentException("The sexes, ages and values of the measurements must have equal lengths");
+        }
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default {@link MeasurementHandlerRegistry} implementation, building the snapshot from the measurement handler
+ * components available in the context component manager on first use.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultMeasurementHandlerRegistry implements MeasurementHandlerRegistry
+{
+    /** Temporary mechanism for sorting measurements, a hardcoded list of measurements in the desired order. */
+    private static final String[] TARGET_ORDER = new String[] {"weight", "height", "bmi", "armspan", "sitting",
+        "hc", "philtrum", "ear", "ocd", "icd", "pfl", "ipd", "hand", "palm", "foot"};
+
+    /** Sorts measurement names according to {@link #TARGET_ORDER}, and alphabetically for other measurements. */
+    private static final Comparator<String> NAME_SORTER = new Comparator<String>()
+    {
+        @Override
+        public int compare(String n1, String n2)
+        {
+            int p1 = ArrayUtils.indexOf(TARGET_ORDER, n1);
+            int p2 = ArrayUtils.indexOf(TARGET_ORDER, n2);
+            if (p1 == -1 && p2 == -1) {
+                return n1.compareTo(n2);
+            } else if (p1 == -1) {
+                return 1;
+            } else if (p2 == -1) {
+                return -1;
+            }
+            return p1 - p2;
+        }
+    };
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the different measurement handlers by name at runtime. */
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    /** The current snapshot, {@code null} until first used or after being invalidated; only set while holding this. */
+    private volatile Snapshot snapshot;
+
+    /** Incremented on each invalidation, so that snapshots started before it aren't kept; guarded by {@code this}. */
+    private long generation;
+
+    @Override
+    public MeasurementHandler get(String measurementType)
+    {
+        return getSnapshot().byName.get(measurementType);
+    }
+
+    @Override
+    public List<MeasurementHandler> getHandlers()
+    {
+        return getSnapshot().handlers;
+    }
+
+    @Override
+    public Map<String, MeasurementHandler> getHandlersByName()
+    {
+        return getSnapshot().byName;
+    }
+
+    @Override
+    public Set<String> getNames()
+    {
+        return getSnapshot().byName.keySet();
+    }
+
+    @Override
+    public synchronized void invalidate()
+    {
+        ++this.generation;
+        this.snapshot = null;
+    }
+
+    private Snapshot getSnapshot()
+    {
+        Snapshot result = this.snapshot;
+        if (result != null) {
+            return result;
+        }
+        long started;
+        synchronized (this) {
+            started = this.generation;
+        }
+        try {
+            result = new Snapshot(this.componentManager.get().<MeasurementHandler>getInstanceMap(
+                MeasurementHandler.class));
+        } catch (ComponentLookupException ex) {
+            // Don't remember the failure, try again next time
+            this.logger.warn("Failed to list available measurements: {}", ex.getMessage());
+            return new Snapshot(null);
+        }
+        synchronized (this) {
+            // If the handlers were invalidated while listing them, the result may already be stale: use it for this
+            // call only, and let the next call list the handlers again
+            if (this.generation == started && this.snapshot == null) {
+                this.snapshot = result;
+            }
+        }
+        return result;
+    }
+
+    /** The sorted measurement handlers available at a given moment. */
+    private static final class Snapshot
+    {
+        /** Handlers by name, in display order. */
+        private final Map<String, MeasurementHandler> byName;
+
+        /** Handlers in display order. */
+        private final List<MeasurementHandler> handlers;
+
+        /**
+         * Sort the available handlers.
+         *
+         * @param available the available handlers, by name, may be {@code null}
+         */
+        Snapshot(Map<String, MeasurementHandler> available)
+        {
+            Map<String, MeasurementHandler> sorted = new TreeMap<String, MeasurementHandler>(NAME_SORTER);
+            if (available != null) {
+                sorted.putAll(available);
+            }
+            this.byName = Collections.unmodifiableMap(new LinkedHashMap<String, MeasurementHandler>(sorted));
+            this.handlers = Collections.unmodifiableList(new ArrayList<MeasurementHandler>(sorted.values()));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.Constants;
+import org.phenotips.data.Patient;
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+
+/**
+ * Default {@link MeasurementScoreIndex} implementation, scoring all the values of each measurement type in one batch.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultMeasurementScoreIndex implements MeasurementScoreIndex
+{
+    /** The XClass used for storing measurements data. */
+    private static final EntityReference CLASS_REFERENCE = new EntityReference("MeasurementsClass",
+        EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
+    /** The name of the XProperty holding the age at the time of measurement. */
+    private static final String AGE_PROPERTY_NAME = "age";
+
+    /** The suffix of the XProperty holding the right side value of double sided measurements. */
+    private static final String RIGHT_SIDE_SUFFIX = "_right";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private HibernateSessionFactory sessionFactory;
+
+    @Inject
+    private MeasurementHandlerRegistry handlers;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Override
+    public void index(XWikiDocument patientDocument)
+    {
+        String patient = this.serializer.serialize(patientDocument.getDocumentReference());
+        store(patient, computeScores(patient, patientDocument));
+    }
+
+    @Override
+    public void remove(DocumentReference patientDocument)
+    {
+        store(this.serializer.serialize(patientDocument), new ArrayList<MeasurementScore>());
+    }
+
+    private List<MeasurementScore> computeScores(String patient, XWikiDocument doc)
+    {
+        List<MeasurementScore> result = new ArrayList<>();
+        BaseObject patientRecordObj = doc.getXObject(Patient.CLASS_REFERENCE);
+        List<BaseObject> measurements = doc.getXObjects(CLASS_REFERENCE);
+        if (patientRecordObj == null || measurements == null || measurements.isEmpty()) {
+            return result;
+        }
+        // Growth charts are only available for boys and girls
+        String sex = patientRecordObj.getStringValue("gender");
+        if (!"M".equals(sex) && !"F".equals(sex)) {
+            return result;
+        }
+        boolean male = "M".equals(sex);
+
+        for (Map.Entry<String, MeasurementHandler> entry : this.handlers.getHandlersByName().entrySet()) {
+            String type = entry.getKey();
+            MeasurementHandler handler = entry.getValue();
+            List<MeasurementScore> raw = new ArrayList<>();
+            for (BaseObject measurement : measurements) {
+                if (measurement == null || measurement.getField(AGE_PROPERTY_NAME) == null) {
+                    continue;
+                }
+                float age = measurement.getFloatValue(AGE_PROPERTY_NAME);
+                addValue(raw, patient, type, false, male, age, measurement);
+                if (handler.isDoubleSided()) {
+                    addValue(raw, patient, type, true, male, age, measurement);
+                }
+            }
+            if (!raw.isEmpty()) {
+                score(handler, raw, result);
+            }
+        }
+        return result;
+    }
+
+    private void addValue(List<MeasurementScore> raw, String patient, String type, boolean rightSide, boolean male,
+        float age, BaseObject measurement)
+    {
+        String propertyName = rightSide ? type + RIGHT_SIDE_SUFFIX : type;
+        if (measurement.getField(propertyName) == null) {
+            return;
+        }
+        float value = measurement.getFloatValue(propertyName);
+        if (value > 0) {
+            raw.add(new MeasurementScore(patient, type, rightSide, male, age, value, 0, 0));
+        }
+    }
+
+    /** Compute the scores of all the values of one measurement type in one batch. */
+    private void score(MeasurementHandler handler, List<MeasurementScore> raw, List<MeasurementScore> result)
+    {
+        int count = raw.size();
+        boolean[] male = new boolean[count];
+        float[] ages = new float[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; ++i) {
+            MeasurementScore entry = raw.get(i);
+            male[i] = entry.isMale();
+            ages[i] = entry.getAgeInMonths();
+            values[i] = entry.getValue();
+        }
+        double[] standardDeviations = handler.valuesToStandardDeviations(male, ages, values);
+        int[] percentiles = handler.valuesToPercentiles(male, ages, values);
+        // The latest scored value of each side, by index in the result
+        int[] latest = new int[] { -1, -1 };
+        for (int i = 0; i < count; ++i) {
+            // Ages outside the range covered by the reference tables don't have a score
+            if (Double.isNaN(standardDeviations[i]) || Double.isInfinite(standardDeviations[i])) {
+                continue;
+            }
+            MeasurementScore entry = raw.get(i);
+            int side = entry.isRightSide() ? 1 : 0;
+            if (latest[side] < 0 || ages[i] >= result.get(latest[side]).getAgeInMonths()) {
+                latest[side] = result.size();
+            }
+            result.add(new MeasurementScore(entry.getPatient(), entry.getType(), entry.isRightSide(), male[i],
+                ages[i], values[i], standardDeviations[i], percentiles[i]));
+        }
+        for (int index : latest) {
+            if (index >= 0) {
+                result.get(index).setLatest(true);
+            }
+        }
+    }
+
+    /** Replace all the stored scores of a patient in a single transaction. */
+    private void store(String patient, List<MeasurementScore> scores)
+    {
+        Session session = this.sessionFactory.getSessionFactory().openSession();
+        Transaction t = null;
+        try {
+            t = session.beginTransaction();
+            @SuppressWarnings("unchecked")
+            List<MeasurementScore> existing = session.createCriteria(MeasurementScore.class)
+                .add(Restrictions.eq("patient", patient)).list();
+            for (MeasurementScore score : existing) {
+                session.delete(score);
+            }
+            for (MeasurementScore score : scores) {
+                session.save(score);
+            }
+            t.commit();
+        } catch (HibernateException ex) {
+            if (t != null) {
+                t.rollback();
+            }
+            this.logger.error("Failed to update the measurement statistics of [{}]: {}", patient, ex.getMessage());
+        } finally {
+            session.close();
+        }
+    }
+}
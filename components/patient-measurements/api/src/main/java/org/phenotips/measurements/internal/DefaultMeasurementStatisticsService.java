@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementStatisticsService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+
+/**
+ * Default {@link MeasurementStatisticsService} implementation, querying the {@link MeasurementScore} side table
+ * maintained by the {@link MeasurementStatisticsUpdater}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultMeasurementStatisticsService implements MeasurementStatisticsService
+{
+    private static final String TYPE = "type";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private HibernateSessionFactory sessionFactory;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Override
+    public Set<DocumentReference> getPatientsInPercentileRange(String measurementType, int minPercentile,
+        int maxPercentile)
+    {
+        Set<DocumentReference> result = new HashSet<>();
+        Session session = this.sessionFactory.getSessionFactory().openSession();
+        try {
+            @SuppressWarnings("unchecked")
+            List<String> patients = session.createCriteria(MeasurementScore.class)
+                .add(Restrictions.eq(TYPE, measurementType))
+                .add(Restrictions.eq("latest", true))
+                .add(Restrictions.between("percentile", minPercentile, maxPercentile))
+                .setProjection(Projections.distinct(Projections.property("patient"))).list();
+            for (String patient : patients) {
+                result.add(this.resolver.resolve(patient));
+            }
+        } catch (HibernateException ex) {
+            this.logger.error("Failed to query the [{}] measurement statistics: {}", measurementType, ex.getMessage());
+        } finally {
+            session.close();
+        }
+        return result;
+    }
+
+    @Override
+    public SortedMap<Integer, Double> getMeanStandardDeviationByAge(String measurementType, int ageStepInMonths)
+    {
+        if (ageStepInMonths <= 0) {
+            throw new IllegalArgumentException("The age step must be positive");
+        }
+        Map<Integer, double[]> sums = new TreeMap<>();
+        Session session = this.sessionFactory.getSessionFactory().openSession();
+        try {
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = session.createCriteria(MeasurementScore.class)
+                .add(Restrictions.eq(TYPE, measurementType))
+                .setProjection(Projections.projectionList()
+                    .add(Projections.property("ageInMonths"))
+                    .add(Projections.property("standardDeviation")))
+                .list();
+            for (Object[] row : rows) {
+                int interval = (int) Math.floor(((Number) row[0]).floatValue() / ageStepInMonths) * ageStepInMonths;
+                double[] sum = sums.get(interval);
+                if (sum == null) {
+                    sum = new double[2];
+                    sums.put(interval, sum);
+                }
+                sum[0] += ((Number) row[1]).doubleValue();
+                sum[1] += 1;
+            }
+        } catch (HibernateException ex) {
+            this.logger.error("Failed to query the [{}] measurement statistics: {}", measurementType, ex.getMessage());
+            return new TreeMap<>();
+        } finally {
+            session.close();
+        }
+
+        SortedMap<Integer, Double> result = new TreeMap<>();
+        for (Map.Entry<Integer, double[]> entry : sums.entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[0] / entry.getValue()[1]);
+        }
+        return result;
+    }
+}
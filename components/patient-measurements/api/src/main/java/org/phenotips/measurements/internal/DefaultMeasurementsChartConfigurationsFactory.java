@@ -28,26 +28,35 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 
 /**
  * Implementation of {@link MeasurementsChartConfigurationsFactory} that uses a {@link ResourceBundle .properties} file
- * with the chart configurations.
+ * with the chart configurations. The configuration file is static, so the charts of each measurement type are parsed
+ * once and then reused.
  *
  * @version $Id$
  * @since 1.0M3
  */
 @Component
+@Singleton
 public class DefaultMeasurementsChartConfigurationsFactory implements MeasurementsChartConfigurationsFactory
 {
     /** Logging helper object. */
     @Inject
     private Logger logger;
 
+    /** The already parsed chart configurations, for each measurement type. */
+    private final ConcurrentMap<String, List<MeasurementsChartConfiguration>> configurations =
+        new ConcurrentHashMap<String, List<MeasurementsChartConfiguration>>();
+
     /**
      * Simple read-only bean implementation of {@link MeasurementsChartConfiguration}, populated by
      * {@link DefaultMeasurementsChartConfigurationsFactory}.
@@ -223,6 +232,25 @@ public URL getChartSourceLink()
 
     @Override
     public List<MeasurementsChartConfiguration> loadConfigurationsForMeasurementType(String measurementType)
+    {
+        if (measurementType == null) {
+            return Collections.emptyList();
+        }
+        List<MeasurementsChartConfiguration> result = this.configurations.get(measurementType);
+        if (result == null) {
+            result = Collections.unmodifiableList(parseConfigurations(measurementType));
+            this.configurations.putIfAbsent(measurementType, result);
+        }
+        return result;
+    }
+
+    /**
+     * Parse the valid chart configurations for a measurement type from the configuration file.
+     *
+     * @param measurementType the type of measurement whose charts to load
+     * @return the list of valid chart configurations, may be empty
+     */
+    private List<MeasurementsChartConfiguration> parseConfigurations(String measurementType)
     {
         ResourceBundle configuration = ResourceBundle.getBundle("measurementsChartsConfigurations");
         String key = "charts." + measurementType + ".configurations";
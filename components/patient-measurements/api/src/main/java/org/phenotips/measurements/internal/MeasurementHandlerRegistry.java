@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the available {@link MeasurementHandler measurement handlers}, sorted in the order in which
+ * measurements are displayed. The snapshot is built once, and rebuilt only after measurement handlers are registered or
+ * unregistered, so that rendering the measurements and growth charts doesn't need to look up and sort the components
+ * every time.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface MeasurementHandlerRegistry
+{
+    /**
+     * Get the handler for a specific kind of measurements.
+     *
+     * @param measurementType the type of measurement to return
+     * @return the requested handler, {@code null} if not found
+     */
+    MeasurementHandler get(String measurementType);
+
+    /**
+     * Get all the measurement handlers, in display order.
+     *
+     * @return an unmodifiable list of handlers, may be empty
+     */
+    List<MeasurementHandler> getHandlers();
+
+    /**
+     * Get all the measurement handlers along with their names, in display order.
+     *
+     * @return an unmodifiable map of handlers by name, may be empty
+     */
+    Map<String, MeasurementHandler> getHandlersByName();
+
+    /**
+     * Get the names of all the measurement handlers, in display order.
+     *
+     * @return an unmodifiable set of names, may be empty
+     */
+    Set<String> getNames();
+
+    /** Forget the current snapshot, so that it is rebuilt on the next access. */
+    void invalidate();
+}
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * A row of the measurement statistics side table: one measurement of a patient, together with the standard deviation
+ * and percentile derived from it. Rows are rebuilt every time the patient record is saved, and are used for cohort
+ * queries which would otherwise have to load every patient record and recompute the scores.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Entity
+public class MeasurementScore
+{
+    @Id
+    @GeneratedValue
+    private long id;
+
+    /** The serialized reference of the patient document. */
+    @Column(nullable = false)
+    @Index(name = "measurementScorePatientIdx")
+    private String patient;
+
+    /** The measurement type, the name of the corresponding {@link org.phenotips.measurements.MeasurementHandler}. */
+    @Column(nullable = false)
+    @Index(name = "measurementScoreTypeIdx")
+    private String type;
+
+    /** Whether this is the right side value of a double sided measurement. */
+    private boolean rightSide;
+
+    private boolean male;
+
+    private float ageInMonths;
+
+    private double value;
+
+    @Index(name = "measurementScoreTypeIdx")
+    private double standardDeviation;
+
+    @Index(name = "measurementScoreTypeIdx")
+    private int percentile;
+
+    /** Whether this is the latest scored value of its type and side for the patient. */
+    @Index(name = "measurementScoreTypeIdx")
+    private boolean latest;
+
+    /** Default constructor used by Hibernate. */
+    protected MeasurementScore()
+    {
+        // Nothing to do, Hibernate will populate all the fields from the database
+    }
+
+    /**
+     * Constructor passing all the stored data.
+     *
+     * @param patient the serialized reference of the patient document
+     * @param type the measurement type
+     * @param rightSide whether this is the right side value of a double sided measurement
+     * @param male {@code true} for boys, {@code false} for girls
+     * @param ageInMonths the age at the time of the measurement, in months
+     * @param value the measured value
+     * @param standardDeviation the number of standard deviations from the mean
+     * @param percentile the percentile corresponding to the measured value
+     */
+    public MeasurementScore(String patient, String type, boolean rightSide, boolean male, float ageInMonths,
+        double value, double standardDeviation, int percentile)
+    {
+        this.patient = patient;
+        this.type = type;
+        this.rightSide = rightSide;
+        this.male = male;
+        this.ageInMonths = ageInMonths;
+        this.value = value;
+        this.standardDeviation = standardDeviation;
+        this.percentile = percentile;
+    }
+
+    public String getPatient()
+    {
+        return this.patient;
+    }
+
+    public String getType()
+    {
+        return this.type;
+    }
+
+    public boolean isRightSide()
+    {
+        return this.rightSide;
+    }
+
+    public boolean isMale()
+    {
+        return this.male;
+    }
+
+    public float getAgeInMonths()
+    {
+        return this.ageInMonths;
+    }
+
+    public double getValue()
+    {
+        return this.value;
+    }
+
+    public double getStandardDeviation()
+    {
+        return this.standardDeviation;
+    }
+
+    public int getPercentile()
+    {
+        return this.percentile;
+    }
+
+    public boolean isLatest()
+    {
+        return this.latest;
+    }
+
+    public void setLatest(boolean latest)
+    {
+        this.latest = latest;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Maintains the {@link MeasurementScore measurement statistics side table}: computes the standard deviations and
+ * percentiles of the measurements of a patient, and replaces the rows stored for that patient.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface MeasurementScoreIndex
+{
+    /**
+     * Recompute and store the scores of all the measurements of a patient, replacing the previously stored ones.
+     *
+     * @param patientDocument the document holding the patient record
+     */
+    void index(XWikiDocument patientDocument);
+
+    /**
+     * Remove all the stored scores of a patient.
+     *
+     * @param patientDocument the reference of the patient document
+     */
+    void remove(DocumentReference patientDocument);
+}
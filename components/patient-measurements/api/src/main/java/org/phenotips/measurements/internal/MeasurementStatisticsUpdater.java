@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientCreatedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the {@link MeasurementScore measurement statistics side table} in sync with the patient records. The scores of
+ * a patient are recomputed every time the record is created or saved, after the {@link MeasurementAgeUpdater} has updated the age
+ * of each measurement, and are removed when the record is deleted.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("measurement-statistics-updater")
+@Singleton
+public class MeasurementStatisticsUpdater extends AbstractEventListener
+{
+    @Inject
+    private MeasurementScoreIndex index;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public MeasurementStatisticsUpdater()
+    {
+        super("measurement-statistics-updater", new PatientCreatedEvent(), new PatientChangedEvent(),
+            new PatientDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof PatientDeletedEvent) {
+            Patient patient = ((PatientDeletedEvent) event).getPatient();
+            if (patient != null && patient.getDocument() != null) {
+                this.index.remove(patient.getDocument());
+            }
+        } else if (source instanceof XWikiDocument) {
+            this.index.index((XWikiDocument) source);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+/**
+ * Fast computation of the cumulative distribution function of the standard normal distribution, using the rational
+ * approximation from Hart's "Computer Approximations" (1968), as described by Graeme West in "Better approximations to
+ * cumulative normal functions" (2005). The result is accurate to double precision over the whole real line, while
+ * being several times faster than evaluating the error function through its continued fraction expansion.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public final class NormalDistributionApproximation
+{
+    /** Beyond this distance from the mean the probability is indistinguishable from 0 or 1 in double precision. */
+    private static final double CUTOFF = 37;
+
+    /** Below this distance from the mean the rational approximation is used, above it the continued fraction. */
+    private static final double RATIONAL_LIMIT = 7.07106781186547;
+
+    /** The square root of 2 * PI. */
+    private static final double SQRT_2PI = 2.506628274631;
+
+    /** Avoid instantiation. */
+    private NormalDistributionApproximation()
+    {
+        // Utility class
+    }
+
+    /**
+     * Compute the probability that a standard normal variable is lower than the given value.
+     *
+     * @param z the z-score
+     * @return a probability between 0 and 1, or {@code NaN} if {@code z} is {@code NaN}
+     */
+    public static double cumulativeProbability(double z)
+    {
+        if (Double.isNaN(z)) {
+            return Double.NaN;
+        }
+        double x = Math.abs(z);
+        double tail;
+        if (x > CUTOFF) {
+            tail = 0;
+        } else {
+            double exponential = Math.exp(-x * x / 2);
+            if (x < RATIONAL_LIMIT) {
+                double numerator = 3.52624965998911E-02 * x + 0.700383064443688;
+                numerator = numerator * x + 6.37396220353165;
+                numerator = numerator * x + 33.912866078383;
+                numerator = numerator * x + 112.079291497871;
+                numerator = numerator * x + 221.213596169931;
+                numerator = numerator * x + 220.206867912376;
+                double denominator = 8.83883476483184E-02 * x + 1.75566716318264;
+                denominator = denominator * x + 16.064177579207;
+                denominator = denominator * x + 86.7807322029461;
+                denominator = denominator * x + 296.564248779674;
+                denominator = denominator * x + 637.333633378831;
+                denominator = denominator * x + 793.826512519948;
+                denominator = denominator * x + 440.413735824752;
+                tail = exponential * numerator / denominator;
+            } else {
+                double fraction = x + 0.65;
+                fraction = x + 4 / fraction;
+                fraction = x + 3 / fraction;
+                fraction = x + 2 / fraction;
+                fraction = x + 1 / fraction;
+                tail = exponential / fraction / SQRT_2PI;
+            }
+        }
+        return z > 0 ? 1 - tail : tail;
+    }
+}
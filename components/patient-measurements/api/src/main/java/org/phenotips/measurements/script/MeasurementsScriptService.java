@@ -18,26 +18,24 @@
 package org.phenotips.measurements.script;
 
 import org.phenotips.measurements.MeasurementHandler;
-import org.phenotips.measurements.internal.AbstractMeasurementHandler;
+import org.phenotips.measurements.MeasurementStatisticsService;
+import org.phenotips.measurements.internal.MeasurementHandlerRegistry;
 
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.stability.Unstable;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.SortedMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 
 /**
@@ -70,10 +68,17 @@ public class MeasurementsScriptService implements ScriptService
     @Inject
     private Logger logger;
 
-    /** Provides access to the different measurement handlers by name at runtime. */
+    /** Provides the available measurement handlers, already sorted. */
     @Inject
-    @Named("context")
-    private Provider<ComponentManager> componentManager;
+    private MeasurementHandlerRegistry registry;
+
+    /** Answers cohort level queries. */
+    @Inject
+    private MeasurementStatisticsService statistics;
+
+    /** Used for filtering out the patients that the current user cannot see. */
+    @Inject
+    private DocumentAccessBridge bridge;
 
     /**
      * Get the handler for a specific kind of measurements.
@@ -83,55 +88,78 @@ public class MeasurementsScriptService implements ScriptService
      */
     public MeasurementHandler get(String measurementType)
     {
-        try {
-            return this.componentManager.get().getInstance(MeasurementHandler.class, measurementType);
-        } catch (ComponentLookupException ex) {
+        MeasurementHandler result = this.registry.get(measurementType);
+        if (result == null) {
             this.logger.warn("Requested unknown measurement type [{}]", measurementType);
-            return null;
         }
+        return result;
     }
 
     /**
      * Get all the measurements handlers.
      *
-     * @return a list of all the measurement handlers, or an empty list if there was a problem retrieving the actual
-     *         list
+     * @return an unmodifiable list of all the measurement handlers, or an empty list if there was a problem retrieving
+     *         the actual list
      */
     public List<MeasurementHandler> getAvailableMeasurementHandlers()
     {
-        try {
-            List<MeasurementHandler> result = this.componentManager.get().getInstanceList(MeasurementHandler.class);
-            if (result == null) {
-                result = Collections.emptyList();
-            }
-            Collections.sort(result, MeasurementSorter.instance);
-            return result;
-        } catch (ComponentLookupException ex) {
-            this.logger.warn("Failed to list available measurements", ex);
-            return Collections.emptyList();
-        }
+        return this.registry.getHandlers();
     }
 
     /**
      * Get the names of all the measurements handlers.
      *
-     * @return a set with the names of all the measurement handlers, or an empty set if there was a problem retrieving
-     *         the actual values
+     * @return an unmodifiable set with the names of all the measurement handlers, or an empty set if there was a
+     *         problem retrieving the actual values
      */
     public Set<String> getAvailableMeasurementNames()
     {
-        try {
-            Map<String, MeasurementHandler> handlers =
-                this.componentManager.get().getInstanceMap(MeasurementHandler.class);
-            if (handlers != null) {
-                Set<String> result = new TreeSet<String>(MeasurementNameSorter.instance);
-                result.addAll(handlers.keySet());
-                return result;
+        return this.registry.getNames();
+    }
+
+    /**
+     * Find the patients whose latest measurement of the given type is in a percentile range.
+     *
+     * @param measurementType the measurement type, one of the {@link #getAvailableMeasurementNames() handler names}
+     * @param minPercentile the lowest matching percentile, inclusive, a number between 0 and 100
+     * @param maxPercentile the highest matching percentile, inclusive, a number between 0 and 100
+     * @return the references of the matching patient documents that the current user can view, may be empty
+     * @since 1.3M1
+     * @see MeasurementStatisticsService#getPatientsInPercentileRange(String, int, int)
+     */
+    @Unstable
+    public Set<DocumentReference> getPatientsInPercentileRange(String measurementType, int minPercentile,
+        int maxPercentile)
+    {
+        Set<DocumentReference> result = new LinkedHashSet<>();
+        for (DocumentReference patient : this.statistics.getPatientsInPercentileRange(measurementType, minPercentile,
+            maxPercentile)) {
+            if (this.bridge.isDocumentViewable(patient)) {
+                result.add(patient);
             }
-        } catch (ComponentLookupException ex) {
-            this.logger.warn("Failed to list available measurement types", ex);
         }
-        return Collections.emptySet();
+        return result;
+    }
+
+    /**
+     * Compute an aggregate growth curve for the whole cohort.
+     *
+     * @param measurementType the measurement type, one of the {@link #getAvailableMeasurementNames() handler names}
+     * @param ageStepInMonths the length of each age interval, in months
+     * @return a map from the start of each age interval, in months, to the mean standard deviation of the measurements
+     *         taken in that interval, or {@code null} if the age step isn't positive
+     * @since 1.3M1
+     * @see MeasurementStatisticsService#getMeanStandardDeviationByAge(String, int)
+     */
+    @Unstable
+    public SortedMap<Integer, Double> getMeanStandardDeviationByAge(String measurementType, int ageStepInMonths)
+    {
+        if (ageStepInMonths <= 0) {
+            this.logger.warn("Invalid age step [{}] requested for the [{}] growth curve", ageStepInMonths,
+                measurementType);
+            return null;
+        }
+        return this.statistics.getMeanStandardDeviationByAge(measurementType, ageStepInMonths);
     }
 
     /**
@@ -175,62 +203,4 @@ public String getFuzzyValue(double deviation)
         }
         return returnValue;
     }
-
-    /**
-     * Temporary mechanism for sorting measurements, uses a hardcoded list of measurements in the desired order.
-     *
-     * @version $Id$
-     */
-    private static final class MeasurementSorter implements Comparator<MeasurementHandler>
-    {
-        /** Hardcoded list of measurements and their order. */
-        private static final String[] TARGET_ORDER = new String[] {"weight", "height", "bmi", "armspan", "sitting",
-            "hc", "philtrum", "ear", "ocd", "icd", "pfl", "ipd", "hand", "palm", "foot"};
-
-        /** Singleton instance. */
-        private static MeasurementSorter instance = new MeasurementSorter();
-
-        @Override
-        public int compare(MeasurementHandler o1, MeasurementHandler o2)
-        {
-            String n1 = ((AbstractMeasurementHandler) o1).getName();
-            String n2 = ((AbstractMeasurementHandler) o2).getName();
-            int p1 = ArrayUtils.indexOf(TARGET_ORDER, n1);
-            int p2 = ArrayUtils.indexOf(TARGET_ORDER, n2);
-            if (p1 == -1 && p2 == -1) {
-                return n1.compareTo(n2);
-            } else if (p1 == -1) {
-                return 1;
-            } else if (p2 == -1) {
-                return -1;
-            }
-            return p1 - p2;
-        }
-    }
-
-    /**
-     * Temporary mechanism for sorting measurements, uses a hardcoded list of measurements in the desired order.
-     *
-     * @version $Id$
-     */
-    private static final class MeasurementNameSorter implements Comparator<String>
-    {
-        /** Singleton instance. */
-        private static MeasurementNameSorter instance = new MeasurementNameSorter();
-
-        @Override
-        public int compare(String n1, String n2)
-        {
-            int p1 = ArrayUtils.indexOf(MeasurementSorter.TARGET_ORDER, n1);
-            int p2 = ArrayUtils.indexOf(MeasurementSorter.TARGET_ORDER, n2);
-            if (p1 == -1 && p2 == -1) {
-                return n1.compareTo(n2);
-            } else if (p1 == -1) {
-                return 1;
-            } else if (p2 == -1) {
-                return -1;
-            }
-            return p1 - p2;
-        }
-    }
 }
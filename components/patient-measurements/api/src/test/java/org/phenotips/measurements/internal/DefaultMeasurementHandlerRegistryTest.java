@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultMeasurementHandlerRegistry} component.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultMeasurementHandlerRegistryTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<MeasurementHandlerRegistry> mocker =
+        new MockitoComponentMockingRule<MeasurementHandlerRegistry>(DefaultMeasurementHandlerRegistry.class);
+
+    @Test
+    public void handlersAreSortedInDisplayOrder() throws ComponentLookupException
+    {
+        MeasurementHandler hand = Mockito.mock(MeasurementHandler.class);
+        MeasurementHandler weight = Mockito.mock(MeasurementHandler.class);
+        MeasurementHandler unknown = Mockito.mock(MeasurementHandler.class);
+        Map<String, MeasurementHandler> available = new HashMap<String, MeasurementHandler>();
+        available.put("hand", hand);
+        available.put("weight", weight);
+        available.put("aaa", unknown);
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(available);
+
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(Arrays.asList(weight, hand, unknown), registry.getHandlers());
+        Assert.assertEquals(Arrays.asList("weight", "hand", "aaa"), Arrays.asList(registry.getNames().toArray()));
+        Assert.assertEquals(Arrays.asList(weight, hand, unknown),
+            Arrays.asList(registry.getHandlersByName().values().toArray()));
+        Assert.assertSame(hand, registry.get("hand"));
+        Assert.assertNull(registry.get("nothing"));
+    }
+
+    @Test
+    public void handlersAreListedOnlyOnceUntilInvalidated() throws ComponentLookupException
+    {
+        Map<String, MeasurementHandler> available = new HashMap<String, MeasurementHandler>();
+        available.put("height", Mockito.mock(MeasurementHandler.class));
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(available);
+
+        MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        registry.getHandlers();
+        registry.getNames();
+        registry.get("height");
+        Mockito.verify(cm, Mockito.times(1)).getInstanceMap(MeasurementHandler.class);
+
+        registry.invalidate();
+        Assert.assertEquals(1, registry.getHandlers().size());
+        Mockito.verify(cm, Mockito.times(2)).getInstanceMap(MeasurementHandler.class);
+    }
+
+    @Test
+    public void snapshotsStartedBeforeInvalidationAreNotKept() throws ComponentLookupException
+    {
+        final Map<String, MeasurementHandler> available = new HashMap<String, MeasurementHandler>();
+        available.put("height", Mockito.mock(MeasurementHandler.class));
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        final MeasurementHandlerRegistry registry = this.mocker.getComponentUnderTest();
+        // A new handler is registered while the first snapshot is being built
+        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class))
+            .thenAnswer(new Answer<Map<String, MeasurementHandler>>()
+            {
+                @Override
+                public Map<String, MeasurementHandler> answer(InvocationOnMock invocation)
+                {
+                    registry.invalidate();
+                    return new HashMap<String, MeasurementHandler>(available);
+                }
+            }).thenReturn(available);
+
+        Assert.assertEquals(1, registry.getHandlers().size());
+        available.put("weight", Mockito.mock(MeasurementHandler.class));
+        Assert.assertEquals(2, registry.getHandlers().size());
+        Assert.assertEquals(2, registry.getHandlers().size());
+        Mockito.verify(cm, Mockito.times(2)).getInstanceMap(MeasurementHandler.class);
+    }
+
+    @Test
+    public void getHandlersWithNull() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.getInstanceMap(MeasurementHandler.class)).thenReturn(null);
+        List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getHandlers();
+        Assert.assertNotNull(response);
+        Assert.assertTrue(response.isEmpty());
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getNames().isEmpty());
+    }
+
+    @Test
+    public void getHandlersWithExceptionIsRetried() throws ComponentLookupException
+    {
+        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        when(cm.getInstanceMap(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getHandlers().isEmpty());
+        Assert.assertTrue(this.mocker.getComponentUnderTest().getNames().isEmpty());
+        Mockito.verify(cm, Mockito.times(2)).getInstanceMap(MeasurementHandler.class);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.measurements.MeasurementHandler;
+
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Criterion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.PropertyInterface;
+import com.xpn.xwiki.store.hibernate.HibernateSessionFactory;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultMeasurementScoreIndex} component.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class DefaultMeasurementScoreIndexTest
+{
+    private static final DocumentReference PATIENT = new DocumentReference("xwiki", "data", "P0000001");
+
+    private static final String PATIENT_STR = "xwiki:data.P0000001";
+
+    @Rule
+    public final MockitoComponentMockingRule<MeasurementScoreIndex> mocker =
+        new MockitoComponentMockingRule<MeasurementScoreIndex>(DefaultMeasurementScoreIndex.class);
+
+    private Session session;
+
+    private Criteria criteria;
+
+    private XWikiDocument doc;
+
+    private BaseObject patientObject;
+
+    private BaseObject measurement;
+
+    private MeasurementHandler height;
+
+    @Before
+    public void setup() throws Exception
+    {
+        HibernateSessionFactory hsf = this.mocker.getInstance(HibernateSessionFactory.class);
+        SessionFactory sf = mock(SessionFactory.class);
+        when(hsf.getSessionFactory()).thenReturn(sf);
+        this.session = mock(Session.class);
+        when(sf.openSession()).thenReturn(this.session);
+        when(this.session.beginTransaction()).thenReturn(mock(Transaction.class));
+        this.criteria = mock(Criteria.class);
+        when(this.session.createCriteria(MeasurementScore.class)).thenReturn(this.criteria);
+        when(this.criteria.add(Matchers.any(Criterion.class))).thenReturn(this.criteria);
+        when(this.criteria.list()).thenReturn(Collections.emptyList());
+
+        EntityReferenceSerializer<String> serializer = this.mocker.getInstance(
+            new DefaultParameterizedType(null, EntityReferenceSerializer.class, String.class));
+        when(serializer.serialize(PATIENT)).thenReturn(PATIENT_STR);
+
+        this.height = mock(MeasurementHandler.class);
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        when(registry.getHandlersByName()).thenReturn(Collections.singletonMap("height", this.height));
+
+        this.doc = mock(XWikiDocument.class);
+        when(this.doc.getDocumentReference()).thenReturn(PATIENT);
+        this.patientObject = mock(BaseObject.class);
+        when(this.patientObject.getStringValue("gender")).thenReturn("F");
+        when(this.doc.getXObject(Patient.CLASS_REFERENCE)).thenReturn(this.patientObject);
+        this.measurement = mock(BaseObject.class);
+        when(this.measurement.getField("age")).thenReturn(mock(PropertyInterface.class));
+        when(this.measurement.getFloatValue("age")).thenReturn(24f);
+        when(this.measurement.getField("height")).thenReturn(mock(PropertyInterface.class));
+        when(this.measurement.getFloatValue("height")).thenReturn(80f);
+        List<BaseObject> measurements = new ArrayList<>();
+        measurements.add(null);
+        measurements.add(this.measurement);
+        when(this.doc.getXObjects(Matchers.any(EntityReference.class))).thenReturn(measurements);
+    }
+
+    /** Indexing a patient stores the scores computed by the measurement handlers. */
+    @Test
+    public void scoresAreStored() throws Exception
+    {
+        when(this.height.valuesToStandardDeviations(new boolean[] { false }, new float[] { 24f },
+            new double[] { 80d })).thenReturn(new double[] { -2.5 });
+        when(this.height.valuesToPercentiles(new boolean[] { false }, new float[] { 24f }, new double[] { 80d }))
+            .thenReturn(new int[] { 1 });
+
+        this.mocker.getComponentUnderTest().index(this.doc);
+
+        ArgumentCaptor<MeasurementScore> captor = ArgumentCaptor.forClass(MeasurementScore.class);
+        Mockito.verify(this.session).save(captor.capture());
+        MeasurementScore score = captor.getValue();
+        Assert.assertEquals(PATIENT_STR, score.getPatient());
+        Assert.assertEquals("height", score.getType());
+        Assert.assertFalse(score.isMale());
+        Assert.assertEquals(24f, score.getAgeInMonths(), 0f);
+        Assert.assertEquals(-2.5, score.getStandardDeviation(), 0.0);
+        Assert.assertEquals(1, score.getPercentile());
+        Assert.assertTrue(score.isLatest());
+        Mockito.verify(this.session).close();
+    }
+
+    /** Only the last value of each side is marked as the latest one. */
+    @Test
+    public void latestValueIsMarked() throws Exception
+    {
+        BaseObject earlier = mock(BaseObject.class);
+        when(earlier.getField("age")).thenReturn(mock(PropertyInterface.class));
+        when(earlier.getFloatValue("age")).thenReturn(12f);
+        when(earlier.getField("height")).thenReturn(mock(PropertyInterface.class));
+        when(earlier.getFloatValue("height")).thenReturn(70f);
+        when(this.doc.getXObjects(Matchers.any(EntityReference.class)))
+            .thenReturn(Arrays.asList(this.measurement, earlier));
+        when(this.height.valuesToStandardDeviations(Matchers.any(boolean[].class), Matchers.any(float[].class),
+            Matchers.any(double[].class))).thenReturn(new double[] { -2.5, 0.5 });
+        when(this.height.valuesToPercentiles(Matchers.any(boolean[].class), Matchers.any(float[].class),
+            Matchers.any(double[].class))).thenReturn(new int[] { 1, 69 });
+
+        this.mocker.getComponentUnderTest().index(this.doc);
+
+        ArgumentCaptor<MeasurementScore> captor = ArgumentCaptor.forClass(MeasurementScore.class);
+        Mockito.verify(this.session, Mockito.times(2)).save(captor.capture());
+        Assert.assertEquals(24f, captor.getAllValues().get(0).getAgeInMonths(), 0f);
+        Assert.assertTrue(captor.getAllValues().get(0).isLatest());
+        Assert.assertEquals(12f, captor.getAllValues().get(1).getAgeInMonths(), 0f);
+        Assert.assertFalse(captor.getAllValues().get(1).isLatest());
+    }
+
+    /** Previous scores are replaced, and values without a score are skipped. */
+    @Test
+    public void previousScoresAreReplaced() throws Exception
+    {
+        MeasurementScore old = mock(MeasurementScore.class);
+        when(this.criteria.list()).thenReturn(Arrays.asList(old));
+        when(this.height.valuesToStandardDeviations(Matchers.any(boolean[].class), Matchers.any(float[].class),
+            Matchers.any(double[].class))).thenReturn(new double[] { Double.NaN });
+        when(this.height.valuesToPercentiles(Matchers.any(boolean[].class), Matchers.any(float[].class),
+            Matchers.any(double[].class))).thenReturn(new int[] { 0 });
+
+        this.mocker.getComponentUnderTest().index(this.doc);
+
+        Mockito.verify(this.session).delete(old);
+        Mockito.verify(this.session, Mockito.never()).save(Matchers.any());
+    }
+
+    /** Patients without a known sex don't have scores. */
+    @Test
+    public void unknownSexIsSkipped() throws Exception
+    {
+        when(this.patientObject.getStringValue("gender")).thenReturn("U");
+
+        this.mocker.getComponentUnderTest().index(this.doc);
+
+        Mockito.verify(this.session, Mockito.never()).save(Matchers.any());
+        Mockito.verifyZeroInteractions(this.height);
+    }
+
+    /** Removed patients are removed from the table. */
+    @Test
+    public void scoresAreRemoved() throws Exception
+    {
+        MeasurementScore old = mock(MeasurementScore.class);
+        when(this.criteria.list()).thenReturn(Arrays.asList(old));
+
+        this.mocker.getComponentUnderTest().remove(PATIENT);
+
+        Mockito.verify(this.session).delete(old);
+        Mockito.verify(this.session, Mockito.never()).save(Matchers.any());
+    }
+}
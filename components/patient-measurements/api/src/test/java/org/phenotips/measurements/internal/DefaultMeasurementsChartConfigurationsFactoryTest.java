@@ -219,4 +219,13 @@ public void loadChartWithoutConfiguration() throws ComponentLookupException
         Assert.assertNotNull(settings);
         Assert.assertTrue(settings.isEmpty());
     }
+
+    @Test
+    public void configurationsAreParsedOnlyOnce() throws ComponentLookupException
+    {
+        List<MeasurementsChartConfiguration> settings =
+            this.mocker.getComponentUnderTest().loadConfigurationsForMeasurementType("tested");
+        Assert.assertSame(settings,
+            this.mocker.getComponentUnderTest().loadConfigurationsForMeasurementType("tested"));
+    }
 }
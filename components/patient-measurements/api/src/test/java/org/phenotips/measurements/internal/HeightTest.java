@@ -22,6 +22,8 @@
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
+import java.util.Arrays;
+
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -92,6 +94,26 @@ public void testStandardDeviationToValue() throws ComponentLookupException
             1.0E-2);
     }
 
+    @Test
+    public void testValuesToPercentilesAndStandardDeviations() throws ComponentLookupException
+    {
+        boolean[] male = new boolean[] { true, false, true, false, true };
+        float[] ages = new float[] { 0, 0, 349, 359, -1 };
+        double[] values = new double[] { 49.88, 49.14, 180.79, 173.0, 100 };
+        Assert.assertArrayEquals(new int[] { 50, 50, 72, 93, -1 },
+            this.mocker.getComponentUnderTest().valuesToPercentiles(male, ages, values));
+        double[] deviations = this.mocker.getComponentUnderTest().valuesToStandardDeviations(male, ages, values);
+        Assert.assertArrayEquals(new double[] { 0, 0, 0.583, 1.497 }, Arrays.copyOf(deviations, 4),
+            1.0E-2);
+        Assert.assertTrue(Double.isNaN(deviations[4]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValuesToPercentilesWithDifferentLengths() throws ComponentLookupException
+    {
+        this.mocker.getComponentUnderTest().valuesToPercentiles(new boolean[1], new float[2], new double[2]);
+    }
+
     @Test
     public void testIsDoubleSided() throws ComponentLookupException
     {
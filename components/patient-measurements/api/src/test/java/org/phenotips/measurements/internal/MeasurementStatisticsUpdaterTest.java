@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientCreatedEvent;
+import org.phenotips.data.events.PatientDeletedEvent;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link MeasurementStatisticsUpdater} component.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public class MeasurementStatisticsUpdaterTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(MeasurementStatisticsUpdater.class);
+
+    /** Saved patients are indexed again. */
+    @Test
+    public void savedPatientsAreIndexed() throws Exception
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangedEvent(), doc, null);
+
+        Mockito.verify(this.mocker.<MeasurementScoreIndex>getInstance(MeasurementScoreIndex.class)).index(doc);
+    }
+
+    /** New patients are indexed right away. */
+    @Test
+    public void createdPatientsAreIndexed() throws Exception
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientCreatedEvent(), doc, null);
+
+        Mockito.verify(this.mocker.<MeasurementScoreIndex>getInstance(MeasurementScoreIndex.class)).index(doc);
+    }
+
+    /** The listener subscribes to new, saved and deleted patients. */
+    @Test
+    public void listensToCreatedChangedAndDeletedPatients() throws Exception
+    {
+        List<Event> events = this.mocker.getComponentUnderTest().getEvents();
+        Assert.assertEquals(3, events.size());
+        Assert.assertTrue(events.get(0).matches(new PatientCreatedEvent()));
+    }
+
+    /** Deleted patients are removed from the index. */
+    @Test
+    public void deletedPatientsAreRemoved() throws Exception
+    {
+        DocumentReference reference = new DocumentReference("xwiki", "data", "P0000001");
+        Patient patient = mock(Patient.class);
+        when(patient.getDocument()).thenReturn(reference);
+
+        this.mocker.getComponentUnderTest().onEvent(new PatientDeletedEvent(patient, null), null, null);
+
+        Mockito.verify(this.mocker.<MeasurementScoreIndex>getInstance(MeasurementScoreIndex.class)).remove(reference);
+    }
+}
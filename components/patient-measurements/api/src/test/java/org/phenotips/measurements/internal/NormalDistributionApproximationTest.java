@@ -0,0 +1,44 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NormalDistributionApproximationTest
+{
+    @Test
+    public void cumulativeProbabilityMatchesTheExactDistribution()
+    {
+        NormalDistribution normal = new NormalDistribution();
+        for (double z = -10; z <= 10; z += 0.0025) {
+            Assert.assertEquals(normal.cumulativeProbability(z),
+                NormalDistributionApproximation.cumulativeProbability(z), 1.0E-14);
+        }
+    }
+
+    @Test
+    public void cumulativeProbabilityWithExtremeValues()
+    {
+        Assert.assertEquals(0, NormalDistributionApproximation.cumulativeProbability(Double.NEGATIVE_INFINITY), 0);
+        Assert.assertEquals(1, NormalDistributionApproximation.cumulativeProbability(Double.POSITIVE_INFINITY), 0);
+        Assert.assertEquals(0.5, NormalDistributionApproximation.cumulativeProbability(0), 1.0E-15);
+        Assert.assertTrue(Double.isNaN(NormalDistributionApproximation.cumulativeProbability(Double.NaN)));
+    }
+}
@@ -18,16 +18,20 @@
 package org.phenotips.measurements.script;
 
 import org.phenotips.measurements.MeasurementHandler;
+import org.phenotips.measurements.MeasurementStatisticsService;
 import org.phenotips.measurements.internal.HeightMeasurementHandler;
+import org.phenotips.measurements.internal.MeasurementHandlerRegistry;
 
+import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -52,80 +56,60 @@
     @Test
     public void testGetWithNonExistentHint() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstance(MeasurementHandler.class, "nothing")).thenThrow(new ComponentLookupException(""));
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        when(registry.get("nothing")).thenReturn(null);
         Assert.assertNull(this.mocker.getComponentUnderTest().get("nothing"));
     }
 
     @Test
     public void testGetWithValidHint() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
         HeightMeasurementHandler handler = new HeightMeasurementHandler();
-        when(cm.getInstance(MeasurementHandler.class, "height")).thenReturn(handler);
+        when(registry.get("height")).thenReturn(handler);
         Assert.assertEquals(handler, this.mocker.getComponentUnderTest().get("height"));
     }
 
     @Test
     public void testGetAvailableMeasurementHandlers() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
         List<MeasurementHandler> toReturn = new ArrayList<MeasurementHandler>();
         toReturn.add(Mockito.mock(MeasurementHandler.class));
-        when(cm.<MeasurementHandler>getInstanceList(MeasurementHandler.class)).thenReturn(toReturn);
+        when(registry.getHandlers()).thenReturn(toReturn);
         List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
         Assert.assertEquals(toReturn, response);
     }
 
-    @Test
-    public void testGetAvailableMeasurementHandlersWithNull() throws ComponentLookupException
-    {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceList(MeasurementHandler.class)).thenReturn(null);
-        List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
-    }
-
-    @Test
-    public void testGetAvailableMeasurementHandlersWithException() throws ComponentLookupException
-    {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceList(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
-        List<MeasurementHandler> response = this.mocker.getComponentUnderTest().getAvailableMeasurementHandlers();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
-    }
-
     @Test
     public void testGetAvailableMeasurementNames() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        Map<String, MeasurementHandler> toReturn = new HashMap<String, MeasurementHandler>();
-        toReturn.put("hand", Mockito.mock(MeasurementHandler.class));
-        when(cm.<MeasurementHandler>getInstanceMap(MeasurementHandler.class)).thenReturn(toReturn);
+        MeasurementHandlerRegistry registry = this.mocker.getInstance(MeasurementHandlerRegistry.class);
+        Set<String> toReturn = Collections.singleton("hand");
+        when(registry.getNames()).thenReturn(toReturn);
         Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertEquals(toReturn.keySet(), response);
+        Assert.assertEquals(toReturn, response);
     }
 
     @Test
-    public void testGetAvailableMeasurementNamesWithNull() throws ComponentLookupException
+    public void testGetPatientsInPercentileRangeOnlyReturnsViewablePatients() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceMap(MeasurementHandler.class)).thenReturn(null);
-        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        DocumentReference visible = new DocumentReference("xwiki", "data", "P0000001");
+        DocumentReference hidden = new DocumentReference("xwiki", "data", "P0000002");
+        MeasurementStatisticsService statistics = this.mocker.getInstance(MeasurementStatisticsService.class);
+        when(statistics.getPatientsInPercentileRange("height", 0, 3))
+            .thenReturn(new HashSet<>(Arrays.asList(visible, hidden)));
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.isDocumentViewable(visible)).thenReturn(true);
+        Assert.assertEquals(Collections.singleton(visible),
+            this.mocker.getComponentUnderTest().getPatientsInPercentileRange("height", 0, 3));
     }
 
     @Test
-    public void testGetAvailableMeasurementNamesWithException() throws ComponentLookupException
+    public void testGetMeanStandardDeviationByAgeWithInvalidStep() throws ComponentLookupException
     {
-        ComponentManager cm = this.mocker.getInstance(ComponentManager.class, "context");
-        when(cm.getInstanceMap(MeasurementHandler.class)).thenThrow(new ComponentLookupException(""));
-        Set<String> response = this.mocker.getComponentUnderTest().getAvailableMeasurementNames();
-        Assert.assertNotNull(response);
-        Assert.assertTrue(response.isEmpty());
+        Assert.assertNull(this.mocker.getComponentUnderTest().getMeanStandardDeviationByAge("height", 0));
+        Mockito.verifyZeroInteractions(this.mocker.getInstance(MeasurementStatisticsService.class));
     }
 
     @Test
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.measurements.internal;
+
+import org.phenotips.Constants;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.migration.DataMigrationException;
+import com.xpn.xwiki.store.migration.XWikiDBVersion;
+import com.xpn.xwiki.store.migration.hibernate.AbstractHibernateDataMigration;
+
+/**
+ * Migration filling the measurement statistics side table with the scores of the patients measured before the table
+ * was introduced. Patients saved afterwards are kept up to date by the {@link MeasurementStatisticsUpdater}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Named("R54694MeasurementStatistics")
+@Singleton
+public class R54694MeasurementStatisticsDataMigration extends AbstractHibernateDataMigration
+{
+    /** The XClass used for storing measurements data. */
+    private static final EntityReference CLASS_REFERENCE = new EntityReference("MeasurementsClass",
+        EntityType.DOCUMENT, Constants.CODE_SPACE_REFERENCE);
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Resolves unprefixed document names to the current wiki. */
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    /** Serializes the class name without the wiki prefix, to be used in the database query. */
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> serializer;
+
+    /** Computes and stores the scores of each patient. */
+    @Inject
+    private MeasurementScoreIndex index;
+
+    @Override
+    public String getDescription()
+    {
+        return "Compute the measurement scores of existing patients for the cohort statistics";
+    }
+
+    @Override
+    public XWikiDBVersion getVersion()
+    {
+        return new XWikiDBVersion(54694);
+    }
+
+    @Override
+    public void hibernateMigrate() throws DataMigrationException, XWikiException
+    {
+        XWikiContext context = getXWikiContext();
+        List<String> documents = getStore().executeRead(context, new ListMeasuredPatientsCallback());
+        this.logger.debug("Indexing the measurements of {} patients", documents.size());
+        for (String docName : documents) {
+            this.index.index(context.getWiki().getDocument(this.resolver.resolve(docName), context));
+        }
+    }
+
+    /** Lists the names of all the documents holding measurements. */
+    private final class ListMeasuredPatientsCallback implements HibernateCallback<List<String>>
+    {
+        @Override
+        public List<String> doInHibernate(Session session) throws HibernateException, XWikiException
+        {
+            Query q = session.createQuery("select distinct o.name from BaseObject o where o.className = ?");
+            q.setParameter(0, R54694MeasurementStatisticsDataMigration.this.serializer.serialize(CLASS_REFERENCE));
+            @SuppressWarnings("unchecked")
+            List<String> result = q.list();
+            return result;
+        }
+    }
+}
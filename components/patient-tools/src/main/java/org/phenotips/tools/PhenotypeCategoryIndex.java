@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.tools;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Classifies phenotypes into the sections used for displaying and exporting them. The categories of each HPO term,
+ * i.e. its ancestors which are listed as categories in the vocabulary index, are looked up once and then reused until
+ * the vocabulary is reindexed, so classifying a feature doesn't require traversing the vocabulary again.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+@Role
+public interface PhenotypeCategoryIndex
+{
+    /**
+     * Lists the categories that an HPO term belongs to.
+     *
+     * @param termId an HPO term identifier, for example {@code HP:0000639}
+     * @return the identifiers of the categories, an empty list if the term is not a known HPO term
+     */
+    List<String> getCategories(String termId);
+
+    /**
+     * Looks up the categories of several terms at once, so that later calls to {@link #getCategories(String)} for these
+     * terms don't have to query the vocabulary.
+     *
+     * @param termIds a collection of HPO term identifiers
+     */
+    void prefetch(Collection<String> termIds);
+
+    /**
+     * Returns the sections defined by a phenotype mapping, see {@link PhenotypeMappingService}.
+     *
+     * @param mappingName the name of the mapping, for example {@code phenotype}
+     * @return the sections, or {@code null} if the mapping is not available
+     */
+    PhenotypeSections getSections(String mappingName);
+}
@@ -63,6 +63,9 @@ public class PhenotypeDisplayTools implements ScriptService
     @Named("hpo")
     private Vocabulary ontologyService;
 
+    @Inject
+    private PhenotypeCategoryIndex categoryIndex;
+
     public void use(String prefix, String name)
     {
         getFormData().setPositivePropertyName(name);
@@ -121,7 +124,7 @@ public String display(Collection<Map<String, ?>> template)
     {
         try {
             FormData formData = this.replaceOldTerms(this.getFormData());
-            return new PropertyDisplayer(template, formData, this.ontologyService).display();
+            return new PropertyDisplayer(template, formData, this.ontologyService, this.categoryIndex).display();
         } catch (Exception ex) {
             logger.error("An error has occurred while trying to display phenotypes. {}", ex.getMessage(), ex);
             return "";
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.tools;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * The sections of a phenotype mapping, and the assignment of terms to these sections. Instances are immutable snapshots
+ * of the mapping and are safe to use from several threads.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface PhenotypeSections
+{
+    /**
+     * The titles of the sections, in the order in which they are defined in the mapping.
+     *
+     * @return an unmodifiable list of section titles
+     */
+    List<String> getTitles();
+
+    /**
+     * Finds the section of a term, which is the first section, in the mapping order, listing either the term itself or
+     * one of its categories.
+     *
+     * @param termId a term identifier
+     * @return the title of the section, or {@code null} if the term doesn't belong to any section
+     */
+    String getSection(String termId);
+
+    /**
+     * Finds the position of the first category, counting the categories of all the sections in the mapping order,
+     * which is either the term itself or one of its categories. Sorting terms by this position lists them in the same
+     * order as matching them against the mapping section by section, and inside each section category by category.
+     *
+     * @param termId a term identifier
+     * @return a non-negative position, or {@code -1} if the term doesn't belong to any section
+     */
+    int getPosition(String termId);
+}
@@ -62,8 +62,14 @@
 
     private static final String INDEXED_PARENT_KEY = "is_a";
 
+    /** HPO has a few dozen top sections, this is just an upper bound. */
+    private static final int MAX_TOP_SECTIONS = 100;
+
     protected Vocabulary ontologyService;
 
+    /** Shared cache of the categories of HPO terms, may be {@code null}. */
+    private final PhenotypeCategoryIndex categoryIndex;
+
     private final FormData data;
 
     protected final String[] fieldNames;
@@ -75,9 +81,16 @@
     private List<FormSection> sections = new LinkedList<FormSection>();
 
     PropertyDisplayer(Collection<Map<String, ?>> template, FormData data, Vocabulary ontologyService)
+    {
+        this(template, data, ontologyService, null);
+    }
+
+    PropertyDisplayer(Collection<Map<String, ?>> template, FormData data, Vocabulary ontologyService,
+        PhenotypeCategoryIndex categoryIndex)
     {
         this.data = data;
         this.ontologyService = ontologyService;
+        this.categoryIndex = categoryIndex;
         this.fieldNames = new String[2];
         this.fieldNames[0] = data.getPositiveFieldName();
         this.fieldNames[1] = data.getNegativeFieldName();
@@ -162,7 +175,9 @@ public String display()
 
         Map<String, String> m = new HashMap<String, String>();
         m.put("is_a", "HP:0000118");
-        List<VocabularyTerm> topSections = this.ontologyService.search(m);
+        // Only the identifiers are needed
+        List<VocabularyTerm> topSections =
+            this.ontologyService.search(m, Collections.singleton(ID_KEY), MAX_TOP_SECTIONS, 0);
         Set<String> topSectionsId = new LinkedHashSet<String>();
         for (VocabularyTerm section : topSections) {
             topSectionsId.add(section.getId());
@@ -383,6 +398,9 @@ private List<String> getCategoriesFromOntology(String value)
         if (!value.startsWith("HP:")) {
             return Collections.emptyList();
         }
+        if (this.categoryIndex != null) {
+            return this.categoryIndex.getCategories(value);
+        }
         VocabularyTerm termObj = this.ontologyService.getTerm(value);
         if (termObj != null && termObj.get(INDEXED_CATEGORY_KEY) != null
             && List.class.isAssignableFrom(termObj.get(INDEXED_CATEGORY_KEY).getClass())) {
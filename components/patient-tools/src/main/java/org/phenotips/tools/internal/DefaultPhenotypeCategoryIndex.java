@@ -0,0 +1,267 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.tools.internal;
+
+import org.phenotips.tools.PhenotypeCategoryIndex;
+import org.phenotips.tools.PhenotypeMappingService;
+import org.phenotips.tools.PhenotypeSections;
+import org.phenotips.tools.PropertyDisplayer;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.script.service.ScriptService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Default {@link PhenotypeCategoryIndex} implementation. The categories of the HPO terms are read from the
+ * {@link PropertyDisplayer#INDEXED_CATEGORY_KEY} field of the vocabulary index, which already holds the closure of the
+ * term's ancestors, and they are kept in an LRU cache until HPO is reindexed. Section snapshots are kept as long as the
+ * mapping they were computed from doesn't change.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component(roles = PhenotypeCategoryIndex.class)
+@Singleton
+public class DefaultPhenotypeCategoryIndex implements PhenotypeCategoryIndex, EventListener, Initializable
+{
+    private static final String HPO = "hpo";
+
+    private static final String HPO_PREFIX = "HP:";
+
+    @Inject
+    @Named(HPO)
+    private Vocabulary vocabulary;
+
+    @Inject
+    @Named("phenotypeMapping")
+    private ScriptService mappingService;
+
+    @Inject
+    private CacheManager cacheFactory;
+
+    /** Allows registering this object as an event listener. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** HPO term identifier to the list of categories it belongs to. */
+    private Cache<List<String>> categories;
+
+    /** Mapping name to the sections computed for the latest version of that mapping. */
+    private final ConcurrentMap<String, Sections> sections = new ConcurrentHashMap<String, Sections>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.categories = this.cacheFactory.createNewLocalCache(new CacheConfiguration(
+                new LRUEvictionConfiguration(20000)));
+        } catch (CacheException ex) {
+            throw new InitializationException("Cannot create cache: " + ex.getMessage());
+        }
+        this.observationManager.addListener(this);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "phenotype-category-index";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Collections.<Event>singletonList(new VocabularyReindexedEvent(HPO));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.categories.removeAll();
+        this.sections.clear();
+    }
+
+    @Override
+    public List<String> getCategories(String termId)
+    {
+        if (termId == null || !termId.startsWith(HPO_PREFIX)) {
+            return Collections.emptyList();
+        }
+        List<String> result = this.categories.get(termId);
+        if (result == null) {
+            result = readCategories(this.vocabulary.getTerm(termId));
+            this.categories.set(termId, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void prefetch(Collection<String> termIds)
+    {
+        if (termIds == null) {
+            return;
+        }
+        Set<String> missing = new HashSet<String>();
+        for (String termId : termIds) {
+            if (termId != null && termId.startsWith(HPO_PREFIX) && this.categories.get(termId) == null) {
+                missing.add(termId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        for (VocabularyTerm term : this.vocabulary.getTerms(missing)) {
+            if (term != null && term.getId() != null) {
+                this.categories.set(term.getId(), readCategories(term));
+                missing.remove(term.getId());
+            }
+        }
+        /* Unknown terms don't have any category */
+        for (String termId : missing) {
+            this.categories.set(termId, Collections.<String>emptyList());
+        }
+    }
+
+    @Override
+    public PhenotypeSections getSections(String mappingName)
+    {
+        Object mapping = ((PhenotypeMappingService) this.mappingService).get(mappingName);
+        if (!(mapping instanceof List)) {
+            return null;
+        }
+        Sections result = this.sections.get(mappingName);
+        if (result == null || !result.mapping.equals(mapping)) {
+            result = new Sections((List<?>) mapping);
+            this.sections.put(mappingName, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> readCategories(VocabularyTerm term)
+    {
+        if (term == null) {
+            return Collections.emptyList();
+        }
+        Object value = term.get(PropertyDisplayer.INDEXED_CATEGORY_KEY);
+        if (value != null && List.class.isAssignableFrom(value.getClass())) {
+            return Collections.unmodifiableList(new LinkedList<String>((List<String>) value));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * The sections of one version of a mapping. The categories of all the sections are numbered in the mapping order,
+     * and a term is placed at the position of its first matching category, so sorting by position keeps the same
+     * order as matching the terms against the mapping section by section and category by category.
+     */
+    private final class Sections implements PhenotypeSections
+    {
+        private final List<?> mapping;
+
+        private final List<String> titles = new LinkedList<String>();
+
+        /** Category identifier to the position of its first occurrence in the mapping. */
+        private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+        /** The section containing each category position. */
+        private final List<String> sectionAtPosition = new ArrayList<String>();
+
+        Sections(List<?> mapping)
+        {
+            this.mapping = mapping;
+            for (Object section : mapping) {
+                if (!(section instanceof Map)) {
+                    continue;
+                }
+                Object title = ((Map<?, ?>) section).get("title");
+                Object sectionCategories = ((Map<?, ?>) section).get("categories");
+                if (title == null) {
+                    continue;
+                }
+                this.titles.add(title.toString());
+                if (sectionCategories instanceof Collection) {
+                    for (Object category : (Collection<?>) sectionCategories) {
+                        if (category != null && !this.positions.containsKey(category.toString())) {
+                            this.positions.put(category.toString(), this.sectionAtPosition.size());
+                            this.sectionAtPosition.add(title.toString());
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public List<String> getTitles()
+        {
+            return Collections.unmodifiableList(this.titles);
+        }
+
+        @Override
+        public String getSection(String termId)
+        {
+            int position = getPosition(termId);
+            return position < 0 ? null : this.sectionAtPosition.get(position);
+        }
+
+        @Override
+        public int getPosition(String termId)
+        {
+            if (StringUtils.isEmpty(termId)) {
+                return -1;
+            }
+            Integer best = this.positions.get(termId);
+            for (String category : getCategories(termId)) {
+                Integer position = this.positions.get(category);
+                if (position != null && (best == null || position < best)) {
+                    best = position;
+                }
+            }
+            return best == null ? -1 : best;
+        }
+    }
+}
@@ -69,7 +69,8 @@ public void testDisplayOutputsHiddenEmptyValues()
         Collection<Map<String, ?>> data = Collections.emptySet();
         Vocabulary ontologyService = Mockito.mock(Vocabulary.class);
         Mockito.doReturn(new LinkedList<VocabularyTerm>()).when(ontologyService)
-            .search(Matchers.anyMapOf(String.class, Object.class));
+            .search(Matchers.anyMapOf(String.class, Object.class), Matchers.anyCollectionOf(String.class),
+                Matchers.anyInt(), Matchers.anyInt());
 
         PropertyDisplayer displayer = new PropertyDisplayer(data, configuration, ontologyService);
         String output = displayer.display();
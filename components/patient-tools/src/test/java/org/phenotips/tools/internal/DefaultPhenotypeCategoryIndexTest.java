@@ -0,0 +1,196 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.tools.internal;
+
+import org.phenotips.tools.PhenotypeCategoryIndex;
+import org.phenotips.tools.PhenotypeMappingService;
+import org.phenotips.tools.PhenotypeSections;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultPhenotypeCategoryIndex} component.
+ *
+ * @version $Id$
+ */
+public class DefaultPhenotypeCategoryIndexTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<PhenotypeCategoryIndex> mocker =
+        new MockitoComponentMockingRule<PhenotypeCategoryIndex>(DefaultPhenotypeCategoryIndex.class);
+
+    private Vocabulary hpo;
+
+    private PhenotypeMappingService mappingService;
+
+    @Before
+    public void setup() throws Exception
+    {
+        final Map<String, List<String>> cached = new HashMap<String, List<String>>();
+        @SuppressWarnings("unchecked")
+        Cache<List<String>> cache = mock(Cache.class);
+        when(cache.get(Matchers.anyString())).thenAnswer(new Answer<List<String>>()
+        {
+            @Override
+            public List<String> answer(InvocationOnMock invocation)
+            {
+                return cached.get(invocation.getArguments()[0]);
+            }
+        });
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation)
+            {
+                cached.put((String) invocation.getArguments()[0], (List<String>) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(cache).set(Matchers.anyString(), Matchers.anyListOf(String.class));
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                cached.clear();
+                return null;
+            }
+        }).when(cache).removeAll();
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.<List<String>>createNewLocalCache(Matchers.any(CacheConfiguration.class))).thenReturn(cache);
+
+        this.hpo = this.mocker.getInstance(Vocabulary.class, "hpo");
+        VocabularyTerm eye = mockTerm("HP:0000478", Arrays.asList("HP:0000118"));
+        VocabularyTerm myopia = mockTerm("HP:0000545", Arrays.asList("HP:0000478", "HP:0000118"));
+        when(this.hpo.getTerm("HP:0000478")).thenReturn(eye);
+        when(this.hpo.getTerm("HP:0000545")).thenReturn(myopia);
+
+        List<Map<String, Object>> mapping = Arrays.asList(section("Eye", "HP:0000478"),
+            section("Other", "HP:0000118"));
+        this.mappingService = mock(PhenotypeMappingService.class);
+        when(this.mappingService.get("phenotype")).thenReturn(mapping);
+        ReflectionUtils.setFieldValue(this.mocker.getComponentUnderTest(), "mappingService", this.mappingService);
+    }
+
+    /** Categories are read from the vocabulary only once. */
+    @Test
+    public void getCategoriesIsCached() throws Exception
+    {
+        PhenotypeCategoryIndex index = this.mocker.getComponentUnderTest();
+        Assert.assertEquals(Arrays.asList("HP:0000478", "HP:0000118"), index.getCategories("HP:0000545"));
+        Assert.assertEquals(Arrays.asList("HP:0000478", "HP:0000118"), index.getCategories("HP:0000545"));
+        Assert.assertTrue(index.getCategories("custom").isEmpty());
+        Mockito.verify(this.hpo, Mockito.times(1)).getTerm("HP:0000545");
+    }
+
+    /** Terms are assigned to the first section listing the term or one of its categories. */
+    @Test
+    public void getSectionUsesMappingOrder() throws Exception
+    {
+        PhenotypeSections sections = this.mocker.getComponentUnderTest().getSections("phenotype");
+        Assert.assertEquals(Arrays.asList("Eye", "Other"), sections.getTitles());
+        Assert.assertEquals("Eye", sections.getSection("HP:0000545"));
+        Assert.assertEquals("Eye", sections.getSection("HP:0000478"));
+        Assert.assertNull(sections.getSection("HP:0000001"));
+        Assert.assertSame(sections, this.mocker.getComponentUnderTest().getSections("phenotype"));
+    }
+
+    /** Positions follow the order of the categories in the mapping, and reindexing HPO forgets the categories. */
+    @Test
+    public void getPositionAndReindex() throws Exception
+    {
+        PhenotypeSections sections = this.mocker.getComponentUnderTest().getSections("phenotype");
+        Assert.assertEquals(0, sections.getPosition("HP:0000545"));
+        Assert.assertEquals(1, sections.getPosition("HP:0000118"));
+        Assert.assertEquals(-1, sections.getPosition("HP:0000001"));
+
+        ((EventListener) this.mocker.getComponentUnderTest()).onEvent(new VocabularyReindexedEvent("hpo"), null, null);
+        Assert.assertNotSame(sections, this.mocker.getComponentUnderTest().getSections("phenotype"));
+        this.mocker.getComponentUnderTest().getCategories("HP:0000545");
+        Mockito.verify(this.hpo, Mockito.times(2)).getTerm("HP:0000545");
+    }
+
+    /** Missing mappings don't have sections. */
+    @Test
+    public void getSectionsForMissingMapping() throws Exception
+    {
+        Assert.assertNull(this.mocker.getComponentUnderTest().getSections("missing"));
+    }
+
+    /** Prefetching uses a single vocabulary query, and afterwards no more queries are needed. */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void prefetchLoadsAllTermsAtOnce() throws Exception
+    {
+        VocabularyTerm myopia = this.hpo.getTerm("HP:0000545");
+        when(this.hpo.getTerms(Matchers.any(Collection.class))).thenReturn(Collections.singleton(myopia));
+        PhenotypeCategoryIndex index = this.mocker.getComponentUnderTest();
+
+        index.prefetch(new HashSet<String>(Arrays.asList("HP:0000545", "HP:0000002", "custom")));
+        Assert.assertEquals(Arrays.asList("HP:0000478", "HP:0000118"), index.getCategories("HP:0000545"));
+        Assert.assertTrue(index.getCategories("HP:0000002").isEmpty());
+
+        Mockito.verify(this.hpo).getTerms(new HashSet<String>(Arrays.asList("HP:0000545", "HP:0000002")));
+        Mockito.verify(this.hpo, Mockito.never()).getTerm("HP:0000002");
+    }
+
+    private VocabularyTerm mockTerm(String id, List<String> categories)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        when(term.get("term_category")).thenReturn(categories);
+        return term;
+    }
+
+    private Map<String, Object> section(String title, String category)
+    {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("title", title);
+        result.put("categories", Arrays.asList(category));
+        return result;
+    }
+}
@@ -18,18 +18,27 @@
 package org.phenotips.solr;
 
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.SpellcheckCorrections;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
 import org.xwiki.script.service.ScriptService;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,6 +55,7 @@
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.DisMaxParams;
 import org.apache.solr.common.params.MapSolrParams;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.params.SpellingParams;
 import org.apache.solr.common.util.NamedList;
 import org.slf4j.Logger;
@@ -57,7 +67,7 @@
  *
  * @version $Id$
  */
-public abstract class AbstractSolrScriptService implements ScriptService, Initializable
+public abstract class AbstractSolrScriptService implements ScriptService, Initializable, Disposable
 {
     /**
      * Delimiter between the field name and the searched value used in the Lucene query language.
@@ -102,6 +112,16 @@ public abstract class AbstractSolrScriptService implements ScriptService, Initia
     @Named("xwikiproperties")
     protected ConfigurationSource configuration;
 
+    /** Corrections learned from misspelled queries, so that they can be answered with a single query. */
+    private final SpellcheckCorrections spellcheckCorrections = new SpellcheckCorrections();
+
+    /** Used for discarding the cached documents and the learned corrections when the vocabulary is reindexed. */
+    @Inject
+    private ObservationManager observationManager;
+
+    /** The registered reindexing listener, removed when this component is disposed. */
+    private EventListener reindexListener;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -114,6 +134,19 @@ public void initialize() throws InitializationException
         } catch (final CacheException ex) {
             throw new InitializationException("Cannot create cache: " + ex.getMessage());
         }
+        this.reindexListener = new ReindexListener();
+        this.observationManager.addListener(this.reindexListener);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.reindexListener != null) {
+            this.observationManager.removeListener(this.reindexListener.getName());
+        }
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
     }
 
     /**
@@ -300,8 +333,8 @@ public SolrDocument get(final String id)
     }
 
     /**
-     * Perform a search, falling back on the suggested spellchecked query if the original query fails to return any
-     * results.
+     * Perform a search, falling back on the suggested spellchecked query if the original query returns no or very few
+     * results, in which case the results of both queries are merged.
      *
      * @param params the Solr parameters to use, should contain at least a value for the "q" parameter; use
      *            {@link #getSolrQuery(String, int, int)} to get the proper parameter expected by this method
@@ -314,9 +347,15 @@ private SolrDocumentList search(MapSolrParams params)
             if (newParams.get(CommonParams.FL) == null) {
                 newParams.add(CommonParams.FL, "* score");
             }
-            QueryResponse response = this.server.query(MapSolrParams.toSolrParams(newParams));
+            SolrParams originalParams = MapSolrParams.toSolrParams(newParams);
+            SolrParams correctedParams = this.spellcheckCorrections.get(originalParams);
+            if (correctedParams != null) {
+                return this.server.query(correctedParams).getResults();
+            }
+            QueryResponse response = this.server.query(originalParams);
             SolrDocumentList results = response.getResults();
-            if (response.getSpellCheckResponse() != null && !response.getSpellCheckResponse().isCorrectlySpelled()) {
+            if (SpellcheckCorrections.isWeak(results) && response.getSpellCheckResponse() != null
+                && !response.getSpellCheckResponse().isCorrectlySpelled()) {
                 String suggestedQuery = response.getSpellCheckResponse().getCollatedResult();
                 if (StringUtils.isEmpty(suggestedQuery)) {
                     return results;
@@ -335,11 +374,15 @@ private SolrDocumentList search(MapSolrParams params)
                     }
                 }
                 newParams.add(CommonParams.Q, suggestedQuery);
-                SolrDocumentList spellcheckResults =
-                    this.server.query(MapSolrParams.toSolrParams(newParams)).getResults();
-                if (results.getMaxScore() < spellcheckResults.getMaxScore()) {
-                    results = spellcheckResults;
+                correctedParams = MapSolrParams.toSolrParams(newParams);
+                SolrDocumentList spellcheckResults = this.server.query(correctedParams).getResults();
+                if ((results == null || results.isEmpty()) && spellcheckResults != null
+                    && !spellcheckResults.isEmpty()) {
+                    // The original query is useless, next time only send the corrected one
+                    this.spellcheckCorrections.learn(originalParams, correctedParams);
                 }
+                results = SpellcheckCorrections.merge(results, spellcheckResults,
+                    originalParams.getInt(CommonParams.ROWS, -1));
             }
             return results;
         } catch (SolrServerException | IOException ex) {
@@ -450,4 +493,28 @@ private String dumpMap(Map<String, ?> map)
         out.append('}');
         return out.toString();
     }
+
+    /** Discards everything derived from the previous content of the core when its vocabulary is reindexed. */
+    private final class ReindexListener implements EventListener
+    {
+        @Override
+        public String getName()
+        {
+            return "solr-script-service-" + AbstractSolrScriptService.this.getName();
+        }
+
+        @Override
+        public List<Event> getEvents()
+        {
+            return Collections.<Event>singletonList(
+                new VocabularyReindexedEvent(AbstractSolrScriptService.this.getName()));
+        }
+
+        @Override
+        public void onEvent(Event event, Object source, Object data)
+        {
+            AbstractSolrScriptService.this.cache.removeAll();
+            AbstractSolrScriptService.this.spellcheckCorrections.clear();
+        }
+    }
 }
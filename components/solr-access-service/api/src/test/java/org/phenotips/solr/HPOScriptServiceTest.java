@@ -18,12 +18,15 @@
 package org.phenotips.solr;
 
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.ObservationManager;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -33,13 +36,16 @@
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mock;
@@ -52,6 +58,7 @@
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -155,6 +162,71 @@ public void getAncestorsReturnsEmptyListWhenIDCantBeFound() throws IOException,
         Assert.assertTrue(result.isEmpty());
     }
 
+    @Test
+    public void reindexingClearsCachedDocumentsAndLearnedCorrections() throws ComponentLookupException, IOException,
+        SolrServerException
+    {
+        // The misspelled query finds nothing, the spellchecked one does, so the correction is learned
+        SpellCheckResponse spellcheck = mock(SpellCheckResponse.class);
+        when(spellcheck.isCorrectlySpelled()).thenReturn(false);
+        when(spellcheck.getCollatedResult()).thenReturn("hypotonia");
+        when(this.response.getSpellCheckResponse()).thenReturn(spellcheck);
+        when(this.response.getResults()).thenReturn(new SolrDocumentList());
+        QueryResponse correctedResponse = mock(QueryResponse.class);
+        SolrDocumentList found = new SolrDocumentList();
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", "HP:0001252");
+        found.add(doc);
+        found.setNumFound(1);
+        when(correctedResponse.getResults()).thenReturn(found);
+        when(this.server.query(Matchers.argThat(new IsQuery("hypotonai")))).thenReturn(this.response);
+        when(this.server.query(Matchers.argThat(new IsQuery("hypotonia")))).thenReturn(correctedResponse);
+
+        Assert.assertEquals(1, this.service.search("hypotonai").size());
+        Assert.assertEquals(1, this.service.search("hypotonai").size());
+        // The second search directly used the learned correction
+        verify(this.server, times(1)).query(Matchers.argThat(new IsQuery("hypotonai")));
+
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(observationManager).addListener(listener.capture());
+        Assert.assertTrue(listener.getValue().getEvents().get(0).matches(new VocabularyReindexedEvent("hpo")));
+        Assert.assertFalse(listener.getValue().getEvents().get(0).matches(new VocabularyReindexedEvent("omim")));
+        listener.getValue().onEvent(new VocabularyReindexedEvent("hpo"), null, null);
+        verify(this.cache).removeAll();
+
+        this.service.search("hypotonai");
+        verify(this.server, times(2)).query(Matchers.argThat(new IsQuery("hypotonai")));
+    }
+
+    @Test
+    public void disposeRemovesReindexListener() throws Exception
+    {
+        ObservationManager observationManager = this.mocker.getInstance(ObservationManager.class);
+        ArgumentCaptor<EventListener> listener = ArgumentCaptor.forClass(EventListener.class);
+        verify(observationManager).addListener(listener.capture());
+
+        this.service.dispose();
+        verify(observationManager).removeListener(listener.getValue().getName());
+        verify(this.cache).dispose();
+    }
+
+    private class IsQuery extends ArgumentMatcher<SolrParams>
+    {
+        private final String query;
+
+        IsQuery(String query)
+        {
+            this.query = query;
+        }
+
+        @Override
+        public boolean matches(Object argument)
+        {
+            return argument != null && this.query.equals(((SolrParams) argument).get(CommonParams.Q));
+        }
+    }
+
     private class IsMatchingIDQuery extends ArgumentMatcher<SolrParams>
     {
 
@@ -21,6 +21,7 @@
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientScorer;
 import org.phenotips.data.PatientSpecificity;
+import org.phenotips.http.HttpClientProvider;
 
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
@@ -53,7 +54,6 @@
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -81,8 +81,12 @@ public class MonarchPatientScorer implements PatientScorer, Initializable
 
     private String scorerURL;
 
+    /** Provides the shared HTTP client. */
+    @Inject
+    private HttpClientProvider httpClients;
+
     /** The HTTP client used for contacting the MONARCH server. */
-    private CloseableHttpClient client = HttpClients.createSystem();
+    private CloseableHttpClient client;
 
     @Inject
     private CacheManager cacheManager;
@@ -92,6 +96,7 @@ public class MonarchPatientScorer implements PatientScorer, Initializable
     @Override
     public void initialize() throws InitializationException
     {
+        this.client = this.httpClients.getClient();
         try {
             this.scorerURL = this.configuration
                 .getProperty("phenotips.patientScoring.monarch.serviceURL", "http://monarchinitiative.org/score");
@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * A {@link DataReader} which can list its data in pages, in a stable order, and load each entity independently. This
+ * allows the data to be migrated in batches, by several writer threads, and an interrupted migration to be resumed from
+ * the last completed batch instead of starting over.
+ *
+ * @param <T> the type of data managed by this reader, one of the classes from the data model
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public interface PagedDataReader<T> extends DataReader<T>
+{
+    /**
+     * Lists the keys of the next page of data. Keys are listed in a stable order, so that the last key of a page can be
+     * used as a checkpoint for listing the following pages, even after the entities of the previous pages have been
+     * {@link #discardEntity(Object) discarded}.
+     *
+     * @param checkpoint the last key of the previous page, or {@code null} to start with the first page
+     * @param pageSize the maximum number of keys to return
+     * @return the keys identifying the entities of the page, in order; an empty list if there's no more data
+     */
+    List<String> listKeys(String checkpoint, int pageSize);
+
+    /**
+     * Retrieves one entity from this store.
+     *
+     * @param key a key returned by {@link #listKeys(String, int)}
+     * @return the requested entity, or {@code null} if it failed to be retrieved from the store
+     */
+    T getEntity(String key);
+}
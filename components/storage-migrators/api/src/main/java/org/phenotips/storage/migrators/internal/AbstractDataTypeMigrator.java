@@ -20,25 +20,48 @@
 import org.phenotips.storage.migrators.DataReader;
 import org.phenotips.storage.migrators.DataTypeMigrator;
 import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.PagedDataReader;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+
 /**
  * Implementation for the {@link DataTypeMigrator} role, which tries to use all available {@link DataReader}s that
  * {@link DataReader#hasData() have data} and {@link DataWriter#storeEntity(Object) write} the retrieved data to the
  * currently enabled {@link DataWriter storage engine}.
+ * <p>
+ * Data from {@link PagedDataReader paged readers} is migrated in batches: each batch is written by a pool of writer
+ * threads, and after the whole batch is completed its last key is saved as a checkpoint, so that an interrupted
+ * migration resumes with the next batch the next time the migration runs. The size of the batches and the number of
+ * writer threads are configured in {@code xwiki.properties} with {@code phenotips.storageMigration.batchSize} and
+ * {@code phenotips.storageMigration.threads}.
+ * </p>
  *
  * @param <T> the type of data managed by this migrator, one of the classes from the data model
  * @version $Id$
@@ -49,6 +72,17 @@
     /** The current default storage engine assumed by XWiki if no specific store is enabled. */
     private static final String DEFAULT_STORE = "hibernate";
 
+    /** The prefix of the {@code xwiki.properties} keys configuring the paged migrations. */
+    private static final String CONFIGURATION_PREFIX = "phenotips.storageMigration.";
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final int DEFAULT_THREADS = 4;
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
     /** Provides access tot the configuration file where the storage engines are configured. */
     @Inject
     @Named("legacy")
@@ -58,6 +92,27 @@
     @Inject
     private Provider<ComponentManager> cm;
 
+    /** Provides the batch size and the number of writer threads used for paged migrations. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource properties;
+
+    /** Persists the progress of paged migrations. */
+    @Inject
+    private MigrationCheckpointStore checkpoints;
+
+    /** Used for setting up the context of the writer threads. */
+    @Inject
+    private Execution execution;
+
+    /** Used for cloning the current context for the writer threads. */
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    /** The current request context, used for identifying the wiki being migrated. */
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
     @Override
     public boolean migrate()
     {
@@ -79,6 +134,10 @@ public boolean migrate()
                 continue;
             }
 
+            if (reader instanceof PagedDataReader) {
+                allDataMigrated = migratePaged((PagedDataReader<T>) reader, writer) && allDataMigrated;
+                continue;
+            }
             Iterator<T> data = reader.getData();
             while (data.hasNext()) {
                 T item = data.next();
@@ -92,6 +151,89 @@ public boolean migrate()
         return allDataMigrated;
     }
 
+    /**
+     * Migrate the data from a paged reader, batch by batch, resuming from the last saved checkpoint, if any.
+     *
+     * @param reader the reader to migrate data from
+     * @param writer the writer to migrate data to
+     * @return {@code true} if all the data was successfully migrated, {@code false} in case of failure
+     */
+    private boolean migratePaged(final PagedDataReader<T> reader, final DataWriter<T> writer)
+    {
+        String migration = this.contextProvider.get().getDatabase() + ':' + reader.getType();
+        int batchSize = Math.max(1, this.properties.getProperty(CONFIGURATION_PREFIX + "batchSize",
+            DEFAULT_BATCH_SIZE));
+        int threads = Math.max(1, this.properties.getProperty(CONFIGURATION_PREFIX + "threads", DEFAULT_THREADS));
+        String checkpoint = this.checkpoints.getCheckpoint(migration);
+        if (checkpoint != null) {
+            this.logger.info("Resuming the migration of [{}] after [{}]", migration, checkpoint);
+        }
+
+        boolean allDataMigrated = true;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<String> keys = reader.listKeys(checkpoint, batchSize);
+            while (!keys.isEmpty()) {
+                List<Future<Boolean>> results = new ArrayList<>(keys.size());
+                for (final String key : keys) {
+                    // Each writer needs its own copy of the request context for accessing the stores
+                    final ExecutionContext context = this.contextManager.clone(this.execution.getContext());
+                    results.add(executor.submit(new Callable<Boolean>()
+                    {
+                        @Override
+                        public Boolean call()
+                        {
+                            AbstractDataTypeMigrator.this.execution.setContext(context);
+                            try {
+                                return migrateEntity(reader, writer, key);
+                            } finally {
+                                AbstractDataTypeMigrator.this.execution.removeContext();
+                            }
+                        }
+                    }));
+                }
+                for (Future<Boolean> result : results) {
+                    allDataMigrated = getResult(result) && allDataMigrated;
+                }
+                // Failed entities are left in the old store, and will be retried when the migration runs again
+                checkpoint = keys.get(keys.size() - 1);
+                this.checkpoints.setCheckpoint(migration, checkpoint);
+                this.logger.debug("Migrated [{}] up to [{}]", migration, checkpoint);
+                keys = keys.size() < batchSize ? new ArrayList<String>() : reader.listKeys(checkpoint, batchSize);
+            }
+            this.checkpoints.setCheckpoint(migration, null);
+        } catch (ExecutionContextException ex) {
+            this.logger.error("Failed to set up the context for migrating [{}]: {}", migration, ex.getMessage());
+            allDataMigrated = false;
+        } finally {
+            executor.shutdownNow();
+        }
+        return allDataMigrated;
+    }
+
+    private boolean migrateEntity(PagedDataReader<T> reader, DataWriter<T> writer, String key)
+    {
+        T item = reader.getEntity(key);
+        if (item != null && writer.storeEntity(item)) {
+            reader.discardEntity(item);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean getResult(Future<Boolean> result)
+    {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            this.logger.error("Failed to migrate entity: {}", ex.getCause().getMessage(), ex.getCause());
+            return false;
+        }
+    }
+
     private DataWriter<T> getCurrentWriter()
     {
         String hint = this.config.getProperty(getStoreConfigurationKey(), DEFAULT_STORE);
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * {@link MigrationCheckpointStore} keeping the checkpoints in a properties file in the permanent directory. The file is
+ * rewritten atomically after each change, so that a crash while saving a checkpoint leaves the previous one in place.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class FilesystemMigrationCheckpointStore implements MigrationCheckpointStore
+{
+    private static final String FILE_NAME = "storage-migration-checkpoints.properties";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    /** The saved checkpoints, loaded from the file on first access. */
+    private Properties checkpoints;
+
+    @Override
+    public synchronized String getCheckpoint(String migration)
+    {
+        return getCheckpoints().getProperty(migration);
+    }
+
+    @Override
+    public synchronized void setCheckpoint(String migration, String checkpoint)
+    {
+        Properties current = getCheckpoints();
+        if (checkpoint == null) {
+            if (current.remove(migration) == null) {
+                return;
+            }
+        } else {
+            current.setProperty(migration, checkpoint);
+        }
+        save(current);
+    }
+
+    private Properties getCheckpoints()
+    {
+        if (this.checkpoints == null) {
+            this.checkpoints = new Properties();
+            File file = getFile();
+            if (file.isFile()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    this.checkpoints.load(in);
+                } catch (IOException ex) {
+                    this.logger.warn("Failed to read the storage migration checkpoints, starting over: {}",
+                        ex.getMessage());
+                }
+            }
+        }
+        return this.checkpoints;
+    }
+
+    private void save(Properties current)
+    {
+        File file = getFile();
+        File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                current.store(out, "Progress of the interrupted storage migrations");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            this.logger.warn("Failed to save the storage migration checkpoints: {}", ex.getMessage());
+        }
+    }
+
+    private File getFile()
+    {
+        return new File(this.environment.getPermanentDirectory(), FILE_NAME);
+    }
+}
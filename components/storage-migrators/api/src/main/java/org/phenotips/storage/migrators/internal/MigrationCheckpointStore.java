@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.PagedDataReader;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Persists the progress of paged data migrations, so that a migration interrupted by a crash or a restart can be
+ * resumed from the last completed batch.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ * @see PagedDataReader
+ */
+@Role
+public interface MigrationCheckpointStore
+{
+    /**
+     * Get the last checkpoint saved for a migration.
+     *
+     * @param migration identifies the migration, the data being migrated and where it is read from
+     * @return the last key of the last completed batch, or {@code null} if the migration didn't start yet or was
+     *         completed
+     */
+    String getCheckpoint(String migration);
+
+    /**
+     * Save the progress of a migration, after a batch was completed.
+     *
+     * @param migration identifies the migration, the data being migrated and where it is read from
+     * @param checkpoint the last key of the last completed batch, or {@code null} to forget the checkpoint once the
+     *            migration is completed
+     */
+    void setCheckpoint(String migration, String checkpoint);
+}
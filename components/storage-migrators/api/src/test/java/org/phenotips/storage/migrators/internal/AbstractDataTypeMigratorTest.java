@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.DataTypeMigrator;
+import org.phenotips.storage.migrators.DataWriter;
+import org.phenotips.storage.migrators.PagedDataReader;
+import org.phenotips.storage.migrators.Type;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the paged migrations of {@link AbstractDataTypeMigrator}.
+ *
+ * @version $Id$
+ */
+public class AbstractDataTypeMigratorTest
+{
+    private static final String MIGRATION = "xwiki:strings/hibernate";
+
+    private static final List<String> KEYS = Arrays.asList("a", "b", "c", "d", "e");
+
+    @Rule
+    public final MockitoComponentMockingRule<DataTypeMigrator<String>> mocker =
+        new MockitoComponentMockingRule<DataTypeMigrator<String>>(StringMigrator.class);
+
+    private PagedDataReader<String> reader;
+
+    private DataWriter<String> writer;
+
+    private MigrationCheckpointStore checkpoints;
+
+    /** The names of the threads which wrote the entities. */
+    private Set<String> writerThreads = new ConcurrentSkipListSet<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception
+    {
+        ConfigurationSource config = this.mocker.getInstance(ConfigurationSource.class, "legacy");
+        when(config.getProperty("xwiki.store.strings.hint", "hibernate")).thenReturn("filesystem");
+        ConfigurationSource properties = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(properties.getProperty("phenotips.storageMigration.batchSize", 100)).thenReturn(2);
+        when(properties.getProperty("phenotips.storageMigration.threads", 4)).thenReturn(2);
+
+        this.reader = mock(PagedDataReader.class);
+        when(this.reader.getType()).thenReturn(new Type("strings", "hibernate"));
+        when(this.reader.hasData()).thenReturn(true);
+        // Keyset paging over the sorted keys, starting after the checkpoint
+        when(this.reader.listKeys(anyString(), anyInt())).thenAnswer(new Answer<List<String>>()
+        {
+            @Override
+            public List<String> answer(InvocationOnMock invocation)
+            {
+                String checkpoint = (String) invocation.getArguments()[0];
+                int start = checkpoint == null ? 0 : KEYS.indexOf(checkpoint) + 1;
+                int end = Math.min(KEYS.size(), start + (Integer) invocation.getArguments()[1]);
+                return KEYS.subList(start, end);
+            }
+        });
+        when(this.reader.getEntity(anyString())).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return (String) invocation.getArguments()[0];
+            }
+        });
+
+        this.writer = mock(DataWriter.class);
+        when(this.writer.getType()).thenReturn(new Type("strings", "filesystem"));
+        when(this.writer.storeEntity(anyString())).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation)
+            {
+                AbstractDataTypeMigratorTest.this.writerThreads.add(Thread.currentThread().getName());
+                return true;
+            }
+        });
+
+        ComponentManager cm = mock(ComponentManager.class);
+        Provider<ComponentManager> cmProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, ComponentManager.class));
+        doReturn(cm).when(cmProvider).get();
+        doReturn(this.writer).when(cm).getInstance(
+            new DefaultParameterizedType(null, DataWriter.class, String.class), "strings/filesystem");
+        doReturn(Collections.singletonMap("strings/hibernate", this.reader)).when(cm).getInstanceMap(
+            new DefaultParameterizedType(null, DataReader.class, String.class));
+
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        XWikiContext context = mock(XWikiContext.class);
+        doReturn(context).when(contextProvider).get();
+        when(context.getDatabase()).thenReturn("xwiki");
+
+        ExecutionContext executionContext = new ExecutionContext();
+        when(this.mocker.<Execution>getInstance(Execution.class).getContext()).thenReturn(executionContext);
+        when(this.mocker.<ExecutionContextManager>getInstance(ExecutionContextManager.class).clone(executionContext))
+            .thenReturn(new ExecutionContext());
+
+        this.checkpoints = this.mocker.getInstance(MigrationCheckpointStore.class);
+    }
+
+    @Test
+    public void pagedMigrationResumesFromTheCheckpoint() throws Exception
+    {
+        when(this.checkpoints.getCheckpoint(MIGRATION)).thenReturn("b");
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.writer, never()).storeEntity("a");
+        verify(this.writer, never()).storeEntity("b");
+        for (String key : KEYS.subList(2, 5)) {
+            verify(this.writer).storeEntity(key);
+            verify(this.reader).discardEntity(key);
+        }
+        verify(this.reader).listKeys("b", 2);
+    }
+
+    @Test
+    public void pagedMigrationRunsOnThePoolAndClearsTheCheckpointWhenDone() throws Exception
+    {
+        Assert.assertTrue(this.mocker.getComponentUnderTest().migrate());
+
+        for (String key : KEYS) {
+            verify(this.writer).storeEntity(key);
+        }
+        Assert.assertFalse(this.writerThreads.isEmpty());
+        Assert.assertFalse(this.writerThreads.contains(Thread.currentThread().getName()));
+
+        InOrder order = inOrder(this.checkpoints);
+        order.verify(this.checkpoints).setCheckpoint(MIGRATION, "b");
+        order.verify(this.checkpoints).setCheckpoint(MIGRATION, "d");
+        order.verify(this.checkpoints).setCheckpoint(MIGRATION, "e");
+        order.verify(this.checkpoints).setCheckpoint(MIGRATION, null);
+    }
+
+    @Test
+    public void failedEntitiesAreKeptAndReported() throws Exception
+    {
+        when(this.writer.storeEntity("c")).thenReturn(false);
+
+        Assert.assertFalse(this.mocker.getComponentUnderTest().migrate());
+
+        verify(this.reader, never()).discardEntity("c");
+        verify(this.reader).discardEntity("d");
+    }
+
+    /** Minimal concrete migrator, for testing the shared implementation. */
+    @Component(roles = { DataTypeMigrator.class })
+    @Named("strings")
+    @Singleton
+    public static class StringMigrator extends AbstractDataTypeMigrator<String>
+    {
+        @Override
+        protected String getStoreConfigurationKey()
+        {
+            return "xwiki.store.strings.hint";
+        }
+
+        @Override
+        public String getDataType()
+        {
+            return "strings";
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id$
+ */
+public class FilesystemMigrationCheckpointStoreTest
+{
+    private static final String MIGRATION = "xwiki:attachments/hibernate";
+
+    @Rule
+    public final MockitoComponentMockingRule<MigrationCheckpointStore> mocker =
+        new MockitoComponentMockingRule<MigrationCheckpointStore>(FilesystemMigrationCheckpointStore.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception
+    {
+        Environment env = this.mocker.getInstance(Environment.class);
+        when(env.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+    }
+
+    @Test
+    public void missingCheckpointIsNull() throws Exception
+    {
+        Assert.assertNull(this.mocker.getComponentUnderTest().getCheckpoint(MIGRATION));
+    }
+
+    @Test
+    public void checkpointsArePersisted() throws Exception
+    {
+        this.mocker.getComponentUnderTest().setCheckpoint(MIGRATION, "Main.WebHome/image.png");
+        Assert.assertEquals("Main.WebHome/image.png", this.mocker.getComponentUnderTest().getCheckpoint(MIGRATION));
+
+        File file = new File(this.folder.getRoot(), "storage-migration-checkpoints.properties");
+        Assert.assertTrue(file.isFile());
+        Assert.assertFalse(new File(this.folder.getRoot(), "storage-migration-checkpoints.properties.tmp").exists());
+    }
+
+    @Test
+    public void clearedCheckpointsAreRemoved() throws Exception
+    {
+        MigrationCheckpointStore store = this.mocker.getComponentUnderTest();
+        store.setCheckpoint(MIGRATION, "42");
+        store.setCheckpoint("xwiki:deleted attachments/hibernate", "7");
+        store.setCheckpoint(MIGRATION, null);
+        Assert.assertNull(store.getCheckpoint(MIGRATION));
+        Assert.assertEquals("7", store.getCheckpoint("xwiki:deleted attachments/hibernate"));
+    }
+}
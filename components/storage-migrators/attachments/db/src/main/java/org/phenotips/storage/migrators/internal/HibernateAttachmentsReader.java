@@ -18,6 +18,7 @@
 package org.phenotips.storage.migrators.internal;
 
 import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.PagedDataReader;
 import org.phenotips.storage.migrators.Type;
 
 import org.xwiki.component.annotation.Component;
@@ -25,6 +26,8 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -48,7 +51,9 @@
 
 /**
  * {@link DataReader} that can read {@link XWikiAttachment attachment} contents and history from a Hibernate-managed
- * database (the default storage engine of XWiki).
+ * database (the default storage engine of XWiki). Attachments are listed in pages ordered by document name and file
+ * name, and their keys are {@code documentName/fileName}; since file names cannot contain slashes, the key is split at
+ * the last slash.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -56,7 +61,7 @@
 @Component
 @Named("attachments/hibernate")
 @Singleton
-public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
+public class HibernateAttachmentsReader implements PagedDataReader<XWikiAttachment>
 {
     private static final Type TYPE = new Type("attachments", "hibernate");
 
@@ -64,6 +69,12 @@ public class HibernateAttachmentsReader implements DataReader<XWikiAttachment>
         "select d.fullName, a.filename from XWikiDocument d, XWikiAttachment a, XWikiAttachmentContent c"
             + " where a.docId = d.id and c.id = a.id";
 
+    private static final String PAGE_CONDITION = " and (d.fullName > ? or (d.fullName = ? and a.filename > ?))";
+
+    private static final String PAGE_ORDER = " order by d.fullName, a.filename";
+
+    private static final char KEY_SEPARATOR = '/';
+
     @Inject
     private Logger logger;
 
@@ -128,6 +139,37 @@ public Iterator<XWikiAttachment> getData()
         }
     }
 
+    @Override
+    public List<String> listKeys(String checkpoint, int pageSize)
+    {
+        try {
+            List<Object[]> data;
+            if (checkpoint == null) {
+                data = this.docStore.search(DATA_RETRIEVE_QUERY + PAGE_ORDER, pageSize, 0, this.context.get());
+            } else {
+                int separator = checkpoint.lastIndexOf(KEY_SEPARATOR);
+                String docName = checkpoint.substring(0, separator);
+                data = this.docStore.search(DATA_RETRIEVE_QUERY + PAGE_CONDITION + PAGE_ORDER, pageSize, 0,
+                    Arrays.asList(docName, docName, checkpoint.substring(separator + 1)), this.context.get());
+            }
+            List<String> result = new ArrayList<>(data.size());
+            for (Object[] item : data) {
+                result.add(String.valueOf(item[0]) + KEY_SEPARATOR + String.valueOf(item[1]));
+            }
+            return result;
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to list the database attachments: {}", ex.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public XWikiAttachment getEntity(String key)
+    {
+        int separator = key.lastIndexOf(KEY_SEPARATOR);
+        return load(key.substring(0, separator), key.substring(separator + 1));
+    }
+
     @Override
     public boolean discardEntity(XWikiAttachment entity)
     {
@@ -169,6 +211,21 @@ public boolean discardAllData()
         return true;
     }
 
+    private XWikiAttachment load(String docName, String filename)
+    {
+        try {
+            XWikiDocument doc = new XWikiDocument(this.resolver.resolve(docName));
+            XWikiAttachment att = new XWikiAttachment(doc, filename);
+            this.store.loadAttachmentContent(att, this.context.get(), true);
+            this.archiveStore.loadArchive(att, this.context.get(), true);
+            this.logger.debug("Loaded [{}] from the database", att.getReference());
+            return att;
+        } catch (Exception ex) {
+            this.logger.error("Failed to read attachment from the database store: {}", ex.getMessage(), ex);
+        }
+        return null;
+    }
+
     private class ReferenceIterator implements Iterator<EntityReference>
     {
         private Iterator<Object[]> data;
@@ -218,21 +275,7 @@ public boolean hasNext()
         public XWikiAttachment next()
         {
             Object[] item = this.data.next();
-            try {
-                XWikiDocument doc =
-                    new XWikiDocument(HibernateAttachmentsReader.this.resolver.resolve(String.valueOf(item[0])));
-                XWikiAttachment att = new XWikiAttachment(doc, String.valueOf(item[1]));
-                HibernateAttachmentsReader.this.store.loadAttachmentContent(att,
-                    HibernateAttachmentsReader.this.context.get(), true);
-                HibernateAttachmentsReader.this.archiveStore.loadArchive(att,
-                    HibernateAttachmentsReader.this.context.get(), true);
-                HibernateAttachmentsReader.this.logger.debug("Loaded [{}] from the database", att.getReference());
-                return att;
-            } catch (Exception ex) {
-                HibernateAttachmentsReader.this.logger.error("Failed to read attachment from the database store: {}",
-                    ex.getMessage(), ex);
-            }
-            return null;
+            return load(String.valueOf(item[0]), String.valueOf(item[1]));
         }
 
         @Override
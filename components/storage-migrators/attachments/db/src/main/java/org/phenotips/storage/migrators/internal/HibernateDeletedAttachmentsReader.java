@@ -18,6 +18,7 @@
 package org.phenotips.storage.migrators.internal;
 
 import org.phenotips.storage.migrators.DataReader;
+import org.phenotips.storage.migrators.PagedDataReader;
 import org.phenotips.storage.migrators.Type;
 
 import org.xwiki.component.annotation.Component;
@@ -25,6 +26,7 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -46,7 +48,8 @@
 
 /**
  * {@link DataReader} that can read {@link DeletedAttachment deleted attachments} from a Hibernate-managed database (the
- * default storage engine of XWiki).
+ * default storage engine of XWiki). Deleted attachments are listed in pages ordered by their identifier, which is also
+ * used as their key.
  *
  * @version $Id$
  * @since 1.0RC1
@@ -54,12 +57,16 @@
 @Component
 @Named("deleted attachments/hibernate")
 @Singleton
-public class HibernateDeletedAttachmentsReader implements DataReader<DeletedAttachment>
+public class HibernateDeletedAttachmentsReader implements PagedDataReader<DeletedAttachment>
 {
     private static final Type TYPE = new Type("deleted attachments", "hibernate");
 
     private static final String DATA_RETRIEVE_QUERY = "select a.id from DeletedAttachment a";
 
+    private static final String PAGE_CONDITION = " where a.id > ?";
+
+    private static final String PAGE_ORDER = " order by a.id";
+
     private static final String DATA_REFERENCE_QUERY = "select a.docName, a.filename from DeletedAttachment a";
 
     @Inject
@@ -122,6 +129,34 @@ public Iterator<DeletedAttachment> getData()
         }
     }
 
+    @Override
+    public List<String> listKeys(String checkpoint, int pageSize)
+    {
+        try {
+            List<Long> data;
+            if (checkpoint == null) {
+                data = this.docStore.search(DATA_RETRIEVE_QUERY + PAGE_ORDER, pageSize, 0, this.context.get());
+            } else {
+                data = this.docStore.search(DATA_RETRIEVE_QUERY + PAGE_CONDITION + PAGE_ORDER, pageSize, 0,
+                    Collections.singletonList(Long.valueOf(checkpoint)), this.context.get());
+            }
+            List<String> result = new ArrayList<>(data.size());
+            for (Long id : data) {
+                result.add(String.valueOf(id));
+            }
+            return result;
+        } catch (XWikiException ex) {
+            this.logger.warn("Failed to list the database deleted attachments: {}", ex.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    @Override
+    public DeletedAttachment getEntity(String key)
+    {
+        return load(Long.valueOf(key));
+    }
+
     @Override
     public boolean discardEntity(DeletedAttachment entity)
     {
@@ -163,6 +198,19 @@ public boolean discardAllData()
         return true;
     }
 
+    private DeletedAttachment load(Long id)
+    {
+        try {
+            DeletedAttachment result = this.store.getDeletedAttachment(id, this.context.get(), true);
+            this.logger.debug("Loaded [{}@{}#{}] from the database trash", result.getDocName(), result.getFilename(),
+                result.getId());
+            return result;
+        } catch (Exception ex) {
+            this.logger.error("Failed to read deleted attachment from the database store: {}", ex.getMessage(), ex);
+        }
+        return null;
+    }
+
     private class ReferenceIterator implements Iterator<EntityReference>
     {
         private Iterator<Object[]> data;
@@ -213,19 +261,7 @@ public boolean hasNext()
         @Override
         public DeletedAttachment next()
         {
-            Long item = this.data.next();
-            try {
-                DeletedAttachment result = HibernateDeletedAttachmentsReader.this.store.getDeletedAttachment(
-                    item, HibernateDeletedAttachmentsReader.this.context.get(), true);
-                HibernateDeletedAttachmentsReader.this.logger.debug("Loaded [{}@{}#{}] from the database trash",
-                    result.getDocName(), result.getFilename(), result.getId());
-                return result;
-            } catch (Exception ex) {
-                HibernateDeletedAttachmentsReader.this.logger.error(
-                    "Failed to read deleted attachment from the database store: {}",
-                    ex.getMessage(), ex);
-            }
-            return null;
+            return load(this.data.next());
         }
 
         @Override
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.PagedDataReader;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Tests for the keyset paging of {@link HibernateAttachmentsReader}.
+ *
+ * @version $Id$
+ */
+public class HibernateAttachmentsReaderTest
+{
+    /** The attachments stored in the database, sorted by document name and file name. */
+    private static final List<Object[]> ROWS = Arrays.asList(
+        new Object[] { "Main.A", "a.png" },
+        new Object[] { "Main.A", "b.png" },
+        new Object[] { "Main.A", "c.png" },
+        new Object[] { "Main.AB", "a.png" },
+        new Object[] { "Main.B", "a.png" });
+
+    @Rule
+    public final MockitoComponentMockingRule<PagedDataReader<XWikiAttachment>> mocker =
+        new MockitoComponentMockingRule<PagedDataReader<XWikiAttachment>>(HibernateAttachmentsReader.class);
+
+    @Before
+    public void setup() throws Exception
+    {
+        XWikiStoreInterface store = this.mocker.getInstance(XWikiStoreInterface.class, "hibernate");
+        doAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                String query = (String) invocation.getArguments()[0];
+                Assert.assertTrue(query.endsWith(" order by d.fullName, a.filename"));
+                return page(null, null, (Integer) invocation.getArguments()[1]);
+            }
+        }).when(store).search(anyString(), anyInt(), anyInt(), any(XWikiContext.class));
+        doAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                List<?> parameters = (List<?>) invocation.getArguments()[3];
+                Assert.assertEquals(parameters.get(0), parameters.get(1));
+                return page((String) parameters.get(0), (String) parameters.get(2),
+                    (Integer) invocation.getArguments()[1]);
+            }
+        }).when(store).search(anyString(), anyInt(), anyInt(), anyList(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void listKeysReturnsEachKeyOnceAcrossPages() throws Exception
+    {
+        for (int pageSize = 1; pageSize <= ROWS.size() + 1; ++pageSize) {
+            List<String> keys = new ArrayList<>();
+            List<String> page = this.mocker.getComponentUnderTest().listKeys(null, pageSize);
+            while (!page.isEmpty()) {
+                keys.addAll(page);
+                page = this.mocker.getComponentUnderTest().listKeys(page.get(page.size() - 1), pageSize);
+            }
+            Assert.assertEquals(Arrays.asList("Main.A/a.png", "Main.A/b.png", "Main.A/c.png", "Main.AB/a.png",
+                "Main.B/a.png"), keys);
+        }
+    }
+
+    @Test
+    public void listKeysResumesAfterTheCheckpoint() throws Exception
+    {
+        Assert.assertEquals(Arrays.asList("Main.A/c.png", "Main.AB/a.png"),
+            this.mocker.getComponentUnderTest().listKeys("Main.A/b.png", 2));
+    }
+
+    /** Emulates the paged query: the rows after the given document and file name, in order. */
+    private static List<Object[]> page(String docName, String filename, int pageSize)
+    {
+        List<Object[]> result = new ArrayList<>();
+        for (Object[] row : ROWS) {
+            int docOrder = docName == null ? 1 : ((String) row[0]).compareTo(docName);
+            if ((docOrder > 0 || (docOrder == 0 && ((String) row[1]).compareTo(filename) > 0))
+                && result.size() < pageSize) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.storage.migrators.internal;
+
+import org.phenotips.storage.migrators.PagedDataReader;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.DeletedAttachment;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Tests for the keyset paging of {@link HibernateDeletedAttachmentsReader}.
+ *
+ * @version $Id$
+ */
+public class HibernateDeletedAttachmentsReaderTest
+{
+    /** The identifiers of the deleted attachments, sorted numerically and not as strings. */
+    private static final List<Long> IDS = Arrays.asList(2L, 9L, 10L, 11L, 100L);
+
+    @Rule
+    public final MockitoComponentMockingRule<PagedDataReader<DeletedAttachment>> mocker =
+        new MockitoComponentMockingRule<PagedDataReader<DeletedAttachment>>(HibernateDeletedAttachmentsReader.class);
+
+    @Before
+    public void setup() throws Exception
+    {
+        XWikiStoreInterface store = this.mocker.getInstance(XWikiStoreInterface.class, "hibernate");
+        doAnswer(new Answer<List<Long>>()
+        {
+            @Override
+            public List<Long> answer(InvocationOnMock invocation)
+            {
+                return page(null, (Integer) invocation.getArguments()[1]);
+            }
+        }).when(store).search(anyString(), anyInt(), anyInt(), any(XWikiContext.class));
+        doAnswer(new Answer<List<Long>>()
+        {
+            @Override
+            public List<Long> answer(InvocationOnMock invocation)
+            {
+                Assert.assertTrue(((String) invocation.getArguments()[0]).endsWith(" where a.id > ? order by a.id"));
+                List<?> parameters = (List<?>) invocation.getArguments()[3];
+                return page((Long) parameters.get(0), (Integer) invocation.getArguments()[1]);
+            }
+        }).when(store).search(anyString(), anyInt(), anyInt(), anyList(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void listKeysReturnsEachKeyOnceAcrossPages() throws Exception
+    {
+        for (int pageSize = 1; pageSize <= IDS.size() + 1; ++pageSize) {
+            List<String> keys = new ArrayList<>();
+            List<String> page = this.mocker.getComponentUnderTest().listKeys(null, pageSize);
+            while (!page.isEmpty()) {
+                keys.addAll(page);
+                page = this.mocker.getComponentUnderTest().listKeys(page.get(page.size() - 1), pageSize);
+            }
+            Assert.assertEquals(Arrays.asList("2", "9", "10", "11", "100"), keys);
+        }
+    }
+
+    /** Emulates the paged query: the identifiers greater than the checkpoint, in order. */
+    private static List<Long> page(Long checkpoint, int pageSize)
+    {
+        List<Long> result = new ArrayList<>();
+        for (Long id : IDS) {
+            if ((checkpoint == null || id > checkpoint) && result.size() < pageSize) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+}
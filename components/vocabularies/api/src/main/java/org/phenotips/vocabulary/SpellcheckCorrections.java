@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.phenotips.vocabulary.internal.solr.SolrQueryUtils;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * Learned spellcheck corrections: remembers which queries needed the spellchecked fallback, and the corrected query
+ * that was used, so that the next time the same misspelled query is searched the corrected query is sent right away,
+ * with spellchecking disabled, instead of running both the original and the corrected queries. Only the most recently
+ * used corrections are kept, so the misspellings that are frequently typed stay in memory.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public final class SpellcheckCorrections
+{
+    /** Results with fewer matches than this are considered weak, and the spellchecked query is also tried. */
+    private static final int WEAK_RESULTS = 3;
+
+    private static final int DEFAULT_CAPACITY = 1000;
+
+    private static final String SPELLCHECK = "spellcheck";
+
+    private static final String SCORE = "score";
+
+    private static final String ID = "id";
+
+    /** Original query, as serialized by {@link SolrQueryUtils#getCacheKey(SolrParams)}, to the corrected query. */
+    private final Map<String, SolrParams> corrections;
+
+    /** Default constructor, keeps up to 1000 corrections. */
+    public SpellcheckCorrections()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor specifying how many corrections to keep.
+     *
+     * @param capacity the maximum number of corrections to keep
+     */
+    public SpellcheckCorrections(final int capacity)
+    {
+        this.corrections = Collections.synchronizedMap(new LinkedHashMap<String, SolrParams>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SolrParams> eldest)
+            {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Get the learned correction for a query.
+     *
+     * @param original the parameters of the original query
+     * @return the parameters of the corrected query, or {@code null} if this query didn't need a correction before
+     */
+    public SolrParams get(SolrParams original)
+    {
+        return this.corrections.get(SolrQueryUtils.getCacheKey(original));
+    }
+
+    /**
+     * Remember that a query needed a correction.
+     *
+     * @param original the parameters of the original query
+     * @param corrected the parameters of the corrected query
+     */
+    public void learn(SolrParams original, SolrParams corrected)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams(corrected);
+        // The correction is already known, don't ask for another one
+        params.set(SPELLCHECK, false);
+        this.corrections.put(SolrQueryUtils.getCacheKey(original), params);
+    }
+
+    /** Forget all the learned corrections, for example after the vocabulary is reindexed. */
+    public void clear()
+    {
+        this.corrections.clear();
+    }
+
+    /**
+     * Check if the results of a query are so poor that the spellchecked query should be tried as well.
+     *
+     * @param results the results of the original query, may be {@code null}
+     * @return {@code true} if there are no results, or only very few
+     */
+    public static boolean isWeak(SolrDocumentList results)
+    {
+        return results == null || results.getNumFound() < WEAK_RESULTS;
+    }
+
+    /**
+     * Merge the results of the original and corrected queries into one list. The scores of two different queries
+     * can't be compared, so the hits of the original query come first, in their original order, followed by the hits
+     * found only by the corrected query. Documents found by both queries are only listed once, in the first position.
+     *
+     * @param original the results of the original query
+     * @param corrected the results of the spellchecked query
+     * @param maxResults the maximum number of documents to return, or a negative number for no limit
+     * @return the merged results
+     */
+    public static SolrDocumentList merge(SolrDocumentList original, SolrDocumentList corrected, int maxResults)
+    {
+        Map<Object, SolrDocument> documents = new LinkedHashMap<>();
+        for (SolrDocumentList list : new SolrDocumentList[] { original, corrected }) {
+            if (list == null) {
+                continue;
+            }
+            for (SolrDocument doc : list) {
+                Object id = doc.getFieldValue(ID);
+                if (!documents.containsKey(id)) {
+                    documents.put(id, doc);
+                }
+            }
+        }
+        SolrDocumentList result = new SolrDocumentList();
+        result.addAll(documents.values());
+        while (maxResults >= 0 && result.size() > maxResults) {
+            result.remove(result.size() - 1);
+        }
+        result.setNumFound(Math.max(result.size(), Math.max(numFound(original), numFound(corrected))));
+        result.setStart(original != null ? original.getStart() : 0);
+        result.setMaxScore(getMaxScore(result));
+        return result;
+    }
+
+    private static Float getMaxScore(SolrDocumentList results)
+    {
+        Float result = null;
+        for (SolrDocument doc : results) {
+            float score = getScore(doc);
+            if (result == null || score > result) {
+                result = score;
+            }
+        }
+        return result;
+    }
+
+    private static long numFound(SolrDocumentList results)
+    {
+        return results != null ? results.getNumFound() : 0;
+    }
+
+    private static float getScore(SolrDocument doc)
+    {
+        Object score = doc.getFieldValue(SCORE);
+        return score instanceof Number ? ((Number) score).floatValue() : 0f;
+    }
+}
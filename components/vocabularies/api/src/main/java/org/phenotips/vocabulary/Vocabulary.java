@@ -77,6 +77,23 @@
      */
     List<VocabularyTerm> search(Map<String, ?> fieldValues, Map<String, String> queryOptions);
 
+    /**
+     * Search for terms that match the specified meta-properties, returning only a page of results, and only some of
+     * the properties of each term. The returned terms only hold the requested properties, so accessing other
+     * properties, or the parents and ancestors when they are not requested, gives empty results.
+     *
+     * @param fieldValues a map with term property values that must be matched by the returned terms; the keys are
+     *            property names, like {@code id}, {@code description}, {@code is_a}, and the values can be either a
+     *            single value, or a collection of values that can ({@code OR}) be matched by the term
+     * @param fields the names of the properties to return for each term, the identifier is always returned; if
+     *            {@code null} or empty, all the properties are returned
+     * @param rows the maximum number of terms to return
+     * @param start the number of matching terms to skip, for requesting the following pages
+     * @return the matching terms that were found in the vocabulary, an empty list if no terms were found
+     * @since 1.3M1
+     */
+    List<VocabularyTerm> search(Map<String, ?> fieldValues, Collection<String> fields, int rows, int start);
+
     /**
      * Suggest the terms that best match the user's input.
      *
@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.events;
+
+import org.xwiki.observation.event.Event;
+import org.xwiki.stability.Unstable;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Notifies that a vocabulary has been reindexed, so that any data derived from its previous content should be
+ * discarded. The source of the event is the reindexed {@link org.phenotips.vocabulary.Vocabulary}.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Unstable
+public class VocabularyReindexedEvent implements Event
+{
+    /** The identifier of the reindexed vocabulary, {@code null} for matching any vocabulary. */
+    private final String vocabulary;
+
+    /**
+     * Simple constructor passing all the required information.
+     *
+     * @param vocabulary the identifier of the reindexed vocabulary, or {@code null} for listening to all vocabularies
+     */
+    public VocabularyReindexedEvent(String vocabulary)
+    {
+        this.vocabulary = vocabulary;
+    }
+
+    /** Default constructor, to be used for declaring the events a listener wants to observe. */
+    public VocabularyReindexedEvent()
+    {
+        this(null);
+    }
+
+    /**
+     * The vocabulary that was reindexed.
+     *
+     * @return the identifier of the vocabulary, {@code null} if this event is used for matching any vocabulary
+     */
+    public String getVocabulary()
+    {
+        return this.vocabulary;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof VocabularyReindexedEvent
+            && (this.vocabulary == null
+                || StringUtils.equals(this.vocabulary, ((VocabularyReindexedEvent) otherEvent).getVocabulary()));
+    }
+}
@@ -60,7 +60,9 @@ public abstract class AbstractCSVSolrVocabulary extends AbstractSolrVocabulary
     public int reindex(String sourceUrl)
     {
         this.clear();
-        return this.index(sourceUrl);
+        int result = this.index(sourceUrl);
+        reindexed();
+        return result;
     }
 
     /**
@@ -76,7 +76,9 @@ public VocabularyTerm getTerm(String id)
     public int reindex(String sourceUrl)
     {
         this.clear();
-        return this.index(sourceUrl);
+        int result = this.index(sourceUrl);
+        reindexed();
+        return result;
     }
 
     /**
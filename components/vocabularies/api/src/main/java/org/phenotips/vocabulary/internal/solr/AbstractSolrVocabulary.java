@@ -18,13 +18,18 @@
 package org.phenotips.vocabulary.internal.solr;
 
 import org.phenotips.vocabulary.SolrVocabularyResourceManager;
+import org.phenotips.vocabulary.SpellcheckCorrections;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
+import org.phenotips.vocabulary.events.VocabularyReindexedEvent;
 
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.observation.ObservationManager;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,8 +37,10 @@
 import java.util.Set;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
@@ -56,6 +63,8 @@ public abstract class AbstractSolrVocabulary implements Vocabulary, Initializabl
     /** The name of the ID field. */
     protected static final String ID_FIELD_NAME = "id";
 
+    private static final String SPELLCHECK = "spellcheck";
+
     /**
      * Object used to mark in the cache that a term doesn't exist, since null means that the cache doesn't contain the
      * requested entry.
@@ -70,6 +79,16 @@ public abstract class AbstractSolrVocabulary implements Vocabulary, Initializabl
     @Inject
     protected SolrVocabularyResourceManager externalServicesAccess;
 
+    /** Used for notifying that the vocabulary was reindexed; lazily obtained since listeners may use vocabularies. */
+    @Inject
+    protected Provider<ObservationManager> observationManager;
+
+    /** Corrections learned from misspelled queries, so that they can be answered with a single query. */
+    protected final SpellcheckCorrections spellcheckCorrections = new SpellcheckCorrections();
+
+    /** The autocomplete index, built on first use and after reindexing, {@code null} when not built yet. */
+    private volatile PrefixIndex prefixIndex;
+
     @Override
     public void initialize() throws InitializationException
     {
@@ -94,6 +113,7 @@ public VocabularyTerm getTerm(String id)
         if (result == null) {
             ModifiableSolrParams params = new ModifiableSolrParams();
             params.set(CommonParams.Q, ID_FIELD_NAME + ':' + ClientUtils.escapeQueryChars(id));
+            params.set(CommonParams.ROWS, "1");
             SolrDocumentList allResults = this.search(params);
             if (allResults != null && !allResults.isEmpty()) {
                 result = new SolrVocabularyTerm(allResults.get(0), this);
@@ -110,6 +130,7 @@ public Set<VocabularyTerm> getTerms(Collection<String> ids)
     {
         Set<VocabularyTerm> result = new LinkedHashSet<VocabularyTerm>();
         StringBuilder query = new StringBuilder("id:(");
+        int missing = 0;
         for (String id : ids) {
             VocabularyTerm cachedTerm = this.externalServicesAccess.getTermCache().get(id);
             if (cachedTerm != null) {
@@ -119,13 +140,17 @@ public Set<VocabularyTerm> getTerms(Collection<String> ids)
             } else {
                 query.append(ClientUtils.escapeQueryChars(id));
                 query.append(' ');
+                ++missing;
             }
         }
         query.append(')');
 
         // There's at least one more term not found in the cache
-        if (query.length() > 5) {
-            for (SolrDocument doc : this.search(SolrQueryUtils.transformQueryToSolrParams(query.toString()))) {
+        if (missing > 0) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.set(CommonParams.Q, query.toString());
+            params.set(CommonParams.ROWS, String.valueOf(missing));
+            for (SolrDocument doc : this.search(params)) {
                 result.add(new SolrVocabularyTerm(doc, this));
             }
         }
@@ -149,6 +174,26 @@ public List<VocabularyTerm> search(Map<String, ?> fieldValues, Map<String, Strin
         return result;
     }
 
+    @Override
+    public List<VocabularyTerm> search(Map<String, ?> fieldValues, Collection<String> fields, int rows, int start)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(CommonParams.Q, generateLuceneQuery(fieldValues));
+        params.set(CommonParams.FL, SolrQueryUtils.getFieldList(fields));
+        params.set(CommonParams.ROWS, rows);
+        params.set(CommonParams.START, start);
+        // Structured queries don't need spellchecking, which would also add a second query
+        params.set(SPELLCHECK, false);
+        List<VocabularyTerm> result = new LinkedList<VocabularyTerm>();
+        SolrDocumentList docs = this.search(params);
+        if (docs != null) {
+            for (SolrDocument doc : docs) {
+                result.add(new SolrVocabularyTerm(doc, this));
+            }
+        }
+        return result;
+    }
+
     @Override
     public long count(Map<String, ?> fieldValues)
     {
@@ -208,8 +253,9 @@ protected SolrDocumentList search(SolrParams params)
     }
 
     /**
-     * Perform a search, falling back on the suggested spellchecked query if the original query fails to return any
-     * results.
+     * Perform a search, falling back on the suggested spellchecked query if the original query returns no or very few
+     * results, in which case the results of both queries are merged. Queries that returned nothing before are directly
+     * replaced by their learned correction.
      *
      * @param params the Solr parameters to use, should contain at least a value for the "q" parameter
      * @param queryOptions extra options to include in the query; these override the default values, but don't override
@@ -220,20 +266,30 @@ protected SolrDocumentList search(SolrParams params, Map<String, String> queryOp
     {
         try {
             SolrParams enhancedParams = SolrQueryUtils.enhanceParams(params, queryOptions);
+            SolrParams correctedParams = this.spellcheckCorrections.get(enhancedParams);
+            if (correctedParams != null) {
+                this.logger.debug("Searching [{}] with learned correction [{}]", getCoreName(), correctedParams);
+                return this.externalServicesAccess.getSolrConnection().query(correctedParams).getResults();
+            }
             this.logger.debug("Searching [{}] with query [{}]", getCoreName(), enhancedParams);
             QueryResponse response = this.externalServicesAccess.getSolrConnection().query(enhancedParams);
             SolrDocumentList results = response.getResults();
-            if (response.getSpellCheckResponse() != null && !response.getSpellCheckResponse().isCorrectlySpelled()
+            if (SpellcheckCorrections.isWeak(results) && response.getSpellCheckResponse() != null
+                && !response.getSpellCheckResponse().isCorrectlySpelled()
                 && StringUtils.isNotEmpty(response.getSpellCheckResponse().getCollatedResult())) {
-                enhancedParams =
+                correctedParams =
                     SolrQueryUtils.applySpellcheckSuggestion(enhancedParams, response.getSpellCheckResponse()
                         .getCollatedResult());
-                this.logger.debug("Searching [{}] with spellchecked query [{}]", getCoreName(), enhancedParams);
+                this.logger.debug("Searching [{}] with spellchecked query [{}]", getCoreName(), correctedParams);
                 SolrDocumentList spellcheckResults =
-                    this.externalServicesAccess.getSolrConnection().query(enhancedParams).getResults();
-                if (results.getMaxScore() < spellcheckResults.getMaxScore()) {
-                    results = spellcheckResults;
+                    this.externalServicesAccess.getSolrConnection().query(correctedParams).getResults();
+                if ((results == null || results.isEmpty()) && spellcheckResults != null
+                    && !spellcheckResults.isEmpty()) {
+                    // The original query is useless, next time only send the corrected one
+                    this.spellcheckCorrections.learn(enhancedParams, correctedParams);
                 }
+                results = SpellcheckCorrections.merge(results, spellcheckResults,
+                    enhancedParams.getInt(CommonParams.ROWS, -1));
             }
             return results;
         } catch (Exception ex) {
@@ -242,6 +298,130 @@ protected SolrDocumentList search(SolrParams params, Map<String, String> queryOp
         return null;
     }
 
+    /**
+     * Suggest terms for the text typed by the user using the in-memory {@link PrefixIndex autocomplete index}, without
+     * querying the Solr server. Only vocabularies that declare {@link #getAutocompleteFields() autocomplete fields}
+     * support this.
+     *
+     * @param input the text typed by the user
+     * @param maxResults the maximum number of terms to return
+     * @return the matching terms, best match first, or {@code null} if the autocomplete index isn't available
+     * @since 1.3M1
+     */
+    protected List<VocabularyTerm> suggest(String input, int maxResults)
+    {
+        PrefixIndex index = getPrefixIndex();
+        if (index == null) {
+            return null;
+        }
+        List<VocabularyTerm> result = new LinkedList<>();
+        for (SolrDocument doc : index.lookup(input, maxResults)) {
+            result.add(new SolrVocabularyTerm(doc, this));
+        }
+        return result;
+    }
+
+    /**
+     * The fields matched against the user input by {@link #suggest(String, int)}, in decreasing order of importance.
+     * The default is an empty list, which disables the autocomplete index.
+     *
+     * @return a list of field names, may be empty
+     * @since 1.3M1
+     */
+    protected List<String> getAutocompleteFields()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * The stored fields returned with each autocomplete suggestion; only these are kept in memory. The default is the
+     * identifier, name and synonyms of the terms.
+     *
+     * @return a list of field names
+     * @since 1.3M1
+     */
+    protected List<String> getAutocompleteDisplayFields()
+    {
+        return Arrays.asList(ID_FIELD_NAME, "name", "synonym");
+    }
+
+    /**
+     * A Lucene query selecting the terms included in the autocomplete index. The default is all the terms.
+     *
+     * @return a valid Lucene query
+     * @since 1.3M1
+     */
+    protected String getAutocompleteFilter()
+    {
+        return "*:*";
+    }
+
+    /**
+     * Discards everything derived from the previous content of the vocabulary, and notifies the other components with
+     * a {@link VocabularyReindexedEvent}; to be called after (re)indexing.
+     *
+     * @since 1.3M1
+     */
+    protected void reindexed()
+    {
+        this.spellcheckCorrections.clear();
+        rebuildPrefixIndex();
+        this.observationManager.get().notify(new VocabularyReindexedEvent(getIdentifier()), this);
+    }
+
+    /**
+     * Rebuild the autocomplete index from the current content of the Solr core; to be called after (re)indexing. The
+     * index is only rebuilt right away if it was already in use, otherwise it will be built on first use.
+     *
+     * @since 1.3M1
+     */
+    protected void rebuildPrefixIndex()
+    {
+        boolean wasBuilt = this.prefixIndex != null;
+        this.prefixIndex = null;
+        if (wasBuilt) {
+            getPrefixIndex();
+        }
+    }
+
+    private PrefixIndex getPrefixIndex()
+    {
+        PrefixIndex result = this.prefixIndex;
+        if (result != null || getAutocompleteFields().isEmpty()) {
+            return result;
+        }
+        synchronized (this) {
+            if (this.prefixIndex == null) {
+                this.prefixIndex = buildPrefixIndex();
+            }
+            return this.prefixIndex;
+        }
+    }
+
+    private PrefixIndex buildPrefixIndex()
+    {
+        Set<String> fields = new LinkedHashSet<>(getAutocompleteDisplayFields());
+        fields.addAll(getAutocompleteFields());
+        SolrQuery query = new SolrQuery(getAutocompleteFilter());
+        query.setFields(fields.toArray(new String[fields.size()]));
+        try {
+            long count = this.externalServicesAccess.getSolrConnection().query(query.setRows(0)).getResults()
+                .getNumFound();
+            if (count == 0) {
+                // Not indexed yet, try again later
+                return null;
+            }
+            query.setRows((int) count);
+            SolrDocumentList docs = this.externalServicesAccess.getSolrConnection().query(query).getResults();
+            PrefixIndex result = new PrefixIndex(docs, getAutocompleteFields());
+            this.logger.debug("Built the autocomplete index for [{}]: {}", getCoreName(), result);
+            return result;
+        } catch (Exception ex) {
+            this.logger.warn("Failed to build the autocomplete index for [{}]: {}", getCoreName(), ex.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Get the number of entries that match a specific Lucene query.
      *
@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.solr.common.SolrDocument;
+
+/**
+ * Immutable in-memory index used for autocompleting vocabulary terms. Every word start in the indexed fields of each
+ * term is an entry, so that typing the beginning of any word of a name or synonym finds the term, and entries are
+ * kept sorted so that all the entries starting with a prefix form a contiguous range found with two binary searches.
+ * Each entry has a rank computed when the index is built, depending on the weight of the field, whether the entry is
+ * at the start of the value, and the length of the value, so a lookup only has to pick the best ranked terms from the
+ * matching range. The indexed documents should only hold the fields needed for displaying suggestions.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+public final class PrefixIndex
+{
+    /** Anything that's not a letter or a digit separates words. */
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]++");
+
+    /** Entries not at the start of a value rank after all the entries at the start of a value of the same field. */
+    private static final int INNER_WORD_PENALTY = 1 << 10;
+
+    /** The maximum value length taken into account for ranking. */
+    private static final int MAX_LENGTH_RANK = INNER_WORD_PENALTY - 1;
+
+    /** The indexed terms. */
+    private final SolrDocument[] documents;
+
+    /** The normalized indexed values. */
+    private final String[] values;
+
+    /** For each entry, the index of its value in {@link #values}. */
+    private final int[] entryValues;
+
+    /** For each entry, the offset of its word start in its value. */
+    private final int[] entryOffsets;
+
+    /** For each entry, the index of its term in {@link #documents}. */
+    private final int[] entryDocuments;
+
+    /** For each entry, its precomputed rank, lower is better. */
+    private final int[] entryRanks;
+
+    /**
+     * Build a new index.
+     *
+     * @param documents the terms to index
+     * @param fields the names of the fields to index, in decreasing order of importance: a match in an earlier field
+     *            always ranks better than a match in a later field
+     */
+    public PrefixIndex(Collection<SolrDocument> documents, List<String> fields)
+    {
+        this.documents = documents.toArray(new SolrDocument[documents.size()]);
+        List<String> allValues = new ArrayList<>();
+        List<int[]> entries = new ArrayList<>();
+        for (int d = 0; d < this.documents.length; ++d) {
+            for (int f = 0; f < fields.size(); ++f) {
+                Collection<Object> fieldValues = this.documents[d].getFieldValues(fields.get(f));
+                if (fieldValues == null) {
+                    continue;
+                }
+                for (Object fieldValue : fieldValues) {
+                    String value = normalize(String.valueOf(fieldValue));
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    int valueIndex = allValues.size();
+                    allValues.add(value);
+                    int baseRank = f * 2 * INNER_WORD_PENALTY + Math.min(value.length(), MAX_LENGTH_RANK);
+                    entries.add(new int[] { valueIndex, 0, d, baseRank });
+                    for (int i = value.indexOf(' '); i >= 0; i = value.indexOf(' ', i + 1)) {
+                        entries.add(new int[] { valueIndex, i + 1, d, baseRank + INNER_WORD_PENALTY });
+                    }
+                }
+            }
+        }
+        this.values = allValues.toArray(new String[allValues.size()]);
+
+        int[][] sorted = entries.toArray(new int[entries.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>()
+        {
+            @Override
+            public int compare(int[] a, int[] b)
+            {
+                return compareSuffixes(PrefixIndex.this.values[a[0]], a[1], PrefixIndex.this.values[b[0]], b[1]);
+            }
+        });
+        this.entryValues = new int[sorted.length];
+        this.entryOffsets = new int[sorted.length];
+        this.entryDocuments = new int[sorted.length];
+        this.entryRanks = new int[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            this.entryValues[i] = sorted[i][0];
+            this.entryOffsets[i] = sorted[i][1];
+            this.entryDocuments[i] = sorted[i][2];
+            this.entryRanks[i] = sorted[i][3];
+        }
+    }
+
+    /**
+     * Find the best ranked terms having a word starting with the given input. When the input has several words, they
+     * must appear consecutively and in the same order, only the last one being a prefix.
+     *
+     * @param input the text typed by the user
+     * @param maxResults the maximum number of terms to return
+     * @return the matching terms, best match first, may be empty
+     */
+    public List<SolrDocument> lookup(String input, int maxResults)
+    {
+        String prefix = normalize(input);
+        if (prefix.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+        // Best rank of each matching term
+        Map<Integer, Integer> matches = new HashMap<>();
+        for (int i = lowerBound(prefix); i < this.entryValues.length && startsWith(i, prefix); ++i) {
+            Integer previous = matches.get(this.entryDocuments[i]);
+            if (previous == null || previous > this.entryRanks[i]) {
+                matches.put(this.entryDocuments[i], this.entryRanks[i]);
+            }
+        }
+        List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(matches.entrySet());
+        Collections.sort(ranked, new Comparator<Map.Entry<Integer, Integer>>()
+        {
+            @Override
+            public int compare(Map.Entry<Integer, Integer> a, Map.Entry<Integer, Integer> b)
+            {
+                int result = a.getValue().compareTo(b.getValue());
+                return result != 0 ? result : a.getKey().compareTo(b.getKey());
+            }
+        });
+        List<SolrDocument> result = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Map.Entry<Integer, Integer> match : ranked) {
+            if (result.size() >= maxResults) {
+                break;
+            }
+            result.add(this.documents[match.getKey()]);
+        }
+        return result;
+    }
+
+    /**
+     * The number of indexed terms.
+     *
+     * @return the number of terms, {@code 0} if the index is empty
+     */
+    public int size()
+    {
+        return this.documents.length;
+    }
+
+    /**
+     * Normalize a text for indexing or lookup: lowercase, and with any sequence of punctuation or whitespace replaced
+     * by a single space.
+     *
+     * @param text the text to normalize, may be {@code null}
+     * @return the normalized text, may be empty
+     */
+    static String normalize(String text)
+    {
+        if (text == null) {
+            return "";
+        }
+        return SEPARATORS.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+    /** The index of the first entry not smaller than the prefix. */
+    private int lowerBound(String prefix)
+    {
+        int low = 0;
+        int high = this.entryValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareSuffixes(this.values[this.entryValues[middle]], this.entryOffsets[middle], prefix, 0) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean startsWith(int entry, String prefix)
+    {
+        return this.values[this.entryValues[entry]].startsWith(prefix, this.entryOffsets[entry]);
+    }
+
+    /** Compare two strings starting at the given offsets, without creating substrings. */
+    private static int compareSuffixes(String a, int aOffset, String b, int bOffset)
+    {
+        int length = Math.min(a.length() - aOffset, b.length() - bOffset);
+        for (int i = 0; i < length; ++i) {
+            char ca = a.charAt(aOffset + i);
+            char cb = b.charAt(bOffset + i);
+            if (ca != cb) {
+                return ca - cb;
+            }
+        }
+        return (a.length() - aOffset) - (b.length() - bOffset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Prefix index of " + this.documents.length + " terms and " + this.entryValues.length + " entries";
+    }
+}
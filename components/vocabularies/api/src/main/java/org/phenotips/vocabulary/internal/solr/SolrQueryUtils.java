@@ -17,8 +17,11 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,6 +45,9 @@
 
     private static final String SPELLCHECK = "spellcheck";
 
+    /** The default field list, returning all the stored fields and the score. */
+    private static final String ALL_FIELDS = "* score";
+
     /** Private default constructor, so that this utility class can't be instantiated. */
     private SolrQueryUtils()
     {
@@ -93,7 +99,7 @@ public static SolrParams enhanceParams(SolrParams originalParams, Map<String, St
         ModifiableSolrParams newParams = new ModifiableSolrParams();
         newParams.set(CommonParams.START, "0");
         newParams.set(CommonParams.ROWS, "1000");
-        newParams.set(CommonParams.FL, "* score");
+        newParams.set(CommonParams.FL, ALL_FIELDS);
         if (queryOptions != null) {
             for (Map.Entry<String, String> item : queryOptions.entrySet()) {
                 newParams.set(item.getKey(), item.getValue());
@@ -113,6 +119,30 @@ public static SolrParams enhanceParams(SolrParams originalParams, Map<String, St
         return newParams;
     }
 
+    /**
+     * Build the value of the {@code fl} parameter requesting only some fields. The identifier is always requested,
+     * since it is needed for building terms.
+     *
+     * @param fields the names of the fields to return, may be {@code null} or empty
+     * @return a space separated list of field names, or the default list of all fields and the score if no fields are
+     *         specified
+     * @since 1.3M1
+     */
+    public static String getFieldList(Collection<String> fields)
+    {
+        if (fields == null || fields.isEmpty()) {
+            return ALL_FIELDS;
+        }
+        Set<String> result = new LinkedHashSet<String>();
+        result.add(AbstractSolrVocabulary.ID_FIELD_NAME);
+        for (String field : fields) {
+            if (StringUtils.isNotBlank(field)) {
+                result.add(field.trim());
+            }
+        }
+        return StringUtils.join(result, ' ');
+    }
+
     /**
      * Replaces the original query in the Solr parameters with the suggested spellchecked query. It also fixes the boost
      * query, if any.
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SpellcheckCorrections} class.
+ *
+ * @version $Id$
+ */
+public class SpellcheckCorrectionsTest
+{
+    @Test
+    public void learnedCorrectionsAreReturned()
+    {
+        SpellcheckCorrections corrections = new SpellcheckCorrections();
+        SolrParams original = params("hypotonai");
+        Assert.assertNull(corrections.get(original));
+
+        corrections.learn(original, params("hypotonia"));
+        SolrParams corrected = corrections.get(params("hypotonai"));
+        Assert.assertEquals("hypotonia", corrected.get(CommonParams.Q));
+        Assert.assertFalse(corrected.getBool("spellcheck"));
+        Assert.assertNull(corrections.get(params("hypotonia")));
+
+        corrections.clear();
+        Assert.assertNull(corrections.get(original));
+    }
+
+    @Test
+    public void leastRecentlyUsedCorrectionsAreEvicted()
+    {
+        SpellcheckCorrections corrections = new SpellcheckCorrections(2);
+        corrections.learn(params("a"), params("A"));
+        corrections.learn(params("b"), params("B"));
+        corrections.get(params("a"));
+        corrections.learn(params("c"), params("C"));
+        Assert.assertNotNull(corrections.get(params("a")));
+        Assert.assertNull(corrections.get(params("b")));
+        Assert.assertNotNull(corrections.get(params("c")));
+    }
+
+    @Test
+    public void isWeak()
+    {
+        Assert.assertTrue(SpellcheckCorrections.isWeak(null));
+        Assert.assertTrue(SpellcheckCorrections.isWeak(results(doc("HP:1", 1f))));
+        Assert.assertFalse(SpellcheckCorrections.isWeak(results(doc("HP:1", 1f), doc("HP:2", 1f), doc("HP:3", 1f))));
+    }
+
+    @Test
+    public void mergeKeepsOriginalHitsFirstWithoutDuplicates()
+    {
+        SolrDocumentList merged = SpellcheckCorrections.merge(results(doc("HP:1", 2f), doc("HP:2", 1f)),
+            results(doc("HP:3", 5f), doc("HP:2", 3f)), -1);
+        Assert.assertEquals(3, merged.size());
+        Assert.assertEquals("HP:1", merged.get(0).getFieldValue("id"));
+        Assert.assertEquals("HP:2", merged.get(1).getFieldValue("id"));
+        Assert.assertEquals(Float.valueOf(1f), merged.get(1).getFieldValue("score"));
+        Assert.assertEquals("HP:3", merged.get(2).getFieldValue("id"));
+        Assert.assertEquals(5f, merged.getMaxScore(), 0f);
+
+        merged = SpellcheckCorrections.merge(new SolrDocumentList(), results(doc("HP:3", 5f), doc("HP:2", 3f)), 1);
+        Assert.assertEquals(1, merged.size());
+        Assert.assertEquals("HP:3", merged.get(0).getFieldValue("id"));
+
+        merged = SpellcheckCorrections.merge(results(doc("HP:1", 2f), doc("HP:2", 1f)),
+            results(doc("HP:3", 5f)), 2);
+        Assert.assertEquals(2, merged.size());
+        Assert.assertEquals("HP:1", merged.get(0).getFieldValue("id"));
+        Assert.assertEquals("HP:2", merged.get(1).getFieldValue("id"));
+        Assert.assertEquals(2f, merged.getMaxScore(), 0f);
+    }
+
+    private SolrParams params(String query)
+    {
+        ModifiableSolrParams result = new ModifiableSolrParams();
+        result.set(CommonParams.Q, query);
+        result.set(CommonParams.ROWS, 10);
+        return result;
+    }
+
+    private SolrDocument doc(String id, float score)
+    {
+        SolrDocument result = new SolrDocument();
+        result.setField("id", id);
+        result.setField("score", score);
+        return result;
+    }
+
+    private SolrDocumentList results(SolrDocument... docs)
+    {
+        SolrDocumentList result = new SolrDocumentList();
+        for (SolrDocument doc : docs) {
+            result.add(doc);
+        }
+        result.setNumFound(docs.length);
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.vocabulary.internal.solr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.solr.common.SolrDocument;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PrefixIndex} autocomplete index.
+ *
+ * @version $Id$
+ */
+public class PrefixIndexTest
+{
+    private PrefixIndex index;
+
+    @Before
+    public void setUp()
+    {
+        List<SolrDocument> docs = new ArrayList<>();
+        docs.add(doc("HP:0000175", "Cleft palate", "Palatoschisis", "Cleft roof of mouth"));
+        docs.add(doc("HP:0000204", "Cleft upper lip"));
+        docs.add(doc("HP:0100335", "Non-midline cleft lip"));
+        docs.add(doc("HP:0000218", "High palate", "Palate, high-arched"));
+        this.index = new PrefixIndex(docs, Arrays.asList("name", "synonym"));
+    }
+
+    @Test
+    public void lookupMatchesWordStarts()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0000175", "HP:0000204", "HP:0100335"),
+            ids(this.index.lookup("cle", 10)));
+        Assert.assertEquals(Arrays.asList("HP:0000204", "HP:0100335"), ids(this.index.lookup("lip", 10)));
+        Assert.assertTrue(this.index.lookup("eft", 10).isEmpty());
+    }
+
+    @Test
+    public void namesRankBeforeSynonyms()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0000218", "HP:0000175"), ids(this.index.lookup("palat", 10)));
+    }
+
+    @Test
+    public void lookupIgnoresCaseAndPunctuation()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0000218"), ids(this.index.lookup("HIGH-ARCH", 10)));
+        Assert.assertEquals(Arrays.asList("HP:0100335"), ids(this.index.lookup("non midline", 10)));
+        Assert.assertEquals(Arrays.asList("HP:0000175"), ids(this.index.lookup("cleft  pal", 10)));
+    }
+
+    @Test
+    public void lookupLimitsResults()
+    {
+        Assert.assertEquals(Arrays.asList("HP:0000175"), ids(this.index.lookup("cleft", 1)));
+        Assert.assertTrue(this.index.lookup("cleft", 0).isEmpty());
+        Assert.assertTrue(this.index.lookup(" - ", 10).isEmpty());
+        Assert.assertTrue(this.index.lookup(null, 10).isEmpty());
+    }
+
+    @Test
+    public void emptyIndex()
+    {
+        PrefixIndex empty = new PrefixIndex(new ArrayList<SolrDocument>(), Arrays.asList("name"));
+        Assert.assertEquals(0, empty.size());
+        Assert.assertTrue(empty.lookup("cleft", 10).isEmpty());
+    }
+
+    private SolrDocument doc(String id, String name, String... synonyms)
+    {
+        SolrDocument result = new SolrDocument();
+        result.addField("id", id);
+        result.addField("name", name);
+        for (String synonym : synonyms) {
+            result.addField("synonym", synonym);
+        }
+        return result;
+    }
+
+    private List<String> ids(List<SolrDocument> docs)
+    {
+        List<String> result = new ArrayList<>();
+        for (SolrDocument doc : docs) {
+            result.add((String) doc.getFieldValue("id"));
+        }
+        return result;
+    }
+}
@@ -17,6 +17,9 @@
  */
 package org.phenotips.vocabulary.internal.solr;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.DisMaxParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -130,4 +133,18 @@ public void testGetCacheKey()
         String output = SolrQueryUtils.getCacheKey(input);
         Assert.assertEquals("{q:[some value]\nbq:[text:stub*, stub*]\nfq:[is_a:HP\\:0000108]\n}", output);
     }
+
+    @Test
+    public void testGetFieldList()
+    {
+        Assert.assertEquals("id name synonym", SolrQueryUtils.getFieldList(Arrays.asList("name", " ", "synonym")));
+        Assert.assertEquals("id name", SolrQueryUtils.getFieldList(Arrays.asList("id", "name", "id")));
+    }
+
+    @Test
+    public void testGetFieldListWithoutFields()
+    {
+        Assert.assertEquals("* score", SolrQueryUtils.getFieldList(null));
+        Assert.assertEquals("* score", SolrQueryUtils.getFieldList(Collections.<String>emptyList()));
+    }
 }
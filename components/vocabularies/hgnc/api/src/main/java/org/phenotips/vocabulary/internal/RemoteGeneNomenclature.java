@@ -17,6 +17,7 @@
  */
 package org.phenotips.vocabulary.internal;
 
+import org.phenotips.http.HttpClientProvider;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -56,7 +57,6 @@
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.params.CommonParams;
 import org.json.JSONArray;
@@ -105,8 +105,12 @@ public class RemoteGeneNomenclature implements Vocabulary, Initializable
 
     private String fetchServiceURL;
 
+    /** Provides the shared HTTP client. */
+    @Inject
+    private HttpClientProvider httpClients;
+
     /** Performs HTTP requests to the remote REST service. */
-    private final CloseableHttpClient client = HttpClients.createSystem();
+    private CloseableHttpClient client;
 
     @Inject
     private Logger logger;
@@ -127,6 +131,7 @@ public class RemoteGeneNomenclature implements Vocabulary, Initializable
     @Override
     public void initialize() throws InitializationException
     {
+        this.client = this.httpClients.getClient();
         try {
             this.baseServiceURL =
                 this.configuration.getProperty("phenotips.ontologies.hgnc.serviceURL", "http://rest.genenames.org/");
@@ -237,6 +242,27 @@ public List<VocabularyTerm> search(Map<String, ?> fieldValues, Map<String, Strin
         return Collections.emptyList();
     }
 
+    @Override
+    public List<VocabularyTerm> search(Map<String, ?> fieldValues, Collection<String> fields, int rows, int start)
+    {
+        Map<String, String> queryOptions = new HashMap<>();
+        queryOptions.put(CommonParams.ROWS, String.valueOf(rows));
+        queryOptions.put(CommonParams.START, String.valueOf(start));
+        List<VocabularyTerm> terms = search(fieldValues, queryOptions);
+        if (fields == null || fields.isEmpty()) {
+            return terms;
+        }
+        // The remote service doesn't support projections either, only keep the requested fields
+        Set<String> names = new LinkedHashSet<>(fields);
+        names.add(LABEL_KEY);
+        String[] projection = names.toArray(new String[names.size()]);
+        List<VocabularyTerm> result = new LinkedList<>();
+        for (VocabularyTerm term : terms) {
+            result.add(new JSONOntologyTerm(new JSONObject(((JSONOntologyTerm) term).data, projection), this));
+        }
+        return result;
+    }
+
     @Override
     public List<VocabularyTerm> search(String input, int maxResults, String sort, String customFilter)
     {
@@ -452,7 +478,7 @@ public String getId()
         @Override
         public String getName()
         {
-            return this.data.getString("name");
+            return this.data.optString("name");
         }
 
         @Override
@@ -489,7 +515,7 @@ public long getDistanceTo(VocabularyTerm other)
         @Override
         public Object get(String name)
         {
-            return this.data.get(name);
+            return this.data.opt(name);
         }
 
         @Override
@@ -357,6 +357,27 @@ public void searchFetchesFromRemoteServer() throws ComponentLookupException, URI
         Assert.assertEquals("BRCA1P1", terms.next().getId());
     }
 
+    @Test
+    public void searchWithFieldsKeepsOnlyRequestedFields() throws ComponentLookupException, URISyntaxException,
+        ClientProtocolException, IOException
+    {
+        when(this.client.execute(any(HttpUriRequest.class))).thenReturn(this.response);
+        when(this.response.getEntity()).thenReturn(this.responseEntity);
+        when(this.responseEntity.getContent()).thenReturn(ClassLoader.getSystemResourceAsStream("brca.json"));
+        Map<String, Object> search = new LinkedHashMap<>();
+        search.put("symbol", "brcA*");
+        List<VocabularyTerm> result =
+            this.mocker.getComponentUnderTest().search(search, Collections.singleton("hgnc_id"), 2, 3);
+        Assert.assertEquals(2, result.size());
+        VocabularyTerm term = result.get(0);
+        Assert.assertEquals("BRCA1", term.getId());
+        Assert.assertEquals("HGNC:1100", term.get("hgnc_id"));
+        Assert.assertNull(term.get("score"));
+        // The search results don't include names
+        Assert.assertEquals("", term.getName());
+        Assert.assertEquals("BRCA1P1", result.get(1).getId());
+    }
+
     @Test
     public void searchWithErrorReturnsEmptySet() throws ComponentLookupException, URISyntaxException,
         ClientProtocolException, IOException
@@ -22,6 +22,7 @@
 import org.xwiki.component.annotation.Component;
 
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +38,7 @@
 import org.apache.commons.lang3.StringUtils;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.DisMaxParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -57,6 +59,15 @@ public class HumanPhenotypeOntology extends AbstractOBOSolrVocabulary
     /** For determining if a query is a an id. */
     private static final Pattern ID_PATTERN = Pattern.compile("^HP:[0-9]+$", Pattern.CASE_INSENSITIVE);
 
+    /** Free text searches are restricted to phenotypic abnormalities by default. */
+    private static final String PHENOTYPIC_ABNORMALITY_FILTER = "term_category:HP\\:0000118";
+
+    private static final String NAME = "name";
+
+    private static final String SYNONYM = "synonym";
+
+    private static final String TERM_CATEGORY = "term_category";
+
     @Override
     protected String getCoreName()
     {
@@ -98,6 +109,17 @@ public Set<String> getAliases()
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Type-ahead requests, without a sort or a custom filter, are answered from the in-memory autocomplete index, and
+     * the Solr server is only queried when the index has no match at all. Since all the typed words must match
+     * consecutively, this is also the case for misspelled input, which is then handled by the spellchecked search.
+     * Terms coming from the index only hold the {@link #getAutocompleteDisplayFields() display fields}, so their JSON
+     * has the {@code id}, {@code name}, {@code synonym}, {@code def}, {@code is_a} and {@code term_category} keys of a
+     * term found in Solr, but not its other stored fields. A single result list never mixes the two sources.
+     * </p>
+     */
     @Override
     public List<VocabularyTerm> search(String input, int maxResults, String sort, String customFilter)
     {
@@ -105,18 +127,47 @@ public List<VocabularyTerm> search(String input, int maxResults, String sort, St
             return Collections.emptyList();
         }
         boolean isId = this.isId(input);
+        if (!isId && StringUtils.isBlank(sort) && StringUtils.isBlank(customFilter)) {
+            List<VocabularyTerm> suggestions = suggest(input, maxResults);
+            if (suggestions != null && !suggestions.isEmpty()) {
+                return suggestions;
+            }
+        }
         Map<String, String> options = this.getStaticSolrParams();
         if (!isId) {
             options.putAll(this.getStaticFieldSolrParams());
         }
+        SolrDocumentList docs = this.search(produceDynamicSolrParams(input, maxResults, sort, customFilter, isId),
+            options);
+        if (docs == null) {
+            return Collections.emptyList();
+        }
         List<VocabularyTerm> result = new LinkedList<>();
-        for (SolrDocument doc : this.search(produceDynamicSolrParams(input, maxResults, sort, customFilter, isId),
-            options)) {
+        for (SolrDocument doc : docs) {
             result.add(new SolrVocabularyTerm(doc, this));
         }
         return result;
     }
 
+    @Override
+    protected List<String> getAutocompleteFields()
+    {
+        return Arrays.asList(NAME, SYNONYM);
+    }
+
+    @Override
+    protected List<String> getAutocompleteDisplayFields()
+    {
+        // The fields read by the phenotype suggestion widgets, and the definition expected by other search clients
+        return Arrays.asList(ID_FIELD_NAME, NAME, SYNONYM, "def", "is_a", TERM_CATEGORY);
+    }
+
+    @Override
+    protected String getAutocompleteFilter()
+    {
+        return PHENOTYPIC_ABNORMALITY_FILTER;
+    }
+
     private Map<String, String> getStaticSolrParams()
     {
         Map<String, String> params = new HashMap<>();
@@ -150,7 +201,7 @@ private SolrParams produceDynamicSolrParams(String originalQuery, Integer rows,
             params.add(CommonParams.FQ, StringUtils.defaultIfBlank(customFq,
                 new MessageFormat("id:{0} alt_id:{0}").format(new String[] { escapedQuery })));
         } else {
-            params.add(CommonParams.FQ, StringUtils.defaultIfBlank(customFq, "term_category:HP\\:0000118"));
+            params.add(CommonParams.FQ, StringUtils.defaultIfBlank(customFq, PHENOTYPIC_ABNORMALITY_FILTER));
         }
         params.add(CommonParams.Q, escapedQuery);
         params.add(SpellingParams.SPELLCHECK_Q, query);
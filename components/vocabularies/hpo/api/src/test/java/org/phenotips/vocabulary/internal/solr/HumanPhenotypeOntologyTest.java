@@ -27,6 +27,9 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -45,10 +48,14 @@
 import org.mockito.ArgumentMatcher;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.mockito.internal.matchers.CapturingMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -169,6 +176,137 @@ public void testHumanPhenotypeOntologySuggestTermsMultipleWords() throws Compone
         verify(this.server).query(argThat(new IsDisMaxQuery()));
     }
 
+    @Test
+    public void searchReturnsFewerPrefixMatchesWithoutQueryingSolr() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        mockSearches(docs(doc("HP:0000175", "Cleft palate")), docs(doc("HP:0000175", "Cleft palate"),
+            doc("HP:0000204", "Cleft upper lip"), doc("HP:0100335", "Non-midline cleft lip")));
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search("cleft", 3, null, null);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("HP:0000175", result.get(0).getId());
+        verify(this.server, never()).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void searchFallsBackToSolrWithoutPrefixMatches() throws ComponentLookupException, SolrServerException,
+        IOException
+    {
+        mockSearches(docs(doc("HP:0000175", "Cleft palate")), docs(doc("HP:0000175", "Cleft palate"),
+            doc("HP:0000204", "Cleft upper lip")));
+
+        // Misspelled input doesn't match any indexed word
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search("cleft palete", 3, null, null);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0000175", result.get(0).getId());
+        Assert.assertEquals("HP:0000204", result.get(1).getId());
+        verify(this.server).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void searchDoesNotQuerySolrWhenPrefixMatchesAreEnough() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        mockSearches(docs(doc("HP:0000175", "Cleft palate"), doc("HP:0000204", "Cleft upper lip")), docs());
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search("cleft", 2, null, null);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("HP:0000175", result.get(0).getId());
+        Assert.assertEquals("HP:0000204", result.get(1).getId());
+        verify(this.server, never()).query(argThat(new IsDisMaxQuery()));
+    }
+
+    @Test
+    public void searchWithFieldsRequestsOnlyOnePageAndTheRequestedFields() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        CapturingMatcher<SolrParams> params = new CapturingMatcher<>();
+        when(this.server.query(argThat(params))).thenReturn(response);
+        when(response.getResults()).thenReturn(docs(doc("HP:0000175", "Cleft palate")));
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search(
+            Collections.singletonMap("is_a", "HP:0000202"), Arrays.asList("name", "is_a"), 20, 40);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("HP:0000175", result.get(0).getId());
+        Assert.assertEquals("Cleft palate", result.get(0).getName());
+        SolrParams sent = params.getLastValue();
+        Assert.assertEquals("+is_a:(HP\\:0000202)", sent.get(CommonParams.Q));
+        Assert.assertEquals("id name is_a", sent.get(CommonParams.FL));
+        Assert.assertEquals("20", sent.get(CommonParams.ROWS));
+        Assert.assertEquals("40", sent.get(CommonParams.START));
+        Assert.assertEquals("false", sent.get("spellcheck"));
+        // No spellchecked query
+        verify(this.server).query(any(SolrParams.class));
+    }
+
+    @Test
+    public void searchWithoutFieldsRequestsAllFields() throws ComponentLookupException, SolrServerException,
+        IOException
+    {
+        QueryResponse response = mock(QueryResponse.class);
+        CapturingMatcher<SolrParams> params = new CapturingMatcher<>();
+        when(this.server.query(argThat(params))).thenReturn(response);
+        when(response.getResults()).thenReturn(docs());
+
+        List<VocabularyTerm> result = this.mocker.getComponentUnderTest().search(
+            Collections.singletonMap("is_a", "HP:0000202"), null, 10, 0);
+
+        Assert.assertTrue(result.isEmpty());
+        Assert.assertEquals("* score", params.getLastValue().get(CommonParams.FL));
+    }
+
+    @Test
+    public void searchWithFieldsAndFailingServerReturnsEmptyList() throws ComponentLookupException,
+        SolrServerException, IOException
+    {
+        when(this.server.query(any(SolrParams.class))).thenThrow(new SolrServerException("Failed"));
+
+        Assert.assertTrue(this.mocker.getComponentUnderTest()
+            .search(Collections.singletonMap("is_a", "HP:0000202"), Arrays.asList("name"), 10, 0).isEmpty());
+    }
+
+    /**
+     * Answer the queries building the autocomplete index with {@code indexed}, and the full text searches with
+     * {@code found}.
+     */
+    private void mockSearches(final SolrDocumentList indexed, final SolrDocumentList found)
+        throws SolrServerException, IOException
+    {
+        when(this.server.query(any(SolrParams.class))).thenAnswer(new Answer<QueryResponse>()
+        {
+            @Override
+            public QueryResponse answer(InvocationOnMock invocation)
+            {
+                QueryResponse response = mock(QueryResponse.class);
+                SolrParams params = (SolrParams) invocation.getArguments()[0];
+                when(response.getResults()).thenReturn(params.get(DisMaxParams.PF) != null ? found : indexed);
+                return response;
+            }
+        });
+    }
+
+    private SolrDocumentList docs(SolrDocument... docs)
+    {
+        SolrDocumentList result = new SolrDocumentList();
+        result.addAll(Arrays.asList(docs));
+        result.setNumFound(docs.length);
+        return result;
+    }
+
+    private SolrDocument doc(String id, String name)
+    {
+        SolrDocument result = new SolrDocument();
+        result.setField("id", id);
+        result.setField("name", name);
+        return result;
+    }
+
     class IsDisMaxQuery extends ArgumentMatcher<SolrParams>
     {
         @Override
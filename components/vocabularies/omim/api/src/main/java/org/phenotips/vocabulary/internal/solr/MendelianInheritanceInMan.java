@@ -213,6 +213,7 @@ public synchronized int reindex(String sourceURL)
             this.logger.error("Failed to reindex OMIM: {}", ex.getMessage(), ex);
             return 1;
         }
+        reindexed();
         return 0;
     }
 
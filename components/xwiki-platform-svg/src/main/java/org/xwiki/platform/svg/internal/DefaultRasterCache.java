@@ -0,0 +1,342 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.platform.svg.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.slf4j.Logger;
+
+/**
+ * {@link RasterCache} storing the rasters in the permanent directory, named after the SHA-256 digest of the SVG
+ * content, size and format. The total size of the cache is bounded, and the least recently used rasters are evicted
+ * first; the access order is kept in the file modification dates, so that it survives restarts. Callers only get copies
+ * of the cached rasters, which are read from a stream opened while the raster cannot be evicted.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Component
+@Singleton
+public class DefaultRasterCache implements RasterCache, Initializable
+{
+    /** The maximum total size of the cached rasters, in bytes. */
+    private static final long MAX_CACHE_SIZE = 256L * 1024 * 1024;
+
+    private static final String RASTER_FILE_EXTENSION = ".png";
+
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    private static final String FORMAT = "image/png";
+
+    private static final float MAX_SIZE = 8192;
+
+    /** How many times a raster is rasterized again if it is evicted before it can be opened. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    private File cacheDir;
+
+    /** The maximum total size of the cached rasters, in bytes. */
+    private long maxCacheSize = MAX_CACHE_SIZE;
+
+    /** Digest to file size of the cached rasters, in access order; guarded by {@code this}. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The total size of the cached rasters, in bytes; guarded by {@code this}. */
+    private long totalSize;
+
+    /** Rasterizations currently running, so that concurrent requests for the same raster wait for the same result. */
+    private final ConcurrentMap<String, FutureTask<File>> inProgress = new ConcurrentHashMap<>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.cacheDir = new File(new File(this.environment.getPermanentDirectory(), "cache"), "svg");
+        this.cacheDir.mkdirs();
+        File[] files = this.cacheDir.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                return file.isFile();
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(RASTER_FILE_EXTENSION)) {
+                add(name.substring(0, name.length() - RASTER_FILE_EXTENSION.length()), file.length());
+            } else if (name.endsWith(TEMP_FILE_EXTENSION)) {
+                // Left behind by an interrupted rasterization
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    @Override
+    public File getRaster(String content, int width, int height, File directory) throws IOException
+    {
+        String digest = getDigest(content, Math.max(0, width), Math.max(0, height));
+        File out = new File(directory, digest + RASTER_FILE_EXTENSION);
+        if (out.isFile()) {
+            this.logger.debug("Reusing existing raster image: {}", out.getAbsolutePath());
+            return out;
+        }
+        directory.mkdirs();
+        // Copy under a temporary name first, so that the copy is never used while incomplete
+        File temp = File.createTempFile(digest, TEMP_FILE_EXTENSION, directory);
+        try {
+            try (InputStream in = open(digest, content, width, height)) {
+                Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        return out;
+    }
+
+    /**
+     * Open the cached raster, rasterizing it first if needed. Once opened, the raster can be read to the end even if it
+     * is evicted meanwhile.
+     */
+    private InputStream open(final String digest, final String content, final int width, final int height)
+        throws IOException
+    {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+            InputStream result = openCached(digest);
+            if (result != null) {
+                return result;
+            }
+
+            FutureTask<File> task = new FutureTask<>(new Callable<File>()
+            {
+                @Override
+                public File call() throws IOException
+                {
+                    // The raster may have been completed just before this task was registered
+                    File existing = lookup(digest);
+                    return existing != null ? existing : rasterize(digest, content, width, height);
+                }
+            });
+            FutureTask<File> running = this.inProgress.putIfAbsent(digest, task);
+            if (running == null) {
+                running = task;
+                try {
+                    task.run();
+                } finally {
+                    this.inProgress.remove(digest, task);
+                }
+            }
+            getResult(running);
+        }
+        throw new IOException("The SVG image was evicted from the cache before it could be read");
+    }
+
+    /**
+     * Open a cached raster. Eviction is guarded by the same lock, so the file cannot be deleted before it is opened.
+     *
+     * @return the opened raster, or {@code null} if it isn't cached
+     */
+    private synchronized InputStream openCached(String digest)
+    {
+        File file = lookup(digest);
+        if (file == null) {
+            return null;
+        }
+        try {
+            InputStream result = new FileInputStream(file);
+            this.logger.debug("Reusing cached raster image: {}", file.getAbsolutePath());
+            return result;
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+    }
+
+    private File rasterize(String digest, String content, int width, int height) throws IOException
+    {
+        File out = new File(this.cacheDir, digest + RASTER_FILE_EXTENSION);
+        File temp = File.createTempFile(digest, TEMP_FILE_EXTENSION, this.cacheDir);
+        try {
+            try (OutputStream fout = new FileOutputStream(temp)) {
+                this.logger.debug("Rasterizing to cache file: {}", out.getAbsolutePath());
+                transcode(content, fout, width, height);
+            }
+            Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        add(digest, out.length());
+        evict();
+        return out;
+    }
+
+    /**
+     * Transcode an SVG image into a PNG raster.
+     *
+     * @param content the SVG image
+     * @param out where to write the PNG raster
+     * @param width the desired width of the raster image, ignored if not positive
+     * @param height the desired height of the raster image, ignored if not positive
+     * @throws IOException if the image cannot be rasterized
+     */
+    void transcode(String content, OutputStream out, int width, int height) throws IOException
+    {
+        TranscoderInput input = new TranscoderInput(new StringReader(content));
+        TranscoderOutput output = new TranscoderOutput(out);
+        PNGTranscoder transcoder = new PNGTranscoder();
+
+        if (width > 0) {
+            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, new Float(width));
+        }
+        if (height > 0) {
+            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_HEIGHT, new Float(height));
+        }
+
+        // Set maximum width and height to 8k to avoid DoS attacks
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, new Float(MAX_SIZE));
+        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, new Float(MAX_SIZE));
+
+        try {
+            transcoder.transcode(input, output);
+        } catch (TranscoderException ex) {
+            // Don't cache broken rasters
+            throw new IOException("Failed to rasterize SVG image: " + ex.getMessage(), ex);
+        }
+    }
+
+    private synchronized File lookup(String digest)
+    {
+        if (this.entries.get(digest) == null) {
+            return null;
+        }
+        File file = new File(this.cacheDir, digest + RASTER_FILE_EXTENSION);
+        if (!file.isFile()) {
+            // Removed from outside the cache
+            this.totalSize -= this.entries.remove(digest);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private synchronized void add(String digest, long size)
+    {
+        Long previous = this.entries.put(digest, size);
+        this.totalSize += size - (previous != null ? previous : 0);
+    }
+
+    private synchronized void evict()
+    {
+        Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator();
+        // Always keep the most recent raster, even if it's larger than the whole cache
+        while (this.totalSize > this.maxCacheSize && this.entries.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            this.totalSize -= eldest.getValue();
+            File file = new File(this.cacheDir, eldest.getKey() + RASTER_FILE_EXTENSION);
+            if (!file.delete()) {
+                this.logger.debug("Failed to evict cached raster image: {}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    private File getResult(FutureTask<File> task) throws IOException
+    {
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the SVG image to be rasterized", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private String getDigest(String content, int width, int height) throws IOException
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            digest.update(("\n" + width + 'x' + height + '\n' + FORMAT).getBytes(StandardCharsets.UTF_8));
+            return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase(Locale.ROOT);
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 is always available
+            throw new IOException(ex);
+        }
+    }
+}
@@ -28,26 +28,20 @@
 import org.xwiki.resource.temporary.TemporaryResourceReference;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringReader;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.batik.transcoder.SVGAbstractTranscoder;
-import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 
 /**
- * The straight-forward implementation of the {@link SVGUtils} role.
+ * The straight-forward implementation of the {@link SVGUtils} role. Rasters are obtained from the {@link RasterCache}
+ * as copies placed in the temporary directory, or in the temporary resources of the target document.
  *
  * @version $Id$
  * @since 1.3M1
@@ -58,8 +52,6 @@ public class DefaultSVGUtils implements SVGUtils
 {
     private static final String TEMP_DIR_NAME = "svg";
 
-    private static final String RASTER_FILE_EXTENSION = ".png";
-
     @Inject
     private Logger logger;
 
@@ -76,12 +68,13 @@ public class DefaultSVGUtils implements SVGUtils
     @Inject
     private Container container;
 
+    @Inject
+    private RasterCache cache;
+
     @Override
     public File rasterizeToTemporaryFile(String content, int width, int height) throws IOException
     {
-        File out = getTempFile(content.hashCode());
-        rasterizeToFile(content, out, width, height);
-        return out;
+        return this.cache.getRaster(content, width, height, getBaseTempDir());
     }
 
     @Override
@@ -95,8 +88,7 @@ public TemporaryResourceReference rasterizeToTemporaryResource(String content, i
     public TemporaryResourceReference rasterizeToTemporaryResource(String content, int width, int height,
         DocumentReference targetContext) throws IOException
     {
-        File out = getContextTempFile(content.hashCode(), targetContext);
-        rasterizeToFile(content, out, width, height);
+        File out = this.cache.getRaster(content, width, height, getTempDir(targetContext));
         return new TemporaryResourceReference(TEMP_DIR_NAME, out.getName(), targetContext);
     }
 
@@ -115,52 +107,6 @@ public void rasterizeToResponse(String content, int width, int height) throws IO
         os.flush();
     }
 
-    private void rasterizeToFile(String content, File out, int width, int height) throws IOException
-    {
-        if (out.exists()) {
-            this.logger.debug("Reusing existing temporary raster image: {}", out.getAbsolutePath());
-            return;
-        }
-        try (OutputStream fout = new FileOutputStream(out)) {
-            this.logger.debug("Rasterizing to temp file: {}", out.getAbsolutePath());
-            TranscoderInput input = new TranscoderInput(new StringReader(content));
-            TranscoderOutput output = new TranscoderOutput(fout);
-            rasterize(input, output, width, height);
-        }
-    }
-
-    private void rasterize(TranscoderInput input, TranscoderOutput output, int width, int height)
-    {
-        PNGTranscoder transcoder = new PNGTranscoder();
-
-        if (width > 0) {
-            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, new Float(width));
-        }
-        if (height > 0) {
-            transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_HEIGHT, new Float(height));
-        }
-
-        // Set maximum width and height to 8k to avoid DoS attacks
-        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, new Float(8192));
-        transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, new Float(8192));
-
-        try {
-            transcoder.transcode(input, output);
-        } catch (TranscoderException ex) {
-            this.logger.warn("Failed to rasterize SVG image: {}", ex.getMessage());
-        }
-    }
-
-    private File getTempFile(int hashcode)
-    {
-        return new File(getBaseTempDir(), Math.abs(hashcode) + RASTER_FILE_EXTENSION);
-    }
-
-    private File getContextTempFile(int hashcode, DocumentReference targetContext)
-    {
-        return new File(getTempDir(targetContext), Math.abs(hashcode) + RASTER_FILE_EXTENSION);
-    }
-
     private File getTempDir(DocumentReference targetContext)
     {
         File tempDir = getBaseTempDir();
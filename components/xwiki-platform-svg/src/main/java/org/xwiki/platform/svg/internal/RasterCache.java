@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.platform.svg.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Bounded, content-addressed cache of rasterized SVG images. Rasters are identified by a strong digest of the SVG
+ * content together with the requested size and output format, so the same image is rasterized only once, even when it
+ * is requested concurrently, and is reused across restarts until it is evicted.
+ *
+ * @version $Id$
+ * @since 1.3M1
+ */
+@Role
+public interface RasterCache
+{
+    /**
+     * Get a copy of the PNG raster of an SVG image, rasterizing it only if it isn't already cached. Copies are named
+     * after the same digest as the cached rasters, so an existing copy in the target directory is reused as is.
+     *
+     * @param content the SVG image
+     * @param width the desired width of the raster image, in pixels; if 0 or a negative number, the image's native size
+     *            is used
+     * @param height the desired height of the raster image, in pixels; if 0 or a negative number, the image's native
+     *            size is used
+     * @param directory the directory where the copy is placed, created if missing
+     * @return the copy of the PNG raster, which belongs to the caller and is never evicted by the cache
+     * @throws IOException if the image cannot be rasterized, or the cache or target directories cannot be accessed
+     */
+    File getRaster(String content, int width, int height, File directory) throws IOException;
+}
@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.xwiki.platform.svg.internal;
+
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link DefaultRasterCache} component.
+ *
+ * @version $Id$
+ */
+public class DefaultRasterCacheTest
+{
+    private static final int SIZE = 100;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingRasterCache cache;
+
+    private Environment environment;
+
+    private File cacheDir;
+
+    @Before
+    public void setup() throws Exception
+    {
+        File permanentDir = this.folder.newFolder("permanent");
+        this.environment = mock(Environment.class);
+        when(this.environment.getPermanentDirectory()).thenReturn(permanentDir);
+        this.cacheDir = new File(new File(permanentDir, "cache"), "svg");
+        this.cache = createCache();
+    }
+
+    @Test
+    public void getRasterCopiesIntoTheTargetDirectory() throws IOException
+    {
+        File target = this.folder.newFolder("target");
+        File raster = this.cache.getRaster("<svg/>", 10, 20, target);
+
+        Assert.assertEquals(target, raster.getParentFile());
+        Assert.assertEquals(SIZE, raster.length());
+        Assert.assertTrue(new File(this.cacheDir, raster.getName()).isFile());
+        Assert.assertEquals(1, this.cache.transcodings.get());
+    }
+
+    @Test
+    public void getRasterReusesCachedRasters() throws IOException
+    {
+        File first = this.cache.getRaster("<svg/>", 10, 20, this.folder.newFolder("first"));
+        // Mark the cached raster, so that copying it can be told apart from rasterizing again
+        byte[] marker = "cached".getBytes(StandardCharsets.UTF_8);
+        Files.write(new File(this.cacheDir, first.getName()).toPath(), marker);
+
+        File second = this.cache.getRaster("<svg/>", 10, 20, this.folder.newFolder("second"));
+
+        Assert.assertEquals(first.getName(), second.getName());
+        Assert.assertArrayEquals(marker, Files.readAllBytes(second.toPath()));
+        Assert.assertEquals(1, this.cache.transcodings.get());
+    }
+
+    @Test
+    public void getRasterDistinguishesSizes() throws IOException
+    {
+        File target = this.folder.newFolder("target");
+        File first = this.cache.getRaster("<svg/>", 10, 20, target);
+        File second = this.cache.getRaster("<svg/>", 20, 10, target);
+
+        Assert.assertNotEquals(first.getName(), second.getName());
+        Assert.assertEquals(2, this.cache.transcodings.get());
+    }
+
+    @Test
+    public void concurrentRequestsWaitForTheRunningRasterization() throws Exception
+    {
+        this.cache.blocked = new CountDownLatch(1);
+        FutureTask<File> first = request(this.folder.newFolder("first"));
+        Thread firstThread = new Thread(first);
+        firstThread.start();
+        this.cache.started.await();
+
+        FutureTask<File> second = request(this.folder.newFolder("second"));
+        Thread secondThread = new Thread(second);
+        secondThread.start();
+        // Wait until the second request is parked on the running rasterization
+        while (secondThread.getState() != Thread.State.WAITING && !second.isDone()) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(second.isDone());
+
+        this.cache.blocked.countDown();
+        Assert.assertEquals(first.get().getName(), second.get().getName());
+        Assert.assertTrue(second.get().isFile());
+        Assert.assertEquals(1, this.cache.transcodings.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedRastersAreEvicted() throws Exception
+    {
+        ReflectionUtils.setFieldValue(this.cache, "maxCacheSize", SIZE * 5L / 2);
+        File target = this.folder.newFolder("target");
+
+        File first = this.cache.getRaster("<svg id='1'/>", 0, 0, target);
+        File second = this.cache.getRaster("<svg id='2'/>", 0, 0, target);
+        // Touch the first raster, so that the second one becomes the least recently used
+        this.cache.getRaster("<svg id='1'/>", 0, 0, this.folder.newFolder("again"));
+        File third = this.cache.getRaster("<svg id='3'/>", 0, 0, target);
+
+        Assert.assertTrue(new File(this.cacheDir, first.getName()).isFile());
+        Assert.assertFalse(new File(this.cacheDir, second.getName()).exists());
+        Assert.assertTrue(new File(this.cacheDir, third.getName()).isFile());
+        // Copies handed out earlier are not affected by the eviction
+        Assert.assertEquals(SIZE, second.length());
+        Assert.assertEquals(3, this.cache.transcodings.get());
+
+        // An evicted raster is rasterized again
+        this.cache.getRaster("<svg id='2'/>", 0, 0, this.folder.newFolder("evicted"));
+        Assert.assertEquals(4, this.cache.transcodings.get());
+    }
+
+    @Test
+    public void existingRastersAreLoadedOnInitialization() throws Exception
+    {
+        File raster = this.cache.getRaster("<svg/>", 0, 0, this.folder.newFolder("first"));
+        Files.write(new File(this.cacheDir, "interrupted.tmp").toPath(), new byte[SIZE]);
+
+        this.cache = createCache();
+
+        this.cache.getRaster("<svg/>", 0, 0, this.folder.newFolder("second"));
+        Assert.assertEquals(0, this.cache.transcodings.get());
+        Assert.assertTrue(new File(this.cacheDir, raster.getName()).isFile());
+        Assert.assertFalse(new File(this.cacheDir, "interrupted.tmp").exists());
+    }
+
+    private CountingRasterCache createCache() throws Exception
+    {
+        CountingRasterCache result = new CountingRasterCache();
+        ReflectionUtils.setFieldValue(result, "logger", mock(Logger.class));
+        ReflectionUtils.setFieldValue(result, "environment", this.environment);
+        result.initialize();
+        return result;
+    }
+
+    private FutureTask<File> request(final File target)
+    {
+        return new FutureTask<>(new Callable<File>()
+        {
+            @Override
+            public File call() throws IOException
+            {
+                return DefaultRasterCacheTest.this.cache.getRaster("<svg/>", 10, 20, target);
+            }
+        });
+    }
+
+    /** Writes fixed size rasters instead of transcoding, and counts how many rasterizations were needed. */
+    private static final class CountingRasterCache extends DefaultRasterCache
+    {
+        private final AtomicInteger transcodings = new AtomicInteger();
+
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        private volatile CountDownLatch blocked;
+
+        @Override
+        void transcode(String content, OutputStream out, int width, int height) throws IOException
+        {
+            this.transcodings.incrementAndGet();
+            this.started.countDown();
+            if (this.blocked != null) {
+                try {
+                    this.blocked.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(ex);
+                }
+            }
+            byte[] raster = new byte[SIZE];
+            Arrays.fill(raster, (byte) content.length());
+            out.write(raster);
+        }
+    }
+}